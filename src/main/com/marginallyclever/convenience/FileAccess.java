@@ -1,14 +1,21 @@
 package com.marginallyclever.convenience;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import com.marginallyclever.convenience.log.Log;
+
 /**
  * Methods to make loading files from disk or jar resource easier.
  * @author Dan Royer
@@ -35,6 +42,32 @@ public class FileAccess {
 	}
 	
 	
+	/**
+	 * Find the file on disk behind a filename, if there is one.  Files inside a zip or a packed jar have no
+	 * local file and must be read through {@link #open(String)}.
+	 * @param filename the file to find
+	 * @return the File, or null if the contents are not directly on disk.
+	 */
+	public static File getLocalFile(String filename) {
+		int index = filename.lastIndexOf(":");
+		int index2 = filename.lastIndexOf(":\\");  // hack for windows file system
+		if(index!=-1 && index!=index2) return null;
+		
+		URL url = FileAccess.class.getResource(filename);
+		if(url!=null) {
+			if(!url.getProtocol().equals("file")) return null;
+			try {
+				return new File(url.toURI());
+			} catch (URISyntaxException e) {
+				return null;
+			}
+		}
+		
+		File f = new File(filename);
+		return f.isFile() ? f : null;
+	}
+	
+	
 	private static InputStream getInputStream(String fname) throws IOException {
 		InputStream s = FileAccess.class.getResourceAsStream(fname);
 		if( s==null ) {
@@ -44,36 +77,176 @@ public class FileAccess {
 	}
 	
 	
+	/**
+	 * Open one entry of a zip.  Archives on disk are opened once with {@link ZipFile}, which reads the central
+	 * directory into an index, and kept open for the next entry.  Archives that are not on disk, such as a zip
+	 * inside a packed jar, are scanned and the entry is read into memory.
+	 */
 	private static BufferedInputStream loadFromZip(String zipName,String fname) throws IOException {
-		ZipInputStream zipFile=null;
-		ZipEntry entry;
+		File local = getLocalFile(zipName);
+		if(local==null) return loadFromZipStream(zipName,fname);
+
+		ZipArchive archive = getZipArchive(local);
+		try {
+			ZipEntry entry = archive.zipFile.getEntry(fname);
+			if(entry==null) throw new IOException("file not found in zip.");
+			return new BufferedInputStream(new ZipEntryStream(archive,archive.zipFile.getInputStream(entry)));
+		} catch(IOException e) {
+			releaseZipArchive(archive);
+			throw e;
+		}
+	}
+	
+	
+	private static BufferedInputStream loadFromZipStream(String zipName,String fname) throws IOException {
+		try(ZipInputStream zipFile = new ZipInputStream(getInputStream(zipName))) {
+			ZipEntry entry;
+			while((entry = zipFile.getNextEntry())!=null) {
+				if( entry.getName().equals(fname) ) {
+					return new BufferedInputStream(new ByteArrayInputStream(zipFile.readAllBytes()));
+				}
+			}
+		}
+		throw new IOException("file not found in zip.");
+	}
+	
+	
+	/**
+	 * Most recently used last.  Guarded by the lock on itself.
+	 */
+	private static final LinkedHashMap<String,ZipArchive> zipArchives = new LinkedHashMap<String,ZipArchive>(16,0.75f,true);
+	private static int maxOpenZipFiles = 8;
+	
+	/**
+	 * An open zip and the number of entry streams still reading from it.
+	 */
+	private static class ZipArchive {
+		final ZipFile zipFile;
+		final long lastModified;
+		int openStreams;
+		boolean evicted;
 		
-		zipFile = new ZipInputStream(getInputStream(zipName));
+		ZipArchive(File file) throws IOException {
+			zipFile = new ZipFile(file);
+			lastModified = file.lastModified();
+		}
+	}
+	
+	/**
+	 * Counts as one open stream on the archive until it is closed.
+	 */
+	private static class ZipEntryStream extends FilterInputStream {
+		private final ZipArchive archive;
+		private boolean closed;
 		
-		String fnameSuffix = fname.substring(fname.lastIndexOf(".")+1);
-		String fnameNoSuffix = fname.substring(0,fname.length()-(fnameSuffix.length()+1));
-
-		while((entry = zipFile.getNextEntry())!=null) {
-	        if( entry.getName().equals(fname) ) {
-		        // read buffered stream into temp file.
-		        File f = File.createTempFile(fnameNoSuffix, fnameSuffix);
-		        f.setReadable(true);
-		        f.setWritable(true);
-                f.deleteOnExit();
-		        FileOutputStream fos = new FileOutputStream(f);
-	    		byte[] buffer = new byte[2048];
-	    		int len;
-                while ((len = zipFile.read(buffer)) > 0) {
-                    fos.write(buffer, 0, len);
-                }
-                fos.close();
-		        // return temp file as input stream
-                return new BufferedInputStream(new FileInputStream(f));
-	        }
-	    }
-		    
-	    zipFile.close();
-
-	    throw new IOException("file not found in zip.");
+		ZipEntryStream(ZipArchive archive,InputStream in) {
+			super(in);
+			this.archive = archive;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(closed) return;
+			closed=true;
+			try {
+				super.close();
+			} finally {
+				releaseZipArchive(archive);
+			}
+		}
+	}
+	
+	/**
+	 * @return the open archive, with one more open stream.
+	 */
+	private static ZipArchive getZipArchive(File file) throws IOException {
+		String key = file.getAbsolutePath();
+		synchronized(zipArchives) {
+			ZipArchive archive = zipArchives.get(key);
+			if(archive!=null && archive.lastModified!=file.lastModified()) {
+				// changed on disk since it was opened.
+				evict(key);
+				archive=null;
+			}
+			if(archive==null) {
+				archive = new ZipArchive(file);
+				zipArchives.put(key, archive);
+				trimZipArchives();
+			}
+			archive.openStreams++;
+			return archive;
+		}
+	}
+	
+	private static void releaseZipArchive(ZipArchive archive) {
+		synchronized(zipArchives) {
+			archive.openStreams--;
+			if(archive.evicted && archive.openStreams==0) closeQuietly(archive);
+		}
+	}
+	
+	/**
+	 * Close the least recently used archives until no more than {@link #maxOpenZipFiles} are open.
+	 * Must hold the lock on zipArchives.
+	 */
+	private static void trimZipArchives() {
+		while(zipArchives.size()>maxOpenZipFiles) {
+			evict(zipArchives.keySet().iterator().next());
+		}
+	}
+	
+	/**
+	 * Archives still being read are closed when their last stream is closed.
+	 * Must hold the lock on zipArchives.
+	 */
+	private static void evict(String key) {
+		ZipArchive archive = zipArchives.remove(key);
+		if(archive==null) return;
+		archive.evicted=true;
+		if(archive.openStreams==0) closeQuietly(archive);
+	}
+	
+	private static void closeQuietly(ZipArchive archive) {
+		try {
+			archive.zipFile.close();
+		} catch(IOException e) {
+			Log.error("FileAccess could not close "+archive.zipFile.getName()+": "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param count the most zip archives to keep open between reads.  At least 1.
+	 */
+	public static void setMaxOpenZipFiles(int count) {
+		synchronized(zipArchives) {
+			maxOpenZipFiles = Math.max(1, count);
+			trimZipArchives();
+		}
+	}
+	
+	public static int getMaxOpenZipFiles() {
+		synchronized(zipArchives) {
+			return maxOpenZipFiles;
+		}
+	}
+	
+	/**
+	 * @return the number of zip archives held open.
+	 */
+	public static int getNumOpenZipFiles() {
+		synchronized(zipArchives) {
+			return zipArchives.size();
+		}
+	}
+	
+	/**
+	 * Close every zip archive kept open.  Streams still reading are closed when they finish.
+	 */
+	public static void closeZipFiles() {
+		synchronized(zipArchives) {
+			while(!zipArchives.isEmpty()) {
+				evict(zipArchives.keySet().iterator().next());
+			}
+		}
 	}
 }
@@ -0,0 +1,372 @@
+package com.marginallyclever.convenience;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Matrix4d;
+
+import com.marginallyclever.robotOverlord.shape.ConvexHull;
+
+/**
+ * Distance between two convex shapes with the Gilbert-Johnson-Keerthi algorithm.  When the shapes overlap the
+ * expanding polytope algorithm (EPA) finds how far they overlap.
+ * <p>
+ * Both work on the Minkowski difference A-B, which holds the origin when A and B touch.  Neither ever builds it;
+ * they only ask each shape for the point furthest in some direction.
+ * @author Dan Royer
+ */
+public class GJK {
+	private static final int MAX_ITERATIONS = 64;
+	// each step of EPA adds one point, and round shapes need many points to get close.
+	private static final int MAX_EPA_ITERATIONS = 256;
+	private static final double TOLERANCE = 1e-9;
+
+	// the Minkowski difference of two posed hulls.
+	private final ConvexHull a, b;
+	private final Matrix4d ma, mb;
+	private int hintA=-1, hintB=-1;
+	// if false, stop as soon as the shapes are known to touch.
+	private final boolean measureDepth;
+
+	// up to four points of A-B, x,y,z each.
+	private double [] simplex = new double[12];
+	private int size;
+
+	private GJK(ConvexHull a,Matrix4d ma,ConvexHull b,Matrix4d mb,boolean measureDepth) {
+		this.a=a;
+		this.b=b;
+		this.ma=ma;
+		this.mb=mb;
+		this.measureDepth=measureDepth;
+	}
+
+	/**
+	 * @param a hull A
+	 * @param ma pose of hull A
+	 * @param b hull B
+	 * @param mb pose of hull B
+	 * @return the distance between the hulls.  Zero if they touch.  Negative by how far they overlap.
+	 */
+	public static double distance(ConvexHull a,Matrix4d ma,ConvexHull b,Matrix4d mb) {
+		if(a.getNumVertices()==0 || b.getNumVertices()==0) return Double.MAX_VALUE;
+		return new GJK(a,ma,b,mb,true).run();
+	}
+
+	/**
+	 * Cheaper than {@link #distance(ConvexHull, Matrix4d, ConvexHull, Matrix4d)} when they touch, because it does not
+	 * measure how far.
+	 * @return true if the hulls touch.
+	 */
+	public static boolean intersects(ConvexHull a,Matrix4d ma,ConvexHull b,Matrix4d mb) {
+		if(a.getNumVertices()==0 || b.getNumVertices()==0) return false;
+		return new GJK(a,ma,b,mb,false).run()<=0;
+	}
+
+	/**
+	 * Put the point of A-B furthest along d in out.
+	 */
+	private void support(double dx,double dy,double dz,double [] out,int j) {
+		// a posed hull reaches furthest along d where the unposed hull reaches furthest along (rotation^T)d.
+		hintA = a.support(ma.m00*dx+ma.m10*dy+ma.m20*dz, ma.m01*dx+ma.m11*dy+ma.m21*dz, ma.m02*dx+ma.m12*dy+ma.m22*dz, hintA);
+		hintB = b.support(-(mb.m00*dx+mb.m10*dy+mb.m20*dz), -(mb.m01*dx+mb.m11*dy+mb.m21*dz), -(mb.m02*dx+mb.m12*dy+mb.m22*dz), hintB);
+		double ax = a.getVertexX(hintA), ay = a.getVertexY(hintA), az = a.getVertexZ(hintA);
+		double bx = b.getVertexX(hintB), by = b.getVertexY(hintB), bz = b.getVertexZ(hintB);
+		out[j  ] = (ma.m00*ax + ma.m01*ay + ma.m02*az + ma.m03) - (mb.m00*bx + mb.m01*by + mb.m02*bz + mb.m03);
+		out[j+1] = (ma.m10*ax + ma.m11*ay + ma.m12*az + ma.m13) - (mb.m10*bx + mb.m11*by + mb.m12*bz + mb.m13);
+		out[j+2] = (ma.m20*ax + ma.m21*ay + ma.m22*az + ma.m23) - (mb.m20*bx + mb.m21*by + mb.m22*bz + mb.m23);
+	}
+
+	private double run() {
+		double [] v = new double[3];
+		double [] w = new double[3];
+		support(1,0,0,simplex,0);
+		size=1;
+		v[0]=simplex[0];
+		v[1]=simplex[1];
+		v[2]=simplex[2];
+		double scale = Math.max(dot(v,0,v,0),1e-12);
+
+		for(int iteration=0;iteration<MAX_ITERATIONS;++iteration) {
+			double vv = dot(v,0,v,0);
+			if(vv<=TOLERANCE*TOLERANCE*scale) return penetration();
+
+			support(-v[0],-v[1],-v[2],w,0);
+			scale = Math.max(scale,dot(w,0,w,0));
+			// nothing of A-B reaches past the origin along -v, so the origin is outside.
+			if(!measureDepth && dot(v,0,w,0)>0) return Math.sqrt(vv);
+			// no point of A-B is closer to the origin than v by more than this.
+			if(vv-dot(v,0,w,0) <= TOLERANCE*vv) break;
+			if(contains(w)) break;
+
+			System.arraycopy(w,0,simplex,size*3,3);
+			size++;
+			if(!closest(v)) return penetration();
+		}
+		return Math.sqrt(dot(v,0,v,0));
+	}
+
+	private boolean contains(double [] w) {
+		for(int i=0;i<size;++i) {
+			if(simplex[i*3]==w[0] && simplex[i*3+1]==w[1] && simplex[i*3+2]==w[2]) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Find the point of the simplex closest to the origin and drop the simplex points not needed to reach it.
+	 * @param v receives the closest point.
+	 * @return false if the simplex holds the origin.
+	 */
+	private boolean closest(double [] v) {
+		switch(size) {
+		case 2: closestSegment(0,1,v);  return true;
+		case 3: closestTriangle(0,1,2,v);  return true;
+		case 4: return closestTetrahedron(v);
+		default:
+			System.arraycopy(simplex,0,v,0,3);
+			return true;
+		}
+	}
+
+	private void keep(int ... points) {
+		double [] s = new double[12];
+		for(int i=0;i<points.length;++i) System.arraycopy(simplex,points[i]*3,s,i*3,3);
+		simplex=s;
+		size=points.length;
+	}
+
+	private void closestSegment(int i,int j,double [] v) {
+		double [] ab = sub(j,i);
+		double t = -dot(simplex,i*3,ab,0);
+		double len = dot(ab,0,ab,0);
+		if(t<=0 || len==0) {
+			keep(i);
+			System.arraycopy(simplex,0,v,0,3);
+		} else if(t>=len) {
+			keep(j);
+			System.arraycopy(simplex,0,v,0,3);
+		} else {
+			t/=len;
+			for(int k=0;k<3;++k) v[k] = simplex[i*3+k] + ab[k]*t;
+			keep(i,j);
+		}
+	}
+
+	/**
+	 * Closest point on a triangle to the origin by Voronoi regions.  See Ericson, Real-Time Collision Detection, 5.1.5.
+	 */
+	private void closestTriangle(int i,int j,int k,double [] v) {
+		double [] ab = sub(j,i);
+		double [] ac = sub(k,i);
+		double [] ap = { -simplex[i*3], -simplex[i*3+1], -simplex[i*3+2] };
+		double d1 = dot(ab,0,ap,0), d2 = dot(ac,0,ap,0);
+		if(d1<=0 && d2<=0) { keep(i);  System.arraycopy(simplex,0,v,0,3);  return; }
+
+		double [] bp = { -simplex[j*3], -simplex[j*3+1], -simplex[j*3+2] };
+		double d3 = dot(ab,0,bp,0), d4 = dot(ac,0,bp,0);
+		if(d3>=0 && d4<=d3) { keep(j);  System.arraycopy(simplex,0,v,0,3);  return; }
+
+		double vc = d1*d4 - d3*d2;
+		if(vc<=0 && d1>=0 && d3<=0) { closestSegment(i,j,v);  return; }
+
+		double [] cp = { -simplex[k*3], -simplex[k*3+1], -simplex[k*3+2] };
+		double d5 = dot(ab,0,cp,0), d6 = dot(ac,0,cp,0);
+		if(d6>=0 && d5<=d6) { keep(k);  System.arraycopy(simplex,0,v,0,3);  return; }
+
+		double vb = d5*d2 - d1*d6;
+		if(vb<=0 && d2>=0 && d6<=0) { closestSegment(i,k,v);  return; }
+
+		double va = d3*d6 - d5*d4;
+		if(va<=0 && d4-d3>=0 && d5-d6>=0) { closestSegment(j,k,v);  return; }
+
+		double denominator = va+vb+vc;
+		if(denominator==0) { closestSegment(i,j,v);  return; }
+		double s = vb/denominator, t = vc/denominator;
+		for(int n=0;n<3;++n) v[n] = simplex[i*3+n] + ab[n]*s + ac[n]*t;
+		keep(i,j,k);
+	}
+
+	/**
+	 * @return false if the origin is inside the tetrahedron.
+	 */
+	private boolean closestTetrahedron(double [] v) {
+		int [][] sides = { {0,1,2,3},{0,2,3,1},{0,3,1,2},{1,3,2,0} };
+		double [] saved = simplex.clone();
+		double best = Double.MAX_VALUE;
+		double [] bestSimplex = null;
+		int bestSize=0;
+		double [] candidate = new double[3];
+		for(int [] s : sides) {
+			simplex = saved;
+			size=4;
+			if(!originOutside(s[0],s[1],s[2],s[3])) continue;
+			closestTriangle(s[0],s[1],s[2],candidate);
+			double d = dot(candidate,0,candidate,0);
+			if(d<best) {
+				best=d;
+				System.arraycopy(candidate,0,v,0,3);
+				bestSimplex=simplex;
+				bestSize=size;
+			}
+		}
+		if(bestSimplex==null) {
+			simplex=saved;
+			size=4;
+			return false;
+		}
+		simplex=bestSimplex;
+		size=bestSize;
+		return true;
+	}
+
+	/**
+	 * @return true if the origin and point d are on opposite sides of the plane through i,j,k.
+	 */
+	private boolean originOutside(int i,int j,int k,int d) {
+		double [] n = cross(sub(j,i),sub(k,i));
+		double [] toD = sub(d,i);
+		double signOrigin = -dot(n,0,simplex,i*3);
+		double signD = dot(n,0,toD,0);
+		// a flat tetrahedron has no inside.  every face might be closest.
+		if(signD*signD <= TOLERANCE*TOLERANCE*dot(n,0,n,0)*dot(toD,0,toD,0)) return true;
+		return signOrigin*signD < 0;
+	}
+
+	/**
+	 * The origin is inside A-B.  Grow the simplex into a tetrahedron if needed, then push its faces out to the
+	 * surface of A-B.  The closest face is how far the shapes overlap.
+	 * @return minus the overlap.
+	 */
+	private double penetration() {
+		if(!measureDepth || !fillTetrahedron()) return 0;
+
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for(int i=0;i<4;++i) points.add(new double[] { simplex[i*3], simplex[i*3+1], simplex[i*3+2] });
+		// each face is a,b,c, outward normal x,y,z, distance from origin.
+		ArrayList<double[]> faces = new ArrayList<double[]>();
+		int [][] start = { {0,1,2,3},{0,3,1,2},{1,3,2,0},{2,3,0,1} };
+		for(int [] s : start) {
+			double [] f = epaFace(points,s[0],s[1],s[2]);
+			if(f==null) return 0;
+			double [] opposite = points.get(s[3]);
+			if(f[3]*opposite[0] + f[4]*opposite[1] + f[5]*opposite[2] > f[6]) {
+				f = epaFace(points,s[0],s[2],s[1]);
+			}
+			faces.add(f);
+		}
+
+		double [] w = new double[3];
+		double depth=0;
+		for(int iteration=0;iteration<MAX_EPA_ITERATIONS;++iteration) {
+			double [] nearest = faces.get(0);
+			for(double [] f : faces) {
+				if(f[6]<nearest[6]) nearest=f;
+			}
+			depth = nearest[6];
+			support(nearest[3],nearest[4],nearest[5],w,0);
+			double reach = nearest[3]*w[0] + nearest[4]*w[1] + nearest[5]*w[2];
+			if(reach-depth <= TOLERANCE*Math.max(1,Math.abs(reach))) break;
+
+			int index = points.size();
+			points.add(w.clone());
+			// remove every face that can see w and fill the hole with faces to w.
+			ArrayList<int[]> horizon = new ArrayList<int[]>();
+			for(int f=faces.size()-1;f>=0;--f) {
+				double [] face = faces.get(f);
+				if(face[3]*w[0] + face[4]*w[1] + face[5]*w[2] - face[6] <= 0) continue;
+				for(int e=0;e<3;++e) {
+					int from = (int)face[e], to = (int)face[(e+1)%3];
+					// an edge shared by two removed faces is not on the horizon.
+					boolean shared=false;
+					for(int h=0;h<horizon.size();++h) {
+						if(horizon.get(h)[0]==to && horizon.get(h)[1]==from) {
+							horizon.remove(h);
+							shared=true;
+							break;
+						}
+					}
+					if(!shared) horizon.add(new int[] {from,to});
+				}
+				faces.remove(f);
+			}
+			for(int [] e : horizon) {
+				double [] f = epaFace(points,e[0],e[1],index);
+				if(f!=null) faces.add(f);
+			}
+			if(faces.isEmpty()) break;
+		}
+		return -Math.max(depth,0);
+	}
+
+	private static double [] epaFace(ArrayList<double[]> points,int i,int j,int k) {
+		double [] a = points.get(i), b = points.get(j), c = points.get(k);
+		double [] n = cross(
+				new double[] { b[0]-a[0], b[1]-a[1], b[2]-a[2] },
+				new double[] { c[0]-a[0], c[1]-a[1], c[2]-a[2] });
+		double len = Math.sqrt(dot(n,0,n,0));
+		if(len==0) return null;
+		return new double[] { i, j, k, n[0]/len, n[1]/len, n[2]/len, (n[0]*a[0]+n[1]*a[1]+n[2]*a[2])/len };
+	}
+
+	/**
+	 * Add support points until the simplex has volume.
+	 * @return false if A-B is flat, in which case there is no depth to measure.
+	 */
+	private boolean fillTetrahedron() {
+		double [][] directions = { {1,0,0},{-1,0,0},{0,1,0},{0,-1,0},{0,0,1},{0,0,-1} };
+		double [] w = new double[3];
+		while(size<4) {
+			boolean grew=false;
+			double [][] tries = directions;
+			if(size==3) {
+				double [] n = cross(sub(1,0),sub(2,0));
+				tries = new double[][] { n, { -n[0], -n[1], -n[2] } };
+			}
+			for(double [] d : tries) {
+				support(d[0],d[1],d[2],w,0);
+				if(addsDimension(w)) {
+					System.arraycopy(w,0,simplex,size*3,3);
+					size++;
+					grew=true;
+					break;
+				}
+			}
+			if(!grew) return false;
+		}
+		return true;
+	}
+
+	private boolean addsDimension(double [] w) {
+		double [] d = { w[0]-simplex[0], w[1]-simplex[1], w[2]-simplex[2] };
+		double len = dot(d,0,d,0);
+		if(len<=TOLERANCE*TOLERANCE) return false;
+		if(size==1) return true;
+		double [] c = cross(sub(1,0),d);
+		if(size==2) return dot(c,0,c,0) > TOLERANCE*TOLERANCE*len*dot(sub(1,0),0,sub(1,0),0);
+		double [] n = cross(sub(1,0),sub(2,0));
+		double h = dot(n,0,d,0);
+		return h*h > TOLERANCE*TOLERANCE*len*dot(n,0,n,0);
+	}
+
+	/**
+	 * @return simplex point i minus simplex point j.
+	 */
+	private double [] sub(int i,int j) {
+		return new double[] {
+			simplex[i*3  ]-simplex[j*3  ],
+			simplex[i*3+1]-simplex[j*3+1],
+			simplex[i*3+2]-simplex[j*3+2],
+		};
+	}
+
+	private static double [] cross(double [] u,double [] v) {
+		return new double[] {
+			u[1]*v[2] - u[2]*v[1],
+			u[2]*v[0] - u[0]*v[2],
+			u[0]*v[1] - u[1]*v[0],
+		};
+	}
+
+	private static double dot(double [] u,int i,double [] v,int j) {
+		return u[i]*v[j] + u[i+1]*v[j+1] + u[i+2]*v[j+2];
+	}
+}
@@ -0,0 +1,206 @@
+package com.marginallyclever.convenience;
+
+import java.util.Arrays;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * {@link GLStateCache} remembers the OpenGL state it has set and skips calls that would not change it.  It never
+ * asks the driver, as glGet and glIsEnabled can stall until the GPU catches up.  Until a value has been set
+ * through the cache it is unknown and the call always goes through.
+ * <p>
+ * Anything that changes the same state without the cache must be followed by {@link #invalidate()}.
+ * @author Dan Royer
+ */
+public class GLStateCache {
+	private static final int UNKNOWN = -1;
+	// the capabilities that are cached.  others always go through.
+	private static final int [] CAPABILITIES = {
+		GL2.GL_LIGHTING,
+		GL2.GL_TEXTURE_2D,
+		GL2.GL_COLOR_MATERIAL,
+		GL2.GL_BLEND,
+		GL2.GL_CULL_FACE,
+		GL2.GL_DEPTH_TEST,
+	};
+	// the material parameters that are cached, all on GL_FRONT.
+	private static final int [] MATERIAL_PARAMETERS = {
+		GL2.GL_AMBIENT,
+		GL2.GL_DIFFUSE,
+		GL2.GL_SPECULAR,
+		GL2.GL_EMISSION,
+	};
+
+	// 0 off, 1 on, or UNKNOWN.
+	private int [] enabled = new int[CAPABILITIES.length];
+	private float [] color = new float[4];
+	private boolean isColorKnown;
+	private float [][] material = new float[MATERIAL_PARAMETERS.length][4];
+	private boolean [] isMaterialKnown = new boolean[MATERIAL_PARAMETERS.length];
+	private float shininess;
+	private boolean isShininessKnown;
+	private int shadeModel;
+	private int colorMaterialMode;
+	private int boundTexture;
+
+	private long numChanges;
+	private long numSkipped;
+
+	public GLStateCache() {
+		invalidate();
+	}
+
+	/**
+	 * Forget everything.  The next call of each kind goes through.
+	 */
+	public void invalidate() {
+		Arrays.fill(enabled, UNKNOWN);
+		isColorKnown = false;
+		Arrays.fill(isMaterialKnown, false);
+		isShininessKnown = false;
+		shadeModel = UNKNOWN;
+		colorMaterialMode = UNKNOWN;
+		boundTexture = UNKNOWN;
+	}
+
+	/**
+	 * Forget the current color, as after drawing with a color array.
+	 */
+	public void forgetColor() {
+		isColorKnown = false;
+	}
+
+	private static int indexOf(int [] list,int value) {
+		for(int i=0;i<list.length;++i) {
+			if(list[i]==value) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * glEnable or glDisable, if it would change anything.
+	 * @param gl2 the render context
+	 * @param capability such as GL_LIGHTING
+	 * @param state true to enable
+	 */
+	public void setEnabled(GL2 gl2,int capability,boolean state) {
+		int i = indexOf(CAPABILITIES,capability);
+		int value = state ? 1 : 0;
+		if(i>=0) {
+			if(enabled[i]==value) {
+				numSkipped++;
+				return;
+			}
+			enabled[i]=value;
+		}
+		if(state) gl2.glEnable(capability);
+		else gl2.glDisable(capability);
+		numChanges++;
+	}
+
+	/**
+	 * @param capability such as GL_LIGHTING
+	 * @return true if the capability was last enabled through this cache.  False if disabled or unknown.
+	 */
+	public boolean isEnabled(int capability) {
+		int i = indexOf(CAPABILITIES,capability);
+		return i>=0 && enabled[i]==1;
+	}
+
+	public void setColor(GL2 gl2,float [] rgba) {
+		if(isColorKnown && Arrays.equals(color,rgba)) {
+			numSkipped++;
+			return;
+		}
+		System.arraycopy(rgba, 0, color, 0, 4);
+		isColorKnown = true;
+		gl2.glColor4fv(rgba, 0);
+		numChanges++;
+	}
+
+	/**
+	 * glMaterialfv on GL_FRONT, if it would change anything.
+	 * @param gl2 the render context
+	 * @param parameter one of GL_AMBIENT, GL_DIFFUSE, GL_SPECULAR, or GL_EMISSION.
+	 * @param rgba the new value
+	 */
+	public void setMaterial(GL2 gl2,int parameter,float [] rgba) {
+		int i = indexOf(MATERIAL_PARAMETERS,parameter);
+		if(i>=0) {
+			if(isMaterialKnown[i] && Arrays.equals(material[i],rgba)) {
+				numSkipped++;
+				return;
+			}
+			System.arraycopy(rgba, 0, material[i], 0, 4);
+			isMaterialKnown[i] = true;
+		}
+		gl2.glMaterialfv(GL2.GL_FRONT, parameter, rgba, 0);
+		numChanges++;
+	}
+
+	public void setShininess(GL2 gl2,float value) {
+		if(isShininessKnown && shininess==value) {
+			numSkipped++;
+			return;
+		}
+		shininess = value;
+		isShininessKnown = true;
+		gl2.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, value);
+		numChanges++;
+	}
+
+	public void setShadeModel(GL2 gl2,int mode) {
+		if(shadeModel==mode) {
+			numSkipped++;
+			return;
+		}
+		shadeModel = mode;
+		gl2.glShadeModel(mode);
+		numChanges++;
+	}
+
+	/**
+	 * glColorMaterial on GL_FRONT, if it would change anything.
+	 */
+	public void setColorMaterial(GL2 gl2,int mode) {
+		if(colorMaterialMode==mode) {
+			numSkipped++;
+			return;
+		}
+		colorMaterialMode = mode;
+		gl2.glColorMaterial(GL2.GL_FRONT, mode);
+		numChanges++;
+	}
+
+	/**
+	 * glBindTexture on GL_TEXTURE_2D, if it would change anything.
+	 */
+	public void bindTexture(GL2 gl2,int textureId) {
+		if(boundTexture==textureId) {
+			numSkipped++;
+			return;
+		}
+		boundTexture = textureId;
+		gl2.glBindTexture(GL2.GL_TEXTURE_2D, textureId);
+		numChanges++;
+	}
+
+	/**
+	 * @return the number of calls sent to OpenGL since {@link #resetCounts()}.
+	 */
+	public long getNumChanges() {
+		return numChanges;
+	}
+
+	/**
+	 * @return the number of calls skipped because nothing would change, since {@link #resetCounts()}.
+	 */
+	public long getNumSkipped() {
+		return numSkipped;
+	}
+
+	public void resetCounts() {
+		numChanges = 0;
+		numSkipped = 0;
+	}
+}
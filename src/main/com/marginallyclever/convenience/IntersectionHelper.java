@@ -4,7 +4,9 @@ import javax.vecmath.Matrix4d;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 
+import com.marginallyclever.robotOverlord.shape.ConvexHull;
 import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshBVH;
 
 
 /**
@@ -150,6 +152,28 @@ public class IntersectionHelper {
 	}
 	
 	
+	/**
+	 * {@link Cuboid}/{@link Cuboid} intersection, then {@link ConvexHull}/{@link ConvexHull} intersection of their
+	 * shapes.  The hull of an L shaped part is much tighter than its box.  If either has no shape the box is all
+	 * there is to go on.
+	 * @param a cuboid A
+	 * @param b cuboid B
+	 * @return true if the hulls intersect.
+	 */
+	static public boolean cuboidCuboidHull(Cuboid a,Cuboid b) {
+		if(!cuboidCuboid(a,b)) return false;
+		
+		Mesh sa = a.getShape();
+		Mesh sb = b.getShape();
+		if(sa==null || sb==null) return true;
+
+		Matrix4d ma = new Matrix4d();
+		Matrix4d mb = new Matrix4d();
+		a.getPose(ma);
+		b.getPose(mb);
+		return GJK.intersects(sa.getConvexHull(),ma,sb.getConvexHull(),mb);
+	}
+	
 	static protected boolean cuboidCuboidInternal(Cuboid a,Cuboid b) {
 		// get the normals for A
 		Vector3d[] n = new Vector3d[3];
@@ -265,12 +289,39 @@ public class IntersectionHelper {
 	}
 
 	/**
-	 * TODO mesh / mesh intersection
+	 * mesh / mesh intersection.  Walks the {@link MeshBVH} of both meshes and stops at the first pair of touching
+	 * triangles.
+	 * @param ma pose of mesh A
+	 * @param sa mesh A
+	 * @param mb pose of mesh B
+	 * @param sb mesh B
 	 * @return true if the two mesh intersect.
 	 */
 	public static boolean meshMesh(final Matrix4d ma, final Mesh sa, final Matrix4d mb, final Mesh sb) {
+		if(sa==null || sb==null) return false;
+		
+		// move B into the space of A, so only one side has to be transformed.
+		Matrix4d bToA = new Matrix4d(ma);
+		bToA.invert();
+		bToA.mul(mb);
+		return sa.getBVH().intersects(sb.getBVH(), bToA);
+	}
 
-		return false;
+	/**
+	 * ray/mesh intersection.
+	 * @param ray in world space
+	 * @param pose pose of the mesh
+	 * @param mesh the mesh
+	 * @return distance to first hit, in units of ray.direction.  negative values for no hit/behind start.
+	 */
+	static public double rayMesh(final Ray ray,final Matrix4d pose,final Mesh mesh) {
+		Matrix4d iPose = new Matrix4d(pose);
+		iPose.invert();
+		// the direction is moved without normalizing, so distances along it are the same in both spaces.
+		Ray local = new Ray();
+		iPose.transform(ray.start,local.start);
+		iPose.transform(ray.direction,local.direction);
+		return mesh.getBVH().intersect(local);
 	}
 
 
@@ -29,15 +29,9 @@ public class MatrixHelper {
 		gl2.glDisable(GL2.GL_LIGHTING);
 		
 		gl2.glPushMatrix();
-			gl2.glTranslated(m.m03,m.m13,m.m23);
+			applyMatrix(gl2,m);
 			gl2.glScaled(scale, scale, scale);
-			
-			gl2.glBegin(GL2.GL_LINES);
-			gl2.glColor3f(1,0,0);		gl2.glVertex3f(0,0,0);		gl2.glVertex3d(m.m00,m.m10,m.m20);  // 1,0,0 = red
-			gl2.glColor3f(0,1,0);		gl2.glVertex3f(0,0,0);		gl2.glVertex3d(m.m01,m.m11,m.m21);  // 0,1,0 = green 
-			gl2.glColor3f(0,0,1);		gl2.glVertex3f(0,0,0);		gl2.glVertex3d(m.m02,m.m12,m.m22);  // 0,0,1 = blue
-			gl2.glEnd();
-	
+			getAxes(false).render(gl2);
 		gl2.glPopMatrix();
 		if(lightWasOn) gl2.glEnable(GL2.GL_LIGHTING);
 		if(depthWasOn) gl2.glEnable(GL2.GL_DEPTH_TEST);
@@ -62,20 +56,39 @@ public class MatrixHelper {
 		gl2.glDisable(GL2.GL_LIGHTING);
 		
 		gl2.glPushMatrix();
-			gl2.glTranslated(m.m03,m.m13,m.m23);
+			applyMatrix(gl2,m);
 			gl2.glScaled(scale, scale, scale);
-			
-			gl2.glBegin(GL2.GL_LINES);
-			gl2.glColor3f(1,1,0);		gl2.glVertex3f(0,0,0);		gl2.glVertex3d(m.m00,m.m10,m.m20);  // 1,1,0 = yellow
-			gl2.glColor3f(0,1,1);		gl2.glVertex3f(0,0,0);		gl2.glVertex3d(m.m01,m.m11,m.m21);  // 0,1,1 = teal 
-			gl2.glColor3f(1,0,1);		gl2.glVertex3f(0,0,0);		gl2.glVertex3d(m.m02,m.m12,m.m22);  // 1,0,1 = magenta
-			gl2.glEnd();
-	
+			getAxes(true).render(gl2);
 		gl2.glPopMatrix();
 		if(lightWasOn) gl2.glEnable(GL2.GL_LIGHTING);
 		if(depthWasOn) gl2.glEnable(GL2.GL_DEPTH_TEST);
 	}
 
+	/**
+	 * Lines from the origin along x, y, and z, each 1 long.  Shared, so they are built once.
+	 * @param alternateColors yellow, teal, and magenta instead of red, green, and blue.
+	 * @return the lines
+	 */
+	static RetainedGeometry getAxes(boolean alternateColors) {
+		String key = alternateColors ? "axes2" : "axes";
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
+
+		g = new RetainedGeometry();
+		g.begin(GL2.GL_LINES);
+		if(alternateColors) {
+			g.color(1,1,0);		g.vertex(0,0,0);		g.vertex(1,0,0);  // 1,1,0 = yellow
+			g.color(0,1,1);		g.vertex(0,0,0);		g.vertex(0,1,0);  // 0,1,1 = teal 
+			g.color(1,0,1);		g.vertex(0,0,0);		g.vertex(0,0,1);  // 1,0,1 = magenta
+		} else {
+			g.color(1,0,0);		g.vertex(0,0,0);		g.vertex(1,0,0);  // 1,0,0 = red
+			g.color(0,1,0);		g.vertex(0,0,0);		g.vertex(0,1,0);  // 0,1,0 = green 
+			g.color(0,0,1);		g.vertex(0,0,0);		g.vertex(0,0,1);  // 0,0,1 = blue
+		}
+		g.end();
+		return RetainedGeometry.put(key,g);
+	}
+
 	/**
 	 * See drawMatrix(gl2,p,u,v,w,1)
 	 */
@@ -1,7 +1,4 @@
 package com.marginallyclever.convenience;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 import com.jogamp.opengl.GL2;
@@ -9,52 +6,72 @@ import com.jogamp.opengl.GL2;
 
 public class PrimitiveSolids {
 	static public void drawCircleYZ(GL2 gl2,double radius,int steps) {
-		double stepSize = Math.PI*2 / (double)(steps+1);
-		
-		gl2.glBegin(GL2.GL_LINE_LOOP);
-		for(double n=0;n<Math.PI*2;n+=stepSize) {
-			double c = Math.cos(n);
-			double s = Math.sin(n);
-			gl2.glVertex3d(0,c*radius, s*radius);
-		}
-		gl2.glEnd();
+		drawCircle(gl2,radius,getCircle(steps,0));
 	}
 	
 	static public void drawCircleXZ(GL2 gl2,double radius,int steps) {
-		double stepSize = Math.PI*2 / (double)(steps+1);
-		
-		gl2.glBegin(GL2.GL_LINE_LOOP);
-		for(double n=0;n<Math.PI*2;n+=stepSize) {
-			double c = Math.cos(n);
-			double s = Math.sin(n);
-			gl2.glVertex3d(c*radius,0, s*radius);
-		}
-		gl2.glEnd();
+		drawCircle(gl2,radius,getCircle(steps,1));
 	}
 	
 	static public void drawCircleXY(GL2 gl2,double radius,int steps) {
-		double stepSize = Math.PI*2 / (double)(steps+1);
+		drawCircle(gl2,radius,getCircle(steps,2));
+	}
+	
+	static private void drawCircle(GL2 gl2,double radius,RetainedGeometry circle) {
+		gl2.glPushMatrix();
+		gl2.glScaled(radius,radius,radius);
+		circle.render(gl2);
+		gl2.glPopMatrix();
+	}
+	
+	/**
+	 * @param steps quality of the circle
+	 * @param axis the circle is around this axis, 0 for x, 1 for y, 2 for z.
+	 * @return a shared circle of radius 1.
+	 */
+	static private RetainedGeometry getCircle(int steps,int axis) {
+		String key = "circle"+axis+"/"+steps;
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
 		
-		gl2.glBegin(GL2.GL_LINE_LOOP);
+		g = new RetainedGeometry();
+		double stepSize = Math.PI*2 / (double)(steps+1);
+		g.begin(GL2.GL_LINE_LOOP);
 		for(double n=0;n<Math.PI*2;n+=stepSize) {
 			double c = Math.cos(n);
 			double s = Math.sin(n);
-			gl2.glVertex3d(c*radius, s*radius,0);
+			switch(axis) {
+			case 0:  g.vertex(0,c,s);  break;
+			case 1:  g.vertex(c,0,s);  break;
+			default: g.vertex(c,s,0);  break;
+			}
 		}
-		gl2.glEnd();
+		g.end();
+		return RetainedGeometry.put(key,g);
 	}
 	
 	/**
 	 * draw a sphere with a given radius.
 	 * TODO expose quality parameters?
-	 * TODO generate a sphere once as a shape, return that.
 	 * See https://www.gamedev.net/forums/topic/537269-procedural-sphere-creation/4469427/
 	 * @param gl2
 	 * @param radius
 	 */
 	static public void drawSphere(GL2 gl2,double radius) {
-		int width = 32;
-		int height = 16;
+		RetainedGeometry g = getSphere(32,16);
+		gl2.glPushMatrix();
+		gl2.glScaled(radius,radius,radius);
+		g.render(gl2);
+		gl2.glPopMatrix();
+	}
+	
+	/**
+	 * @return a shared sphere of radius 1.
+	 */
+	static private RetainedGeometry getSphere(int width,int height) {
+		String key = "sphere"+width+"x"+height;
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
 		
 		double theta, phi;
 		int i, j, t;
@@ -62,11 +79,8 @@ public class PrimitiveSolids {
 		int nvec = (height-2)* width + 2;
 		int ntri = (height-2)*(width-1)*2;
 
-		FloatBuffer vertices = FloatBuffer.allocate(nvec * 3);
-		IntBuffer indexes = IntBuffer.allocate(ntri * 3);
-
-		float [] dat = vertices.array();
-		int   [] idx = indexes.array();
+		float [] dat = new float[nvec * 3];
+		int   [] idx = new int[ntri * 3];
 		
 		for( t=0, j=1; j<height-1; j++ ) {
 			for(i=0; i<width; i++ )  {
@@ -104,30 +118,16 @@ public class PrimitiveSolids {
 			idx[t++] = (height-3)*width + i;
 		}
 
-		int NUM_BUFFERS=1;
-		int[] VBO = new int[NUM_BUFFERS];
-		gl2.glGenBuffers(NUM_BUFFERS, VBO, 0);
-		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[0]);
-	    // Write out vertex buffer to the currently bound VBO.
-		int s=(Float.SIZE/8);  // bits per float / bits per byte = bytes per float
-	    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, dat.length*s, vertices, GL2.GL_STATIC_DRAW);
-	    
-	    
-		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-		gl2.glVertexPointer(3,GL2.GL_FLOAT,0,0);
-		
-		gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-		gl2.glNormalPointer(GL2.GL_FLOAT,0,0);
-
-		gl2.glPushMatrix();
-		gl2.glScaled(radius,radius,radius);
-		gl2.glDrawElements(GL2.GL_TRIANGLES, ntri*3, GL2.GL_UNSIGNED_INT, indexes );
-		gl2.glPopMatrix();
-		
-		gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
-		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
-		
-		gl2.glDeleteBuffers(NUM_BUFFERS, VBO, 0);
+		// on a sphere of radius 1 the normal is the same as the position.
+		g = new RetainedGeometry();
+		g.begin(GL2.GL_TRIANGLES);
+		for(t=0;t<idx.length;++t) {
+			int v = idx[t]*3;
+			g.normal(dat[v],dat[v+1],dat[v+2]);
+			g.vertex(dat[v],dat[v+1],dat[v+2]);
+		}
+		g.end();
+		return RetainedGeometry.put(key,g);
 	}
 	
 	static public void drawCylinder(GL2 gl2,Cylinder tube) {
@@ -207,42 +207,53 @@ public class PrimitiveSolids {
 	}
 
 	static public void drawCylinder(GL2 gl2,float thickness,float radius) {
-		int i;
-		int c=36;
+		RetainedGeometry g = getCylinder(36);
+		gl2.glPushMatrix();
+		gl2.glScaled(radius,thickness,radius);
+		g.render(gl2);
+		gl2.glPopMatrix();
+	}
+	
+	/**
+	 * @param c number of sides
+	 * @return a shared cylinder of radius 1 from y=-1 to y=1.
+	 */
+	static private RetainedGeometry getCylinder(int c) {
+		String key = "cylinder"+c;
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
 		
+		g = new RetainedGeometry();
+		int i;
 		// left
-		gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-		gl2.glNormal3f(0,1,0);
+		g.begin(GL2.GL_TRIANGLE_FAN);
+		g.normal(0,1,0);
 		for(i=0;i<=c;++i) {
 			float ratio= (float)Math.PI * 2.0f * (float)i/(float)c;
-			gl2.glVertex3d((float)Math.sin(ratio)*radius,
-							thickness,
-							(float)Math.cos(ratio)*radius);
+			g.vertex((float)Math.sin(ratio),1,(float)Math.cos(ratio));
 		}
-		gl2.glEnd();
+		g.end();
 		// right
-		gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-		gl2.glNormal3f(0,-1,0);
+		g.begin(GL2.GL_TRIANGLE_FAN);
+		g.normal(0,-1,0);
 		for(i=0;i<=c;++i) {
 			float ratio= (float)Math.PI * 2.0f * (float)i/(float)c;
-			gl2.glVertex3d((float)Math.cos(ratio)*radius,
-							-thickness,
-							(float)Math.sin(ratio)*radius);
+			g.vertex((float)Math.cos(ratio),-1,(float)Math.sin(ratio));
 		}
-		gl2.glEnd();
+		g.end();
 
 		// edge
-		gl2.glBegin(GL2.GL_TRIANGLE_STRIP);
+		g.begin(GL2.GL_TRIANGLE_STRIP);
 		for(i=0;i<=c;++i) {
 			float ratio= (float)Math.PI * 2.0f * (float)i/(float)c;
-			float a=(float)Math.sin(ratio)*radius;
-			float b=thickness;
-			float d=(float)Math.cos(ratio)*radius;
-			gl2.glNormal3f(a,0,d);
-			gl2.glVertex3d(a,b,d);
-			gl2.glVertex3d(a,-b,d);
+			float a=(float)Math.sin(ratio);
+			float d=(float)Math.cos(ratio);
+			g.normal(a,0,d);
+			g.vertex(a, 1,d);
+			g.vertex(a,-1,d);
 		}
-		gl2.glEnd();
+		g.end();
+		return RetainedGeometry.put(key,g);
 	}
 	
 	/**
@@ -253,53 +264,11 @@ public class PrimitiveSolids {
 	 * @param height
 	 */
 	static public void drawBox(GL2 gl2,double depth,double width,double height) {
-		width/=2;
-		depth/=2;
-
+		RetainedGeometry g = getBox(GL2.GL_QUADS);
 		gl2.glPushMatrix();
-		gl2.glBegin(GL2.GL_QUADS);
-		// bottom
-		gl2.glNormal3f( 0, 0,-1);
-		gl2.glVertex3d(-width, depth,0);
-		gl2.glVertex3d( width, depth,0);
-		gl2.glVertex3d( width,-depth,0);
-		gl2.glVertex3d(-width,-depth,0);
-
-		// top
-		gl2.glNormal3f( 0, 0, 1);
-		gl2.glVertex3d( width, depth,height);
-		gl2.glVertex3d(-width, depth,height);
-		gl2.glVertex3d(-width,-depth,height);
-		gl2.glVertex3d( width,-depth,height);
-
-		
-		// side
-		gl2.glNormal3f( 0, 1, 0);
-		gl2.glVertex3d(-width, depth,height);
-		gl2.glVertex3d( width, depth,height);
-		gl2.glVertex3d( width, depth,0);
-		gl2.glVertex3d(-width, depth,0);
-		
-		gl2.glNormal3f( 0,-1, 0);
-		gl2.glVertex3d( width,-depth,height);
-		gl2.glVertex3d(-width,-depth,height);
-		gl2.glVertex3d(-width,-depth,0);
-		gl2.glVertex3d( width,-depth,0);
-
-		gl2.glNormal3f( 1, 0, 0);
-		gl2.glVertex3d( width, depth,0);
-		gl2.glVertex3d( width, depth,height);
-		gl2.glVertex3d( width,-depth,height);
-		gl2.glVertex3d( width,-depth,0);
-	
-		gl2.glNormal3f(-1, 0, 0);
-		gl2.glVertex3d(-width,-depth,height);
-		gl2.glVertex3d(-width, depth,height);
-		gl2.glVertex3d(-width, depth,0);
-		gl2.glVertex3d(-width,-depth,0);
-
-		gl2.glEnd();
-		
+		gl2.glTranslated(-width/2,-depth/2,0);
+		gl2.glScaled(width,depth,height);
+		g.render(gl2);
 		gl2.glPopMatrix();
 	}
 
@@ -310,21 +279,7 @@ public class PrimitiveSolids {
 	 * @param top maximum bounds
 	 */
 	static public void drawBox(GL2 gl2,Point3d bottom,Point3d top) {
-		double x0=bottom.x;
-		double y0=bottom.y;
-		double z0=bottom.z;
-		double x1=top.x;
-		double y1=top.y;
-		double z1=top.z;
-
-		gl2.glBegin(GL2.GL_QUADS);
-			gl2.glNormal3f( 0, 0,-1);	gl2.glVertex3d(x0,y1,z0);	gl2.glVertex3d(x1,y1,z0);	gl2.glVertex3d(x1,y0,z0);	gl2.glVertex3d(x0,y0,z0);  // bottom
-			gl2.glNormal3f( 0, 0, 1);	gl2.glVertex3d(x1,y1,z1);	gl2.glVertex3d(x0,y1,z1);	gl2.glVertex3d(x0,y0,z1);	gl2.glVertex3d(x1,y0,z1);  // top
-			gl2.glNormal3f( 0, 1, 0);	gl2.glVertex3d(x0,y1,z1);	gl2.glVertex3d(x1,y1,z1);	gl2.glVertex3d(x1,y1,z0);	gl2.glVertex3d(x0,y1,z0);  // side
-			gl2.glNormal3f( 0,-1, 0);	gl2.glVertex3d(x1,y0,z1);	gl2.glVertex3d(x0,y0,z1);	gl2.glVertex3d(x0,y0,z0);	gl2.glVertex3d(x1,y0,z0);
-			gl2.glNormal3f( 1, 0, 0);	gl2.glVertex3d(x1,y1,z0);	gl2.glVertex3d(x1,y1,z1);	gl2.glVertex3d(x1,y0,z1);	gl2.glVertex3d(x1,y0,z0);
-			gl2.glNormal3f(-1, 0, 0);	gl2.glVertex3d(x0,y0,z1);	gl2.glVertex3d(x0,y1,z1);	gl2.glVertex3d(x0,y1,z0);	gl2.glVertex3d(x0,y0,z0);
-		gl2.glEnd();
+		drawBox(gl2,bottom,top,getBox(GL2.GL_QUADS));
 	}
 
 	/**
@@ -336,22 +291,49 @@ public class PrimitiveSolids {
 	static public void drawBoxWireframe(GL2 gl2,Point3d bottom,Point3d top) {
 		gl2.glDisable(GL2.GL_TEXTURE_2D);
 		boolean lightWasOn = OpenGLHelper.disableLightingStart(gl2);
-		
-		double x0=bottom.x;
-		double y0=bottom.y;
-		double z0=bottom.z;
-		double x1=top.x;
-		double y1=top.y;
-		double z1=top.z;
+		drawBox(gl2,bottom,top,getBox(GL2.GL_LINE_LOOP));
+		OpenGLHelper.disableLightingEnd(gl2,lightWasOn);
+	}
+
+	/**
+	 * Stretch a box from 0,0,0 to 1,1,1 over the two corners, in whatever order they are given.
+	 */
+	static private void drawBox(GL2 gl2,Point3d bottom,Point3d top,RetainedGeometry box) {
+		gl2.glPushMatrix();
+		gl2.glTranslated(Math.min(bottom.x,top.x),Math.min(bottom.y,top.y),Math.min(bottom.z,top.z));
+		gl2.glScaled(Math.abs(top.x-bottom.x),Math.abs(top.y-bottom.y),Math.abs(top.z-bottom.z));
+		box.render(gl2);
+		gl2.glPopMatrix();
+	}
 
-		gl2.glBegin(GL2.GL_LINE_LOOP);	gl2.glNormal3f( 0, 0,-1);	gl2.glVertex3d(x0,y1,z0);	gl2.glVertex3d(x1,y1,z0);	gl2.glVertex3d(x1,y0,z0);	gl2.glVertex3d(x0,y0,z0);	gl2.glEnd();  // bottom	
-		gl2.glBegin(GL2.GL_LINE_LOOP);	gl2.glNormal3f( 0, 0, 1);	gl2.glVertex3d(x1,y1,z1);	gl2.glVertex3d(x0,y1,z1);	gl2.glVertex3d(x0,y0,z1);	gl2.glVertex3d(x1,y0,z1);	gl2.glEnd();  // top
-		gl2.glBegin(GL2.GL_LINE_LOOP);	gl2.glNormal3f( 0, 1, 0);	gl2.glVertex3d(x0,y1,z1);	gl2.glVertex3d(x1,y1,z1);	gl2.glVertex3d(x1,y1,z0);	gl2.glVertex3d(x0,y1,z0);	gl2.glEnd();  // side
-		gl2.glBegin(GL2.GL_LINE_LOOP);	gl2.glNormal3f( 0,-1, 0);	gl2.glVertex3d(x1,y0,z1);	gl2.glVertex3d(x0,y0,z1);	gl2.glVertex3d(x0,y0,z0);	gl2.glVertex3d(x1,y0,z0);	gl2.glEnd();
-		gl2.glBegin(GL2.GL_LINE_LOOP);	gl2.glNormal3f( 1, 0, 0);	gl2.glVertex3d(x1,y1,z0);	gl2.glVertex3d(x1,y1,z1);	gl2.glVertex3d(x1,y0,z1);	gl2.glVertex3d(x1,y0,z0);	gl2.glEnd();
-		gl2.glBegin(GL2.GL_LINE_LOOP);	gl2.glNormal3f(-1, 0, 0);	gl2.glVertex3d(x0,y0,z1);	gl2.glVertex3d(x0,y1,z1);	gl2.glVertex3d(x0,y1,z0);	gl2.glVertex3d(x0,y0,z0);	gl2.glEnd();
+	/**
+	 * @param mode GL_QUADS for one solid box or GL_LINE_LOOP for six outlines.
+	 * @return a shared box from 0,0,0 to 1,1,1.
+	 */
+	static private RetainedGeometry getBox(int mode) {
+		String key = "box"+mode;
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
 
-		OpenGLHelper.disableLightingEnd(gl2,lightWasOn);
+		g = new RetainedGeometry();
+		boolean isSolid = (mode==GL2.GL_QUADS);
+		if(isSolid) g.begin(mode);
+		int [][] faces = {
+			{ 0, 0,-1,  0,1,0, 1,1,0, 1,0,0, 0,0,0 },  // bottom
+			{ 0, 0, 1,  1,1,1, 0,1,1, 0,0,1, 1,0,1 },  // top
+			{ 0, 1, 0,  0,1,1, 1,1,1, 1,1,0, 0,1,0 },  // side
+			{ 0,-1, 0,  1,0,1, 0,0,1, 0,0,0, 1,0,0 },
+			{ 1, 0, 0,  1,1,0, 1,1,1, 1,0,1, 1,0,0 },
+			{-1, 0, 0,  0,0,1, 0,1,1, 0,1,0, 0,0,0 },
+		};
+		for(int [] f : faces) {
+			if(!isSolid) g.begin(mode);
+			g.normal(f[0],f[1],f[2]);
+			for(int i=3;i<15;i+=3) g.vertex(f[i],f[i+1],f[i+2]);
+			if(!isSolid) g.end();
+		}
+		if(isSolid) g.end();
+		return RetainedGeometry.put(key,g);
 	}
 	
 	static public void drawStar(GL2 gl2,double size) {
@@ -363,29 +345,20 @@ public class PrimitiveSolids {
 	}
 	
 	static public void drawStar(GL2 gl2,Vector3d p,double size) {
-		// save the current color
-		double [] params = new double[4];
-		gl2.glGetDoublev(GL2.GL_CURRENT_COLOR, params, 0);
-		
-		boolean lightWasOn = OpenGLHelper.disableLightingStart(gl2);
-		int depth = OpenGLHelper.drawAtopEverythingStart(gl2);
+		// save the color, lighting, and depth test without asking for them.
+		gl2.glPushAttrib(GL2.GL_CURRENT_BIT | GL2.GL_ENABLE_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+		gl2.glDisable(GL2.GL_LIGHTING);
+		gl2.glDepthFunc(GL2.GL_ALWAYS);
 
 		size/=2.0f;
 		
 		gl2.glPushMatrix();
 		gl2.glTranslated(p.x, p.y, p.z);
-		gl2.glBegin(GL2.GL_LINES);
-		gl2.glColor3d(1, 0, 0);		gl2.glVertex3d(0, 0, 0);		gl2.glVertex3d(size, 0, 0);
-		gl2.glColor3d(0, 1, 0);		gl2.glVertex3d(0, 0, 0);		gl2.glVertex3d(0, size, 0);
-		gl2.glColor3d(0, 0, 1);		gl2.glVertex3d(0, 0, 0);		gl2.glVertex3d(0, 0, size);
-		gl2.glEnd();
+		gl2.glScaled(size, size, size);
+		MatrixHelper.getAxes(false).render(gl2);
 		gl2.glPopMatrix();
 
-		OpenGLHelper.drawAtopEverythingEnd(gl2,depth);
-		OpenGLHelper.disableLightingEnd(gl2,lightWasOn);
-		
-		// restore color
-		gl2.glColor4dv(params,0);
+		gl2.glPopAttrib();
 	}
 
 	/**
@@ -411,26 +384,39 @@ public class PrimitiveSolids {
 		//boolean isBlend = gl2.glIsEnabled(GL2.GL_BLEND);
 	    //gl2.glEnable(GL2.GL_BLEND);
 	    //gl2.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
-		gl2.glBegin(GL2.GL_LINES);
+		getGrid(gridWidth,gridHeight,grid_space).render(gl2);
+		
+		//if(!isBlend) gl2.glDisable(GL2.GL_BLEND);
+	}
+
+	/**
+	 * @return a shared grid in the current color and normal.
+	 */
+	static private RetainedGeometry getGrid(int gridWidth,int gridHeight,int grid_space) {
+		String key = "grid"+gridWidth+"x"+gridHeight+"/"+grid_space;
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
+
+		g = new RetainedGeometry();
+		g.begin(GL2.GL_LINES);
 		gridWidth/=2;
 		gridHeight/=2;
 		
 		for(int i=-gridWidth;i<=gridWidth;i+=grid_space) {
 			//end = 0.5f-((float)Math.abs(i)/(float)(gridHeight))*0.5f;
-			gl2.glVertex2f(i,-gridHeight);
-			gl2.glVertex2f(i, 0         );
-			gl2.glVertex2f(i, 0         );
-			gl2.glVertex2f(i, gridHeight);
+			g.vertex(i,-gridHeight,0);
+			g.vertex(i, 0         ,0);
+			g.vertex(i, 0         ,0);
+			g.vertex(i, gridHeight,0);
 		}
 		for(int i=-gridHeight;i<=gridHeight;i+=grid_space) {
-			gl2.glVertex2f(-gridWidth,i);
-			gl2.glVertex2f( 0        ,i);
-			gl2.glVertex2f( 0        ,i);
-			gl2.glVertex2f( gridWidth,i);
+			g.vertex(-gridWidth,i,0);
+			g.vertex( 0        ,i,0);
+			g.vertex( 0        ,i,0);
+			g.vertex( gridWidth,i,0);
 		}
-		gl2.glEnd();
-		
-		//if(!isBlend) gl2.glDisable(GL2.GL_BLEND);
+		g.end();
+		return RetainedGeometry.put(key,g);
 	}
 	
 	static public void drawGrid(GL2 gl2) {
@@ -0,0 +1,255 @@
+package com.marginallyclever.convenience;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import com.marginallyclever.convenience.log.Log;
+
+/**
+ * {@link RetainedGeometry} is a little geometry recorded once the way it would be drawn with glBegin/glEnd, then
+ * kept in a vertex buffer object.  Drawing it again is a few calls instead of one per vertex.  Callers place it
+ * with the model matrix.
+ * <p>
+ * Shared geometry is kept by name with {@link #get(String)} and {@link #put(String, RetainedGeometry)}.  The name
+ * holds every parameter that changes the vertexes, such as the size of a grid or the steps in a circle.
+ * Without vertex buffer objects the same data is drawn from client memory.
+ * @author Dan Royer
+ */
+public class RetainedGeometry {
+	// floats per vertex: x,y,z, nx,ny,nz, r,g,b,a, u,v
+	private static final int STRIDE = 12;
+	private static final int NORMAL = 3;
+	private static final int COLOR = 6;
+	private static final int TEXCOORD = 10;
+
+	private static final HashMap<String,RetainedGeometry> cache = new HashMap<String,RetainedGeometry>();
+	private static boolean isFallbackLogged;
+
+	private float [] data = new float[STRIDE*16];
+	private int numVertexes;
+	// the normal, color, and texture coordinate of the next vertex, as in immediate mode.
+	private float [] current = { 0,0,0, 0,0,1, 1,1,1,1, 0,0 };
+	private boolean hasNormals, hasColors, hasTexCoords;
+
+	// each glBegin/glEnd is one part: mode, first vertex, number of vertexes.
+	private ArrayList<int[]> parts = new ArrayList<int[]>();
+	private int partMode=-1;
+	private int partFirst;
+
+	private FloatBuffer buffer;
+	// GL objects belong to one context.
+	private GLContext context;
+	private boolean isSetUp;
+	private int vbo;
+
+	/**
+	 * @param key every parameter that changes the vertexes.
+	 * @return the shared geometry with this name, or null.
+	 */
+	public static RetainedGeometry get(String key) {
+		return cache.get(key);
+	}
+
+	/**
+	 * Share g by name.
+	 * @param key every parameter that changes the vertexes.
+	 * @param g the geometry, already recorded.
+	 * @return g
+	 */
+	public static RetainedGeometry put(String key,RetainedGeometry g) {
+		cache.put(key,g);
+		return g;
+	}
+
+	/**
+	 * @return the number of shared geometries.
+	 */
+	public static int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Release the GL objects of every shared geometry.  Call when the context is going away.
+	 * @param gl2 the render context
+	 */
+	public static void disposeAll(GL2 gl2) {
+		for(RetainedGeometry g : cache.values()) g.dispose(gl2);
+	}
+
+	public void begin(int mode) {
+		partMode = mode;
+		partFirst = numVertexes;
+	}
+
+	public void end() {
+		if(partMode==-1) return;
+		if(numVertexes>partFirst) parts.add(new int[] { partMode, partFirst, numVertexes-partFirst });
+		partMode=-1;
+		isSetUp=false;
+	}
+
+	public void normal(double x,double y,double z) {
+		current[NORMAL  ]=(float)x;
+		current[NORMAL+1]=(float)y;
+		current[NORMAL+2]=(float)z;
+		hasNormals=true;
+	}
+
+	public void color(double r,double g,double b) {
+		color(r,g,b,1);
+	}
+
+	public void color(double r,double g,double b,double a) {
+		current[COLOR  ]=(float)r;
+		current[COLOR+1]=(float)g;
+		current[COLOR+2]=(float)b;
+		current[COLOR+3]=(float)a;
+		hasColors=true;
+	}
+
+	public void texCoord(double u,double v) {
+		current[TEXCOORD  ]=(float)u;
+		current[TEXCOORD+1]=(float)v;
+		hasTexCoords=true;
+	}
+
+	public void vertex(double x,double y,double z) {
+		if(data.length<(numVertexes+1)*STRIDE) {
+			float [] bigger = new float[data.length*2];
+			System.arraycopy(data,0,bigger,0,data.length);
+			data = bigger;
+		}
+		int i = numVertexes*STRIDE;
+		System.arraycopy(current,0,data,i,STRIDE);
+		data[i  ]=(float)x;
+		data[i+1]=(float)y;
+		data[i+2]=(float)z;
+		numVertexes++;
+	}
+
+	public int getNumVertexes() {
+		return numVertexes;
+	}
+
+	/**
+	 * @return the number of glBegin/glEnd blocks recorded.
+	 */
+	public int getNumParts() {
+		return parts.size();
+	}
+
+	/**
+	 * Draw everything recorded.
+	 * @param gl2 the render context
+	 */
+	public void render(GL2 gl2) {
+		render(gl2,0,parts.size());
+	}
+
+	/**
+	 * Draw one glBegin/glEnd block, so the caller can change state in between.
+	 * @param gl2 the render context
+	 * @param part which block, in the order they were recorded.
+	 */
+	public void render(GL2 gl2,int part) {
+		render(gl2,part,part+1);
+	}
+
+	private void render(GL2 gl2,int from,int to) {
+		if(parts.isEmpty()) return;
+		if(!isSetUp || context!=gl2.getContext()) setup(gl2);
+
+		int stride = STRIDE*Float.BYTES;
+		if(vbo!=0) {
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,vbo);
+			gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+			gl2.glVertexPointer(3,GL2.GL_FLOAT,stride,0);
+			if(hasNormals) {
+				gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+				gl2.glNormalPointer(GL2.GL_FLOAT,stride,NORMAL*Float.BYTES);
+			}
+			if(hasColors) {
+				gl2.glEnableClientState(GL2.GL_COLOR_ARRAY);
+				gl2.glColorPointer(4,GL2.GL_FLOAT,stride,COLOR*Float.BYTES);
+			}
+			if(hasTexCoords) {
+				gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+				gl2.glTexCoordPointer(2,GL2.GL_FLOAT,stride,TEXCOORD*Float.BYTES);
+			}
+		} else {
+			gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+			gl2.glVertexPointer(3,GL2.GL_FLOAT,stride,buffer.position(0));
+			if(hasNormals) {
+				gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+				gl2.glNormalPointer(GL2.GL_FLOAT,stride,buffer.position(NORMAL));
+			}
+			if(hasColors) {
+				gl2.glEnableClientState(GL2.GL_COLOR_ARRAY);
+				gl2.glColorPointer(4,GL2.GL_FLOAT,stride,buffer.position(COLOR));
+			}
+			if(hasTexCoords) {
+				gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+				gl2.glTexCoordPointer(2,GL2.GL_FLOAT,stride,buffer.position(TEXCOORD));
+			}
+			buffer.position(0);
+		}
+
+		for(int i=from;i<to;++i) {
+			int [] p = parts.get(i);
+			gl2.glDrawArrays(p[0],p[1],p[2]);
+		}
+
+		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		if(hasNormals) gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		if(hasColors) gl2.glDisableClientState(GL2.GL_COLOR_ARRAY);
+		if(hasTexCoords) gl2.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		if(vbo!=0) gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+	}
+
+	/**
+	 * Upload once per context, or again after more was recorded.
+	 */
+	private void setup(GL2 gl2) {
+		// a buffer from another context is gone with it.
+		if(context==gl2.getContext()) release(gl2);
+		else vbo=0;
+		context = gl2.getContext();
+		isSetUp = true;
+
+		buffer = Buffers.newDirectFloatBuffer(numVertexes*STRIDE);
+		buffer.put(data,0,numVertexes*STRIDE);
+		buffer.rewind();
+
+		if(!gl2.isFunctionAvailable("glGenBuffers")) {
+			if(!isFallbackLogged) Log.message("RetainedGeometry: vertex buffers not available, drawing from memory.");
+			isFallbackLogged=true;
+			return;
+		}
+		int [] names = new int[1];
+		gl2.glGenBuffers(1,names,0);
+		vbo = names[0];
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,vbo);
+		gl2.glBufferData(GL2.GL_ARRAY_BUFFER,(long)numVertexes*STRIDE*Float.BYTES,buffer,GL2.GL_STATIC_DRAW);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+	}
+
+	/**
+	 * Release the GL objects.  The geometry is uploaded again the next time it is drawn.
+	 * @param gl2 the render context
+	 */
+	public void dispose(GL2 gl2) {
+		if(!isSetUp) return;
+		release(gl2);
+		context=null;
+		isSetUp=false;
+	}
+
+	private void release(GL2 gl2) {
+		if(vbo!=0) gl2.glDeleteBuffers(1,new int[] { vbo },0);
+		vbo=0;
+	}
+}
@@ -78,6 +78,8 @@ public class Decal extends Shape {
 		p2.set(-w,-h,0.01);
 		p3.set( w,-h,0.01);
 		addSubdividedPlane(n,p0,p1,p2,p3,wParts,hParts);
+		shape.updateCuboid();
+		updateCuboid();
 	}
 
 	/**
@@ -74,7 +74,8 @@ public class Entity implements PropertyChangeListener, Cloneable, Serializable {
 	 */
 	public void render(GL2 gl2) {
 		for (Entity e : children) {
-			e.render(gl2);
+			// skipped if outside the view.
+			FrustumCuller.render(gl2,e);
 		}
 	}
 	
@@ -110,6 +111,7 @@ public class Entity implements PropertyChangeListener, Cloneable, Serializable {
 		e.setName(getUniqueChildName(e));
 		children.add(index,e);
 		e.setParent(this);
+		OnDemandAnimator.requestFrame();
 	}
 	
 	public void addChild(Entity e) {
@@ -120,6 +122,7 @@ public class Entity implements PropertyChangeListener, Cloneable, Serializable {
 		if (children.contains(e)) {
 			children.remove(e);
 			e.setParent(null);
+			OnDemandAnimator.requestFrame();
 		}
 	}
 
@@ -136,7 +139,18 @@ public class Entity implements PropertyChangeListener, Cloneable, Serializable {
 	}
 
 	public void setParent(Entity e) {
+		boolean wasAttached = parent!=null;
 		parent = e;
+		if(wasAttached != (e!=null)) setBranchAttached(e!=null);
+	}
+
+	/**
+	 * Called on this entity and everything below it when the top of the branch joins or leaves a parent, as when
+	 * a branch is removed from the scene or put back by undo.
+	 * @param isAttached true if the branch now has a parent.
+	 */
+	protected void setBranchAttached(boolean isAttached) {
+		for(Entity c : children) c.setBranchAttached(isAttached);
 	}
 
 	// Find the root node.
@@ -290,6 +304,8 @@ public class Entity implements PropertyChangeListener, Cloneable, Serializable {
 		for( PropertyChangeListener p : propertyChangeListeners ) {
 			p.propertyChange(evt);
 		}
+		// whatever changed may be on screen.
+		OnDemandAnimator.requestFrame();
 	}
 
 	public void removeAllChildren() {
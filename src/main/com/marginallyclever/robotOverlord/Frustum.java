@@ -0,0 +1,89 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+
+/**
+ * The six planes around what a {@link Viewport} can see, in world space.  Each plane is stored as a,b,c,d where
+ * ax+by+cz+d&gt;=0 is inside.  Get one from {@link Viewport#getFrustum(Frustum)}.
+ * @author Dan Royer
+ */
+public class Frustum {
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTS = 1;
+	public static final int INSIDE = 2;
+
+	private double [] planes = new double[24];
+
+	/**
+	 * A camera at the origin looking down -Z, as in {@link Viewport#renderPerspective(com.jogamp.opengl.GL2)}.
+	 * @param tanX tangent of half the horizontal field of view
+	 * @param tanY tangent of half the vertical field of view
+	 * @param cameraWorld world pose of the camera
+	 */
+	public void setPerspective(double tanX,double tanY,double near,double far,Matrix4d cameraWorld) {
+		setPlane(0, 1,0,-tanX,0);
+		setPlane(1,-1,0,-tanX,0);
+		setPlane(2,0, 1,-tanY,0);
+		setPlane(3,0,-1,-tanY,0);
+		setPlane(4,0,0,-1,-near);
+		setPlane(5,0,0, 1, far);
+		toWorld(cameraWorld);
+	}
+
+	/**
+	 * A camera at the origin looking down -Z, as in {@link Viewport#renderOrtho(com.jogamp.opengl.GL2, double)}.
+	 * @param halfWidth half the width of the view
+	 * @param halfHeight half the height of the view
+	 * @param cameraWorld world pose of the camera
+	 */
+	public void setOrthographic(double halfWidth,double halfHeight,double near,double far,Matrix4d cameraWorld) {
+		setPlane(0, 1,0,0,halfWidth);
+		setPlane(1,-1,0,0,halfWidth);
+		setPlane(2,0, 1,0,halfHeight);
+		setPlane(3,0,-1,0,halfHeight);
+		setPlane(4,0,0,-1,-near);
+		setPlane(5,0,0, 1, far);
+		toWorld(cameraWorld);
+	}
+
+	private void setPlane(int i,double a,double b,double c,double d) {
+		planes[i*4  ]=a;
+		planes[i*4+1]=b;
+		planes[i*4+2]=c;
+		planes[i*4+3]=d;
+	}
+
+	/**
+	 * A plane moves from camera space to world space by the inverse of the camera pose, from the right.
+	 */
+	private void toWorld(Matrix4d cameraWorld) {
+		Matrix4d iw = new Matrix4d(cameraWorld);
+		iw.invert();
+		for(int i=0;i<6;++i) {
+			double a=planes[i*4], b=planes[i*4+1], c=planes[i*4+2], d=planes[i*4+3];
+			planes[i*4  ] = a*iw.m00 + b*iw.m10 + c*iw.m20 + d*iw.m30;
+			planes[i*4+1] = a*iw.m01 + b*iw.m11 + c*iw.m21 + d*iw.m31;
+			planes[i*4+2] = a*iw.m02 + b*iw.m12 + c*iw.m22 + d*iw.m32;
+			planes[i*4+3] = a*iw.m03 + b*iw.m13 + c*iw.m23 + d*iw.m33;
+		}
+	}
+
+	/**
+	 * @param bottom lower corner of a box in world space
+	 * @param top upper corner of the box
+	 * @return {@link #OUTSIDE}, {@link #INTERSECTS} or {@link #INSIDE}.
+	 */
+	public int test(Point3d bottom,Point3d top) {
+		int result = INSIDE;
+		for(int i=0;i<24;i+=4) {
+			double a=planes[i], b=planes[i+1], c=planes[i+2], d=planes[i+3];
+			// the corner furthest inside, then the corner furthest outside.
+			double far  = a*(a>0?top.x:bottom.x) + b*(b>0?top.y:bottom.y) + c*(c>0?top.z:bottom.z) + d;
+			if(far<0) return OUTSIDE;
+			double near = a*(a>0?bottom.x:top.x) + b*(b>0?bottom.y:top.y) + c*(c>0?bottom.z:top.z) + d;
+			if(near<0) result = INTERSECTS;
+		}
+		return result;
+	}
+}
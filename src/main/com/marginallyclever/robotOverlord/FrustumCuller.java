@@ -0,0 +1,144 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Point3d;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * {@link FrustumCuller} skips every {@link PoseEntity} whose world bounds are outside the view.  A whole
+ * branch is skipped at once, and once a branch is inside the view its children are not tested.
+ * <p>
+ * Between {@link #begin(Viewport)} and {@link #end()} every {@link Entity#render(GL2)} draws its children
+ * through {@link #render(GL2, Entity)}.  Entities with unknown bounds are always drawn.
+ * @author Dan Royer
+ */
+public class FrustumCuller {
+	// the culler between begin() and end(), if any.
+	private static FrustumCuller active;
+	// the entity being drawn by its parent through render(GL2,Entity), or OFF_TREE below something drawn by hand.
+	private static Object drawingFromTree;
+	private static final Object OFF_TREE = new Object();
+
+	private Frustum frustum = new Frustum();
+	private boolean enabled = true;
+	// true while drawing a branch that is all inside the view.
+	private boolean allInside;
+	private int numDrawn;
+	private int numCulled;
+	private Point3d bottom = new Point3d();
+	private Point3d top = new Point3d();
+
+	/**
+	 * Start culling with what viewport can see.  Does nothing if disabled or viewport is null.
+	 * @param viewport the view being drawn.
+	 */
+	public void begin(Viewport viewport) {
+		numDrawn=0;
+		numCulled=0;
+		allInside=false;
+		if(!enabled || viewport==null) return;
+		viewport.getFrustum(frustum);
+		active = this;
+	}
+
+	public void end() {
+		if(active==this) active=null;
+	}
+
+	/**
+	 * Draw e unless it is outside the view of the active culler.
+	 * @param gl2 the render context
+	 * @param e the entity to draw
+	 */
+	public static void render(GL2 gl2,Entity e) {
+		Object previous = drawingFromTree;
+		drawingFromTree = (previous==null || e.getParent()==previous) ? e : OFF_TREE;
+		try {
+			if(active==null || !(e instanceof PoseEntity)) e.render(gl2);
+			else active.renderCulled(gl2,(PoseEntity)e);
+		} finally {
+			drawingFromTree = previous;
+		}
+	}
+
+	/**
+	 * @param e an entity
+	 * @return true if e and all its parents are being drawn by their parents, so the stack holds the world pose
+	 * of the parent of e.  False if something drew e or a parent by hand, perhaps more than once and from anywhere.
+	 */
+	public static boolean isDrawingFromTree(Entity e) {
+		return drawingFromTree==e;
+	}
+
+	private void renderCulled(GL2 gl2,PoseEntity e) {
+		int result = test(e);
+		if(result==Frustum.OUTSIDE) return;
+
+		boolean wasAllInside = allInside;
+		if(result==Frustum.INSIDE) allInside=true;
+		e.render(gl2);
+		allInside = wasAllInside;
+	}
+
+	/**
+	 * Test e and count the result.
+	 * @return {@link Frustum#OUTSIDE}, {@link Frustum#INTERSECTS} or {@link Frustum#INSIDE}.
+	 */
+	private int test(PoseEntity e) {
+		int result = classify(e);
+		if(result==Frustum.OUTSIDE) numCulled++;
+		else numDrawn++;
+		return result;
+	}
+
+	private int classify(PoseEntity e) {
+		if(allInside) return Frustum.INSIDE;
+		if(!e.getBoundsWorld(bottom,top)) return Frustum.INTERSECTS;
+		return frustum.test(bottom,top);
+	}
+
+	/**
+	 * For things drawn outside of the entity tree, such as instances.  Not counted, as e is also tested when the
+	 * tree is drawn.
+	 * @param e an entity
+	 * @return true if e is not culled by the active culler, or there is no active culler.
+	 */
+	public static boolean isVisible(PoseEntity e) {
+		return active==null || active.classify(e)!=Frustum.OUTSIDE;
+	}
+
+	/**
+	 * For things drawn outside of the entity tree, such as batches.
+	 * @param bottom lower corner of a box in world space
+	 * @param top upper corner of the box
+	 * @return true if the box is not culled by the active culler, or there is no active culler.
+	 */
+	public static boolean isVisible(Point3d bottom,Point3d top) {
+		return active==null || active.allInside || active.frustum.test(bottom,top)!=Frustum.OUTSIDE;
+	}
+
+	/**
+	 * @param state false to draw everything.
+	 */
+	public void setEnabled(boolean state) {
+		enabled = state;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the number of entities tested and drawn since {@link #begin(Viewport)}.
+	 */
+	public int getNumDrawn() {
+		return numDrawn;
+	}
+
+	/**
+	 * @return the number of entities culled since {@link #begin(Viewport)}.  Each one may hide a whole branch.
+	 */
+	public int getNumCulled() {
+		return numCulled;
+	}
+}
@@ -0,0 +1,135 @@
+package com.marginallyclever.robotOverlord;
+
+import com.jogamp.opengl.GLAutoDrawable;
+import com.marginallyclever.convenience.log.Log;
+
+/**
+ * {@link OnDemandAnimator} draws a frame only after something asked for one with {@link #requestFrame()}, no more
+ * often than the frame rate.  While nothing changes its thread sleeps and the CPU is left alone.
+ * <p>
+ * Frames are asked for when an {@link Entity} property changes, when the tree changes, when the
+ * {@link Simulation} moves something, on mouse input, and when a mesh finishes loading.  Anything else that changes
+ * the picture should ask too.  {@link #setContinuous(boolean)} draws every frame, as an FPSAnimator does.
+ * @author Dan Royer
+ */
+public class OnDemandAnimator implements Runnable {
+	// shared by every animator, so anyone can ask without knowing which one draws.
+	private static final Object monitor = new Object();
+	private static boolean isDirty = true;
+	private static long numRequests;
+
+	private GLAutoDrawable drawable;
+	private int framesPerSecond;
+	private volatile boolean isContinuous;
+	private volatile boolean isRunning;
+	private Thread thread;
+	private long numFrames;
+
+	/**
+	 * @param drawable what to draw
+	 * @param framesPerSecond the most frames drawn per second.
+	 */
+	public OnDemandAnimator(GLAutoDrawable drawable,int framesPerSecond) {
+		this.drawable = drawable;
+		this.framesPerSecond = framesPerSecond;
+	}
+
+	/**
+	 * Something changed.  Draw another frame soon.  Safe to call from any thread.
+	 */
+	public static void requestFrame() {
+		synchronized(monitor) {
+			isDirty=true;
+			numRequests++;
+			monitor.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the number of times a frame was asked for since the start.
+	 */
+	public static long getNumRequests() {
+		synchronized(monitor) {
+			return numRequests;
+		}
+	}
+
+	public void start() {
+		if(thread!=null) return;
+		isRunning=true;
+		requestFrame();
+		thread = new Thread(this,"OnDemandAnimator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		isRunning=false;
+		if(thread==null) return;
+		synchronized(monitor) {
+			monitor.notifyAll();
+		}
+		thread.interrupt();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread=null;
+	}
+
+	@Override
+	public void run() {
+		long period = 1000000000L/framesPerSecond;
+		while(isRunning) {
+			try {
+				synchronized(monitor) {
+					while(isRunning && !isDirty && !isContinuous) monitor.wait();
+					// asked again while drawing means another frame.
+					isDirty=false;
+				}
+				if(!isRunning) break;
+
+				long start = System.nanoTime();
+				try {
+					drawable.display();
+				} catch(Exception e) {
+					Log.error("OnDemandAnimator: "+e.getMessage());
+					e.printStackTrace();
+				}
+				numFrames++;
+
+				// no faster than the frame rate.
+				long left = period-(System.nanoTime()-start);
+				if(left>0) Thread.sleep(left/1000000,(int)(left%1000000));
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param state true to draw every frame whether or not anything changed.
+	 */
+	public void setContinuous(boolean state) {
+		isContinuous = state;
+		synchronized(monitor) {
+			monitor.notifyAll();
+		}
+	}
+
+	public boolean isContinuous() {
+		return isContinuous;
+	}
+
+	public boolean isRunning() {
+		return isRunning;
+	}
+
+	/**
+	 * @return the number of frames drawn since the start.
+	 */
+	public long getNumFrames() {
+		return numFrames;
+	}
+}
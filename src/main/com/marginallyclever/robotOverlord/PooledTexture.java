@@ -0,0 +1,95 @@
+package com.marginallyclever.robotOverlord;
+
+import java.nio.ByteBuffer;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * One decoded image in the {@link TexturePool}, shared by every {@link TextureHandle} whose file has the same
+ * contents.  The pixels are kept until they are uploaded, then dropped.  If the context goes away they are
+ * decoded again from {@link #sourceName}.
+ * @author Dan Royer
+ */
+class PooledTexture {
+	// hash of the file contents.
+	final String hash;
+	final int width;
+	final int height;
+	// GL_RGBA, GL_BGR, or GL_BGRA.
+	final int format;
+	final long sizeInBytes;
+	// the file first decoded, to decode again after the context is lost.
+	final String sourceName;
+	private ByteBuffer pixels;
+
+	// the number of handles that use this texture.  Guarded by the pool.
+	int users;
+	// 0 until uploaded.  Only used on the GL thread.
+	int textureId;
+
+	PooledTexture(String hash,int width,int height,int format,ByteBuffer pixels,String sourceName) {
+		this.hash = hash;
+		this.sourceName = sourceName;
+		this.width = width;
+		this.height = height;
+		this.format = format;
+		this.pixels = pixels;
+		this.sizeInBytes = pixels.capacity();
+	}
+
+	/**
+	 * Send the pixels to OpenGL and build the mipmaps.  Must be called on the GL thread.
+	 * @param gl2 the render context
+	 */
+	void upload(GL2 gl2) {
+		int [] ids = new int[1];
+		gl2.glGenTextures(1, ids, 0);
+		textureId = ids[0];
+		gl2.glBindTexture(GL2.GL_TEXTURE_2D, textureId);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR_MIPMAP_LINEAR);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+		// tiled by default.  Anything that must not tile, like the SkyBox, clamps after binding.
+		gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_REPEAT);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_REPEAT);
+		// older drivers build the mipmaps during glTexImage2D.
+		boolean canGenerate = gl2.isFunctionAvailable("glGenerateMipmap");
+		if(!canGenerate) gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_GENERATE_MIPMAP, GL2.GL_TRUE);
+		// rows of three byte pixels may not end on a four byte boundary.
+		gl2.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 1);
+		int internalFormat = (format==GL2.GL_BGR) ? GL2.GL_RGB : GL2.GL_RGBA;
+		gl2.glTexImage2D(GL2.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, GL2.GL_UNSIGNED_BYTE, pixels);
+		gl2.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 4);
+		if(canGenerate) gl2.glGenerateMipmap(GL2.GL_TEXTURE_2D);
+		gl2.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+		pixels = null;
+	}
+
+	/**
+	 * Delete the OpenGL texture.  Must be called on the GL thread.
+	 * @param gl2 the render context
+	 */
+	void unload(GL2 gl2) {
+		if(textureId==0) return;
+		gl2.glDeleteTextures(1, new int[] { textureId }, 0);
+		textureId = 0;
+	}
+
+	/**
+	 * Take the pixels of the same image decoded again, to upload into a new context.
+	 * @param t the same image, decoded again.
+	 */
+	void restorePixels(PooledTexture t) {
+		pixels = t.pixels;
+	}
+
+	boolean isUploaded() {
+		return textureId!=0;
+	}
+
+	/**
+	 * @return true if the pixels are still in memory, waiting to be uploaded.
+	 */
+	boolean hasPixels() {
+		return pixels!=null;
+	}
+}
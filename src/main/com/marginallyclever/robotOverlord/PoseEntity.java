@@ -6,15 +6,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 
-import javax.swing.event.UndoableEditEvent;
 import javax.vecmath.Matrix3d;
 import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 
 import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.Cuboid;
 import com.marginallyclever.convenience.MatrixHelper;
 import com.marginallyclever.convenience.PrimitiveSolids;
+import com.marginallyclever.robotOverlord.picking.PickRegistry;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.MoveEdit;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewPanel;
 import com.marginallyclever.robotOverlord.uiExposedTypes.BooleanEntity;
@@ -36,16 +39,21 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 	// axis names
 	static public final String [] AXIS_LABELS = new String[] { "X","Y","Z","Xr","Yr","Zr"};
 
-	// unique ids for all objects in the world.  
-	// zero is reserved to indicate no object.
-	static private int pickNameCounter=1;
-
-	// my unique id
+	// my unique id from the PickRegistry.  zero is reserved to indicate no object.
 	private transient int pickName;	
 
 	// pose relative to my parent.
 	protected Matrix4d pose = new Matrix4d();
 
+	// world bounds of me and everything below me, min x,y,z then max x,y,z.  See getBoundsWorld().
+	private transient double [] boundsWorld = new double[6];
+	// true when boundsWorld must be found again.  If I am dirty, so are all my parents.
+	private transient boolean boundsDirty = true;
+	// false when something below me draws where I can't tell.
+	private transient boolean boundsKnown;
+	// true when something below me moves without telling me.
+	private transient boolean boundsChanging;
+
 	// which axis do we want to move?
 	private IntEntity axisChoice = new IntEntity("Jog direction",0);
 	// how fast do we want to move?
@@ -63,7 +71,7 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 		super();
 		setName("Pose");
 		
-		pickName = pickNameCounter++;
+		pickName = PickRegistry.register(this);
 		
 		addChild(showBoundingBox);
 		addChild(showLocalOrigin);
@@ -85,6 +93,8 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 	public void set(PoseEntity b) {
 		super.set(b);
 		pose.set(b.pose);
+		markPoseDirty();
+		OnDemandAnimator.requestFrame();
 	}
 
 	public int getPickName() {
@@ -213,6 +223,7 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 	public void setPose(Matrix4d arg0) {
 		Matrix4d oldValue = new Matrix4d(pose);
 		pose.set(arg0);
+		markPoseDirty();
 		notifyPropertyChangeListeners(new PropertyChangeEvent(this,"pose",oldValue,arg0));
 	}
 
@@ -263,6 +274,139 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 		if(o==showBoundingBox) setShowBoundingBox((boolean)showBoundingBox.get());
 		if(o==showLocalOrigin) setShowLocalOrigin((boolean)showLocalOrigin.get());
 		if(o==showLineage) setShowLineage((boolean)showLineage.get());
+		if(o==showLocalOrigin || o==showLineage) markBoundsDirty();
+	}
+
+	@Override
+	public void setParent(Entity e) {
+		if(parent instanceof PoseEntity) ((PoseEntity)parent).markBoundsDirty();
+		super.setParent(e);
+		markPoseDirty();
+	}
+
+	/**
+	 * Call when what this entity draws changes size or shape.  My parents have to grow their bounds again.
+	 */
+	public void markBoundsDirty() {
+		boundsDirty=true;
+		Entity e = getParent();
+		while(e instanceof PoseEntity) {
+			PoseEntity p = (PoseEntity)e;
+			// if it is dirty, so are its parents.
+			if(p.boundsDirty) break;
+			p.boundsDirty=true;
+			e = p.getParent();
+		}
+	}
+
+	/**
+	 * Call when this entity moves.  Everything below me moves in the world, too.
+	 */
+	protected void markPoseDirty() {
+		markChildrenDirty(this);
+		markBoundsDirty();
+	}
+
+	private static void markChildrenDirty(Entity e) {
+		for(Entity c : e.getChildren()) {
+			if(c instanceof AbstractEntity) continue;
+			if(c instanceof PoseEntity) ((PoseEntity)c).boundsDirty=true;
+			markChildrenDirty(c);
+		}
+	}
+
+	/**
+	 * Get a box in world space around this entity and everything below it.  The box is kept until something
+	 * inside it moves or changes shape.
+	 * @param bottom receives the lower corner
+	 * @param top receives the upper corner.  Less than bottom if nothing is drawn.
+	 * @return false if the box is not known, so this entity must always be drawn.
+	 */
+	public boolean getBoundsWorld(Point3d bottom,Point3d top) {
+		updateBoundsWorld();
+		bottom.set(boundsWorld[0],boundsWorld[1],boundsWorld[2]);
+		top.set(boundsWorld[3],boundsWorld[4],boundsWorld[5]);
+		return boundsKnown;
+	}
+
+	private void updateBoundsWorld() {
+		if(!boundsDirty && !boundsChanging) return;
+		boundsDirty=false;
+		for(int i=0;i<3;++i) {
+			boundsWorld[i  ] =  Double.MAX_VALUE;
+			boundsWorld[i+3] = -Double.MAX_VALUE;
+		}
+		boundsChanging = hasChangingBounds();
+		boundsKnown = growBoundsWorld();
+
+		Point3d bottom = new Point3d();
+		Point3d top = new Point3d();
+		for(Entity c : children) {
+			// values such as a filename never draw.
+			if(c instanceof AbstractEntity) continue;
+			if(!(c instanceof PoseEntity)) {
+				boundsKnown=false;
+				continue;
+			}
+			PoseEntity p = (PoseEntity)c;
+			if(!p.getBoundsWorld(bottom,top)) boundsKnown=false;
+			boundsChanging |= p.boundsChanging;
+			if(bottom.x<=top.x) {
+				growBoundsWorld(bottom);
+				growBoundsWorld(top);
+			}
+		}
+	}
+
+	/**
+	 * Grow the world bounds to hold everything this entity draws itself, not counting children.  By default that
+	 * is every {@link Cuboid} of a {@link Collidable}.
+	 * @return false if it is not known.
+	 */
+	protected boolean growBoundsWorld() {
+		if(showLocalOrigin.get() || showLineage.get()) return false;
+		if(!(this instanceof Collidable)) return false;
+		ArrayList<Cuboid> list = ((Collidable)this).getCuboidList();
+		if(list==null) return false;
+
+		Matrix4d m = new Matrix4d();
+		Point3d p = new Point3d();
+		for(Cuboid c : list) {
+			Point3d b = c.getBoundsBottom();
+			Point3d t = c.getBoundsTop();
+			if(b.x>t.x || b.y>t.y || b.z>t.z) continue;
+			c.getPose(m);
+			for(int i=0;i<8;++i) {
+				p.set(	(i&1)==0 ? b.x : t.x,
+						(i&2)==0 ? b.y : t.y,
+						(i&4)==0 ? b.z : t.z);
+				m.transform(p);
+				growBoundsWorld(p);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Grow the world bounds to hold p.  For use in {@link #growBoundsWorld()}.
+	 * @param p a point in world space.
+	 */
+	protected void growBoundsWorld(Point3d p) {
+		boundsWorld[0] = Math.min(boundsWorld[0],p.x);
+		boundsWorld[1] = Math.min(boundsWorld[1],p.y);
+		boundsWorld[2] = Math.min(boundsWorld[2],p.z);
+		boundsWorld[3] = Math.max(boundsWorld[3],p.x);
+		boundsWorld[4] = Math.max(boundsWorld[4],p.y);
+		boundsWorld[5] = Math.max(boundsWorld[5],p.z);
+	}
+
+	/**
+	 * @return true if what this entity draws can change without a call to {@link #markBoundsDirty()}, so the
+	 * bounds have to be found again every time they are asked for.  Robots move their parts without telling,
+	 * so by default every {@link Collidable} is changing.
+	 */
+	protected boolean hasChangingBounds() {
+		return this instanceof Collidable;
 	}
 	
 	/**
@@ -394,7 +538,7 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 		if(m!=null) {
 			RobotOverlord ro = (RobotOverlord)getRoot();
 			if(canYouMoveTo(m)) {
-				ro.undoableEditHappened(new UndoableEditEvent(this,new MoveEdit(this,m) ) );
+				ro.undoableEditHappened(this,() -> new MoveEdit(this,m));
 			}
 		}
 	}
@@ -406,7 +550,7 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 		if(m!=null) {
 			RobotOverlord ro = (RobotOverlord)getRoot();
 			if(canYouMoveTo(m)) {
-				ro.undoableEditHappened(new UndoableEditEvent(this,new MoveEdit(this,m) ) );
+				ro.undoableEditHappened(this,() -> new MoveEdit(this,m));
 			}
 		}
 	}
@@ -481,6 +625,8 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
 	protected Object clone() {
 		PoseEntity e = (PoseEntity)super.clone();
 		e.pose = (Matrix4d)pose.clone();
+		e.boundsWorld = new double[6];
+		e.boundsDirty = true;
 		return e;
 	}
 	
@@ -497,6 +643,8 @@ public class PoseEntity extends Entity implements Removable, Cloneable, Moveable
     }
     private void readObject(ObjectInputStream stream) throws ClassNotFoundException, IOException {
     	stream.defaultReadObject();
-    	pickName = pickNameCounter++;
+    	pickName = PickRegistry.register(this);
+    	boundsWorld = new double[6];
+    	boundsDirty = true;
     }
 }
@@ -15,6 +15,9 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.prefs.Preferences;
 
 import javax.swing.JButton;
@@ -27,12 +30,15 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSplitPane;
+import javax.swing.SwingUtilities;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.event.UndoableEditListener;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
 import javax.vecmath.Vector2d;
 
-import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
@@ -42,7 +48,7 @@ import com.jogamp.opengl.GLException;
 import com.jogamp.opengl.GLPipelineFactory;
 import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.awt.GLJPanel;
-import com.jogamp.opengl.util.FPSAnimator;
+import com.marginallyclever.convenience.RetainedGeometry;
 import com.marginallyclever.convenience.log.Log;
 import com.marginallyclever.robotOverlord.demos.SixiDemo;
 import com.marginallyclever.robotOverlord.demos.SkycamDemo;
@@ -52,6 +58,11 @@ import com.marginallyclever.robotOverlord.io.Save;
 import com.marginallyclever.robotOverlord.io.json.JSONLoad;
 import com.marginallyclever.robotOverlord.io.json.JSONSave;
 import com.marginallyclever.robotOverlord.moveTool.MoveTool;
+import com.marginallyclever.robotOverlord.picking.ColorIdPicker;
+import com.marginallyclever.robotOverlord.picking.Picker;
+import com.marginallyclever.robotOverlord.picking.RayPicker;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshPool;
 import com.marginallyclever.robotOverlord.swingInterface.InputManager;
 import com.marginallyclever.robotOverlord.swingInterface.SelectedEntityPanel;
 import com.marginallyclever.robotOverlord.swingInterface.SoundSystem;
@@ -95,7 +106,6 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 	private static final int FSAA_NUM_SAMPLES = 3;
 	private static final int VERTICAL_SYNC_ON = 1;  // 1 on, 0 off
     public static final int DEFAULT_FRAMES_PER_SECOND = 30;
-    public static final int PICK_BUFFER_SIZE = 256;
 
 	// used for checking the application version with the github release, for "there is a new version available!" notification
 	public static final String VERSION = PropertiesFileHelper.getVersionPropertyValue();
@@ -117,15 +127,40 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 	private EntityTreePanel entityTree;
 	private SelectedEntityPanel selectedEntityPanel = new SelectedEntityPanel();
 	
-	// undo/redo system
-	private UndoManager undoManager = new UndoManager();
+	// undo/redo system.  undo and redo change the scene, so the simulation waits.
+	private UndoManager undoManager = new UndoManager() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized void undo() throws CannotUndoException {
+			ReentrantLock lock = simulation.getLock();
+			lock.lock();
+			try {
+				super.undo();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public synchronized void redo() throws CannotRedoException {
+			ReentrantLock lock = simulation.getLock();
+			lock.lock();
+			try {
+				super.redo();
+			} finally {
+				lock.unlock();
+			}
+		}
+	};
 	private UndoAction commandUndo = new UndoAction(undoManager);
 	private RedoAction commandRedo = new RedoAction(undoManager);
 
 	private RenameEntityAction renameEntity;
 	private RemoveEntityAction removeEntity;
 
-	private FPSAnimator animator = new FPSAnimator(DEFAULT_FRAMES_PER_SECOND);
+	// draws a frame when something changed.
+	private OnDemandAnimator animator;
 	public GLJPanel glCanvas;
 	
 	// should I check the state of the OpenGL stack size?  true=every frame, false=never
@@ -133,17 +168,21 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 	
 	// mouse steering controls
 	private boolean isMouseIn=false;
+	// draw again after the next step, which may change what is under the cursor.
+	private volatile boolean hadMouseInput=false;
+	// one poll of the input devices waiting on the Swing thread at most.
+	private final AtomicBoolean isPollQueued = new AtomicBoolean();
 
 	public Viewport viewport = new Viewport();
 	
-    // timing for animations
-    private long lastTime;
-    private double frameDelay;
-    private double frameLength;
+    // steps the world on its own thread, so it keeps time however fast the frames are drawn.
+    private Simulation simulation = new Simulation(this,this::simulationStep);
 
 	// click on screen to change which entity is selected
 	protected transient boolean pickNow = false;
 	protected transient Vector2d pickPoint = new Vector2d();
+	// finds the entity under the cursor.
+	private transient Picker picker = new RayPicker();
 	
  	private RobotOverlord() {
  		super();
@@ -362,11 +401,30 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 	public void loadWorldFromFile(String filename) {
 		Load io = new JSONLoad();
 		//Load io = new SerialLoad();
-		scene = (Scene)io.load(filename);
+		Scene loaded = (Scene)io.load(filename);
+		if(loaded==null) return;
+		
+		ReentrantLock lock = simulation.getLock();
+		lock.lock();
+		try {
+			removeChild(scene);
+			scene = loaded;
+			addChild(scene);
+		} finally {
+			lock.unlock();
+		}
+		updateEntityTree();
+		pickEntity(null);
 	}
 
 	public void newScene() {
-		scene.removeAllChildren();
+		ReentrantLock lock = simulation.getLock();
+		lock.lock();
+		try {
+			scene.removeAllChildren();
+		} finally {
+			lock.unlock();
+		}
 		updateEntityTree();
 		pickEntity(null);
 	}
@@ -527,18 +585,40 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 	        new Thread(new Runnable() {
 	            public void run() {
 	            	animator.stop();
+	            	simulation.stop();
 					mainFrame.dispose();
 	            }
 	        }).start();
         }
 	}
 		
+	/**
+	 * Remember an edit that has already been made.  Call on the Swing thread.  Edits made while the simulation
+	 * steps should be handed over with {@link SwingUtilities#invokeLater(Runnable)}.
+	 */
 	@Override
 	public void undoableEditHappened(UndoableEditEvent e) {
 		undoManager.addEdit(e.getEdit());
 		commandUndo.updateUndoState();
 		commandRedo.updateRedoState();
 	}
+
+	/**
+	 * Make an edit while the simulation waits, then remember it.  Edits change the scene as they are made.
+	 * @param source who asked for the edit.
+	 * @param maker makes the edit.
+	 */
+	public void undoableEditHappened(Object source,Supplier<UndoableEdit> maker) {
+		UndoableEdit edit;
+		ReentrantLock lock = simulation.getLock();
+		lock.lock();
+		try {
+			edit = maker.get();
+		} finally {
+			lock.unlock();
+		}
+		undoableEditHappened(new UndoableEditEvent(source,edit));
+	}
 	
 	/**
 	 * Deep search for a child with this name.
@@ -616,6 +696,7 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
         // set up the projection matrix
         viewport.setCanvasWidth(glCanvas.getSurfaceWidth());
         viewport.setCanvasHeight(glCanvas.getSurfaceHeight());
+        OnDemandAnimator.requestFrame();
     }
 
     private void useTracePipeline(GL gl) {
@@ -636,7 +717,13 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 	}
 
 	@Override
-    public void dispose( GLAutoDrawable drawable ) {}
+    public void dispose( GLAutoDrawable drawable ) {
+    	scene.getInstancedRenderer().dispose(drawable.getGL().getGL2());
+    	if(picker instanceof ColorIdPicker) ((ColorIdPicker)picker).dispose(drawable.getGL().getGL2());
+    	RetainedGeometry.disposeAll(drawable.getGL().getGL2());
+    	TexturePool.disposeAll(drawable.getGL().getGL2());
+    	MeshPool.disposeAll(drawable.getGL().getGL2());
+    }
 	
 	@Override
 	public void mouseClicked(MouseEvent e) {
@@ -645,6 +732,7 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 			pickPoint.set(e.getX(),e.getY());
 			pickNow=true;
 		}
+		mouseInput();
 	}
 	
 	@Override
@@ -653,6 +741,7 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 			pickPoint.set(e.getX(),e.getY());
 			viewport.pressed();
 		}
+		mouseInput();
 	}
 	
 	@Override
@@ -660,40 +749,49 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 		if(e.getButton() == MouseEvent.BUTTON1) {
 			viewport.released();
 		}
+		mouseInput();
 	}
 	
 	@Override
 	public void mouseEntered(MouseEvent e) {
 		isMouseIn=true;
 		glCanvas.requestFocus();
+		mouseInput();
 	}
 	
 	@Override
 	public void mouseExited(MouseEvent e) {
 		isMouseIn=false;
+		mouseInput();
 	}
 	
 	@Override
 	public void mouseDragged(MouseEvent e) {
         viewport.setCursor(e.getX(),e.getY());
+        mouseInput();
 	}
 	
 	@Override
 	public void mouseMoved(MouseEvent e) {
         viewport.setCursor(e.getX(),e.getY());
+        mouseInput();
 	}
 	
     @Override
     public void display( GLAutoDrawable drawable ) {
-        long nowTime = System.currentTimeMillis();
-        long dt = nowTime - lastTime;
-    	lastTime = nowTime;
-    	updateStep(dt*0.001);  // to seconds
-    	
     	GL2 gl2 = drawable.getGL().getGL2();
-		if(checkStackSize) checkRenderStep(gl2);
-		else renderStep(gl2);
-    	pickStep(gl2);
+    	// the simulation waits while the frame is drawn.
+    	simulation.beginRender();
+    	try {
+	    	Mesh.startFrame(gl2);
+	    	TexturePool.startFrame(gl2);
+	    	// before the frame is drawn, which sets the matrices again.
+	    	pickStep(gl2);
+			if(checkStackSize) checkRenderStep(gl2);
+			else renderStep(gl2);
+    	} finally {
+    		simulation.endRender();
+    	}
     }
 
 	private void pickStep(GL2 gl2) {
@@ -701,8 +799,7 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 		//pickNow=true;
         if(pickNow) {
 	        pickNow = false;
-	        int pickName = findItemUnderCursor(gl2);
-        	Entity next = scene.pickPhysicalEntityWithName(pickName);
+        	Entity next = findItemUnderCursor(gl2);
         	undoableEditHappened(new UndoableEditEvent(this,new SelectEdit(this,selectedEntities,next) ) );
         }
     }
@@ -726,95 +823,78 @@ public class RobotOverlord extends Entity implements UndoableEditListener, Mouse
 		viewCube.render(gl2);
 	}
 
-	private void updateStep(double dt) {
-    	frameDelay+=dt;
-    	if(frameDelay>frameLength) {
-   			frameDelay-=frameLength;
-	    	InputManager.update(isMouseIn);
-	    	update( frameLength );
+	/**
+	 * One fixed step of the simulation, on the simulation thread.
+	 * @param dt the step length, in seconds.
+	 */
+	private void simulationStep(double dt) {
+		// the devices are polled on the Swing thread.  this step sees the latest poll.
+		InputManager.useLatestPoll();
+    	update(dt);
+    	pollInputLater();
+    	if(hadMouseInput) {
+    		hadMouseInput=false;
+    		OnDemandAnimator.requestFrame();
     	}
 	}
+	
+	/**
+	 * Poll the input devices on the Swing thread, which owns isMouseIn, in time for the next step.
+	 */
+	private void pollInputLater() {
+		if(!isPollQueued.compareAndSet(false, true)) return;
+		SwingUtilities.invokeLater(() -> {
+			isPollQueued.set(false);
+			InputManager.update(isMouseIn);
+		});
+	}
+	
+	private void mouseInput() {
+		hadMouseInput=true;
+		OnDemandAnimator.requestFrame();
+	}
  	
  	public void startAnimationSystem() {
 		Log.message("setup the animation system");
-        frameDelay=0;
-        frameLength=1.0f/(float)DEFAULT_FRAMES_PER_SECOND;
-        animator.add(glCanvas);
-        // record the start time of the application, also the end of the core initialization process.
-        lastTime = System.currentTimeMillis();
-        // start the main application loop.  it will call display() repeatedly.
+        simulation.setStepLength(1.0/(double)DEFAULT_FRAMES_PER_SECOND);
+        animator = new OnDemandAnimator(glCanvas,DEFAULT_FRAMES_PER_SECOND);
+        // start the simulation.  it steps the world at a fixed rate.
+        simulation.start();
+        // start the main application loop.  it will call display() whenever something changes.
         animator.start();
 	}
 
 	public void stop() {
 		animator.stop();
+		simulation.stop();
+	}
+	
+	/**
+	 * @return the {@link Simulation} that steps the world.
+	 */
+	public Simulation getSimulation() {
+		return simulation;
 	}
 
 	/**
-     * Use glRenderMode(GL_SELECT) to ray pick the item under the cursor.
-     * https://github.com/sgothel/jogl-demos/blob/master/src/demos/misc/Picking.java
-     * http://web.engr.oregonstate.edu/~mjb/cs553/Handouts/Picking/picking.pdf
+     * Ask the {@link Picker} for the deepest {@link PoseEntity} under the cursor.
      * @param gl2 the openGL render context
+     * @return the entity, or null.
      */
-    public int findItemUnderCursor(GL2 gl2) {
-    	IntBuffer pickBuffer = Buffers.newDirectIntBuffer(PICK_BUFFER_SIZE);
-        gl2.glSelectBuffer(PICK_BUFFER_SIZE, pickBuffer);
-
-		gl2.glRenderMode( GL2.GL_SELECT );
-		// wipe the select buffer
-		gl2.glInitNames();
-
-		viewport.renderPick(gl2,pickPoint.x,pickPoint.y);
-		
-        gl2.glLoadName(0);
-        // render in selection mode, without advancing time in the simulation.
-        scene.render(gl2);
+    public PoseEntity findItemUnderCursor(GL2 gl2) {
+    	PoseEntity found = picker.pick(gl2,scene,viewport,(int)pickPoint.x,(int)pickPoint.y);
+    	// it may have been removed from the scene since it was drawn.
+    	return found==null ? null : scene.pickPhysicalEntityWithName(found.getPickName());
+    }
 
-        gl2.glPopName();
-        gl2.glFlush();
-        
-        // get the picking results and return the render mode to the default 
-        int hits = gl2.glRenderMode( GL2.GL_RENDER );
+	/**
+	 * @param picker how to find the entity under the cursor.  {@link RayPicker} by default.
+	 */
+	public void setPicker(Picker picker) {
+		this.picker = picker;
+	}
 
-        return getPickNameFromPickList(pickBuffer,hits,false);
-    }
-    
-	private int getPickNameFromPickList(IntBuffer pickBuffer,int hits,boolean verbose) {
-		if(verbose) Log.message(hits+" PICKS @ "+pickPoint.x+","+pickPoint.y);
-		
-        float zMinBest = Float.MAX_VALUE;
-    	int i, index=0, bestPick=0;
-    	
-    	for(i=0;i<hits;++i) {
-    		if(verbose) describePickBuffer(pickBuffer,index);
-    		
-    		int nameCount=pickBuffer.get(index++);
-    		float z1 = (float) (pickBuffer.get(index++) & 0xffffffffL) / (float)0x7fffffff;
-    	    @SuppressWarnings("unused")
-    		float z2 = (float) (pickBuffer.get(index++) & 0xffffffffL) / (float)0x7fffffff;
-
-			index+=nameCount;
-			if(nameCount>0 && zMinBest > z1) {
-    			zMinBest = z1;
-    			bestPick = pickBuffer.get(index-1);
-    		}
-    	}
-    	return bestPick;
-    }
-    
-    private void describePickBuffer(IntBuffer pickBuffer, int index) {
-		int nameCount=pickBuffer.get(index++);
-		float z1 = (float) (pickBuffer.get(index++) & 0xffffffffL) / (float)0x7fffffff;
-		float z2 = (float) (pickBuffer.get(index++) & 0xffffffffL) / (float)0x7fffffff;
-		
-		String msg="  names="+nameCount+" zMin="+z1+" zMax="+z2+": ";
-		String add="";
-		int pickName;
-		for(int j=0;j<nameCount;++j) {
-			pickName = pickBuffer.get(index++);
-			msg+=add+pickName;
-    		add=", ";
-		}
-		Log.message(msg);
+	public Picker getPicker() {
+		return picker;
 	}
 }
@@ -10,6 +10,11 @@ import com.marginallyclever.convenience.Cuboid;
 import com.marginallyclever.convenience.IntersectionHelper;
 import com.marginallyclever.convenience.OpenGLHelper;
 import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.picking.PickRegistry;
+import com.marginallyclever.robotOverlord.picking.ScenePickTree;
+import com.marginallyclever.robotOverlord.shape.InstancedRenderer;
+import com.marginallyclever.robotOverlord.shape.RenderQueue;
+import com.marginallyclever.robotOverlord.shape.StaticBatcher;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewPanel;
 import com.marginallyclever.robotOverlord.uiExposedTypes.ColorEntity;
 
@@ -24,6 +29,16 @@ public class Scene extends Entity {
 	 */
 	private static final long serialVersionUID = 2990084741436544957L;
 	public ColorEntity ambientLight = new ColorEntity("Ambient light",0.2,0.2,0.2,1);
+	// draws the static shapes together.  Made on first use.
+	private transient StaticBatcher staticBatcher;
+	// draws the shapes that share a mesh.  Made on first use.
+	private transient InstancedRenderer instancedRenderer;
+	// finds what is under the cursor.  Made on first use.
+	private transient ScenePickTree pickTree;
+	// skips what is outside the view.  Made on first use.
+	private transient FrustumCuller frustumCuller;
+	// sorts the shapes by material and mesh.  Made on first use.
+	private transient RenderQueue renderQueue;
 	
 	public Scene() {
 		super();
@@ -47,24 +62,70 @@ public class Scene extends Entity {
 			}
 		}
 		
-		// PASS 1: everything not a light
-		for( Entity obj : children ) {
-			if(obj instanceof Light) continue;
-			// name for picking
-			if(obj instanceof PoseEntity) {
-				gl2.glPushName(((PoseEntity)obj).getPickName());
-			}
-			obj.render(gl2);
-			// name for picking
-			if(obj instanceof PoseEntity) {
-				gl2.glPopName();
+		// PASS 1: static shapes that share a material, copies of the same mesh, then everything not a light.
+		// anything outside the view is skipped.  the shapes found along the way are drawn last, sorted.
+		FrustumCuller culler = getFrustumCuller();
+		RenderQueue queue = getRenderQueue();
+		culler.begin(Viewport.getActive());
+		queue.begin(Viewport.getActive());
+		try {
+			getStaticBatcher().render(gl2,this);
+			getInstancedRenderer().render(gl2,this);
+			
+			for( Entity obj : children ) {
+				if(obj instanceof Light) continue;
+				FrustumCuller.render(gl2,obj);
 			}
+			// PASS 2: the queue draws everything transparent after everything solid.
+			queue.flush(gl2);
+		} finally {
+			queue.end();
+			culler.end();
 		}
 		
-		// PASS 2: everything transparent?
 		//renderAllBoundingBoxes(gl2);
 	}
 	
+	/**
+	 * @return the {@link StaticBatcher} that draws the static shapes in this scene.
+	 */
+	public StaticBatcher getStaticBatcher() {
+		if(staticBatcher==null) staticBatcher = new StaticBatcher();
+		return staticBatcher;
+	}
+	
+	/**
+	 * @return the {@link InstancedRenderer} that draws the copies of each mesh in this scene.
+	 */
+	public InstancedRenderer getInstancedRenderer() {
+		if(instancedRenderer==null) instancedRenderer = new InstancedRenderer();
+		return instancedRenderer;
+	}
+	
+	/**
+	 * @return the {@link FrustumCuller} that skips what is outside the view.
+	 */
+	public FrustumCuller getFrustumCuller() {
+		if(frustumCuller==null) frustumCuller = new FrustumCuller();
+		return frustumCuller;
+	}
+	
+	/**
+	 * @return the {@link RenderQueue} that sorts the shapes in this scene before they are drawn.
+	 */
+	public RenderQueue getRenderQueue() {
+		if(renderQueue==null) renderQueue = new RenderQueue();
+		return renderQueue;
+	}
+	
+	/**
+	 * @return the {@link ScenePickTree} over the collidable entities in this scene.
+	 */
+	public ScenePickTree getPickTree() {
+		if(pickTree==null) pickTree = new ScenePickTree();
+		return pickTree;
+	}
+	
 	@SuppressWarnings("unused")
 	private void renderAllBoundingBoxes(GL2 gl2) {
 		// turn of textures so lines draw good
@@ -96,16 +157,17 @@ public class Scene extends Entity {
 		}
 	}
 
-	// Search only my children to find the PhysicalEntity with matchin pickName.
+	/**
+	 * Find the {@link PoseEntity} with a matching pickName anywhere in this scene.
+	 * @param pickName an id from {@link PickRegistry}
+	 * @return the entity, or null if it is not in this scene.
+	 */
 	public PoseEntity pickPhysicalEntityWithName(int pickName) {
-		for( Entity obj : children ) {
-			if(!(obj instanceof PoseEntity)) continue;
-			PoseEntity pe = (PoseEntity)obj;
-			if( pe.getPickName()==pickName ) {
-				return pe;  // found!
-			}
+		PoseEntity pe = PickRegistry.get(pickName);
+		if(pe==null) return null;
+		for(Entity e = pe.getParent(); e!=null; e = e.getParent()) {
+			if(e==this) return pe;  // found!
 		}
-		
 		return null;
 	}
 		
@@ -162,7 +224,7 @@ public class Scene extends Entity {
 			// now we have both lists, test them against each other.
 			for( Cuboid cuboidA : listA ) {
 				for( Cuboid cuboidB : listB ) {
-					if( IntersectionHelper.cuboidCuboid(cuboidA,cuboidB) ) {
+					if( IntersectionHelper.cuboidCuboidHull(cuboidA,cuboidB) ) {
 						Log.message("Collision between "+
 							listA.indexOf(cuboidA)+
 							" and "+
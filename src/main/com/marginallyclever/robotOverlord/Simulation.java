@@ -0,0 +1,303 @@
+package com.marginallyclever.robotOverlord;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleConsumer;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+
+import com.marginallyclever.convenience.log.Log;
+
+/**
+ * {@link Simulation} steps the world on its own thread with a fixed time step, so robots move at the same speed
+ * however fast the frames are drawn.  When it falls behind it takes at most a few steps at once and lets the
+ * rest of the time go.
+ * <p>
+ * After each step it keeps the local pose of every {@link PoseEntity}, the last two times.  Between
+ * {@link #beginRender()} and {@link #endRender()} the world is locked and each moving entity is put between its
+ * two poses, as far as the clock is between the two steps.  The real poses are put back afterwards.
+ * @author Dan Royer
+ */
+public class Simulation implements Runnable {
+	public static final double DEFAULT_STEP_LENGTH = 1.0/30.0;
+	// the most steps taken at once when behind.
+	public static final int DEFAULT_MAX_STEPS = 5;
+
+	private Entity world;
+	private DoubleConsumer stepper;
+	private double stepLength = DEFAULT_STEP_LENGTH;
+	private int maxSteps = DEFAULT_MAX_STEPS;
+
+	// held while stepping and while drawing.
+	private final ReentrantLock lock = new ReentrantLock();
+	// time not yet stepped, in seconds.
+	private double accumulator;
+	private long numSteps;
+	private double droppedTime;
+
+	private Thread thread;
+	private volatile boolean isRunning;
+
+	// the poses after the last two steps.
+	private PoseSnapshot previous = new PoseSnapshot();
+	private PoseSnapshot current = new PoseSnapshot();
+	private boolean movedBefore;
+	// the real poses while drawing.
+	private ArrayList<Matrix4d> saved = new ArrayList<Matrix4d>();
+	private ArrayList<PoseEntity> moved = new ArrayList<PoseEntity>();
+
+	/**
+	 * The local poses of every {@link PoseEntity}, in tree order.
+	 */
+	private static class PoseSnapshot {
+		public ArrayList<PoseEntity> entities = new ArrayList<PoseEntity>();
+		public ArrayList<Matrix4d> poses = new ArrayList<Matrix4d>();
+		public int size;
+
+		public void capture(Entity root) {
+			size=0;
+			add(root);
+		}
+
+		private void add(Entity e) {
+			if(e instanceof PoseEntity) {
+				if(entities.size()==size) {
+					entities.add(null);
+					poses.add(new Matrix4d());
+				}
+				entities.set(size,(PoseEntity)e);
+				poses.get(size).set(((PoseEntity)e).pose);
+				size++;
+			}
+			for(Entity c : e.getChildren()) add(c);
+		}
+	}
+
+	/**
+	 * @param world the root of everything that moves.
+	 * @param stepper called with the step length, in seconds, once per step.
+	 */
+	public Simulation(Entity world,DoubleConsumer stepper) {
+		this.world = world;
+		this.stepper = stepper;
+	}
+
+	/**
+	 * @param world the root of everything that moves.  Each step calls {@link Entity#update(double)}.
+	 */
+	public Simulation(Entity world) {
+		this(world,world::update);
+	}
+
+	public void start() {
+		if(thread!=null) return;
+		isRunning=true;
+		thread = new Thread(this,"Simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		isRunning=false;
+		if(thread==null) return;
+		thread.interrupt();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread=null;
+	}
+
+	@Override
+	public void run() {
+		long last = System.nanoTime();
+		while(isRunning) {
+			long now = System.nanoTime();
+			try {
+				advance((now-last)*1e-9);
+			} catch(Exception e) {
+				Log.error("Simulation: "+e.getMessage());
+				e.printStackTrace();
+			}
+			last = now;
+
+			// sleep until the next step is due.
+			long wait = (long)((stepLength-accumulator)*1000);
+			try {
+				Thread.sleep(Math.max(1,wait));
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Let time pass.  Take as many whole steps as fit, up to the limit.
+	 * @param seconds time since the last call.
+	 * @return the number of steps taken.
+	 */
+	public int advance(double seconds) {
+		lock.lock();
+		try {
+			accumulator += seconds;
+			int steps=0;
+			while(accumulator>=stepLength && steps<maxSteps) {
+				stepper.accept(stepLength);
+				accumulator-=stepLength;
+				steps++;
+			}
+			if(accumulator>=stepLength) {
+				// too far behind to catch up.
+				double behind = Math.floor(accumulator/stepLength)*stepLength;
+				droppedTime += behind;
+				accumulator -= behind;
+			}
+			if(steps>0) {
+				numSteps+=steps;
+				// the current snapshot becomes the previous one.
+				PoseSnapshot temp = previous;
+				previous = current;
+				current = temp;
+				current.capture(world);
+				// one more frame after it stops, to draw the last pose instead of one in between.
+				boolean moved = hasMoved();
+				if(moved || movedBefore) OnDemandAnimator.requestFrame();
+				movedBefore = moved;
+			}
+			return steps;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if anything moved in the last step.  Catches poses changed without telling anyone.
+	 */
+	private boolean hasMoved() {
+		if(previous.size!=current.size) return true;
+		for(int i=0;i<current.size;++i) {
+			if(previous.entities.get(i)!=current.entities.get(i)) return true;
+			if(!previous.poses.get(i).equals(current.poses.get(i))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Lock the world and put every moving {@link PoseEntity} between its last two poses.  Must be followed by
+	 * {@link #endRender()}.
+	 */
+	public void beginRender() {
+		lock.lock();
+		moved.clear();
+		if(previous.size!=current.size) return;
+
+		double alpha = getAlpha();
+		Matrix4d m = new Matrix4d();
+		for(int i=0;i<current.size;++i) {
+			PoseEntity e = current.entities.get(i);
+			if(previous.entities.get(i)!=e) continue;
+			Matrix4d a = previous.poses.get(i);
+			Matrix4d b = current.poses.get(i);
+			// still, or changed by something other than the simulation since.
+			if(a.equals(b) || !e.pose.equals(b)) continue;
+
+			if(saved.size()==moved.size()) saved.add(new Matrix4d());
+			saved.get(moved.size()).set(e.pose);
+			moved.add(e);
+			interpolate(a,b,alpha,m);
+			e.pose.set(m);
+			e.markPoseDirty();
+		}
+	}
+
+	/**
+	 * Put back the real poses and unlock the world.
+	 */
+	public void endRender() {
+		try {
+			for(int i=0;i<moved.size();++i) {
+				PoseEntity e = moved.get(i);
+				e.pose.set(saved.get(i));
+				e.markPoseDirty();
+			}
+			moved.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Slerp the rotation and lerp the position and scale.
+	 */
+	private static void interpolate(Matrix4d a,Matrix4d b,double alpha,Matrix4d result) {
+		Quat4d qa = new Quat4d();
+		Quat4d qb = new Quat4d();
+		a.get(qa);
+		b.get(qb);
+		qa.interpolate(qb,alpha);
+		Vector3d ta = new Vector3d();
+		Vector3d tb = new Vector3d();
+		a.get(ta);
+		b.get(tb);
+		ta.interpolate(tb,alpha);
+		double scale = a.getScale()*(1-alpha) + b.getScale()*alpha;
+		result.set(qa,ta,scale);
+	}
+
+	/**
+	 * @return how far the clock is from the last step to the next, 0...1.
+	 */
+	public double getAlpha() {
+		return Math.min(1,accumulator/stepLength);
+	}
+
+	/**
+	 * @return the lock held while stepping and drawing.  Hold it to change the world from another thread.
+	 */
+	public ReentrantLock getLock() {
+		return lock;
+	}
+
+	public double getStepLength() {
+		return stepLength;
+	}
+
+	/**
+	 * @param seconds the length of one step.
+	 */
+	public void setStepLength(double seconds) {
+		stepLength = seconds;
+	}
+
+	public int getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * @param maxSteps the most steps taken at once when behind.
+	 */
+	public void setMaxSteps(int maxSteps) {
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * @return the number of steps since the start.
+	 */
+	public long getNumSteps() {
+		return numSteps;
+	}
+
+	/**
+	 * @return seconds let go because the simulation could not keep up.
+	 */
+	public double getDroppedTime() {
+		return droppedTime;
+	}
+
+	public boolean isRunning() {
+		return isRunning;
+	}
+}
@@ -3,6 +3,7 @@ package com.marginallyclever.robotOverlord;
 import javax.vecmath.Vector3d;
 
 import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.RetainedGeometry;
 import com.marginallyclever.robotOverlord.uiExposedTypes.TextureEntity;
 
 public class SkyBox extends Entity {
@@ -48,55 +49,84 @@ public class SkyBox extends Entity {
 			Vector3d p = camera.getPosition();
 			gl2.glTranslated(-p.x,-p.y,-p.z);
 
-			skyboxtextureXPos.render(gl2);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-				gl2.glTexCoord2d(0,1);  gl2.glVertex3d(10, 10, 10);
-				gl2.glTexCoord2d(1,1);  gl2.glVertex3d(10, -10, 10);
-				gl2.glTexCoord2d(1,0);  gl2.glVertex3d(10, -10, -10);
-				gl2.glTexCoord2d(0,0);  gl2.glVertex3d(10, 10, -10);
-			gl2.glEnd();
+			RetainedGeometry g = getBox();
+			bindFace(gl2,skyboxtextureXPos);
+			g.render(gl2,0);
+			bindFace(gl2,skyboxtextureXNeg);
+			g.render(gl2,1);
+			bindFace(gl2,skyboxtextureYPos);
+			g.render(gl2,2);
+			bindFace(gl2,skyboxtextureYNeg);
+			g.render(gl2,3);
+			bindFace(gl2,skyboxtextureZPos);
+			g.render(gl2,4);
+			bindFace(gl2,skyboxtextureZNeg);
+			g.render(gl2,5);
+			
+		gl2.glPopMatrix();
+		gl2.glEnable(GL2.GL_DEPTH_TEST);
+	}
+	
+	/**
+	 * Bind the texture of one face.  Pooled textures repeat, but the faces meet at their edges, where
+	 * repeating would blend in the far side of the image.
+	 */
+	private void bindFace(GL2 gl2,TextureEntity texture) {
+		texture.render(gl2);
+		if(!texture.isReady()) return;
+		gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+	}
+	
+	/**
+	 * @return the six faces of the sky, shared by every {@link SkyBox}.
+	 */
+	private RetainedGeometry getBox() {
+		RetainedGeometry g = RetainedGeometry.get("SkyBox");
+		if(g!=null) return g;
+		
+		g = new RetainedGeometry();
+		g.begin(GL2.GL_TRIANGLE_FAN);
+			g.texCoord(0,1);  g.vertex(10, 10, 10);
+			g.texCoord(1,1);  g.vertex(10, -10, 10);
+			g.texCoord(1,0);  g.vertex(10, -10, -10);
+			g.texCoord(0,0);  g.vertex(10, 10, -10);
+		g.end();
 
-			skyboxtextureXNeg.render(gl2);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-				gl2.glTexCoord2d(0,1);  gl2.glVertex3d(-10, -10, 10);
-				gl2.glTexCoord2d(1,1);  gl2.glVertex3d(-10, 10, 10);
-				gl2.glTexCoord2d(1,0);  gl2.glVertex3d(-10, 10, -10);
-				gl2.glTexCoord2d(0,0);  gl2.glVertex3d(-10, -10, -10);
-			gl2.glEnd();
+		g.begin(GL2.GL_TRIANGLE_FAN);
+			g.texCoord(0,1);  g.vertex(-10, -10, 10);
+			g.texCoord(1,1);  g.vertex(-10, 10, 10);
+			g.texCoord(1,0);  g.vertex(-10, 10, -10);
+			g.texCoord(0,0);  g.vertex(-10, -10, -10);
+		g.end();
 
-			skyboxtextureYPos.render(gl2);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-				gl2.glTexCoord2d(0,1);  gl2.glVertex3d(-10, 10, 10);
-				gl2.glTexCoord2d(1,1);  gl2.glVertex3d(10, 10, 10);
-				gl2.glTexCoord2d(1,0);  gl2.glVertex3d(10, 10, -10);
-				gl2.glTexCoord2d(0,0);  gl2.glVertex3d(-10, 10, -10);
-			gl2.glEnd();
+		g.begin(GL2.GL_TRIANGLE_FAN);
+			g.texCoord(0,1);  g.vertex(-10, 10, 10);
+			g.texCoord(1,1);  g.vertex(10, 10, 10);
+			g.texCoord(1,0);  g.vertex(10, 10, -10);
+			g.texCoord(0,0);  g.vertex(-10, 10, -10);
+		g.end();
 
-			skyboxtextureYNeg.render(gl2);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-				gl2.glTexCoord2d(0,1);  gl2.glVertex3d(10, -10, 10);
-				gl2.glTexCoord2d(1,1);  gl2.glVertex3d(-10, -10, 10);
-				gl2.glTexCoord2d(1,0);  gl2.glVertex3d(-10, -10, -10);
-				gl2.glTexCoord2d(0,0);  gl2.glVertex3d(10, -10, -10);
-			gl2.glEnd();
+		g.begin(GL2.GL_TRIANGLE_FAN);
+			g.texCoord(0,1);  g.vertex(10, -10, 10);
+			g.texCoord(1,1);  g.vertex(-10, -10, 10);
+			g.texCoord(1,0);  g.vertex(-10, -10, -10);
+			g.texCoord(0,0);  g.vertex(10, -10, -10);
+		g.end();
 
-			skyboxtextureZPos.render(gl2);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-				gl2.glTexCoord2d(0,0);  gl2.glVertex3d(-10, 10, 10);
-				gl2.glTexCoord2d(1,0);  gl2.glVertex3d( 10, 10, 10);
-				gl2.glTexCoord2d(1,1);  gl2.glVertex3d( 10,-10, 10);
-				gl2.glTexCoord2d(0,1);  gl2.glVertex3d(-10,-10, 10);
-			gl2.glEnd();
+		g.begin(GL2.GL_TRIANGLE_FAN);
+			g.texCoord(0,0);  g.vertex(-10, 10, 10);
+			g.texCoord(1,0);  g.vertex( 10, 10, 10);
+			g.texCoord(1,1);  g.vertex( 10,-10, 10);
+			g.texCoord(0,1);  g.vertex(-10,-10, 10);
+		g.end();
 
-			skyboxtextureZNeg.render(gl2);
-			gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-				gl2.glTexCoord2d(0,0);  gl2.glVertex3d(-10,-10, -10);
-				gl2.glTexCoord2d(1,0);  gl2.glVertex3d( 10,-10, -10);
-				gl2.glTexCoord2d(1,1);  gl2.glVertex3d( 10, 10, -10);
-				gl2.glTexCoord2d(0,1);  gl2.glVertex3d(-10, 10, -10);
-			gl2.glEnd();
-			
-		gl2.glPopMatrix();
-		gl2.glEnable(GL2.GL_DEPTH_TEST);
+		g.begin(GL2.GL_TRIANGLE_FAN);
+			g.texCoord(0,0);  g.vertex(-10,-10, -10);
+			g.texCoord(1,0);  g.vertex( 10,-10, -10);
+			g.texCoord(1,1);  g.vertex( 10, 10, -10);
+			g.texCoord(0,1);  g.vertex(-10, 10, -10);
+		g.end();
+		return RetainedGeometry.put("SkyBox",g);
 	}
 }
@@ -0,0 +1,93 @@
+package com.marginallyclever.robotOverlord;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * A texture from the {@link TexturePool} that may still be loading in the background.  Everyone who asks for the
+ * same file gets the same handle.  Give it back with {@link TexturePool#release(TextureHandle)}.
+ * @author Dan Royer
+ */
+public class TextureHandle {
+	private final String sourceName;
+	// set by the pool once the file is decoded.
+	private volatile PooledTexture texture;
+	private volatile boolean isDone;
+	private volatile boolean isFailed;
+
+	// guarded by the pool.
+	int referenceCount;
+
+	TextureHandle(String sourceName) {
+		this.sourceName = sourceName;
+	}
+
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	void finish(PooledTexture texture) {
+		this.texture = texture;
+		isDone = true;
+	}
+
+	void fail() {
+		isFailed = true;
+		isDone = true;
+	}
+
+	PooledTexture getTexture() {
+		return texture;
+	}
+
+	/**
+	 * @return true when loading has finished, successfully or not.
+	 */
+	public boolean isDone() {
+		return isDone;
+	}
+
+	/**
+	 * @return true if loading has finished and failed.
+	 */
+	public boolean isFailed() {
+		return isFailed;
+	}
+
+	/**
+	 * @return true if the texture is in OpenGL and can be bound.
+	 */
+	public boolean isReady() {
+		PooledTexture t = texture;
+		return t!=null && t.isUploaded();
+	}
+
+	/**
+	 * Bind the texture, if it is ready.  Never waits.
+	 * @param gl2 the render context
+	 * @return true if the texture was bound.
+	 */
+	public boolean bind(GL2 gl2) {
+		PooledTexture t = texture;
+		if(t==null || !t.isUploaded()) return false;
+		gl2.glBindTexture(GL2.GL_TEXTURE_2D, t.textureId);
+		return true;
+	}
+
+	/**
+	 * @return the OpenGL name of the texture, or 0 if it is not ready.
+	 */
+	public int getTextureId() {
+		PooledTexture t = texture;
+		return t==null ? 0 : t.textureId;
+	}
+
+	public int getWidth() {
+		PooledTexture t = texture;
+		return t==null ? 0 : t.width;
+	}
+
+	public int getHeight() {
+		PooledTexture t = texture;
+		return t==null ? 0 : t.height;
+	}
+}
@@ -0,0 +1,372 @@
+package com.marginallyclever.robotOverlord;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.util.texture.spi.TGAImage;
+import com.marginallyclever.convenience.FileAccess;
+import com.marginallyclever.convenience.log.Log;
+
+/**
+ * {@link TexturePool} makes sure each image is decoded and uploaded only once.  {@link #acquire(String)} returns a
+ * {@link TextureHandle} right away and decodes the file on a small pool of background threads.  Files with the
+ * same contents share one texture, whatever they are called.
+ * <p>
+ * Decoded images wait for {@link #startFrame(GL2)}, which uploads them with mipmaps, a few each frame so a scene
+ * full of new textures does not stall.  Every handle is counted.  When the last user of a texture lets it go the
+ * texture is deleted at the start of the next frame.
+ * <p>
+ * Uploaded pixels are not kept.  After {@link #disposeAll(GL2)} every texture is decoded again and uploaded into
+ * the next context.
+ * @author Dan Royer
+ */
+public class TexturePool {
+	// decoding is mostly waiting for the disk.  two is plenty.
+	private static final int NUM_THREADS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors()-1));
+
+	private static final ExecutorService pool = createPool();
+
+	// guarded by the class lock.
+	private static final HashMap<String,TextureHandle> handles = new HashMap<String,TextureHandle>();
+	private static final HashMap<String,PooledTexture> textures = new HashMap<String,PooledTexture>();
+	private static int numLoading;
+	private static long residentBytes;
+
+	// decoded textures waiting for the GL thread.
+	private static final ConcurrentLinkedQueue<PooledTexture> toUpload = new ConcurrentLinkedQueue<PooledTexture>();
+	// released textures waiting for the GL thread.
+	private static final ConcurrentLinkedQueue<PooledTexture> toUnload = new ConcurrentLinkedQueue<PooledTexture>();
+
+	// set by disposeAll.  The next frame has a new context that needs everything again.
+	private static volatile boolean isDisposed;
+
+	private static long uploadBudget = 8L*1024*1024;
+	private static long uploadedLastFrame;
+
+	private static ExecutorService createPool() {
+		ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"TexturePool-"+count.incrementAndGet());
+				// don't keep the application alive.
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY-1);
+				return t;
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Add one reference to the texture in a file, and start loading it if nobody has yet.
+	 * @param sourceName file from which to load.  may be filename.ext or zipfile.zip:filename.ext
+	 * @return a handle to the texture.  Never null.
+	 */
+	public static synchronized TextureHandle acquire(String sourceName) {
+		TextureHandle h = handles.get(sourceName);
+		if(h==null) {
+			h = new TextureHandle(sourceName);
+			handles.put(sourceName, h);
+			numLoading++;
+			final TextureHandle handle = h;
+			pool.execute(()->load(handle));
+		}
+		h.referenceCount++;
+		return h;
+	}
+
+	/**
+	 * Remove one reference from h.  The texture is deleted when nobody else uses the same image.
+	 * @param h the handle
+	 */
+	public static synchronized void release(TextureHandle h) {
+		if(h.referenceCount==0) return;
+		if(--h.referenceCount > 0) return;
+
+		handles.remove(h.getSourceName(), h);
+		PooledTexture t = h.getTexture();
+		if(t!=null) letGo(t);
+	}
+
+	private static void letGo(PooledTexture t) {
+		if(--t.users > 0) return;
+		textures.remove(t.hash, t);
+		residentBytes -= t.sizeInBytes;
+		toUnload.add(t);
+	}
+
+	/**
+	 * Runs on a worker thread.
+	 */
+	private static void load(TextureHandle h) {
+		String name = h.getSourceName();
+		PooledTexture t = null;
+		try {
+			byte [] data = readAll(name);
+			String hash = getHash(data);
+			// the same picture under another name needs no decoding.
+			if(!share(h,hash)) {
+				t = decode(hash,data,name);
+				add(h,t);
+			}
+		} catch(Exception e) {
+			Log.error("I can't load "+name+": "+e.getLocalizedMessage());
+			synchronized(TexturePool.class) {
+				h.fail();
+			}
+		} finally {
+			synchronized(TexturePool.class) {
+				numLoading--;
+			}
+			// draw it, or the lack of it.
+			OnDemandAnimator.requestFrame();
+		}
+	}
+
+	/**
+	 * Point h at a texture with the same contents, if there is one.
+	 * @return true if h was given a texture.
+	 */
+	private static synchronized boolean share(TextureHandle h,String hash) {
+		PooledTexture t = textures.get(hash);
+		if(t==null) return false;
+		if(h.referenceCount>0) t.users++;
+		h.finish(t);
+		return true;
+	}
+
+	/**
+	 * Add a newly decoded texture, unless another thread decoded the same contents first.
+	 */
+	private static synchronized void add(TextureHandle h,PooledTexture t) {
+		if(share(h,t.hash)) return;
+		// released while it was loading.  nobody wants it.
+		if(h.referenceCount==0) {
+			h.finish(null);
+			return;
+		}
+		t.users=1;
+		textures.put(t.hash, t);
+		residentBytes += t.sizeInBytes;
+		h.finish(t);
+		toUpload.add(t);
+	}
+
+	private static byte [] readAll(String name) throws IOException {
+		try(InputStream in = FileAccess.open(name)) {
+			return in.readAllBytes();
+		}
+	}
+
+	private static String getHash(byte [] data) throws NoSuchAlgorithmException {
+		byte [] digest = MessageDigest.getInstance("SHA-1").digest(data);
+		StringBuilder sb = new StringBuilder();
+		for(byte b : digest) sb.append(String.format("%02x",b));
+		return sb.toString();
+	}
+
+	/**
+	 * Decode an image into pixels OpenGL can use, bottom row first.
+	 */
+	static PooledTexture decode(String hash,byte [] data,String name) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+		if(image!=null) {
+			int w = image.getWidth();
+			int h = image.getHeight();
+			int [] argb = image.getRGB(0, 0, w, h, null, 0, w);
+			ByteBuffer pixels = ByteBuffer.allocateDirect(w*h*4).order(ByteOrder.nativeOrder());
+			for(int y=h-1;y>=0;--y) {
+				for(int x=0;x<w;++x) {
+					int c = argb[y*w+x];
+					pixels.put((byte)(c>>16));
+					pixels.put((byte)(c>> 8));
+					pixels.put((byte)(c    ));
+					pixels.put((byte)(c>>24));
+				}
+			}
+			pixels.rewind();
+			return new PooledTexture(hash,w,h,GL2.GL_RGBA,pixels,name);
+		}
+		if(name.toLowerCase().endsWith(".tga")) {
+			TGAImage tga = TGAImage.read(GLProfile.getDefault(), new ByteArrayInputStream(data));
+			ByteBuffer pixels = tga.getData();
+			pixels.rewind();
+			return new PooledTexture(hash,tga.getWidth(),tga.getHeight(),tga.getGLFormat(),pixels,name);
+		}
+		throw new IOException("unknown image format");
+	}
+
+	/**
+	 * Call once at the start of every frame on the GL thread.  Deletes released textures and uploads waiting ones
+	 * until the upload budget is spent.  The first upload of each frame is always allowed, so a texture bigger
+	 * than the budget still gets drawn.
+	 * @param gl2 the render context
+	 */
+	public static void startFrame(GL2 gl2) {
+		if(isDisposed) {
+			isDisposed=false;
+			reloadAll();
+		}
+
+		PooledTexture t;
+		while((t=toUnload.poll())!=null) {
+			t.unload(gl2);
+		}
+
+		long uploaded = 0;
+		while((t=toUpload.peek())!=null) {
+			if(uploaded>0 && uploaded+t.sizeInBytes>uploadBudget) {
+				// the rest next frame.
+				OnDemandAnimator.requestFrame();
+				break;
+			}
+			toUpload.poll();
+			// released before it was ever drawn.
+			if(getUsers(t)==0) continue;
+			t.upload(gl2);
+			uploaded += t.sizeInBytes;
+		}
+		uploadedLastFrame = uploaded;
+	}
+
+	/**
+	 * Delete every texture from OpenGL, for when the context goes away.  Must be called on the GL thread.  The
+	 * textures still in use are decoded and uploaded again from the next {@link #startFrame(GL2)}.
+	 * @param gl2 the render context
+	 */
+	public static void disposeAll(GL2 gl2) {
+		PooledTexture t;
+		while((t=toUnload.poll())!=null) {
+			t.unload(gl2);
+		}
+		synchronized(TexturePool.class) {
+			for(PooledTexture p : textures.values()) p.unload(gl2);
+		}
+		isDisposed=true;
+	}
+
+	/**
+	 * Decode again every texture whose pixels were dropped after upload.  The rest are still waiting to upload.
+	 */
+	private static synchronized void reloadAll() {
+		for(PooledTexture t : textures.values()) {
+			if(t.hasPixels()) continue;
+			numLoading++;
+			pool.execute(()->reload(t));
+		}
+	}
+
+	/**
+	 * Runs on a worker thread.
+	 */
+	private static void reload(PooledTexture t) {
+		try {
+			t.restorePixels(decode(t.hash,readAll(t.sourceName),t.sourceName));
+			toUpload.add(t);
+		} catch(Exception e) {
+			Log.error("I can't reload "+t.sourceName+": "+e.getLocalizedMessage());
+		} finally {
+			synchronized(TexturePool.class) {
+				numLoading--;
+			}
+			OnDemandAnimator.requestFrame();
+		}
+	}
+
+	private static synchronized int getUsers(PooledTexture t) {
+		return t.users;
+	}
+
+	/**
+	 * @param bytes the number of bytes of pixels that may be sent to OpenGL each frame.
+	 */
+	public static void setUploadBudget(long bytes) {
+		uploadBudget = bytes;
+	}
+
+	public static long getUploadBudget() {
+		return uploadBudget;
+	}
+
+	/**
+	 * @return the bytes of pixels uploaded at the start of the last frame.
+	 */
+	public static long getUploadedLastFrame() {
+		return uploadedLastFrame;
+	}
+
+	/**
+	 * @return the number of different images in the pool.
+	 */
+	public static synchronized int getNumTextures() {
+		return textures.size();
+	}
+
+	/**
+	 * @return the number of files in use.  More than {@link #getNumTextures()} when some have the same contents.
+	 */
+	public static synchronized int getNumHandles() {
+		return handles.size();
+	}
+
+	/**
+	 * @return the number of files waiting for or being decoded.
+	 */
+	public static synchronized int getNumLoading() {
+		return numLoading;
+	}
+
+	/**
+	 * @return the number of decoded textures waiting to be uploaded.
+	 */
+	public static int getNumWaitingToUpload() {
+		return toUpload.size();
+	}
+
+	/**
+	 * @return the bytes of pixels held by all textures in the pool, not counting mipmaps.
+	 */
+	public static synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * @return the number of references to h.
+	 */
+	public static synchronized int getReferenceCount(TextureHandle h) {
+		return h.referenceCount;
+	}
+
+	/**
+	 * @return a one line report of the pool statistics.
+	 */
+	public static String getSummary() {
+		return "textures="+getNumTextures()
+				+" files="+getNumHandles()
+				+" loading="+getNumLoading()
+				+" resident="+getResidentBytes();
+	}
+}
@@ -5,7 +5,6 @@ import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.glu.GLU;
 import com.marginallyclever.convenience.MatrixHelper;
 import com.marginallyclever.convenience.PrimitiveSolids;
 import com.marginallyclever.convenience.Ray;
@@ -35,6 +34,8 @@ public class Viewport extends Entity {
 
 	// calculated when rendering.  so won't be valid on the first frame.
 	private Matrix4d projectionMatrix = new Matrix4d();
+	// world to camera, calculated when rendering.
+	private Matrix4d viewMatrix = new Matrix4d();
 	
 	private DoubleEntity nearZ=new DoubleEntity("Near Z",5.0);
 	private DoubleEntity farZ=new DoubleEntity("Far Z",2000.0);
@@ -42,6 +43,8 @@ public class Viewport extends Entity {
 	private StringEntity attachedTo=new StringEntity("Attached to","");
 	private BooleanEntity drawOrthographic=new BooleanEntity("Orthographic",false);
 	
+	// the viewport drawing the current frame.
+	private static Viewport active;
 	
 	public Viewport() {
 		super();
@@ -82,23 +85,69 @@ public class Viewport extends Entity {
 	}
 
 	public void renderShared(GL2 gl2) {
-		// store the projection matrix for later
-        double [] m = new double[16];
-        gl2.glGetDoublev(GL2.GL_PROJECTION_MATRIX, m, 0);
-        projectionMatrix.set(m);
-
+		updateProjectionMatrix();
+		
     	gl2.glMatrixMode(GL2.GL_MODELVIEW);
         gl2.glLoadIdentity();
 
-		Matrix4d mFinal = new Matrix4d();
 		PoseEntity camera = getAttachedTo();
-		if(camera !=null) camera.getPoseWorld(mFinal);
-		else mFinal.setIdentity(); 
-		mFinal.invert();
-		MatrixHelper.applyMatrix(gl2, mFinal);
+		if(camera !=null) camera.getPoseWorld(viewMatrix);
+		else viewMatrix.setIdentity(); 
+		viewMatrix.invert();
+		MatrixHelper.applyMatrix(gl2, viewMatrix);
+	}
+	
+	/**
+	 * Find the projection matrix the same way {@link #renderChosenProjection(GL2)} does, instead of asking
+	 * OpenGL for it.
+	 */
+	private void updateProjectionMatrix() {
+		double zNear = nearZ.get();
+		double zFar = farZ.get();
+		if(drawOrthographic.get()) {
+			// same as renderOrtho()
+			PoseEntity camera = getAttachedTo();
+			double zoom = (camera instanceof Camera) ? ((Camera)camera).getZoom()/100 : 1;
+			double w = canvasWidth/10;
+			double h = canvasHeight/10;
+			projectionMatrix.set(new double[] {
+				zoom/w, 0, 0, 0,
+				0, zoom/h, 0, 0,
+				0, 0, -2/(zFar-zNear), -(zFar+zNear)/(zFar-zNear),
+				0, 0, 0, 1 });
+		} else {
+			// same as renderPerspective()
+			double t = Math.tan( Math.toRadians(fieldOfView.get()/2) );
+			double aspect = (double)canvasWidth / (double)canvasHeight;
+			projectionMatrix.set(new double[] {
+				1/(t*aspect), 0, 0, 0,
+				0, 1/t, 0, 0,
+				0, 0, -(zFar+zNear)/(zFar-zNear), -2*zFar*zNear/(zFar-zNear),
+				0, 0, -1, 0 });
+		}
+	}
+	
+	/**
+	 * @param m receives the projection matrix of the last frame.
+	 */
+	public void getProjectionMatrix(Matrix4d m) {
+		m.set(projectionMatrix);
+	}
+	
+	/**
+	 * @param m receives the world to camera matrix of the last frame, the modelview matrix before anything
+	 * in the scene is drawn.
+	 */
+	public void getViewMatrix(Matrix4d m) {
+		m.set(viewMatrix);
+	}
+	
+	public double getFarZ() {
+		return farZ.get();
 	}
 	
 	public void renderChosenProjection(GL2 gl2) {
+		active = this;
     	gl2.glMatrixMode(GL2.GL_PROJECTION);
 		gl2.glLoadIdentity();
 		
@@ -111,18 +160,69 @@ public class Viewport extends Entity {
         renderShared(gl2);
 	}
 	
-	public void renderPick(GL2 gl2,double pickX,double pickY) {
-        // get the current viewport dimensions to set up the projection matrix
-        int[] viewportDimensions = new int[4];
-		gl2.glGetIntegerv(GL2.GL_VIEWPORT,viewportDimensions,0);
+	/**
+	 * @return the {@link Viewport} drawing the current frame, or null before the first frame.
+	 */
+	public static Viewport getActive() {
+		return active;
+	}
 
-		GLU glu = GLU.createGLU(gl2);
-        
-		// Set up a tiny viewport that only covers the area behind the cursor. 
-		// Tiny viewports are faster.
+	/**
+	 * Find what this viewport can see, the same as {@link #renderChosenProjection(GL2)}.
+	 * @param frustum receives the planes in world space.
+	 */
+	public void getFrustum(Frustum frustum) {
+		PoseEntity camera = getAttachedTo();
+		Matrix4d m = new Matrix4d();
+		if(camera!=null) camera.getPoseWorld(m);
+		else m.setIdentity();
+
+		if(drawOrthographic.get()) {
+			// same as renderOrtho()
+			double zoom = (camera instanceof Camera) ? ((Camera)camera).getZoom()/100 : 1;
+			double w = canvasWidth/10;
+			double h = canvasHeight/10;
+			frustum.setOrthographic(w/zoom, h/zoom, nearZ.get(), farZ.get(), m);
+		} else {
+			// same as renderPerspective()
+			double t = Math.tan( Math.toRadians(fieldOfView.get()/2) );
+			double aspect = (double)canvasWidth / (double)canvasHeight;
+			frustum.setPerspective(t*aspect, t, nearZ.get(), farZ.get(), m);
+		}
+	}
+
+	/**
+	 * How big is one unit on screen?  Useful for choosing how much detail to draw.
+	 * @param depth distance in front of the camera.
+	 * @return the number of pixels covered by one unit at that depth.
+	 */
+	public double getPixelsPerUnit(double depth) {
+		if(drawOrthographic.get()) {
+			PoseEntity camera = getAttachedTo();
+			double zoom = (camera instanceof Camera) ? ((Camera)camera).getZoom()/100 : 1;
+			// same as renderOrtho()
+			double h = canvasHeight/10;
+			return canvasHeight / (2*h/zoom);
+		}
+		double zNear = nearZ.get();
+		if(depth<zNear) depth=zNear;
+		return canvasHeight / (2.0*Math.tan(Math.toRadians(fieldOfView.get()/2))*depth);
+	}
+	
+	/**
+	 * Set the projection to show only a small square around the cursor, as gluPickMatrix does, and the
+	 * modelview to the camera.  The square fills whatever viewport is current.
+	 * @param gl2 the render context
+	 * @param pickX cursor position in pixels from the left of the canvas
+	 * @param pickY cursor position in pixels from the top of the canvas
+	 * @param size width and height of the square, in pixels.
+	 */
+	public void renderPick(GL2 gl2,double pickX,double pickY,double size) {
         gl2.glMatrixMode(GL2.GL_PROJECTION);
         gl2.glLoadIdentity();
-		glu.gluPickMatrix(pickX, canvasHeight-pickY, 5.0, 5.0, viewportDimensions,0);
+		// same as gluPickMatrix over the whole canvas, without asking GL for the viewport.
+		gl2.glTranslated((canvasWidth-2*pickX)/size, (canvasHeight-2*(canvasHeight-pickY))/size, 0);
+		gl2.glScaled(canvasWidth/size, canvasHeight/size, 1);
 
 		if(drawOrthographic.get()) {
 			renderOrtho(gl2);
@@ -162,7 +262,9 @@ public class Viewport extends Entity {
 			Matrix4d m2 = new Matrix4d();
 			camera.getPoseWorld(m2);
 			m2.transform(ray.direction);
-			ray.start.set(camera.getPosition());
+			Vector3d p = new Vector3d();
+			m2.get(p);
+			ray.start.set(p);
 		}
 		ray.direction.normalize();
 		
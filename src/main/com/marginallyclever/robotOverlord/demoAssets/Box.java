@@ -64,6 +64,7 @@ public class Box extends Shape implements Collidable {
 		Point3d _boundBottom = new Point3d(-width.get()/2,-depth.get()/2,0           );
 		Point3d _boundTop    = new Point3d( width.get()/2, depth.get()/2,height.get());
 		cuboid.setBounds(_boundTop, _boundBottom);
+		markBoundsDirty();
 	}
 	
 	/**
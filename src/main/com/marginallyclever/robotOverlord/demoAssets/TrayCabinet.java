@@ -17,6 +17,7 @@ public class TrayCabinet extends Shape {
 		setShapeFilename("/trayCabinet_resized.stl"); 
 		getMaterial().setDiffuseColor(1, 1, 1, 1);
 		getMaterial().setAmbientColor(1, 1, 1, 1);
+		setStatic(true);
 		
 		Shape tray = new Shape();
 		addChild(tray);
@@ -25,6 +26,7 @@ public class TrayCabinet extends Shape {
 		tray.setPosition(new Vector3d(3.925*-3,-8.35,0.3+7));
 		tray.getMaterial().setDiffuseColor(1, 1, 1, 1);
 		tray.getMaterial().setAmbientColor(1, 1, 1, 1);
+		tray.setStatic(true);
 		
 	}
 	
@@ -16,6 +16,7 @@ import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.Scene;
 import com.marginallyclever.robotOverlord.dhRobotEntity.dhTool.DHTool;
 import com.marginallyclever.robotOverlord.dhRobotEntity.solvers.DHIKSolver;
+import com.marginallyclever.robotOverlord.shape.ConvexHull;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewPanel;
 
 /**
@@ -173,6 +174,7 @@ public class DHRobotModel extends Entity {
 	 * Test physical bounds of link N against all links &lt;N-1 and all links
 	 * &gt;N+1 We're using separating Axis Theorem. See
 	 * https://gamedev.stackexchange.com/questions/25397/obb-vs-obb-collision-detection
+	 * Boxes that overlap are then tested again with the {@link ConvexHull} of each link.
 	 * 
 	 * @param keyframe the angles at time of test
 	 * @return true if there are no collisions
@@ -193,7 +195,7 @@ public class DHRobotModel extends Entity {
 				if (bb.size()==0)
 					continue;
 
-				if (IntersectionHelper.cuboidCuboid(aa.get(0),bb.get(0))) {
+				if (IntersectionHelper.cuboidCuboidHull(aa.get(0),bb.get(0))) {
 					Log.message("Self collision between "
 								+links.get(i).getName()
 								+" and "
@@ -2,6 +2,7 @@ package com.marginallyclever.robotOverlord.moveTool;
 
 import java.awt.Font;
 
+import javax.swing.SwingUtilities;
 import javax.swing.event.UndoableEditEvent;
 import javax.vecmath.Matrix3d;
 import javax.vecmath.Matrix4d;
@@ -16,6 +17,7 @@ import com.marginallyclever.convenience.MatrixHelper;
 import com.marginallyclever.convenience.OpenGLHelper;
 import com.marginallyclever.convenience.PrimitiveSolids;
 import com.marginallyclever.convenience.Ray;
+import com.marginallyclever.convenience.RetainedGeometry;
 import com.marginallyclever.convenience.StringHelper;
 import com.marginallyclever.robotOverlord.Entity;
 import com.marginallyclever.robotOverlord.Moveable;
@@ -537,7 +539,9 @@ public class MoveTool extends Entity {
 	public void attemptMove(RobotOverlord ro) {
 		if(subject.canYouMoveTo(resultMatrix)) {
 			FOR.setTranslation(MatrixHelper.getPosition(resultMatrix));
-			ro.undoableEditHappened(new UndoableEditEvent(this,new MoveEdit(subject,resultMatrix) ) );
+			// moved now, during the step.  the undo history belongs to the Swing thread.
+			UndoableEditEvent event = new UndoableEditEvent(this,new MoveEdit(subject,new Matrix4d(resultMatrix)));
+			SwingUtilities.invokeLater(() -> ro.undoableEditHappened(event));
 		}
 	}
 
@@ -750,36 +754,48 @@ public class MoveTool extends Entity {
 	}
 	
 	private void renderDiscXY(GL2 gl2,double radius0,double radius1) {
-		gl2.glBegin(GL2.GL_TRIANGLE_STRIP);
-		for(double n=0;n<Math.PI*4;n+=STEP_SIZE) {
-			double x=Math.cos(n);
-			double y=Math.sin(n);
-			gl2.glVertex3d(y*radius0,x*radius0,0);
-			gl2.glVertex3d(y*radius1,x*radius1,0);
-		}
-		gl2.glEnd();
+		getDisc(2,radius0,radius1).render(gl2);
 	}
 	
 	private void renderDiscYZ(GL2 gl2,double radius0,double radius1) {
-		gl2.glBegin(GL2.GL_TRIANGLE_STRIP);
-		for(double n=0;n<Math.PI*4;n+=STEP_SIZE) {
-			double x=Math.cos(n);
-			double y=Math.sin(n);
-			gl2.glVertex3d(0,x*radius0,y*radius0);
-			gl2.glVertex3d(0,x*radius1,y*radius1);
-		}
-		gl2.glEnd();
+		getDisc(0,radius0,radius1).render(gl2);
 	}
 	
 	private void renderDiscXZ(GL2 gl2,double radius0,double radius1) {
-		gl2.glBegin(GL2.GL_TRIANGLE_STRIP);
+		getDisc(1,radius0,radius1).render(gl2);
+	}
+	
+	/**
+	 * @param axis the disc is around this axis, 0 for x, 1 for y, 2 for z.
+	 * @return a shared ring between the two radiuses.
+	 */
+	private RetainedGeometry getDisc(int axis,double radius0,double radius1) {
+		String key = "MoveTool.disc"+axis+"/"+radius0+"/"+radius1;
+		RetainedGeometry g = RetainedGeometry.get(key);
+		if(g!=null) return g;
+		
+		g = new RetainedGeometry();
+		g.begin(GL2.GL_TRIANGLE_STRIP);
 		for(double n=0;n<Math.PI*4;n+=STEP_SIZE) {
 			double x=Math.cos(n);
 			double y=Math.sin(n);
-			gl2.glVertex3d(x*radius0,0,y*radius0);
-			gl2.glVertex3d(x*radius1,0,y*radius1);
+			switch(axis) {
+			case 0:
+				g.vertex(0,x*radius0,y*radius0);
+				g.vertex(0,x*radius1,y*radius1);
+				break;
+			case 1:
+				g.vertex(x*radius0,0,y*radius0);
+				g.vertex(x*radius1,0,y*radius1);
+				break;
+			default:
+				g.vertex(y*radius0,x*radius0,0);
+				g.vertex(y*radius1,x*radius1,0);
+				break;
+			}
 		}
-		gl2.glEnd();
+		g.end();
+		return RetainedGeometry.put(key,g);
 	}
 	
 	public void renderTranslation(GL2 gl2) {
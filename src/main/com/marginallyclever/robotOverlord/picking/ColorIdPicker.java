@@ -0,0 +1,191 @@
+package com.marginallyclever.robotOverlord.picking;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import com.marginallyclever.convenience.MatrixHelper;
+import com.marginallyclever.convenience.PrimitiveSolids;
+import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.PoseEntity;
+import com.marginallyclever.robotOverlord.Scene;
+import com.marginallyclever.robotOverlord.Viewport;
+
+/**
+ * {@link ColorIdPicker} draws the cuboids of the {@link ScenePickTree} into a tiny offscreen buffer around the
+ * cursor, each in the color of its owner's {@link PickRegistry} id, and reads the colors back.
+ * <p>
+ * The color is the emission of a black material with every light off, so vertex colors and textures can't
+ * change it.  Deeper entities are drawn first and win when two surfaces are at the same depth.
+ * Without framebuffer objects it falls back to a {@link RayPicker}.
+ * @author Dan Royer
+ */
+public class ColorIdPicker implements Picker {
+	// width and height of the offscreen buffer, in pixels.  Odd, so the cursor is in the middle of a pixel.
+	public static final int SIZE = 9;
+	private static final int MAX_LIGHTS = 8;
+	private static final float [] BLACK = { 0,0,0,1 };
+
+	private RayPicker fallback = new RayPicker();
+	private ByteBuffer pixels = Buffers.newDirectByteBuffer(SIZE*SIZE*4);
+	private float [] color = new float[4];
+
+	// GL objects belong to one context.
+	private GLContext context;
+	private boolean isSetUp;
+	private boolean isSupported;
+	private int frameBuffer, colorBuffer, depthBuffer;
+
+	@Override
+	public PoseEntity pick(GL2 gl2,Scene scene,Viewport viewport,int x,int y) {
+		if(!isSetUp || context!=gl2.getContext()) setup(gl2);
+		if(!isSupported) return fallback.pick(gl2,scene,viewport,x,y);
+
+		ScenePickTree tree = scene.getPickTree();
+		tree.update(scene);
+		// deepest first, so they win ties in the depth test.
+		ArrayList<ScenePickTree.Item> items = new ArrayList<ScenePickTree.Item>(tree.getItems());
+		items.sort((a,b)->b.depth-a.depth);
+
+		gl2.glBindFramebuffer(GL2.GL_FRAMEBUFFER,frameBuffer);
+		gl2.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+		gl2.glViewport(0,0,SIZE,SIZE);
+		viewport.renderPick(gl2,x,y,SIZE);
+
+		gl2.glClearColor(0,0,0,0);
+		gl2.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+		gl2.glEnable(GL2.GL_DEPTH_TEST);
+		gl2.glDepthFunc(GL2.GL_LESS);
+		gl2.glDisable(GL2.GL_TEXTURE_2D);
+		gl2.glDisable(GL2.GL_BLEND);
+		gl2.glDisable(GL2.GL_DITHER);
+		gl2.glDisable(GL2.GL_FOG);
+		gl2.glDisable(GL2.GL_COLOR_MATERIAL);
+		gl2.glEnable(GL2.GL_LIGHTING);
+		for(int i=0;i<MAX_LIGHTS;++i) gl2.glDisable(GL2.GL_LIGHT0+i);
+		gl2.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT,BLACK,0);
+		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_AMBIENT,BLACK,0);
+		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_DIFFUSE,BLACK,0);
+		gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_SPECULAR,BLACK,0);
+
+		for(ScenePickTree.Item item : items) {
+			getColor(item.owner.getPickName(),color);
+			gl2.glMaterialfv(GL2.GL_FRONT_AND_BACK,GL2.GL_EMISSION,color,0);
+			gl2.glPushMatrix();
+			MatrixHelper.applyMatrix(gl2,item.pose);
+			if(item.hasTriangles()) item.mesh.render(gl2);
+			else PrimitiveSolids.drawBox(gl2,item.bottom,item.top);
+			gl2.glPopMatrix();
+		}
+
+		pixels.clear();
+		gl2.glPixelStorei(GL2.GL_PACK_ALIGNMENT,1);
+		gl2.glReadPixels(0,0,SIZE,SIZE,GL2.GL_RGBA,GL2.GL_UNSIGNED_BYTE,pixels);
+		gl2.glPopAttrib();
+		gl2.glBindFramebuffer(GL2.GL_FRAMEBUFFER,0);
+
+		return PickRegistry.get(findId(pixels,SIZE));
+	}
+
+	/**
+	 * Make the offscreen buffer once per context.
+	 */
+	private void setup(GL2 gl2) {
+		context = gl2.getContext();
+		isSetUp = true;
+		isSupported = gl2.isFunctionAvailable("glGenFramebuffers")
+				&& gl2.isFunctionAvailable("glGenRenderbuffers");
+		if(!isSupported) {
+			Log.message("ColorIdPicker: framebuffers not available, picking with rays.");
+			return;
+		}
+
+		int [] names = new int[2];
+		gl2.glGenFramebuffers(1,names,0);
+		frameBuffer = names[0];
+		gl2.glGenRenderbuffers(2,names,0);
+		colorBuffer = names[0];
+		depthBuffer = names[1];
+
+		gl2.glBindRenderbuffer(GL2.GL_RENDERBUFFER,colorBuffer);
+		gl2.glRenderbufferStorage(GL2.GL_RENDERBUFFER,GL2.GL_RGBA8,SIZE,SIZE);
+		gl2.glBindRenderbuffer(GL2.GL_RENDERBUFFER,depthBuffer);
+		gl2.glRenderbufferStorage(GL2.GL_RENDERBUFFER,GL2.GL_DEPTH_COMPONENT24,SIZE,SIZE);
+		gl2.glBindRenderbuffer(GL2.GL_RENDERBUFFER,0);
+
+		gl2.glBindFramebuffer(GL2.GL_FRAMEBUFFER,frameBuffer);
+		gl2.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER,GL2.GL_COLOR_ATTACHMENT0,GL2.GL_RENDERBUFFER,colorBuffer);
+		gl2.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER,GL2.GL_DEPTH_ATTACHMENT,GL2.GL_RENDERBUFFER,depthBuffer);
+		int status = gl2.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER);
+		gl2.glBindFramebuffer(GL2.GL_FRAMEBUFFER,0);
+		if(status!=GL2.GL_FRAMEBUFFER_COMPLETE) {
+			Log.error("ColorIdPicker: framebuffer not complete ("+status+"), picking with rays.");
+			release(gl2);
+			isSupported = false;
+		}
+	}
+
+	/**
+	 * Release the GL objects.  Call when the context is going away.
+	 * @param gl2 the render context
+	 */
+	public void dispose(GL2 gl2) {
+		if(!isSetUp) return;
+		release(gl2);
+		context=null;
+		isSetUp=false;
+		isSupported=false;
+	}
+
+	private void release(GL2 gl2) {
+		if(frameBuffer!=0) gl2.glDeleteFramebuffers(1,new int[] { frameBuffer },0);
+		if(colorBuffer!=0) gl2.glDeleteRenderbuffers(2,new int[] { colorBuffer, depthBuffer },0);
+		frameBuffer=0;
+		colorBuffer=0;
+		depthBuffer=0;
+	}
+
+	/**
+	 * @return true if the current context can draw offscreen.  Only known after the first pick.
+	 */
+	public boolean isSupported() {
+		return isSupported;
+	}
+
+	/**
+	 * @param id a {@link PickRegistry} id, up to 24 bits.
+	 * @param rgba receives the color for id.
+	 */
+	public static void getColor(int id,float [] rgba) {
+		rgba[0] = ( id        & 0xff)/255f;
+		rgba[1] = ((id >>  8) & 0xff)/255f;
+		rgba[2] = ((id >> 16) & 0xff)/255f;
+		rgba[3] = 1;
+	}
+
+	/**
+	 * @param pixels RGBA bytes, size*size pixels.
+	 * @param size width and height of the image.
+	 * @return the id of the pixel in the middle, or of the nearest pixel that is not empty.  Zero for none.
+	 */
+	public static int findId(ByteBuffer pixels,int size) {
+		int center = size/2;
+		int bestId=0;
+		int bestDistance=Integer.MAX_VALUE;
+		for(int y=0;y<size;++y) {
+			for(int x=0;x<size;++x) {
+				int i = (y*size+x)*4;
+				int id = (pixels.get(i) & 0xff) | ((pixels.get(i+1) & 0xff) << 8) | ((pixels.get(i+2) & 0xff) << 16);
+				if(id==0) continue;
+				int distance = (x-center)*(x-center) + (y-center)*(y-center);
+				if(distance<bestDistance) {
+					bestDistance=distance;
+					bestId=id;
+				}
+			}
+		}
+		return bestId;
+	}
+}
@@ -0,0 +1,71 @@
+package com.marginallyclever.robotOverlord.picking;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.marginallyclever.robotOverlord.PoseEntity;
+
+/**
+ * {@link PickRegistry} gives every {@link PoseEntity} a unique id and finds the entity again from the id, wherever
+ * it is in the scene.  Zero is never given out and means "nothing".
+ * <p>
+ * Entities are held weakly.  When one is garbage collected its id is given to the next new entity, so ids stay
+ * small enough to fit in the 24 bits of a color.
+ * @author Dan Royer
+ */
+public class PickRegistry {
+	private static class Entry extends WeakReference<PoseEntity> {
+		final int id;
+
+		Entry(PoseEntity e,int id) {
+			super(e,queue);
+			this.id = id;
+		}
+	}
+
+	private static final ReferenceQueue<PoseEntity> queue = new ReferenceQueue<PoseEntity>();
+	private static final HashMap<Integer,Entry> entries = new HashMap<Integer,Entry>();
+	private static final ArrayList<Integer> freeIds = new ArrayList<Integer>();
+	private static int nextId = 1;
+
+	/**
+	 * @param e the entity
+	 * @return a new id for e.
+	 */
+	public static synchronized int register(PoseEntity e) {
+		removeCollected();
+		int id = freeIds.isEmpty() ? nextId++ : freeIds.remove(freeIds.size()-1);
+		entries.put(id, new Entry(e,id));
+		return id;
+	}
+
+	/**
+	 * @param id an id from {@link #register(PoseEntity)}
+	 * @return the entity with that id, or null.
+	 */
+	public static synchronized PoseEntity get(int id) {
+		Entry entry = entries.get(id);
+		return entry==null ? null : entry.get();
+	}
+
+	/**
+	 * @return the number of entities with an id.
+	 */
+	public static synchronized int size() {
+		removeCollected();
+		return entries.size();
+	}
+
+	private static void removeCollected() {
+		Entry entry;
+		while((entry = (Entry)queue.poll())!=null) {
+			// only if it was not replaced already.
+			if(entries.get(entry.id)==entry) {
+				entries.remove(entry.id);
+				freeIds.add(entry.id);
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.marginallyclever.robotOverlord.picking;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.PoseEntity;
+import com.marginallyclever.robotOverlord.Scene;
+import com.marginallyclever.robotOverlord.Viewport;
+
+/**
+ * Finds the {@link PoseEntity} under the cursor.
+ * @author Dan Royer
+ */
+public interface Picker {
+	/**
+	 * @param gl2 the render context
+	 * @param scene the scene to search
+	 * @param viewport the view of the scene
+	 * @param x cursor position in pixels from the left of the canvas
+	 * @param y cursor position in pixels from the top of the canvas
+	 * @return the deepest {@link PoseEntity} under the cursor, or null.
+	 */
+	public PoseEntity pick(GL2 gl2,Scene scene,Viewport viewport,int x,int y);
+}
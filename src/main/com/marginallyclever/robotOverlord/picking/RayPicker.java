@@ -0,0 +1,23 @@
+package com.marginallyclever.robotOverlord.picking;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.Ray;
+import com.marginallyclever.robotOverlord.PoseEntity;
+import com.marginallyclever.robotOverlord.Scene;
+import com.marginallyclever.robotOverlord.Viewport;
+
+/**
+ * {@link RayPicker} casts a ray from the camera through the cursor and tests it against the
+ * {@link ScenePickTree} of the scene.  Nothing is drawn.
+ * @author Dan Royer
+ */
+public class RayPicker implements Picker {
+	@Override
+	public PoseEntity pick(GL2 gl2,Scene scene,Viewport viewport,int x,int y) {
+		viewport.setCursor(x,y);
+		Ray ray = viewport.rayPick();
+		ScenePickTree tree = scene.getPickTree();
+		tree.update(scene);
+		return tree.pick(ray);
+	}
+}
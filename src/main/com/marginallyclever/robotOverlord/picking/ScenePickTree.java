@@ -0,0 +1,362 @@
+package com.marginallyclever.robotOverlord.picking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+
+import com.marginallyclever.convenience.Cuboid;
+import com.marginallyclever.convenience.Ray;
+import com.marginallyclever.robotOverlord.AbstractEntity;
+import com.marginallyclever.robotOverlord.Collidable;
+import com.marginallyclever.robotOverlord.Entity;
+import com.marginallyclever.robotOverlord.PoseEntity;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshBVH;
+
+/**
+ * {@link ScenePickTree} is a bounding volume hierarchy over every {@link Cuboid} of every {@link Collidable}
+ * {@link PoseEntity} in a scene.  A ray is tested against the world bounds in the tree first, then against the
+ * {@link MeshBVH} of each cuboid it reaches, nearest first.
+ * <p>
+ * {@link #update(Entity)} reads the cuboids again.  When the same cuboids are found the tree keeps its shape and
+ * only the bounds of the nodes are moved, otherwise it is built again.
+ * @author Dan Royer
+ */
+public class ScenePickTree {
+	// the most items a leaf may hold.
+	private static final int MAX_LEAF = 2;
+	// hits this close together are the same hit, and the deeper entity wins.
+	private static final double EPSILON = 1e-4;
+
+	/**
+	 * one {@link Cuboid} as it was at the last update.
+	 */
+	static class Item {
+		PoseEntity owner;
+		// how many parents the owner has below the root.
+		int depth;
+		Mesh mesh;
+		Matrix4d pose = new Matrix4d();
+		Matrix4d inverse = new Matrix4d();
+		Point3d bottom = new Point3d();
+		Point3d top = new Point3d();
+
+		Item(PoseEntity owner,int depth,Cuboid c) {
+			this.owner = owner;
+			this.depth = depth;
+			mesh = c.getShape();
+			c.getPose(pose);
+			bottom.set(c.getBoundsBottom());
+			top.set(c.getBoundsTop());
+			if(pose.determinant()!=0) {
+				inverse.set(pose);
+				inverse.invert();
+			}
+		}
+
+		/**
+		 * @return true if nothing can hit this item.
+		 */
+		boolean isEmpty() {
+			return pose.determinant()==0
+				|| bottom.x>top.x || bottom.y>top.y || bottom.z>top.z
+				|| (mesh==null && bottom.equals(top));
+		}
+
+		boolean isLike(Item b) {
+			return owner==b.owner
+				&& mesh==b.mesh
+				&& bottom.equals(b.bottom)
+				&& top.equals(b.top);
+		}
+
+		/**
+		 * @return true if the triangles of the mesh can be tested.  Otherwise the box is tested.
+		 */
+		boolean hasTriangles() {
+			return mesh!=null && mesh.getBVH().getNumTriangles()>0;
+		}
+	}
+
+	private ArrayList<Item> items = new ArrayList<Item>();
+	// world bounds of each item, six doubles per item.
+	private double [] itemBounds = new double[0];
+	// items in leaf order.
+	private int [] order = new int[0];
+	// min x,y,z and max x,y,z of each node.
+	private double [] bounds;
+	// leaves: the first item in order.  inner nodes: the right child.
+	private int [] offset;
+	// leaves: the number of items.  inner nodes: 0.
+	private int [] count;
+	private int numNodes;
+
+	private int numBuilt;
+	private int numRefits;
+
+	/**
+	 * Read the cuboids of every collidable entity below root again.
+	 * @param root the top of the scene.  It is not tested.
+	 */
+	public void update(Entity root) {
+		ArrayList<Item> found = new ArrayList<Item>();
+		for(Entity c : root.getChildren()) collect(c,1,found);
+
+		boolean same = numNodes>0 && found.size()==items.size();
+		for(int i=0;same && i<found.size();++i) {
+			same = found.get(i).isLike(items.get(i));
+		}
+		items = found;
+		setItemBounds();
+		if(same) {
+			refit();
+			numRefits++;
+		} else {
+			build();
+			numBuilt++;
+		}
+	}
+
+	private void collect(Entity e,int depth,ArrayList<Item> found) {
+		// values such as a filename never collide.
+		if(e instanceof AbstractEntity) return;
+		if(e instanceof PoseEntity && e instanceof Collidable) {
+			ArrayList<Cuboid> list = ((Collidable)e).getCuboidList();
+			if(list!=null) {
+				for(Cuboid c : list) {
+					Item item = new Item((PoseEntity)e,depth,c);
+					if(!item.isEmpty()) found.add(item);
+				}
+			}
+		}
+		for(Entity c : e.getChildren()) collect(c,depth+1,found);
+	}
+
+	/**
+	 * World bounds of each item are the bounds of its eight moved corners.
+	 */
+	private void setItemBounds() {
+		int n = items.size();
+		itemBounds = new double[n*6];
+		Point3d p = new Point3d();
+		for(int i=0;i<n;++i) {
+			Item item = items.get(i);
+			emptyBox(itemBounds,i);
+			for(int c=0;c<8;++c) {
+				p.set(	(c&1)==0 ? item.bottom.x : item.top.x,
+						(c&2)==0 ? item.bottom.y : item.top.y,
+						(c&4)==0 ? item.bottom.z : item.top.z);
+				item.pose.transform(p);
+				growPoint(itemBounds,i,p);
+			}
+		}
+	}
+
+	private void build() {
+		int n = items.size();
+		order = new int[n];
+		for(int i=0;i<n;++i) order[i]=i;
+		int capacity = Math.max(1, 2*n-1);
+		bounds = new double[capacity*6];
+		offset = new int[capacity];
+		count = new int[capacity];
+		numNodes=0;
+		if(n>0) build(0,n);
+	}
+
+	/**
+	 * Make a node for items order[first...first+n-1], split at the middle of the longest side.
+	 * @return the node number.
+	 */
+	private int build(int first,int n) {
+		int node = numNodes++;
+		double [] cb = new double[6];
+		emptyBox(bounds,node);
+		emptyBox(cb,0);
+		Point3d center = new Point3d();
+		for(int i=first;i<first+n;++i) {
+			int b = order[i]*6;
+			grow(bounds,node,itemBounds,order[i]);
+			center.set(	(itemBounds[b  ]+itemBounds[b+3])*0.5,
+						(itemBounds[b+1]+itemBounds[b+4])*0.5,
+						(itemBounds[b+2]+itemBounds[b+5])*0.5);
+			growPoint(cb,0,center);
+		}
+		offset[node]=first;
+		count[node]=n;
+		if(n<=MAX_LEAF) return node;
+
+		int axis=0;
+		for(int a=1;a<3;++a) {
+			if(cb[a+3]-cb[a] > cb[axis+3]-cb[axis]) axis=a;
+		}
+		final int a = axis;
+		Integer [] sorted = new Integer[n];
+		for(int i=0;i<n;++i) sorted[i]=order[first+i];
+		Arrays.sort(sorted,(i,j)->Double.compare(
+				itemBounds[i*6+a]+itemBounds[i*6+a+3],
+				itemBounds[j*6+a]+itemBounds[j*6+a+3]));
+		for(int i=0;i<n;++i) order[first+i]=sorted[i];
+
+		int half = n/2;
+		count[node]=0;
+		build(first,half);
+		offset[node] = build(first+half,n-half);
+		return node;
+	}
+
+	/**
+	 * Move the bounds of every node to fit the items again.  Children always come after their parent.
+	 */
+	private void refit() {
+		for(int node=numNodes-1;node>=0;--node) {
+			emptyBox(bounds,node);
+			if(count[node]>0) {
+				for(int i=offset[node];i<offset[node]+count[node];++i) grow(bounds,node,itemBounds,order[i]);
+			} else {
+				grow(bounds,node,bounds,node+1);
+				grow(bounds,node,bounds,offset[node]);
+			}
+		}
+	}
+
+	/**
+	 * Find the nearest cuboid hit by a ray.  When two hits are the same distance away the deeper entity wins, so
+	 * a part is found before the robot made of it.
+	 * @param ray in world space.
+	 * @return the owner of the nearest cuboid hit, or null.
+	 */
+	public PoseEntity pick(Ray ray) {
+		if(numNodes==0) return null;
+		double ox = ray.start.x, oy = ray.start.y, oz = ray.start.z;
+		double ix = 1.0/ray.direction.x, iy = 1.0/ray.direction.y, iz = 1.0/ray.direction.z;
+		double best = Double.MAX_VALUE;
+		Item bestItem = null;
+		Ray local = new Ray();
+
+		int [] stack = new int[64];
+		int top=0;
+		stack[top++]=0;
+		while(top>0) {
+			int node = stack[--top];
+			double near = rayBox(bounds,node,ox,oy,oz,ix,iy,iz);
+			if(near==Double.MAX_VALUE || near>best+EPSILON) continue;
+			if(count[node]>0) {
+				for(int i=offset[node];i<offset[node]+count[node];++i) {
+					Item item = items.get(order[i]);
+					double d = intersect(item,ray,local);
+					if(d<0) continue;
+					if(bestItem==null || d<best-EPSILON || (d<=best+EPSILON && item.depth>bestItem.depth)) {
+						bestItem = item;
+						best = Math.min(best,d);
+					}
+				}
+			} else {
+				int left = node+1;
+				int right = offset[node];
+				double dl = rayBox(bounds,left ,ox,oy,oz,ix,iy,iz);
+				double dr = rayBox(bounds,right,ox,oy,oz,ix,iy,iz);
+				if(top+2>stack.length) stack = Arrays.copyOf(stack, stack.length*2);
+				// the nearer child is visited first.
+				if(dl<=dr) {
+					if(dr!=Double.MAX_VALUE) stack[top++]=right;
+					if(dl!=Double.MAX_VALUE) stack[top++]=left;
+				} else {
+					if(dl!=Double.MAX_VALUE) stack[top++]=left;
+					stack[top++]=right;
+				}
+			}
+		}
+		return bestItem==null ? null : bestItem.owner;
+	}
+
+	/**
+	 * @return distance along ray to the item, in units of ray.direction.  Negative for no hit.
+	 */
+	private static double intersect(Item item,Ray ray,Ray local) {
+		// the direction is moved without normalizing, so distances along it are the same in both spaces.
+		item.inverse.transform(ray.start,local.start);
+		item.inverse.transform(ray.direction,local.direction);
+		if(item.hasTriangles()) return item.mesh.getBVH().intersect(local);
+
+		double [] box = {
+			item.bottom.x, item.bottom.y, item.bottom.z,
+			item.top.x, item.top.y, item.top.z
+		};
+		double d = rayBox(box,0,local.start.x,local.start.y,local.start.z,
+				1.0/local.direction.x,1.0/local.direction.y,1.0/local.direction.z);
+		// starting inside the box is not a hit, or the camera could never see past it.
+		return (d==Double.MAX_VALUE || d<0) ? -1 : d;
+	}
+
+	/**
+	 * Slab test.
+	 * @return distance to where the ray enters box i of boxes, or Double.MAX_VALUE if it misses.
+	 */
+	private static double rayBox(double [] boxes,int i,double ox,double oy,double oz,double ix,double iy,double iz) {
+		int b = i*6;
+		double t0 = (boxes[b  ]-ox)*ix, t1 = (boxes[b+3]-ox)*ix;
+		double near = Math.min(t0,t1), far = Math.max(t0,t1);
+		t0 = (boxes[b+1]-oy)*iy;  t1 = (boxes[b+4]-oy)*iy;
+		near = Math.max(near, Math.min(t0,t1));  far = Math.min(far, Math.max(t0,t1));
+		t0 = (boxes[b+2]-oz)*iz;  t1 = (boxes[b+5]-oz)*iz;
+		near = Math.max(near, Math.min(t0,t1));  far = Math.min(far, Math.max(t0,t1));
+		return (near<=far && far>=0) ? near : Double.MAX_VALUE;
+	}
+
+	private static void emptyBox(double [] boxes,int i) {
+		for(int a=0;a<3;++a) {
+			boxes[i*6+a  ] =  Double.MAX_VALUE;
+			boxes[i*6+a+3] = -Double.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * grow box i of boxes to hold box j of others.
+	 */
+	private static void grow(double [] boxes,int i,double [] others,int j) {
+		for(int a=0;a<3;++a) {
+			if(boxes[i*6+a  ]>others[j*6+a  ]) boxes[i*6+a  ]=others[j*6+a  ];
+			if(boxes[i*6+a+3]<others[j*6+a+3]) boxes[i*6+a+3]=others[j*6+a+3];
+		}
+	}
+
+	private static void growPoint(double [] boxes,int i,Point3d p) {
+		boxes[i*6  ] = Math.min(boxes[i*6  ],p.x);
+		boxes[i*6+1] = Math.min(boxes[i*6+1],p.y);
+		boxes[i*6+2] = Math.min(boxes[i*6+2],p.z);
+		boxes[i*6+3] = Math.max(boxes[i*6+3],p.x);
+		boxes[i*6+4] = Math.max(boxes[i*6+4],p.y);
+		boxes[i*6+5] = Math.max(boxes[i*6+5],p.z);
+	}
+
+	/**
+	 * @return every item found by the last update.
+	 */
+	ArrayList<Item> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return the number of cuboids found by the last update.
+	 */
+	public int getNumItems() {
+		return items.size();
+	}
+
+	/**
+	 * @return the number of times the tree was built, not counting refits.
+	 */
+	public int getNumBuilt() {
+		return numBuilt;
+	}
+
+	/**
+	 * @return the number of times the tree only had its bounds moved.
+	 */
+	public int getNumRefits() {
+		return numRefits;
+	}
+}
@@ -482,8 +482,9 @@ public class Sixi3FK extends PoseEntity implements Collidable {
 					b.getPose(mb);
 					Mesh sa = a.getShape();
 					Mesh sb = b.getShape();
-					
-					return IntersectionHelper.meshMesh(ma,sa,mb,sb);
+					// without both meshes the boxes are all there is to go on.
+					if(sa==null || sb==null) return true;
+					if(IntersectionHelper.meshMesh(ma,sa,mb,sb)) return true;
 				}
 			}
 		}
@@ -0,0 +1,444 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * {@link ConvexHull} is the smallest convex shape around the vertexes of a {@link Mesh}, found with quickhull.
+ * It is a much tighter collision proxy than the {@link com.marginallyclever.convenience.Cuboid} of an L shaped
+ * part, and much cheaper to test than every triangle.  Get one with {@link Mesh#getConvexHull()}, which builds it
+ * the first time and keeps it.
+ * <p>
+ * {@link #support(double, double, double, int)} is all {@link com.marginallyclever.convenience.GJK} needs.  It
+ * climbs the edges of the hull from a starting vertex, so a good guess makes it nearly free.
+ * @author Dan Royer
+ */
+public class ConvexHull {
+	// the number of points the hull was built from.
+	private final int numPoints;
+	// x,y,z of each hull vertex.
+	private double [] vertices;
+	// three vertex numbers per face, counter-clockwise seen from outside.
+	private int [] faces;
+	// the neighbours of vertex i are adjacent[adjacentStart[i]...adjacentStart[i+1]-1]
+	private int [] adjacentStart;
+	private int [] adjacent;
+	// the vertexes furthest along a few fixed directions, where a climb with no better guess can start.
+	private int [] seeds;
+	private static final double [][] SEED_DIRECTIONS = {
+		{1,0,0},{-1,0,0},{0,1,0},{0,-1,0},{0,0,1},{0,0,-1},
+		{1,1,1},{1,1,-1},{1,-1,1},{1,-1,-1},{-1,1,1},{-1,1,-1},{-1,-1,1},{-1,-1,-1},
+	};
+
+	/**
+	 * Build the hull of every vertex of a mesh, including the vertexes of its chunks.
+	 * @param m the mesh
+	 */
+	public ConvexHull(Mesh m) {
+		int n = m.getNumVertices();
+		for(int c=0;c<m.getNumChunks();++c) n += m.getChunk(c).getNumVertices();
+		double [] points = new double[n*3];
+		int j = copy(m.getVertexArray(),points,0);
+		for(int c=0;c<m.getNumChunks();++c) j = copy(m.getChunk(c).getVertexArray(),points,j);
+		numPoints = n;
+		build(points);
+	}
+
+	/**
+	 * Build the hull of some points.
+	 * @param points x,y,z of each point.
+	 */
+	public ConvexHull(double [] points) {
+		numPoints = points.length/3;
+		build(points.clone());
+	}
+
+	private static int copy(FloatArray from,double [] to,int j) {
+		int size = from.size();
+		for(int i=0;i<size;++i) to[j++] = from.get(i);
+		return j;
+	}
+
+	/**
+	 * @return the number of points the hull was built from.
+	 */
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	public int getNumVertices() {
+		return vertices.length/3;
+	}
+
+	public int getNumFaces() {
+		return faces.length/3;
+	}
+
+	public double getVertexX(int index) {	return vertices[index*3+0];	}
+	public double getVertexY(int index) {	return vertices[index*3+1];	}
+	public double getVertexZ(int index) {	return vertices[index*3+2];	}
+
+	/**
+	 * @return vertex number of corner 0, 1, or 2 of a face.
+	 */
+	public int getFaceVertex(int face,int corner) {
+		return faces[face*3+corner];
+	}
+
+	/**
+	 * Find the vertex furthest in a direction.
+	 * @param start a vertex to start from, usually the answer to the last call.  -1 if there is no good guess.
+	 * @return the vertex number.
+	 */
+	public int support(double dx,double dy,double dz,int start) {
+		if(vertices.length==0) return -1;
+		if(adjacentStart==null) {
+			// no faces to climb.  look at every vertex.
+			int best=0;
+			double bestDot=-Double.MAX_VALUE;
+			for(int i=0;i<vertices.length;i+=3) {
+				double d = vertices[i]*dx + vertices[i+1]*dy + vertices[i+2]*dz;
+				if(bestDot<d) {
+					bestDot=d;
+					best=i/3;
+				}
+			}
+			return best;
+		}
+
+		// on a convex shape the first vertex with no better neighbour is the best vertex.
+		int best = start;
+		double bestDot;
+		if(start<0 || start>=getNumVertices()) {
+			best = seeds[0];
+			bestDot = dot(best,dx,dy,dz);
+			for(int i=1;i<seeds.length;++i) {
+				double d = dot(seeds[i],dx,dy,dz);
+				if(bestDot<d) {
+					bestDot=d;
+					best=seeds[i];
+				}
+			}
+		} else bestDot = dot(best,dx,dy,dz);
+		int current;
+		do {
+			current=best;
+			for(int k=adjacentStart[current];k<adjacentStart[current+1];++k) {
+				int v = adjacent[k];
+				double d = dot(v,dx,dy,dz);
+				if(bestDot<d) {
+					bestDot=d;
+					best=v;
+				}
+			}
+		} while(best!=current);
+		return best;
+	}
+
+	private double dot(int v,double dx,double dy,double dz) {
+		return vertices[v*3]*dx + vertices[v*3+1]*dy + vertices[v*3+2]*dz;
+	}
+
+	/**
+	 * one triangle of the growing hull.
+	 */
+	private static class Face {
+		int a,b,c;
+		double nx,ny,nz,d;
+		// points above this face that are not yet on the hull.
+		int [] outside = new int[4];
+		int numOutside;
+		boolean dead;
+		boolean visible;
+
+		void addOutside(int p) {
+			if(numOutside==outside.length) outside = Arrays.copyOf(outside, numOutside*2);
+			outside[numOutside++]=p;
+		}
+	}
+
+	private double [] p;
+	private double epsilon;
+	private ArrayList<Face> hull;
+	// directed edge from vertex u to vertex v, to the face that has it.
+	private HashMap<Long,Face> edges;
+
+	private void build(double [] points) {
+		p = points;
+		int n = points.length/3;
+		if(n==0) {
+			vertices = new double[0];
+			faces = new int[0];
+			return;
+		}
+
+		// the points that reach furthest along each axis
+		int [] extremes = new int[6];
+		double scale=0;
+		for(int i=0;i<n;++i) {
+			for(int a=0;a<3;++a) {
+				if(p[i*3+a]<p[extremes[a  ]*3+a]) extremes[a  ]=i;
+				if(p[i*3+a]>p[extremes[a+3]*3+a]) extremes[a+3]=i;
+				scale = Math.max(scale, Math.abs(p[i*3+a]));
+			}
+		}
+		// points closer than this to a face are on the face.
+		epsilon = Math.max(scale,1e-12)*1e-9;
+
+		// the first tetrahedron
+		int i0=extremes[0], i1=extremes[3];
+		double best=-1;
+		for(int a=0;a<6;++a) {
+			for(int b=a+1;b<6;++b) {
+				double d = distanceSquared(extremes[a],extremes[b]);
+				if(best<d) {
+					best=d;
+					i0=extremes[a];
+					i1=extremes[b];
+				}
+			}
+		}
+		int i2=-1;
+		best=epsilon*epsilon;
+		for(int i=0;i<n;++i) {
+			double d = lineDistanceSquared(i0,i1,i);
+			if(best<d) {
+				best=d;
+				i2=i;
+			}
+		}
+		int i3=-1;
+		if(i2!=-1) {
+			Face f = new Face();
+			setPlane(f,i0,i1,i2);
+			best=epsilon;
+			for(int i=0;i<n;++i) {
+				double d = Math.abs(distance(f,i));
+				if(best<d) {
+					best=d;
+					i3=i;
+				}
+			}
+		}
+		if(i3==-1) {
+			// flat or a line.  there is no volume to climb around, so keep every point.
+			vertices = points;
+			faces = new int[0];
+			p = null;
+			return;
+		}
+
+		hull = new ArrayList<Face>();
+		edges = new HashMap<Long,Face>();
+		Face [] start = new Face[4];
+		int [][] corners = { {i0,i1,i2,i3},{i0,i3,i1,i2},{i1,i3,i2,i0},{i2,i3,i0,i1} };
+		for(int k=0;k<4;++k) {
+			int [] c = corners[k];
+			Face f = new Face();
+			setPlane(f,c[0],c[1],c[2]);
+			// the fourth corner must be behind the face.
+			if(distance(f,c[3])>0) setPlane(f,c[0],c[2],c[1]);
+			addFace(f);
+			start[k]=f;
+		}
+		for(int i=0;i<n;++i) {
+			if(i==i0 || i==i1 || i==i2 || i==i3) continue;
+			for(Face f : start) {
+				if(distance(f,i)>epsilon) {
+					f.addOutside(i);
+					break;
+				}
+			}
+		}
+
+		for(int k=0;k<hull.size();++k) {
+			Face f = hull.get(k);
+			if(f.dead || f.numOutside==0) continue;
+			addPoint(f);
+		}
+
+		finish();
+		p = null;
+		hull = null;
+		edges = null;
+	}
+
+	/**
+	 * Add the furthest point outside of face f, replacing every face it can see.
+	 */
+	private void addPoint(Face f) {
+		int eye = f.outside[0];
+		double best = distance(f,eye);
+		for(int k=1;k<f.numOutside;++k) {
+			double d = distance(f,f.outside[k]);
+			if(best<d) {
+				best=d;
+				eye=f.outside[k];
+			}
+		}
+
+		// flood out from f to find every visible face and the horizon around them.
+		ArrayList<Face> visible = new ArrayList<Face>();
+		ArrayList<int[]> horizon = new ArrayList<int[]>();
+		f.visible=true;
+		visible.add(f);
+		for(int k=0;k<visible.size();++k) {
+			Face v = visible.get(k);
+			int [] c = { v.a, v.b, v.c };
+			for(int e=0;e<3;++e) {
+				int from = c[e], to = c[(e+1)%3];
+				Face neighbour = edges.get(key(to,from));
+				if(neighbour==null || neighbour.visible) continue;
+				if(distance(neighbour,eye)>epsilon) {
+					neighbour.visible=true;
+					visible.add(neighbour);
+				} else {
+					horizon.add(new int[] {from,to});
+				}
+			}
+		}
+
+		for(Face v : visible) {
+			v.dead=true;
+			edges.remove(key(v.a,v.b));
+			edges.remove(key(v.b,v.c));
+			edges.remove(key(v.c,v.a));
+		}
+
+		ArrayList<Face> added = new ArrayList<Face>();
+		for(int [] e : horizon) {
+			Face nf = new Face();
+			setPlane(nf,e[0],e[1],eye);
+			addFace(nf);
+			added.add(nf);
+		}
+
+		// points that were outside the old faces are either outside a new face or inside the hull.
+		for(Face v : visible) {
+			for(int k=0;k<v.numOutside;++k) {
+				int i = v.outside[k];
+				if(i==eye) continue;
+				for(Face nf : added) {
+					if(distance(nf,i)>epsilon) {
+						nf.addOutside(i);
+						break;
+					}
+				}
+			}
+			v.outside=null;
+			v.numOutside=0;
+		}
+	}
+
+	private void addFace(Face f) {
+		hull.add(f);
+		edges.put(key(f.a,f.b),f);
+		edges.put(key(f.b,f.c),f);
+		edges.put(key(f.c,f.a),f);
+	}
+
+	/**
+	 * Keep only the points used by the hull, numbered from zero, and find the neighbours of each.
+	 */
+	private void finish() {
+		int [] remap = new int[p.length/3];
+		Arrays.fill(remap,-1);
+		int numVertices=0;
+		int numFaces=0;
+		for(Face f : hull) {
+			if(f.dead) continue;
+			numFaces++;
+			for(int c : new int[] { f.a, f.b, f.c }) {
+				if(remap[c]==-1) remap[c]=numVertices++;
+			}
+		}
+
+		vertices = new double[numVertices*3];
+		faces = new int[numFaces*3];
+		int j=0;
+		for(Face f : hull) {
+			if(f.dead) continue;
+			faces[j++]=remap[f.a];
+			faces[j++]=remap[f.b];
+			faces[j++]=remap[f.c];
+		}
+		for(int i=0;i<remap.length;++i) {
+			if(remap[i]!=-1) System.arraycopy(p, i*3, vertices, remap[i]*3, 3);
+		}
+
+		// every edge is in two faces, once each way, so each face adds one neighbour per corner.
+		adjacentStart = new int[numVertices+1];
+		for(int i=0;i<faces.length;++i) adjacentStart[faces[i]+1]++;
+		for(int i=0;i<numVertices;++i) adjacentStart[i+1]+=adjacentStart[i];
+		adjacent = new int[faces.length];
+		int [] fill = Arrays.copyOf(adjacentStart, numVertices);
+		for(int i=0;i<faces.length;i+=3) {
+			for(int c=0;c<3;++c) {
+				int from = faces[i+c];
+				adjacent[fill[from]++] = faces[i+(c+1)%3];
+			}
+		}
+
+		seeds = new int[SEED_DIRECTIONS.length];
+		for(int i=0;i<seeds.length;++i) {
+			double [] d = SEED_DIRECTIONS[i];
+			for(int v=1;v<numVertices;++v) {
+				if(dot(v,d[0],d[1],d[2]) > dot(seeds[i],d[0],d[1],d[2])) seeds[i]=v;
+			}
+		}
+	}
+
+	private static Long key(int from,int to) {
+		return ((long)from<<32) | (to & 0xffffffffL);
+	}
+
+	private void setPlane(Face f,int a,int b,int c) {
+		f.a=a;
+		f.b=b;
+		f.c=c;
+		double ux = p[b*3  ]-p[a*3  ], uy = p[b*3+1]-p[a*3+1], uz = p[b*3+2]-p[a*3+2];
+		double vx = p[c*3  ]-p[a*3  ], vy = p[c*3+1]-p[a*3+1], vz = p[c*3+2]-p[a*3+2];
+		double nx = uy*vz - uz*vy;
+		double ny = uz*vx - ux*vz;
+		double nz = ux*vy - uy*vx;
+		double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if(len>0) {
+			nx/=len;
+			ny/=len;
+			nz/=len;
+		}
+		f.nx=nx;
+		f.ny=ny;
+		f.nz=nz;
+		f.d = nx*p[a*3] + ny*p[a*3+1] + nz*p[a*3+2];
+	}
+
+	/**
+	 * @return the height of point i above face f.
+	 */
+	private double distance(Face f,int i) {
+		return f.nx*p[i*3] + f.ny*p[i*3+1] + f.nz*p[i*3+2] - f.d;
+	}
+
+	private double distanceSquared(int i,int j) {
+		double dx = p[i*3  ]-p[j*3  ];
+		double dy = p[i*3+1]-p[j*3+1];
+		double dz = p[i*3+2]-p[j*3+2];
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	/**
+	 * @return the squared distance from point i to the line through points a and b.
+	 */
+	private double lineDistanceSquared(int a,int b,int i) {
+		double ux = p[b*3  ]-p[a*3  ], uy = p[b*3+1]-p[a*3+1], uz = p[b*3+2]-p[a*3+2];
+		double vx = p[i*3  ]-p[a*3  ], vy = p[i*3+1]-p[a*3+1], vz = p[i*3+2]-p[a*3+2];
+		double cx = uy*vz - uz*vy;
+		double cy = uz*vx - ux*vz;
+		double cz = ux*vy - uy*vx;
+		double uu = ux*ux + uy*uy + uz*uz;
+		if(uu==0) return 0;
+		return (cx*cx + cy*cy + cz*cz)/uu;
+	}
+}
@@ -0,0 +1,160 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * {@link FloatArray} is a growable list of primitive floats stored in a direct, native order {@link FloatBuffer}.
+ * The storage can be handed straight to OpenGL without copying.  Adding values does not allocate unless the
+ * capacity has to grow.
+ * @author Dan Royer
+ */
+public class FloatArray {
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private FloatBuffer data;
+	private int size;
+
+	public FloatArray() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public FloatArray(int initialCapacity) {
+		data = allocate(Math.max(initialCapacity,1));
+		size = 0;
+	}
+
+	/**
+	 * Use existing storage, such as a memory mapped file, without copying it.
+	 * The first size values of data are in use.  Growing the array moves it to new storage.
+	 * @param data the storage to use.
+	 * @param size the number of values in use.
+	 */
+	public FloatArray(FloatBuffer data,int size) {
+		this.data = data;
+		this.size = size;
+	}
+
+	private static FloatBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity*Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Make sure there is room for at least minCapacity floats without growing again.
+	 * @param minCapacity the number of floats needed.
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if(minCapacity<=data.capacity()) return;
+
+		int newCapacity = Math.max(minCapacity, data.capacity() + (data.capacity()>>1));
+		FloatBuffer newData = allocate(newCapacity);
+		FloatBuffer old = data.duplicate();
+		old.position(0);
+		old.limit(size);
+		newData.put(old);
+		data = newData;
+	}
+
+	/**
+	 * Set the number of floats in use.  Grows if needed.  New values are not cleared.
+	 * @param newSize the number of floats
+	 */
+	public void setSize(int newSize) {
+		ensureCapacity(newSize);
+		size = newSize;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	/**
+	 * Forget all values.  Keeps the memory already allocated.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public float get(int index) {
+		return data.get(index);
+	}
+
+	public void set(int index,float value) {
+		data.put(index,value);
+	}
+
+	public void add(float a) {
+		ensureCapacity(size+1);
+		data.put(size++,a);
+	}
+
+	public void add(float a,float b) {
+		ensureCapacity(size+2);
+		data.put(size++,a);
+		data.put(size++,b);
+	}
+
+	public void add(float a,float b,float c) {
+		ensureCapacity(size+3);
+		data.put(size++,a);
+		data.put(size++,b);
+		data.put(size++,c);
+	}
+
+	public void add(float a,float b,float c,float d) {
+		ensureCapacity(size+4);
+		data.put(size++,a);
+		data.put(size++,b);
+		data.put(size++,c);
+		data.put(size++,d);
+	}
+
+	/**
+	 * Append length values from src, starting at offset.
+	 * @param src the source values
+	 * @param offset the first value to copy
+	 * @param length the number of values to copy
+	 */
+	public void addAll(float [] src,int offset,int length) {
+		ensureCapacity(size+length);
+		FloatBuffer d = data.duplicate();
+		d.position(size);
+		d.put(src,offset,length);
+		size+=length;
+	}
+
+	/**
+	 * @return a copy of the values in use.
+	 */
+	public float [] toArray() {
+		float [] result = new float[size];
+		FloatBuffer d = data.duplicate();
+		d.position(0);
+		d.get(result,0,size);
+		return result;
+	}
+
+	/**
+	 * The live storage, positioned at zero and limited to {@link #size()}.  Suitable for glBufferData.
+	 * The view is invalidated by any call that grows the array.
+	 * @return a view of the storage.  No values are copied.
+	 */
+	public FloatBuffer getBuffer() {
+		FloatBuffer d = data.duplicate();
+		d.position(0);
+		d.limit(size);
+		return d;
+	}
+
+	/**
+	 * @return the number of bytes in use.
+	 */
+	public long getSizeInBytes() {
+		return (long)size*Float.BYTES;
+	}
+}
@@ -0,0 +1,432 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+
+import javax.vecmath.Matrix4d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import com.marginallyclever.convenience.MatrixHelper;
+import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.AbstractEntity;
+import com.marginallyclever.robotOverlord.Entity;
+import com.marginallyclever.robotOverlord.FrustumCuller;
+import com.marginallyclever.robotOverlord.uiExposedTypes.MaterialEntity;
+
+/**
+ * {@link InstancedRenderer} draws every {@link Shape} that uses the same {@link Mesh} and looks the same with one
+ * instanced draw call.  The world pose of each copy goes into a buffer read once per instance by a small shader,
+ * which lights the copies the way the fixed function pipeline would.
+ * <p>
+ * Without instancing or shaders every copy is drawn on its own, but the material is still set once per group.
+ * <p>
+ * Copies always draw the full detail mesh.  Shapes in a {@link StaticBatcher} and meshes with chunks are left alone.
+ * @author Dan Royer
+ */
+public class InstancedRenderer {
+	// drawing fewer copies than this one at a time costs about the same.
+	private static final int MIN_INSTANCES = 4;
+	// the per instance matrix uses four attributes starting here.  0-3 and 8+ may be aliased to the
+	// fixed function attributes on some drivers.
+	private static final int INSTANCE_ATTRIBUTE = 4;
+	private static final int MAX_LIGHTS = 8;
+
+	private static final String VERTEX_SHADER =
+			"#version 120\n"
+			+ "attribute mat4 instanceMatrix;\n"
+			+ "uniform mat4 meshMatrix;\n"
+			+ "uniform vec3 normalScale;\n"
+			+ "uniform bool isLit;\n"
+			+ "uniform float lightEnabled["+MAX_LIGHTS+"];\n"
+			+ "varying vec4 color;\n"
+			+ "void main() {\n"
+			+ "  vec4 eye = gl_ModelViewMatrix * (instanceMatrix * (meshMatrix * gl_Vertex));\n"
+			+ "  gl_Position = gl_ProjectionMatrix * eye;\n"
+			+ "  gl_TexCoord[0] = gl_MultiTexCoord0;\n"
+			+ "  if(!isLit) {\n"
+			+ "    color = gl_Color;\n"
+			+ "    return;\n"
+			+ "  }\n"
+			+ "  vec3 n = normalize(gl_NormalMatrix * (mat3(instanceMatrix) * (gl_Normal * normalScale)));\n"
+			+ "  vec4 c = gl_FrontLightModelProduct.sceneColor;\n"
+			+ "  for(int i=0;i<"+MAX_LIGHTS+";++i) {\n"
+			+ "    if(lightEnabled[i]==0.0) continue;\n"
+			+ "    vec4 p = gl_LightSource[i].position;\n"
+			+ "    vec3 L;\n"
+			+ "    float attenuation = 1.0;\n"
+			+ "    if(p.w==0.0) {\n"
+			+ "      L = normalize(p.xyz);\n"
+			+ "    } else {\n"
+			+ "      vec3 d = p.xyz/p.w - eye.xyz/eye.w;\n"
+			+ "      float distance = length(d);\n"
+			+ "      L = d/distance;\n"
+			+ "      attenuation = 1.0/(gl_LightSource[i].constantAttenuation\n"
+			+ "                       + gl_LightSource[i].linearAttenuation*distance\n"
+			+ "                       + gl_LightSource[i].quadraticAttenuation*distance*distance);\n"
+			+ "      if(gl_LightSource[i].spotCutoff<=90.0) {\n"
+			+ "        float s = dot(-L,normalize(gl_LightSource[i].spotDirection));\n"
+			+ "        attenuation *= s<gl_LightSource[i].spotCosCutoff ? 0.0 : pow(max(s,0.0),gl_LightSource[i].spotExponent);\n"
+			+ "      }\n"
+			+ "    }\n"
+			+ "    c += attenuation * gl_FrontLightProduct[i].ambient;\n"
+			+ "    float nDotL = dot(n,L);\n"
+			+ "    if(nDotL>0.0) {\n"
+			+ "      vec3 h = normalize(L+vec3(0.0,0.0,1.0));\n"
+			+ "      float specular = pow(max(dot(n,h),0.0),gl_FrontMaterial.shininess);\n"
+			+ "      c += attenuation * (nDotL*gl_FrontLightProduct[i].diffuse + specular*gl_FrontLightProduct[i].specular);\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "  color = vec4(clamp(c.rgb,0.0,1.0),gl_FrontMaterial.diffuse.a);\n"
+			+ "}\n";
+
+	private static final String FRAGMENT_SHADER =
+			"#version 120\n"
+			+ "uniform bool useTexture;\n"
+			+ "uniform sampler2D texture0;\n"
+			+ "varying vec4 color;\n"
+			+ "void main() {\n"
+			+ "  vec4 c = color;\n"
+			+ "  if(useTexture) c *= texture2D(texture0,gl_TexCoord[0].st);\n"
+			+ "  gl_FragColor = c;\n"
+			+ "}\n";
+
+	/**
+	 * {@link Shape}s with the same {@link Mesh} that look the same.
+	 */
+	private static class Group {
+		Mesh mesh;
+		MaterialEntity material;
+		ArrayList<Shape> shapes = new ArrayList<Shape>();
+	}
+
+	/**
+	 * Remembers that a material looked the same as the first material of a group, until either one changes.
+	 */
+	private static class MaterialMatch {
+		MaterialEntity same;
+		long version, sameVersion;
+	}
+
+	private boolean enabled = true;
+	private ArrayList<Group> groups = new ArrayList<Group>();
+	// every shape drawn by this renderer in the last frame.
+	private ArrayList<Shape> drawn = new ArrayList<Shape>();
+	private int numInstancedDraws;
+	// comparing every material every frame costs more than drawing, so the answers are kept.
+	private IdentityHashMap<MaterialEntity,MaterialMatch> matches = new IdentityHashMap<MaterialEntity,MaterialMatch>();
+	private IdentityHashMap<MaterialEntity,MaterialMatch> nextMatches = new IdentityHashMap<MaterialEntity,MaterialMatch>();
+
+	// GL objects belong to one context.
+	private GLContext context;
+	private boolean isSetUp;
+	private boolean isSupported;
+	private int program;
+	private int instanceBuffer;
+	private int meshMatrixUniform, normalScaleUniform, isLitUniform, lightEnabledUniform, useTextureUniform, textureUniform;
+	private FloatBuffer matrices = Buffers.newDirectFloatBuffer(16*64);
+	private float [] lightEnabled = new float[MAX_LIGHTS];
+	private Matrix4d poseWorld = new Matrix4d();
+	private Matrix4d meshMatrix = new Matrix4d();
+	private float [] columnMajorFloats = new float[16];
+
+	/**
+	 * Find the copies under root and draw them.  Call before the rest of the scene is drawn, with the same
+	 * modelview matrix as root.
+	 * @param gl2 the render context
+	 * @param root the top of the scene.
+	 */
+	public void render(GL2 gl2,Entity root) {
+		for(Shape s : drawn) s.instancedRenderer = null;
+		drawn.clear();
+		numInstancedDraws=0;
+		if(!enabled) return;
+
+		update(root);
+		if(groups.isEmpty()) return;
+		if(!isSetUp || context!=gl2.getContext()) setup(gl2);
+
+		for(Group g : groups) {
+			// a mesh that can't upload yet is drawn by each shape as a placeholder.
+			if(!g.mesh.uploadBuffers(gl2)) continue;
+
+			RenderQueue.applyMaterial(gl2,g.material);
+			if(isSupported) drawInstanced(gl2,g);
+			else drawOneAtATime(gl2,g);
+			RenderQueue.meshDrawn(g.mesh);
+			for(Shape s : g.shapes) {
+				s.instancedRenderer = this;
+				drawn.add(s);
+			}
+		}
+	}
+
+	/**
+	 * Group the shapes under root by mesh and material.
+	 * @param root the top of the scene.
+	 */
+	public void update(Entity root) {
+		LinkedHashMap<Mesh,ArrayList<Group>> byMesh = new LinkedHashMap<Mesh,ArrayList<Group>>();
+		findShapes(root,byMesh);
+		// forget the materials that are gone.
+		IdentityHashMap<MaterialEntity,MaterialMatch> swap = matches;
+		matches = nextMatches;
+		nextMatches = swap;
+		nextMatches.clear();
+
+		groups.clear();
+		for(ArrayList<Group> list : byMesh.values()) {
+			for(Group g : list) {
+				if(g.shapes.size()>=MIN_INSTANCES) groups.add(g);
+			}
+		}
+	}
+
+	private void findShapes(Entity e,LinkedHashMap<Mesh,ArrayList<Group>> byMesh) {
+		if(e instanceof Shape) {
+			Shape s = (Shape)e;
+			s.checkPendingShape();
+			Mesh m = s.shape;
+			if(m!=null && s.pendingShape==null && !s.isDrawnByStaticBatcher()
+					&& m.getNumChunks()==0 && m.getNumVertices()>0) {
+				addToGroup(s,byMesh);
+			}
+		}
+		for(Entity c : e.getChildren()) {
+			// values such as a filename never hold shapes.
+			if(!(c instanceof AbstractEntity)) findShapes(c,byMesh);
+		}
+	}
+
+	private void addToGroup(Shape s,LinkedHashMap<Mesh,ArrayList<Group>> byMesh) {
+		ArrayList<Group> list = byMesh.get(s.shape);
+		if(list==null) {
+			list = new ArrayList<Group>();
+			byMesh.put(s.shape,list);
+		}
+		for(Group g : list) {
+			if(isSameMaterial(g.material,s.material)) {
+				g.shapes.add(s);
+				return;
+			}
+		}
+		Group g = new Group();
+		g.mesh = s.shape;
+		g.material = s.material;
+		g.shapes.add(s);
+		list.add(g);
+	}
+
+	private boolean isSameMaterial(MaterialEntity a,MaterialEntity b) {
+		if(a==b) return true;
+		MaterialMatch m = matches.get(b);
+		if(m==null || m.same!=a || m.version!=b.getVersion() || m.sameVersion!=a.getVersion()) {
+			if(!a.hasSameValues(b)) return false;
+			if(m==null) m = new MaterialMatch();
+			m.same = a;
+			m.version = b.getVersion();
+			m.sameVersion = a.getVersion();
+		}
+		nextMatches.put(b,m);
+		return true;
+	}
+
+	/**
+	 * Build the shader once per context.  Without it every copy is drawn on its own.
+	 */
+	private void setup(GL2 gl2) {
+		context = gl2.getContext();
+		isSetUp = true;
+		isSupported = gl2.isFunctionAvailable("glDrawElementsInstanced")
+				&& gl2.isFunctionAvailable("glDrawArraysInstanced")
+				&& gl2.isFunctionAvailable("glVertexAttribDivisor")
+				&& gl2.isFunctionAvailable("glCreateProgram");
+		if(!isSupported) {
+			Log.message("InstancedRenderer: instancing not available, drawing copies one at a time.");
+			return;
+		}
+
+		int vertex = compile(gl2,GL2.GL_VERTEX_SHADER,VERTEX_SHADER);
+		int fragment = compile(gl2,GL2.GL_FRAGMENT_SHADER,FRAGMENT_SHADER);
+		if(vertex==0 || fragment==0) {
+			isSupported=false;
+			return;
+		}
+		program = gl2.glCreateProgram();
+		gl2.glAttachShader(program,vertex);
+		gl2.glAttachShader(program,fragment);
+		gl2.glBindAttribLocation(program,INSTANCE_ATTRIBUTE,"instanceMatrix");
+		gl2.glLinkProgram(program);
+		gl2.glDeleteShader(vertex);
+		gl2.glDeleteShader(fragment);
+		int [] status = new int[1];
+		gl2.glGetProgramiv(program,GL2.GL_LINK_STATUS,status,0);
+		if(status[0]==0) {
+			Log.error("InstancedRenderer: shader did not link, drawing copies one at a time.");
+			gl2.glDeleteProgram(program);
+			isSupported=false;
+			return;
+		}
+		meshMatrixUniform   = gl2.glGetUniformLocation(program,"meshMatrix");
+		normalScaleUniform  = gl2.glGetUniformLocation(program,"normalScale");
+		isLitUniform        = gl2.glGetUniformLocation(program,"isLit");
+		lightEnabledUniform = gl2.glGetUniformLocation(program,"lightEnabled");
+		useTextureUniform   = gl2.glGetUniformLocation(program,"useTexture");
+		textureUniform      = gl2.glGetUniformLocation(program,"texture0");
+
+		int [] buffers = new int[1];
+		gl2.glGenBuffers(1,buffers,0);
+		instanceBuffer = buffers[0];
+	}
+
+	private static int compile(GL2 gl2,int type,String source) {
+		int shader = gl2.glCreateShader(type);
+		gl2.glShaderSource(shader,1,new String[] { source },null,0);
+		gl2.glCompileShader(shader);
+		int [] status = new int[1];
+		gl2.glGetShaderiv(shader,GL2.GL_COMPILE_STATUS,status,0);
+		if(status[0]==0) {
+			Log.error("InstancedRenderer: shader did not compile, drawing copies one at a time.");
+			gl2.glDeleteShader(shader);
+			return 0;
+		}
+		return shader;
+	}
+
+	private void drawInstanced(GL2 gl2,Group g) {
+		int count = g.shapes.size();
+		if(matrices.capacity()<count*16) matrices = Buffers.newDirectFloatBuffer(count*16*2);
+		matrices.clear();
+		for(Shape s : g.shapes) {
+			// copies outside the view are left out.
+			if(!FrustumCuller.isVisible(s)) continue;
+			s.getPoseWorld(poseWorld);
+			putColumnMajor(poseWorld);
+		}
+		matrices.flip();
+		count = matrices.limit()/16;
+		if(count==0) return;
+
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,instanceBuffer);
+		gl2.glBufferData(GL2.GL_ARRAY_BUFFER,(long)count*16*Float.BYTES,matrices,GL2.GL_STREAM_DRAW);
+		for(int i=0;i<4;++i) {
+			gl2.glEnableVertexAttribArray(INSTANCE_ATTRIBUTE+i);
+			gl2.glVertexAttribPointer(INSTANCE_ATTRIBUTE+i,4,GL2.GL_FLOAT,false,16*Float.BYTES,i*4*Float.BYTES);
+			gl2.glVertexAttribDivisor(INSTANCE_ATTRIBUTE+i,1);
+		}
+
+		gl2.glUseProgram(program);
+		Mesh m = g.mesh;
+		if(m.quantized) {
+			m.quantizedFormat.getTransform(meshMatrix);
+			gl2.glUniform3f(normalScaleUniform,
+					(float)m.quantizedFormat.getNormalScale(0),
+					(float)m.quantizedFormat.getNormalScale(1),
+					(float)m.quantizedFormat.getNormalScale(2));
+		} else {
+			meshMatrix.setIdentity();
+			gl2.glUniform3f(normalScaleUniform,1,1,1);
+		}
+		gl2.glUniformMatrix4fv(meshMatrixUniform,1,false,toColumnMajor(meshMatrix),0);
+		gl2.glUniform1i(isLitUniform,g.material.isLit()?1:0);
+		for(int i=0;i<MAX_LIGHTS;++i) lightEnabled[i] = gl2.glIsEnabled(GL2.GL_LIGHT0+i) ? 1 : 0;
+		gl2.glUniform1fv(lightEnabledUniform,MAX_LIGHTS,lightEnabled,0);
+		gl2.glUniform1i(useTextureUniform,g.material.isTextured()?1:0);
+		gl2.glUniform1i(textureUniform,0);
+
+		m.renderInstanced(gl2,count);
+		numInstancedDraws++;
+
+		gl2.glUseProgram(0);
+		for(int i=0;i<4;++i) {
+			gl2.glVertexAttribDivisor(INSTANCE_ATTRIBUTE+i,0);
+			gl2.glDisableVertexAttribArray(INSTANCE_ATTRIBUTE+i);
+		}
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER,0);
+	}
+
+	private void drawOneAtATime(GL2 gl2,Group g) {
+		for(Shape s : g.shapes) {
+			if(!FrustumCuller.isVisible(s)) continue;
+			s.getPoseWorld(poseWorld);
+			gl2.glPushMatrix();
+			MatrixHelper.applyMatrix(gl2,poseWorld);
+			g.mesh.render(gl2);
+			gl2.glPopMatrix();
+		}
+	}
+
+	private void putColumnMajor(Matrix4d m) {
+		matrices.put((float)m.m00).put((float)m.m10).put((float)m.m20).put((float)m.m30);
+		matrices.put((float)m.m01).put((float)m.m11).put((float)m.m21).put((float)m.m31);
+		matrices.put((float)m.m02).put((float)m.m12).put((float)m.m22).put((float)m.m32);
+		matrices.put((float)m.m03).put((float)m.m13).put((float)m.m23).put((float)m.m33);
+	}
+
+	private float [] toColumnMajor(Matrix4d m) {
+		float [] f = columnMajorFloats;
+		f[ 0]=(float)m.m00;  f[ 1]=(float)m.m10;  f[ 2]=(float)m.m20;  f[ 3]=(float)m.m30;
+		f[ 4]=(float)m.m01;  f[ 5]=(float)m.m11;  f[ 6]=(float)m.m21;  f[ 7]=(float)m.m31;
+		f[ 8]=(float)m.m02;  f[ 9]=(float)m.m12;  f[10]=(float)m.m22;  f[11]=(float)m.m32;
+		f[12]=(float)m.m03;  f[13]=(float)m.m13;  f[14]=(float)m.m23;  f[15]=(float)m.m33;
+		return f;
+	}
+
+	/**
+	 * Release the GL objects.  Call when the context is going away.
+	 * @param gl2 the render context
+	 */
+	public void dispose(GL2 gl2) {
+		if(!isSetUp) return;
+		if(program!=0) gl2.glDeleteProgram(program);
+		if(instanceBuffer!=0) gl2.glDeleteBuffers(1,new int[] { instanceBuffer },0);
+		program=0;
+		instanceBuffer=0;
+		context=null;
+		isSetUp=false;
+	}
+
+	/**
+	 * @param state false to let every shape draw itself.
+	 */
+	public void setEnabled(boolean state) {
+		enabled = state;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return true if the current context can draw instances.  Only known after the first {@link #render(GL2, Entity)}.
+	 */
+	public boolean isSupported() {
+		return isSupported;
+	}
+
+	/**
+	 * @return the number of groups found by the last {@link #update(Entity)}.
+	 */
+	public int getNumGroups() {
+		return groups.size();
+	}
+
+	/**
+	 * @return the number of shapes in all groups found by the last {@link #update(Entity)}.
+	 */
+	public int getNumShapes() {
+		int sum=0;
+		for(Group g : groups) sum += g.shapes.size();
+		return sum;
+	}
+
+	/**
+	 * @return the number of instanced draw calls in the last frame.
+	 */
+	public int getNumInstancedDraws() {
+		return numInstancedDraws;
+	}
+}
@@ -0,0 +1,160 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * {@link IntArray} is a growable list of primitive ints stored in a direct, native order {@link IntBuffer}.
+ * The storage can be handed straight to OpenGL without copying.  Adding values does not allocate unless the
+ * capacity has to grow.
+ * @author Dan Royer
+ */
+public class IntArray {
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private IntBuffer data;
+	private int size;
+
+	public IntArray() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntArray(int initialCapacity) {
+		data = allocate(Math.max(initialCapacity,1));
+		size = 0;
+	}
+
+	/**
+	 * Use existing storage, such as a memory mapped file, without copying it.
+	 * The first size values of data are in use.  Growing the array moves it to new storage.
+	 * @param data the storage to use.
+	 * @param size the number of values in use.
+	 */
+	public IntArray(IntBuffer data,int size) {
+		this.data = data;
+		this.size = size;
+	}
+
+	private static IntBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity*Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * Make sure there is room for at least minCapacity ints without growing again.
+	 * @param minCapacity the number of ints needed.
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if(minCapacity<=data.capacity()) return;
+
+		int newCapacity = Math.max(minCapacity, data.capacity() + (data.capacity()>>1));
+		IntBuffer newData = allocate(newCapacity);
+		IntBuffer old = data.duplicate();
+		old.position(0);
+		old.limit(size);
+		newData.put(old);
+		data = newData;
+	}
+
+	/**
+	 * Set the number of ints in use.  Grows if needed.  New values are not cleared.
+	 * @param newSize the number of ints
+	 */
+	public void setSize(int newSize) {
+		ensureCapacity(newSize);
+		size = newSize;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	/**
+	 * Forget all values.  Keeps the memory already allocated.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public int get(int index) {
+		return data.get(index);
+	}
+
+	public void set(int index,int value) {
+		data.put(index,value);
+	}
+
+	public void add(int a) {
+		ensureCapacity(size+1);
+		data.put(size++,a);
+	}
+
+	public void add(int a,int b) {
+		ensureCapacity(size+2);
+		data.put(size++,a);
+		data.put(size++,b);
+	}
+
+	public void add(int a,int b,int c) {
+		ensureCapacity(size+3);
+		data.put(size++,a);
+		data.put(size++,b);
+		data.put(size++,c);
+	}
+
+	public void add(int a,int b,int c,int d) {
+		ensureCapacity(size+4);
+		data.put(size++,a);
+		data.put(size++,b);
+		data.put(size++,c);
+		data.put(size++,d);
+	}
+
+	/**
+	 * Append length values from src, starting at offset.
+	 * @param src the source values
+	 * @param offset the first value to copy
+	 * @param length the number of values to copy
+	 */
+	public void addAll(int [] src,int offset,int length) {
+		ensureCapacity(size+length);
+		IntBuffer d = data.duplicate();
+		d.position(size);
+		d.put(src,offset,length);
+		size+=length;
+	}
+
+	/**
+	 * @return a copy of the values in use.
+	 */
+	public int [] toArray() {
+		int [] result = new int[size];
+		IntBuffer d = data.duplicate();
+		d.position(0);
+		d.get(result,0,size);
+		return result;
+	}
+
+	/**
+	 * The live storage, positioned at zero and limited to {@link #size()}.  Suitable for glBufferData.
+	 * The view is invalidated by any call that grows the array.
+	 * @return a view of the storage.  No values are copied.
+	 */
+	public IntBuffer getBuffer() {
+		IntBuffer d = data.duplicate();
+		d.position(0);
+		d.limit(size);
+		return d;
+	}
+
+	/**
+	 * @return the number of bytes in use.
+	 */
+	public long getSizeInBytes() {
+		return (long)size*Integer.BYTES;
+	}
+}
@@ -0,0 +1,105 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntTupleMap} maps fixed width tuples of ints to a non-negative int, without boxing.
+ * It is an open addressing hash with linear probing, used to find repeated vertexes when building index buffers.
+ * @author Dan Royer
+ */
+public class IntTupleMap {
+	private static final int EMPTY = -1;
+
+	private final int width;
+	private int [] keys;
+	private int [] values;
+	private int mask;
+	private int size;
+
+	/**
+	 * @param width the number of ints in each key.
+	 * @param expectedSize the number of keys expected.  The map grows if needed.
+	 */
+	public IntTupleMap(int width,int expectedSize) {
+		this.width = width;
+		int capacity = Integer.highestOneBit(Math.max(expectedSize,8)*2-1)<<1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity*width];
+		values = new int[capacity];
+		Arrays.fill(values, EMPTY);
+		mask = capacity-1;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(values, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * @param key width ints starting at offset
+	 * @param offset start of the key in the array
+	 * @return the value for this key, or -1 if the key is not in the map.
+	 */
+	public int get(int [] key,int offset) {
+		int slot = hash(key,offset) & mask;
+		while(values[slot]!=EMPTY) {
+			if(matches(slot,key,offset)) return values[slot];
+			slot = (slot+1) & mask;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Add the key if it is not already in the map.
+	 * @param key width ints starting at offset
+	 * @param offset start of the key in the array
+	 * @param value must be zero or more.
+	 * @return the value already in the map, or -1 if value was added.
+	 */
+	public int putIfAbsent(int [] key,int offset,int value) {
+		if((size+1)*2 > values.length) grow();
+
+		int slot = hash(key,offset) & mask;
+		while(values[slot]!=EMPTY) {
+			if(matches(slot,key,offset)) return values[slot];
+			slot = (slot+1) & mask;
+		}
+		System.arraycopy(key, offset, keys, slot*width, width);
+		values[slot] = value;
+		size++;
+		return EMPTY;
+	}
+
+	private void grow() {
+		int [] oldKeys = keys;
+		int [] oldValues = values;
+		allocate(oldValues.length*2);
+		for(int i=0;i<oldValues.length;++i) {
+			if(oldValues[i]!=EMPTY) putIfAbsent(oldKeys,i*width,oldValues[i]);
+		}
+	}
+
+	private boolean matches(int slot,int [] key,int offset) {
+		int k = slot*width;
+		for(int i=0;i<width;++i) {
+			if(keys[k+i]!=key[offset+i]) return false;
+		}
+		return true;
+	}
+
+	private int hash(int [] key,int offset) {
+		int h = 0;
+		for(int i=0;i<width;++i) {
+			h = (h + key[offset+i]) * 0x9E3779B1;
+		}
+		return h ^ (h>>>16);
+	}
+}
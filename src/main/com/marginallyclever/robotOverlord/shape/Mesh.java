@@ -1,18 +1,19 @@
 package com.marginallyclever.robotOverlord.shape;
 
-import java.io.BufferedInputStream;
-import java.nio.FloatBuffer;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.vecmath.Point3d;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.jogamp.opengl.GL2;
 import com.marginallyclever.convenience.Cuboid;
-import com.marginallyclever.convenience.FileAccess;
+import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.OnDemandAnimator;
 
 /**
  * {@link Mesh} contains the vertex, normal, maybe color, and maybe texture data for a 3D model.
@@ -20,28 +21,75 @@ import com.marginallyclever.convenience.FileAccess;
  * @author Dan Royer
  */
 public class Mesh {
-	public final static int NUM_BUFFERS=4;  // verts, normals, colors, textureCoordinates
+	public final static int NUM_BUFFERS=5;  // verts, normals, colors, textureCoordinates, indexes
+	private final static int INDEX_BUFFER=NUM_BUFFERS-1;
 
-	// the pool of all shapes loaded
-	@JsonIgnore
-	private static LinkedList<Mesh> meshPool = new LinkedList<Mesh>();
+	// bytes that may be sent to OpenGL each frame.  Large scenes appear over a few frames instead of stalling one.
+	private static long uploadBudget = 16L*1024*1024;
+	private static long uploadedThisFrame = 0;
+	// meshes loaded from files use the compact layout of QuantizedVertexFormat.  Off unless asked for.
+	private static boolean quantizeLoadedMeshes = Boolean.getBoolean("robotOverlord.quantizeMeshes");
+	
+	private static long trianglesDrawn = 0;
+	private static long trianglesDrawnLastFrame = 0;
+	private static long drawCalls = 0;
+	private static long drawCallsLastFrame = 0;
 	
 	protected String sourceName;
 	protected transient ShapeLoadAndSave loader;
 	protected transient boolean isLoaded;
 	protected transient boolean unloadASAP;
 	
-	public transient ArrayList<Float> vertexArray = new ArrayList<Float>();
-	public transient ArrayList<Float> normalArray = new ArrayList<Float>();
-	public transient ArrayList<Float> colorArray = new ArrayList<Float>();
-	public transient ArrayList<Float> texCoordArray = new ArrayList<Float>();
+	protected transient FloatArray vertexArray = new FloatArray();
+	protected transient FloatArray normalArray = new FloatArray();
+	protected transient FloatArray colorArray = new FloatArray();
+	protected transient FloatArray texCoordArray = new FloatArray();
+	// if hasIndexes, every renderStyle primitive is made from these indexes into the vertex data.
+	protected transient IntArray indexArray = new IntArray(); 
 	public int renderStyle; 
+	// GL_UNSIGNED_SHORT or GL_UNSIGNED_INT, chosen when the index buffer is uploaded.
+	protected transient int indexType;
 	
 	protected transient int VBO[];
 
+	// if true, upload with the compact interleaved layout of QuantizedVertexFormat.
+	protected transient boolean quantized;
+	protected transient QuantizedVertexFormat quantizedFormat;
+
+	// very large meshes, like scanned point clouds, are split into parts that upload and draw one at a time.
+	// Chunks may be added by a loader thread while the render thread draws the ones so far.
+	// Once a chunk is in OpenGL its arrays are let go, and its part of the file is read again if they are needed.
+	protected transient List<Mesh> chunks = new CopyOnWriteArrayList<Mesh>();
+	// where a chunk can read its arrays again.  null if it can't, so it keeps them.
+	private transient ChunkSource chunkSource;
+	// true while this chunk's arrays are let go.  The sizes they had are kept below, the bounds in the cuboid.
+	private transient volatile boolean isReleased;
+	private transient int releasedVertexes;
+	private transient long releasedBytes;
+	// one chunk restored at a time, and never again after one fails.
+	private transient volatile boolean isRestoring;
+	private transient volatile boolean restoreFailed;
+
+	// simpler versions of this mesh, most detailed first.  null until they are built.
+	protected transient volatile Mesh [] levelsOfDetail;
+	private transient boolean levelsOfDetailClaimed;
+
+	// triangles sorted for ray and collision tests.  null until someone asks.
+	private transient MeshBVH bvh;
+	// convex collision proxy.  null until someone asks.
+	private transient ConvexHull convexHull;
+
+	// SHA-1 of the source, kept by MeshCache until the levels of detail are saved with the mesh.
+	transient byte [] cacheHash;
+
+	// managed by MeshPool
+	protected transient int referenceCount;
+	protected transient long pooledBytes;
+
 	public transient boolean hasNormals;
 	public transient boolean hasColors;
 	public transient boolean hasUVs;
+	public transient boolean hasIndexes;
 	
 	// the mesh can only be optimized after OpenGL is ready, during rendering.
 	// Loading may happen early.  This one-time flag remembers it needs to be done.
@@ -61,6 +109,7 @@ public class Mesh {
 		hasNormals=false;
 		hasColors=false;
 		hasUVs=false;
+		hasIndexes=false;
 		renderStyle = GL2.GL_TRIANGLES;
 		isDirty=false;
 		cuboid.setShape(this);
@@ -74,6 +123,13 @@ public class Mesh {
 		normalArray.clear();
 		colorArray.clear();
 		texCoordArray.clear();
+		indexArray.clear();
+		hasIndexes=false;
+		// buffers are deleted on the GL thread.
+		for(Mesh m : chunks) MeshPool.unloadLater(m);
+		chunks.clear();
+		bvh=null;
+		convexHull=null;
 		isDirty=true;
 	}
 
@@ -95,6 +151,11 @@ public class Mesh {
 	}
 
 	public void unload(GL2 gl2) {
+		Mesh [] levels = levelsOfDetail;
+		if(levels!=null) {
+			for(Mesh m : levels) m.unload(gl2);
+		}
+		for(Mesh m : chunks) m.unload(gl2);
 		if(!isLoaded) return;
 		if(VBO == null) return;
 		gl2.glDeleteBuffers(NUM_BUFFERS, VBO,0);
@@ -109,84 +170,365 @@ public class Mesh {
 	
 	/**
 	 * Regenerate the optimized rendering buffers for the fixed function pipeline.
-	 * Also recalculate the bounding box.
+	 * The direct buffers are handed to OpenGL as-is, nothing is copied on the Java side.
 	 * @param gl2
 	 */
 	private void updateBuffers(GL2 gl2) {
-		int numVertexes = vertexArray.size()/3;
-		Iterator<Float> fi;
-		int j=0;
-
-		FloatBuffer vertices = FloatBuffer.allocate(vertexArray.size());
-		fi = vertexArray.iterator();
-		while(fi.hasNext()) {
-			vertices.put(j++, fi.next().floatValue());
-			vertices.put(j++, fi.next().floatValue());
-			vertices.put(j++, fi.next().floatValue());
+		if(quantized) {
+			updateQuantizedBuffers(gl2);
+			return;
 		}
-
-		int s=(Float.SIZE/8);  // bits per float / bits per byte = bytes per float
-		int totalBufferSize = numVertexes*3*s;
+		
 		int vboIndex=0;
 		
 		// bind a buffer
-		vertices.rewind();
 		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[vboIndex]);
 	    // Write out vertex buffer to the currently bound VBO.
-	    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, totalBufferSize, vertices, GL2.GL_STATIC_DRAW);
+	    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, vertexArray.getSizeInBytes(), vertexArray.getBuffer(), GL2.GL_STATIC_DRAW);
 	    vboIndex++;
 	    
 		if(hasNormals) {
-			j=0;
 		    // repeat for normals
-			FloatBuffer normals = FloatBuffer.allocate(normalArray.size());
-			fi = normalArray.iterator();
-			while(fi.hasNext()) {
-				normals.put(fi.next().floatValue());
-				normals.put(fi.next().floatValue());
-				normals.put(fi.next().floatValue());
-			}
-			
-			normals.rewind();
 			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[vboIndex]);
-		    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, totalBufferSize, normals, GL2.GL_STATIC_DRAW);
+		    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, normalArray.getSizeInBytes(), normalArray.getBuffer(), GL2.GL_STATIC_DRAW);
 		    vboIndex++;
 		}
 
 		if(hasColors) {
 		    // repeat for colors
-			FloatBuffer colors = FloatBuffer.allocate(colorArray.size());
-			fi = colorArray.iterator();
-			while(fi.hasNext()) {
-				colors.put(fi.next().floatValue());
-			}
-			
-			colors.rewind();
 			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[vboIndex]);
-		    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, totalBufferSize, colors, GL2.GL_STATIC_DRAW);
+		    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, colorArray.getSizeInBytes(), colorArray.getBuffer(), GL2.GL_STATIC_DRAW);
 		    vboIndex++;
 		}
 		
 		if(hasUVs) {
 		    // repeat for textures
-			FloatBuffer texCoords = FloatBuffer.allocate(texCoordArray.size());
-			fi = texCoordArray.iterator();
-			while(fi.hasNext()) {
-				texCoords.put(fi.next().floatValue());
-			}
-			
-		    texCoords.rewind();
 			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[vboIndex]);
-		    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, numVertexes*2*s, texCoords, GL2.GL_STATIC_DRAW);
+		    gl2.glBufferData(GL2.GL_ARRAY_BUFFER, texCoordArray.getSizeInBytes(), texCoordArray.getBuffer(), GL2.GL_STATIC_DRAW);
 		    vboIndex++;
 		}
+		
+		if(hasIndexes) {
+			updateIndexBuffer(gl2);
+		}
+	}
+	
+	/**
+	 * Upload every vertex attribute into the first buffer with {@link QuantizedVertexFormat}.
+	 * @param gl2
+	 */
+	private void updateQuantizedBuffers(GL2 gl2) {
+		// positions are stored relative to the bounding box, so it must be current.
+		updateCuboid();
+		quantizedFormat = new QuantizedVertexFormat(this);
+		ByteBuffer data = quantizedFormat.encode(this);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[0]);
+		gl2.glBufferData(GL2.GL_ARRAY_BUFFER, data.capacity(), data, GL2.GL_STATIC_DRAW);
+		
+		if(hasIndexes) {
+			updateIndexBuffer(gl2);
+		}
+	}
+	
+	/**
+	 * Opt in to 16 bit positions, 8 bit normals and 8 bit colors, interleaved in one buffer.
+	 * Uses about half the memory and upload time of 32 bit floats.  See {@link QuantizedVertexFormat}.
+	 * The chunks and levels of detail of this mesh do the same.
+	 * @param state true to use the compact layout
+	 */
+	public void setQuantized(boolean state) {
+		for(Mesh m : chunks) m.setQuantized(state);
+		Mesh [] levels = levelsOfDetail;
+		if(levels!=null) {
+			for(Mesh m : levels) m.setQuantized(state);
+		}
+		if(quantized==state) return;
+		quantized=state;
+		isDirty=true;
+		// the pool counts the smaller size.
+		MeshPool.resize(this);
+	}
+	
+	public boolean isQuantized() {
+		return quantized;
+	}
+	
+	/**
+	 * Upload the indexes as 16 bit values when every vertex can be reached that way, 32 bit otherwise.
+	 * @param gl2
+	 */
+	private void updateIndexBuffer(GL2 gl2) {
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, VBO[INDEX_BUFFER]);
+		if(getNumVertices() <= 0x10000) {
+			int size = indexArray.size();
+			ShortBuffer indexes = ByteBuffer.allocateDirect(size*Short.BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
+			for(int i=0;i<size;++i) {
+				indexes.put(i,(short)indexArray.get(i));
+			}
+			gl2.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, (long)size*Short.BYTES, indexes, GL2.GL_STATIC_DRAW);
+			indexType = GL2.GL_UNSIGNED_SHORT;
+		} else {
+			gl2.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexArray.getSizeInBytes(), indexArray.getBuffer(), GL2.GL_STATIC_DRAW);
+			indexType = GL2.GL_UNSIGNED_INT;
+		}
+		gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
 	}
 	
+	/**
+	 * Call once at the start of every frame on the GL thread.  Refills the upload budget and deletes the
+	 * buffers of meshes evicted from the {@link MeshPool}.
+	 * @param gl2 the render context
+	 */
+	public static void startFrame(GL2 gl2) {
+		uploadedThisFrame = 0;
+		trianglesDrawnLastFrame = trianglesDrawn;
+		trianglesDrawn = 0;
+		drawCallsLastFrame = drawCalls;
+		drawCalls = 0;
+		MeshPool.unloadEvicted(gl2);
+	}
+
+	/**
+	 * @return the number of triangles drawn by all meshes in the previous frame.
+	 */
+	public static long getTrianglesDrawnLastFrame() {
+		return trianglesDrawnLastFrame;
+	}
+
+	/**
+	 * @return the number of glDrawArrays and glDrawElements calls made by all meshes in the previous frame.
+	 */
+	public static long getDrawCallsLastFrame() {
+		return drawCallsLastFrame;
+	}
+
+	/**
+	 * @param bytes the number of bytes that may be sent to OpenGL each frame.
+	 */
+	public static void setUploadBudget(long bytes) {
+		uploadBudget = bytes;
+	}
+
+	public static long getUploadBudget() {
+		return uploadBudget;
+	}
+
+	/**
+	 * Meshes loaded after this call use {@link #setQuantized(boolean)}.  Also set at startup with
+	 * -DrobotOverlord.quantizeMeshes=true.
+	 * @param state true to quantize meshes as they are loaded.
+	 */
+	public static void setQuantizeLoadedMeshes(boolean state) {
+		quantizeLoadedMeshes = state;
+	}
+
+	public static boolean getQuantizeLoadedMeshes() {
+		return quantizeLoadedMeshes;
+	}
+
+	/**
+	 * @return the number of bytes needed to upload this mesh, its chunks, and its levels of detail.
+	 */
+	public long getSizeInBytes() {
+		long sum = getOwnSizeInBytes();
+		for(Mesh m : chunks) sum += m.getSizeInBytes();
+		Mesh [] levels = levelsOfDetail;
+		if(levels!=null) {
+			for(Mesh m : levels) sum += m.getSizeInBytes();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the number of bytes needed to upload this mesh, not counting the chunks.
+	 */
+	private long getOwnSizeInBytes() {
+		if(isReleased) return releasedBytes;
+		if(quantized) {
+			return (long)getNumVertices()*QuantizedVertexFormat.getStride(hasNormals,hasColors,hasUVs)
+					+ (hasIndexes ? indexArray.getSizeInBytes() : 0);
+		}
+		return vertexArray.getSizeInBytes()
+				+ (hasNormals ? normalArray.getSizeInBytes() : 0)
+				+ (hasColors ? colorArray.getSizeInBytes() : 0)
+				+ (hasUVs ? texCoordArray.getSizeInBytes() : 0)
+				+ (hasIndexes ? indexArray.getSizeInBytes() : 0);
+	}
+
+	/**
+	 * The first upload of each frame is always allowed, so a mesh bigger than the budget still gets drawn.
+	 * A mesh that has to wait asks for another frame, so it is drawn even when nothing else changes.
+	 * @return true if this mesh may be uploaded now.
+	 */
+	private boolean reserveUpload() {
+		long size = getOwnSizeInBytes();
+		if(uploadedThisFrame>0 && uploadedThisFrame+size>uploadBudget) {
+			OnDemandAnimator.requestFrame();
+			return false;
+		}
+		uploadedThisFrame+=size;
+		return true;
+	}
+
+	/**
+	 * @return true if the last call to {@link #render(GL2)} drew the mesh.  False while it waits to upload.
+	 */
+	public boolean isReadyToDraw() {
+		for(Mesh m : chunks) {
+			if(!m.isReadyToDraw()) return false;
+		}
+		if(hasOnlyChunks()) return true;
+		return isLoaded && !isDirty && VBO!=null;
+	}
+
+	/**
+	 * @return true if all the data is in the chunks.
+	 */
+	private boolean hasOnlyChunks() {
+		return !chunks.isEmpty() && vertexArray.size()==0;
+	}
+
 	public void render(GL2 gl2) {
 		if(unloadASAP) {
 			unloadASAP=false;
 			unload(gl2);
 		}
+		if(!hasOnlyChunks()) renderBuffers(gl2);
+		// each chunk waits for its own turn to upload.
+		for(Mesh m : chunks) {
+			if(m.isReleased && (m.isDirty || !m.isLoaded)) {
+				// lost its buffers, as when evicted or when the context went away.
+				if(!m.restoreFailed) restoreChunksLater();
+				continue;
+			}
+			m.render(gl2);
+			// the data lives in OpenGL now.
+			if(!m.isReleased && m.canRestore() && m.isReadyToDraw()) m.releaseArrays();
+		}
+	}
+
+	/**
+	 * @return true if this chunk can read its arrays again.
+	 */
+	private boolean canRestore() {
+		return chunkSource!=null && !restoreFailed;
+	}
+
+	/**
+	 * Let go of the arrays of this chunk but remember how big they were and where they reached.
+	 */
+	private synchronized void releaseArrays() {
+		releasedBytes = getOwnSizeInBytes();
+		releasedVertexes = getNumVertices();
+		vertexArray = new FloatArray(1);
+		normalArray = new FloatArray(1);
+		colorArray = new FloatArray(1);
+		texCoordArray = new FloatArray(1);
+		isReleased = true;
+	}
+
+	/**
+	 * @return true if the arrays of this chunk were let go after upload.
+	 */
+	public boolean isReleased() {
+		return isReleased;
+	}
+
+	/**
+	 * Reads the arrays of one chunk again, so a chunk can let them go once they are in OpenGL.
+	 */
+	public interface ChunkSource {
+		/**
+		 * @return a new mesh with the same points the chunk had.
+		 * @throws Exception if they can't be read.
+		 */
+		Mesh read() throws Exception;
+	}
+
+	/**
+	 * @param source where this chunk can read its arrays again, or null to keep them.
+	 */
+	public void setChunkSource(ChunkSource source) {
+		chunkSource = source;
+	}
+
+	/**
+	 * @return a copy of the arrays this chunk let go, read again from its source.
+	 * @throws Exception if the source can't be read or has changed since.
+	 */
+	private Mesh readAgain() throws Exception {
+		Mesh c = chunkSource.read();
+		if(c.getNumVertices()!=releasedVertexes) throw new Exception("the source of the points has changed");
+		return c;
+	}
+
+	/**
+	 * Put back the arrays of this chunk, if it let them go after upload.
+	 * @throws Exception if the source can't be read or has changed since.
+	 */
+	synchronized void restoreArrays() throws Exception {
+		if(!isReleased) return;
+		Mesh c = readAgain();
+		vertexArray = c.vertexArray;
+		normalArray = c.normalArray;
+		colorArray = c.colorArray;
+		texCoordArray = c.texCoordArray;
+		isReleased = false;
+	}
+
+	/**
+	 * Put back the arrays of the first chunk that lost its buffers, on a {@link MeshLoader} thread.  The next
+	 * frame uploads it and lets go of the arrays again before the next chunk is read.  Never blocks.
+	 */
+	private void restoreChunksLater() {
+		if(isRestoring) return;
+		isRestoring = true;
+		MeshLoader.execute(()->{
+			try {
+				for(Mesh m : chunks) {
+					if(!m.isReleased || m.restoreFailed || !(m.isDirty || !m.isLoaded)) continue;
+					try {
+						m.restoreArrays();
+					} catch(Exception e) {
+						m.restoreFailed = true;
+						Log.error("Restoring part of "+sourceName+" failed: "+e.getLocalizedMessage());
+					}
+					break;
+				}
+			} finally {
+				isRestoring = false;
+				// upload it, and ask for the next.
+				OnDemandAnimator.requestFrame();
+			}
+		});
+	}
+
+	private void renderBuffers(GL2 gl2) {
+		if(!uploadBuffers(gl2)) return;
+		drawBuffers(gl2,0);
+	}
+	
+	/**
+	 * Draw many copies of this mesh in one call.  The caller supplies a shader and the per instance
+	 * attributes.  Quantized positions are not scaled here, so the shader must apply
+	 * {@link QuantizedVertexFormat#getTransform(javax.vecmath.Matrix4d)}.  Chunks are not drawn.
+	 * @param gl2 the render context
+	 * @param instances the number of copies.
+	 */
+	public void renderInstanced(GL2 gl2,int instances) {
+		if(!uploadBuffers(gl2)) return;
+		drawBuffers(gl2,instances);
+	}
+	
+	/**
+	 * Create and fill the buffers if the upload budget allows.
+	 * @param gl2 the render context
+	 * @return true if the buffers are ready to draw.
+	 */
+	boolean uploadBuffers(GL2 gl2) {
+		if(isDirty || !isLoaded) {
+			if(!reserveUpload()) return false;
+		}
 		if(!isLoaded) {
 			createBuffers(gl2);
 			isDirty=true;
@@ -196,8 +538,54 @@ public class Mesh {
 			updateBuffers(gl2);
 			isDirty=false;
 		}
-		if(VBO==null) return;
+		return VBO!=null;
+	}
+
+	/**
+	 * @param instances the number of copies to draw with one instanced call, or 0 for a normal draw.
+	 */
+	private void drawBuffers(GL2 gl2,int instances) {
+		if(quantized) {
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[0]);
+			quantizedFormat.setPointers(gl2);
+			if(instances==0) {
+				gl2.glPushMatrix();
+				quantizedFormat.applyTransform(gl2);
+			}
+		} else {
+			setFloatPointers(gl2);
+		}
+		
+		if(renderStyle==GL2.GL_TRIANGLES) trianglesDrawn += (long)getNumTriangles()*Math.max(instances,1);
+		drawCalls++;
+		
+		if(hasIndexes) {
+			gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, VBO[INDEX_BUFFER]);
+			if(instances==0) gl2.glDrawElements(renderStyle, indexArray.size(), indexType, 0);
+			else gl2.glDrawElementsInstanced(renderStyle, indexArray.size(), indexType, 0, instances);
+			gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+		} else {
+			int count=getNumVertices();
+			if(instances==0) gl2.glDrawArrays(renderStyle, 0, count);
+			else gl2.glDrawArraysInstanced(renderStyle, 0, count, instances);
+			//gl2.glDrawArrays(GL2.GL_LINE_LOOP, 0, count);
+		}
+		
+		if(quantized && instances==0) {
+			gl2.glPopMatrix();
+		}
 		
+		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl2.glDisableClientState(GL2.GL_COLOR_ARRAY);
+		gl2.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+	}
+	
+	/**
+	 * Point the fixed function pipeline at the separate float buffers.
+	 * @param gl2
+	 */
+	private void setFloatPointers(GL2 gl2) {
 		int vboIndex=0;
 		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
 		// Bind the vertex buffer to work with
@@ -222,45 +610,160 @@ public class Mesh {
 			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[vboIndex++]);
 			gl2.glTexCoordPointer(2, GL2.GL_FLOAT, 0, 0);
 		}
-		
-		int count=vertexArray.size()/3;
-		if(renderStyle==GL2.GL_POINTS) {
-			count*=3;
-		}
-		gl2.glDrawArrays(renderStyle, 0, count);
-		//gl2.glDrawArrays(GL2.GL_LINE_LOOP, 0, count);
-		
-		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
-		gl2.glDisableClientState(GL2.GL_NORMAL_ARRAY);
-		gl2.glDisableClientState(GL2.GL_COLOR_ARRAY);
-		gl2.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
 	}
 	
+	/**
+	 * Add part of a very large mesh.  Each chunk is uploaded to its own buffers and drawn after this mesh.  If
+	 * this mesh is being loaded by {@link MeshLoader} it may be drawn from now on, before the rest is read.
+	 * @param chunk the part, with all its points.  It should not be in the {@link MeshPool}.
+	 */
+	public void addChunk(Mesh chunk) {
+		chunk.setQuantized(quantized);
+		// the bounds are kept after the points are let go.
+		chunk.updateCuboid();
+		chunks.add(chunk);
+		MeshLoader.chunkAdded(this);
+	}
+
+	public int getNumChunks() {
+		return chunks.size();
+	}
+
+	/**
+	 * If the chunk let go of its arrays after upload, its part of the source is read again into a copy, which is
+	 * not kept.  Treat the result as read only.
+	 * @param index the chunk
+	 * @return the chunk or a copy, with its arrays.
+	 */
+	public Mesh getChunk(int index) {
+		Mesh m = chunks.get(index);
+		if(!m.isReleased || m.restoreFailed) return m;
+		try {
+			return m.readAgain();
+		} catch(Exception e) {
+			m.restoreFailed = true;
+			Log.error("Reading part of "+sourceName+" again failed: "+e.getLocalizedMessage());
+			return m;
+		}
+	}
+
 	public void addNormal(float x,float y,float z) {
-		normalArray.add(x);
-		normalArray.add(y);
-		normalArray.add(z);
+		normalArray.add(x,y,z);
 		hasNormals=true;
 	}
 	
 	public void addVertex(float x,float y,float z) {
-		vertexArray.add(x);
-		vertexArray.add(y);
-		vertexArray.add(z);
+		vertexArray.add(x,y,z);
 	}
 	
 	public void addColor(float r,float g,float b,float a) {
-		colorArray.add(r);
-		colorArray.add(g);
-		colorArray.add(b);
-		colorArray.add(a);
+		colorArray.add(r,g,b,a);
 	}
 	
 	public void addTexCoord(float x,float y) {
-		texCoordArray.add(x);
-		texCoordArray.add(y);
+		texCoordArray.add(x,y);
 		hasUVs=true;
 	}
+
+	/**
+	 * Add one index to the element buffer.  Once a mesh has indexes every triangle must be made of indexes.
+	 * @param index a vertex number
+	 */
+	public void addIndex(int index) {
+		indexArray.add(index);
+		hasIndexes=true;
+	}
+	
+	/**
+	 * @return the number of indexes, three per triangle.
+	 */
+	public int getNumIndexes() {
+		return indexArray.size();
+	}
+	
+	/**
+	 * @return the index storage.
+	 */
+	public IntArray getIndexArray() {
+		return indexArray;
+	}
+	
+	/**
+	 * Find a corner of a triangle in both indexed and unindexed meshes.
+	 * @param triangle the triangle number, less than {@link #getNumTriangles()}.
+	 * @param corner 0, 1, or 2
+	 * @return the vertex number
+	 */
+	public int getTriangleVertex(int triangle,int corner) {
+		int i = triangle*3+corner;
+		return hasIndexes ? indexArray.get(i) : i;
+	}
+	
+	/**
+	 * Reserve room for numVertexes so that loaders which know their size up front never grow the buffers.
+	 * @param numVertexes the expected number of vertexes.
+	 */
+	public void ensureCapacity(int numVertexes) {
+		vertexArray.ensureCapacity(numVertexes*3);
+		normalArray.ensureCapacity(numVertexes*3);
+	}
+	
+	public int getNumVertices() {
+		if(isReleased) return releasedVertexes;
+		return vertexArray.size()/3;
+	}
+	
+	public float getVertexX(int index) {	return vertexArray.get(index*3+0);	}
+	public float getVertexY(int index) {	return vertexArray.get(index*3+1);	}
+	public float getVertexZ(int index) {	return vertexArray.get(index*3+2);	}
+	
+	public float getNormalX(int index) {	return normalArray.get(index*3+0);	}
+	public float getNormalY(int index) {	return normalArray.get(index*3+1);	}
+	public float getNormalZ(int index) {	return normalArray.get(index*3+2);	}
+	
+	public void setVertex(int index,float x,float y,float z) {
+		vertexArray.set(index*3+0, x);
+		vertexArray.set(index*3+1, y);
+		vertexArray.set(index*3+2, z);
+		bvh=null;
+		convexHull=null;
+		isDirty=true;
+	}
+	
+	public void setNormal(int index,float x,float y,float z) {
+		normalArray.set(index*3+0, x);
+		normalArray.set(index*3+1, y);
+		normalArray.set(index*3+2, z);
+		isDirty=true;
+	}
+
+	/**
+	 * @return the vertex storage, three floats per vertex.
+	 */
+	public FloatArray getVertexArray() {
+		return vertexArray;
+	}
+	
+	/**
+	 * @return the normal storage, three floats per vertex.
+	 */
+	public FloatArray getNormalArray() {
+		return normalArray;
+	}
+	
+	/**
+	 * @return the color storage, four floats per vertex.
+	 */
+	public FloatArray getColorArray() {
+		return colorArray;
+	}
+	
+	/**
+	 * @return the texture coordinate storage, two floats per vertex.
+	 */
+	public FloatArray getTexCoordArray() {
+		return texCoordArray;
+	}
 	
 	/**
 	 * Force recalculation of the the minimum bounding box to contain this STL file.
@@ -271,13 +774,33 @@ public class Mesh {
 		Point3d boundBottom = new Point3d(Double.MAX_VALUE,Double.MAX_VALUE,Double.MAX_VALUE);
 		Point3d boundTop = new Point3d(-Double.MAX_VALUE,-Double.MAX_VALUE,-Double.MAX_VALUE);
 		
+		growBounds(vertexArray,boundTop,boundBottom);
+		// the chunks worked out their bounds when they were added.
+		for(Mesh m : chunks) {
+			if(m.getNumVertices()==0) continue;
+			growBounds(m.cuboid.getBoundsTop(),boundTop,boundBottom);
+			growBounds(m.cuboid.getBoundsBottom(),boundTop,boundBottom);
+		}
+		cuboid.setBounds(boundTop, boundBottom);
+	}
+
+	private static void growBounds(Point3d p,Point3d boundTop,Point3d boundBottom) {
+		boundTop.x = Math.max(p.x, boundTop.x);
+		boundTop.y = Math.max(p.y, boundTop.y);
+		boundTop.z = Math.max(p.z, boundTop.z);
+		boundBottom.x = Math.min(p.x, boundBottom.x);
+		boundBottom.y = Math.min(p.y, boundBottom.y);
+		boundBottom.z = Math.min(p.z, boundBottom.z);
+	}
+
+	private static void growBounds(FloatArray vertexArray,Point3d boundTop,Point3d boundBottom) {
 		// transform and calculate
-		Iterator<Float> fi = vertexArray.iterator();
+		int size = vertexArray.size();
 		double x,y,z;
-		while(fi.hasNext()) {
-			x = fi.next().floatValue();
-			y = fi.next().floatValue();
-			z = fi.next().floatValue();
+		for(int i=0;i<size;i+=3) {
+			x = vertexArray.get(i+0);
+			y = vertexArray.get(i+1);
+			z = vertexArray.get(i+2);
 			boundTop.x = Math.max(x, boundTop.x);
 			boundTop.y = Math.max(y, boundTop.y);
 			boundTop.z = Math.max(z, boundTop.z);
@@ -285,7 +808,6 @@ public class Mesh {
 			boundBottom.y = Math.min(y, boundBottom.y);
 			boundBottom.z = Math.min(z, boundBottom.z);
 		}
-		cuboid.setBounds(boundTop, boundBottom);
 	}
 
 	public Cuboid getCuboid() {
@@ -293,7 +815,79 @@ public class Mesh {
 	}
 	
 	public int getNumTriangles() {
-		return vertexArray.size()/3;
+		if(hasIndexes) return indexArray.size()/3;
+		return vertexArray.size()/9;
+	}
+
+	/**
+	 * Build the {@link MeshBVH} the first time it is needed, and again if triangles have been added since.
+	 * @return the bounding volume hierarchy of this mesh.
+	 */
+	public synchronized MeshBVH getBVH() {
+		int n = (renderStyle==GL2.GL_TRIANGLES) ? getNumTriangles() : 0;
+		if(bvh==null || bvh.getNumTriangles()!=n) {
+			bvh = new MeshBVH(this);
+		}
+		return bvh;
+	}
+
+	/**
+	 * Build the {@link ConvexHull} the first time it is needed, and again if vertexes have been added since.
+	 * @return the convex hull of this mesh.
+	 */
+	public synchronized ConvexHull getConvexHull() {
+		int n = getNumVertices();
+		for(Mesh m : chunks) n += m.getNumVertices();
+		if(convexHull==null || convexHull.getNumPoints()!=n) {
+			convexHull = new ConvexHull(this);
+		}
+		return convexHull;
+	}
+
+	/**
+	 * @return the number of simpler versions of this mesh that are ready.
+	 */
+	public int getNumLevelsOfDetail() {
+		Mesh [] levels = levelsOfDetail;
+		return levels==null ? 0 : levels.length;
+	}
+
+	/**
+	 * @param level 0 for this mesh, 1...{@link #getNumLevelsOfDetail()} for simpler versions.
+	 * @return the mesh for that level.
+	 */
+	public Mesh getLevelOfDetail(int level) {
+		Mesh [] levels = levelsOfDetail;
+		if(level<=0 || levels==null) return this;
+		return levels[Math.min(level,levels.length)-1];
+	}
+
+	/**
+	 * Lets only one thread build the levels of detail.
+	 * @return true the first time it is called.
+	 */
+	public synchronized boolean claimLevelsOfDetail() {
+		if(levelsOfDetailClaimed) return false;
+		levelsOfDetailClaimed=true;
+		return true;
+	}
+
+	/**
+	 * See {@link MeshSimplifier}.
+	 * @param levels simpler versions of this mesh, most detailed first.  null to remove them.
+	 */
+	public void setLevelsOfDetail(Mesh [] levels) {
+		if(levels!=null) {
+			for(Mesh m : levels) m.setQuantized(quantized);
+		}
+		Mesh [] old = levelsOfDetail;
+		levelsOfDetail = levels;
+		// buffers are deleted on the GL thread.
+		if(old!=null) {
+			for(Mesh m : old) MeshPool.unloadLater(m);
+		}
+		// the pool budget counts the levels too.
+		MeshPool.resize(this);
 	}
 
 	public ShapeLoadAndSave getLoader() {
@@ -304,8 +898,17 @@ public class Mesh {
 		this.loader = loader;
 	}
 
+	/**
+	 * @param sourceName the file a mesh was loaded from.
+	 * @return the mesh already loaded from sourceName, or null.
+	 */
+	public static Mesh findInPool(String sourceName) {
+		return MeshPool.get(sourceName);
+	}
+
 	/**
 	 * Makes sure to only load one instance of each source file.  Loads all the data immediately.
+	 * Meshes that were loaded before come from the {@link MeshCache}.
 	 * @param sourceName file from which to load.  may be filename.ext or zipfile.zip:filename.ext
 	 * @return the instance.
 	 * @throws Exception if file cannot be read successfully
@@ -313,18 +916,38 @@ public class Mesh {
 	public static Mesh createModelFromFilename(String sourceName) throws Exception {
 		if(sourceName == null || sourceName.trim().length()==0) return null;
 		
-		// find the existing shape in the pool
-		Iterator<Mesh> iter = meshPool.iterator();
-		while(iter.hasNext()) {
-			Mesh m = iter.next();
-			if(m.getSourceName().equals(sourceName)) {
-				return m;
+		Mesh m = findInPool(sourceName);
+		if(m!=null) return m;
+		
+		return loadFromFilename(sourceName);
+	}
+	
+	/**
+	 * Save this mesh with the first {@link ShapeLoadAndSave} that can write the type of file.
+	 * @param filename the file to write.  The extension picks the format.
+	 * @throws Exception if no saver matches or the file cannot be written.
+	 */
+	public void saveToFilename(String filename) throws Exception {
+		ServiceLoader<ShapeLoadAndSave> savers = ServiceLoader.load(ShapeLoadAndSave.class);
+		for(ShapeLoadAndSave saver : savers) {
+			if(saver.canSave() && saver.canSave(filename)) {
+				saver.save(filename,this);
+				return;
 			}
 		}
-		
+		throw new Exception("No saver found for "+filename);
+	}
+
+	/**
+	 * Load sourceName without looking in the pool first, then add it to the {@link MeshPool}.
+	 * @param sourceName file from which to load.  may be filename.ext or zipfile.zip:filename.ext
+	 * @return the instance.  If another thread loaded the same file first, that instance.
+	 * @throws Exception if file cannot be read successfully
+	 */
+	static Mesh loadFromFilename(String sourceName) throws Exception {
 		Mesh m=null;
 		
-		// not in pool.  Find a serviceLoader that can load this file type.
+		// Find a serviceLoader that can load this file type.
 		ServiceLoader<ShapeLoadAndSave> loaders = ServiceLoader.load(ShapeLoadAndSave.class);
 		Iterator<ShapeLoadAndSave> i = loaders.iterator();
 		int count=0;
@@ -332,14 +955,14 @@ public class Mesh {
 			count++;
 			ShapeLoadAndSave loader = i.next();
 			if(loader.canLoad() && loader.canLoad(sourceName)) {
-				BufferedInputStream stream = FileAccess.open(sourceName);
-				m=new Mesh();
-				if(loader.load(stream,m)) {
+				m=MeshCache.load(sourceName,loader);
+				if(m!=null) {
 					m.setSourceName(sourceName);
 					m.setLoader(loader);
-					m.updateCuboid();
+					if(quantizeLoadedMeshes) m.setQuantized(true);
 					// Maybe add a m.setSaveAndLoader(loader); ?
-					meshPool.add(m);
+					// another thread may have finished the same file first.
+					m = MeshPool.add(m);
 					break;
 				}
 			}
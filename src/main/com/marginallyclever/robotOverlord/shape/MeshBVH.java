@@ -0,0 +1,491 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4d;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.Ray;
+
+/**
+ * {@link MeshBVH} is a bounding volume hierarchy over the triangles of a {@link Mesh}, for ray picking and
+ * mesh / mesh collision.  Get one with {@link Mesh#getBVH()}, which builds it the first time and keeps it.
+ * <p>
+ * Nodes are split with the surface area heuristic over a few bins per node.  The tree and the triangle corners
+ * are flattened into primitive arrays in depth first order, so the left child of a node is always the next node.
+ * @author Dan Royer
+ */
+public class MeshBVH {
+	private static final int BINS = 12;
+	// the most triangles a node may hold before it must be split.
+	private static final int MAX_LEAF = 8;
+	// cost of visiting one more node, relative to testing one triangle.
+	private static final float TRAVERSAL_COST = 1;
+
+	private final int numTriangles;
+	// the three corners of each triangle in leaf order, nine floats per triangle.
+	private final float [] corners;
+	// min x,y,z and max x,y,z of each node.
+	private float [] bounds;
+	// leaves: the first triangle.  inner nodes: the right child.
+	private int [] offset;
+	// leaves: the number of triangles.  inner nodes: 0.
+	private int [] count;
+	private int numNodes;
+
+	// used while building
+	private float [] triangleBounds;
+	private float [] centroids;
+	private int [] order;
+
+	/**
+	 * Build the tree.  Meshes not drawn as triangles have no triangles in the tree.
+	 * @param m the mesh
+	 */
+	public MeshBVH(Mesh m) {
+		numTriangles = (m.renderStyle==GL2.GL_TRIANGLES) ? m.getNumTriangles() : 0;
+		int capacity = Math.max(1, 2*numTriangles-1);
+		bounds = new float[capacity*6];
+		offset = new int[capacity];
+		count = new int[capacity];
+
+		FloatArray v = m.getVertexArray();
+		float [] source = new float[numTriangles*9];
+		triangleBounds = new float[numTriangles*6];
+		centroids = new float[numTriangles*3];
+		order = new int[numTriangles];
+		for(int t=0;t<numTriangles;++t) {
+			for(int c=0;c<3;++c) {
+				int i = m.getTriangleVertex(t, c)*3;
+				source[t*9+c*3  ] = v.get(i  );
+				source[t*9+c*3+1] = v.get(i+1);
+				source[t*9+c*3+2] = v.get(i+2);
+			}
+			for(int a=0;a<3;++a) {
+				float lo = Math.min(source[t*9+a], Math.min(source[t*9+3+a], source[t*9+6+a]));
+				float hi = Math.max(source[t*9+a], Math.max(source[t*9+3+a], source[t*9+6+a]));
+				triangleBounds[t*6+a  ] = lo;
+				triangleBounds[t*6+a+3] = hi;
+				centroids[t*3+a] = (lo+hi)*0.5f;
+			}
+			order[t]=t;
+		}
+
+		if(numTriangles>0) build(0,numTriangles);
+		else {
+			// one empty leaf that nothing can hit.
+			Arrays.fill(bounds, 0, 3,  Float.MAX_VALUE);
+			Arrays.fill(bounds, 3, 6, -Float.MAX_VALUE);
+			numNodes=1;
+		}
+
+		corners = new float[numTriangles*9];
+		for(int i=0;i<numTriangles;++i) {
+			System.arraycopy(source, order[i]*9, corners, i*9, 9);
+		}
+		triangleBounds=null;
+		centroids=null;
+		order=null;
+	}
+
+	public int getNumTriangles() {
+		return numTriangles;
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Make a node for triangles order[first...first+n-1].
+	 * @return the node number.
+	 */
+	private int build(int first,int n) {
+		int node = numNodes++;
+		float [] cb = new float[6];
+		setBounds(node,first,n,cb);
+		offset[node]=first;
+		count[node]=n;
+		if(n<=2) return node;
+
+		// split the longest side of the centroid bounds
+		int axis=0;
+		for(int a=1;a<3;++a) {
+			if(cb[a+3]-cb[a] > cb[axis+3]-cb[axis]) axis=a;
+		}
+		float lo = cb[axis];
+		float extent = cb[axis+3]-lo;
+		if(extent<=0) {
+			// every centroid in the same place.  nothing to split.
+			if(n>MAX_LEAF) return splitMiddle(node,first,n);
+			return node;
+		}
+
+		int [] binCount = new int[BINS];
+		float [] binBounds = new float[BINS*6];
+		for(int b=0;b<BINS;++b) emptyBox(binBounds,b);
+		float scale = BINS/extent;
+		for(int i=first;i<first+n;++i) {
+			int t = order[i];
+			int b = bin(centroids[t*3+axis],lo,scale);
+			binCount[b]++;
+			grow(binBounds,b,triangleBounds,t);
+		}
+
+		// sweep from the right to find the area of everything right of each split
+		float [] rightArea = new float[BINS];
+		int [] rightCount = new int[BINS];
+		float [] box = new float[6];
+		emptyBox(box,0);
+		int sum=0;
+		for(int b=BINS-1;b>0;--b) {
+			grow(box,0,binBounds,b);
+			sum += binCount[b];
+			rightArea[b] = area(box,0);
+			rightCount[b] = sum;
+		}
+		// then from the left, to find the cheapest split
+		emptyBox(box,0);
+		sum=0;
+		float bestCost=Float.MAX_VALUE;
+		int bestSplit=-1;
+		for(int b=1;b<BINS;++b) {
+			grow(box,0,binBounds,b-1);
+			sum += binCount[b-1];
+			if(sum==0 || rightCount[b]==0) continue;
+			float cost = sum*area(box,0) + rightCount[b]*rightArea[b];
+			if(cost<bestCost) {
+				bestCost=cost;
+				bestSplit=b;
+			}
+		}
+		float parentArea = area(bounds,node);
+		float splitCost = TRAVERSAL_COST + (parentArea>0 ? bestCost/parentArea : 0);
+		if(bestSplit==-1) {
+			return n>MAX_LEAF ? splitMiddle(node,first,n) : node;
+		}
+		if(splitCost>=n && n<=MAX_LEAF) return node;
+
+		// partition in place
+		int i=first, j=first+n-1;
+		while(i<=j) {
+			if(bin(centroids[order[i]*3+axis],lo,scale)<bestSplit) i++;
+			else {
+				int temp=order[i];
+				order[i]=order[j];
+				order[j--]=temp;
+			}
+		}
+		return makeInner(node,first,i-first,n);
+	}
+
+	/**
+	 * Split in the middle of the list when the centroids can't be told apart.
+	 */
+	private int splitMiddle(int node,int first,int n) {
+		return makeInner(node,first,n/2,n);
+	}
+
+	private int makeInner(int node,int first,int leftCount,int n) {
+		count[node]=0;
+		build(first,leftCount);
+		offset[node] = build(first+leftCount,n-leftCount);
+		return node;
+	}
+
+	private static int bin(float centroid,float lo,float scale) {
+		return Math.min(BINS-1, (int)((centroid-lo)*scale));
+	}
+
+	/**
+	 * Set the bounds of node to hold triangles order[first...first+n-1].
+	 * @param centroidBounds receives the bounds of their centroids.
+	 */
+	private void setBounds(int node,int first,int n,float [] centroidBounds) {
+		emptyBox(bounds,node);
+		emptyBox(centroidBounds,0);
+		for(int i=first;i<first+n;++i) {
+			int t = order[i];
+			grow(bounds,node,triangleBounds,t);
+			for(int a=0;a<3;++a) {
+				float c = centroids[t*3+a];
+				if(centroidBounds[a  ]>c) centroidBounds[a  ]=c;
+				if(centroidBounds[a+3]<c) centroidBounds[a+3]=c;
+			}
+		}
+	}
+
+	private static void emptyBox(float [] boxes,int i) {
+		for(int a=0;a<3;++a) {
+			boxes[i*6+a  ] =  Float.MAX_VALUE;
+			boxes[i*6+a+3] = -Float.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * grow box i of boxes to hold box j of others.
+	 */
+	private static void grow(float [] boxes,int i,float [] others,int j) {
+		for(int a=0;a<3;++a) {
+			if(boxes[i*6+a  ]>others[j*6+a  ]) boxes[i*6+a  ]=others[j*6+a  ];
+			if(boxes[i*6+a+3]<others[j*6+a+3]) boxes[i*6+a+3]=others[j*6+a+3];
+		}
+	}
+
+	/**
+	 * @return half the surface area of box i, which is all the heuristic needs.
+	 */
+	private static float area(float [] boxes,int i) {
+		float dx = boxes[i*6+3]-boxes[i*6  ];
+		float dy = boxes[i*6+4]-boxes[i*6+1];
+		float dz = boxes[i*6+5]-boxes[i*6+2];
+		if(dx<0 || dy<0 || dz<0) return 0;
+		return dx*dy + dy*dz + dz*dx;
+	}
+
+	/**
+	 * Find the closest triangle hit by a ray.
+	 * @param ray in the same space as the mesh.
+	 * @return distance along the ray to the first hit, in units of ray.direction.  Negative for no hit.
+	 */
+	public double intersect(Ray ray) {
+		double ox = ray.start.x, oy = ray.start.y, oz = ray.start.z;
+		double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+		double ix = 1.0/dx, iy = 1.0/dy, iz = 1.0/dz;
+		double best = Double.MAX_VALUE;
+
+		int [] stack = new int[64];
+		int top=0;
+		stack[top++]=0;
+		while(top>0) {
+			int node = stack[--top];
+			if(!rayHitsBox(node,ox,oy,oz,ix,iy,iz,best)) continue;
+			if(count[node]>0) {
+				int end = offset[node]+count[node];
+				for(int t=offset[node];t<end;++t) {
+					double d = rayTriangle(t,ox,oy,oz,dx,dy,dz);
+					if(d>=0 && d<best) best=d;
+				}
+			} else {
+				if(top+2>stack.length) stack = Arrays.copyOf(stack, stack.length*2);
+				stack[top++] = offset[node];
+				stack[top++] = node+1;
+			}
+		}
+		return best==Double.MAX_VALUE ? -1 : best;
+	}
+
+	private boolean rayHitsBox(int node,double ox,double oy,double oz,double ix,double iy,double iz,double best) {
+		int b = node*6;
+		double t0 = (bounds[b  ]-ox)*ix, t1 = (bounds[b+3]-ox)*ix;
+		double near = Math.min(t0,t1), far = Math.max(t0,t1);
+		t0 = (bounds[b+1]-oy)*iy;  t1 = (bounds[b+4]-oy)*iy;
+		near = Math.max(near, Math.min(t0,t1));  far = Math.min(far, Math.max(t0,t1));
+		t0 = (bounds[b+2]-oz)*iz;  t1 = (bounds[b+5]-oz)*iz;
+		near = Math.max(near, Math.min(t0,t1));  far = Math.min(far, Math.max(t0,t1));
+		return near<=far && far>=0 && near<best;
+	}
+
+	/**
+	 * Möller–Trumbore ray / triangle intersection.
+	 * @return distance to the hit, or -1.
+	 */
+	private double rayTriangle(int t,double ox,double oy,double oz,double dx,double dy,double dz) {
+		int c = t*9;
+		double ax = corners[c  ], ay = corners[c+1], az = corners[c+2];
+		double e1x = corners[c+3]-ax, e1y = corners[c+4]-ay, e1z = corners[c+5]-az;
+		double e2x = corners[c+6]-ax, e2y = corners[c+7]-ay, e2z = corners[c+8]-az;
+		double px = dy*e2z - dz*e2y;
+		double py = dz*e2x - dx*e2z;
+		double pz = dx*e2y - dy*e2x;
+		double det = e1x*px + e1y*py + e1z*pz;
+		if(Math.abs(det)<1e-12) return -1;
+		double inv = 1.0/det;
+		double sx = ox-ax, sy = oy-ay, sz = oz-az;
+		double u = (sx*px + sy*py + sz*pz)*inv;
+		if(u<0 || u>1) return -1;
+		double qx = sy*e1z - sz*e1y;
+		double qy = sz*e1x - sx*e1z;
+		double qz = sx*e1y - sy*e1x;
+		double v = (dx*qx + dy*qy + dz*qz)*inv;
+		if(v<0 || u+v>1) return -1;
+		double d = (e2x*qx + e2y*qy + e2z*qz)*inv;
+		return d>=0 ? d : -1;
+	}
+
+	/**
+	 * Test if any triangle of this tree touches any triangle of another.  Stops at the first hit.
+	 * @param other the other tree
+	 * @param otherToThis moves the other mesh into the space of this mesh.
+	 * @return true if the meshes touch.
+	 */
+	public boolean intersects(MeshBVH other,Matrix4d otherToThis) {
+		if(numTriangles==0 || other.numTriangles==0) return false;
+
+		double [] m = {
+			otherToThis.m00, otherToThis.m01, otherToThis.m02, otherToThis.m03,
+			otherToThis.m10, otherToThis.m11, otherToThis.m12, otherToThis.m13,
+			otherToThis.m20, otherToThis.m21, otherToThis.m22, otherToThis.m23,
+		};
+		double [] box = new double[6];
+		double [] a = new double[9];
+		double [] b = new double[9];
+
+		int [] stack = new int[128];
+		int top=0;
+		stack[top++]=0;
+		stack[top++]=0;
+		while(top>0) {
+			int nb = stack[--top];
+			int na = stack[--top];
+
+			other.transformBox(nb,m,box);
+			if(!overlaps(na,box)) continue;
+
+			boolean leafA = count[na]>0;
+			boolean leafB = other.count[nb]>0;
+			if(leafA && leafB) {
+				if(leafTest(na,other,nb,m,box,a,b)) return true;
+				continue;
+			}
+			if(top+4>stack.length) stack = Arrays.copyOf(stack, stack.length*2);
+			// open the bigger node, so both trees shrink at about the same rate.
+			if(leafB || (!leafA && area(bounds,na) >= transformedArea(box))) {
+				stack[top++]=offset[na];	stack[top++]=nb;
+				stack[top++]=na+1;			stack[top++]=nb;
+			} else {
+				stack[top++]=na;	stack[top++]=other.offset[nb];
+				stack[top++]=na;	stack[top++]=nb+1;
+			}
+		}
+		return false;
+	}
+
+	private boolean leafTest(int na,MeshBVH other,int nb,double [] m,double [] box,double [] a,double [] b) {
+		int endA = offset[na]+count[na];
+		int endB = other.offset[nb]+other.count[nb];
+		for(int j=other.offset[nb];j<endB;++j) {
+			other.transformTriangle(j,m,b);
+			for(int k=0;k<3;++k) {
+				box[k  ] = Math.min(b[k], Math.min(b[k+3], b[k+6]));
+				box[k+3] = Math.max(b[k], Math.max(b[k+3], b[k+6]));
+			}
+			for(int i=offset[na];i<endA;++i) {
+				int c = i*9;
+				if(!boxesOverlap(corners,c,box)) continue;
+				for(int k=0;k<9;++k) a[k]=corners[c+k];
+				if(triangleTriangle(a,b)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the bounds of triangle corners[c...c+8] overlap box.
+	 */
+	private static boolean boxesOverlap(float [] corners,int c,double [] box) {
+		for(int k=0;k<3;++k) {
+			float lo = Math.min(corners[c+k], Math.min(corners[c+3+k], corners[c+6+k]));
+			float hi = Math.max(corners[c+k], Math.max(corners[c+3+k], corners[c+6+k]));
+			if(hi<box[k] || lo>box[k+3]) return false;
+		}
+		return true;
+	}
+
+	private void transformTriangle(int t,double [] m,double [] out) {
+		int c = t*9;
+		for(int k=0;k<9;k+=3) {
+			double x = corners[c+k], y = corners[c+k+1], z = corners[c+k+2];
+			out[k  ] = m[0]*x + m[1]*y + m[ 2]*z + m[ 3];
+			out[k+1] = m[4]*x + m[5]*y + m[ 6]*z + m[ 7];
+			out[k+2] = m[8]*x + m[9]*y + m[10]*z + m[11];
+		}
+	}
+
+	/**
+	 * @param out receives an axis aligned box around node after it is moved by m.
+	 */
+	private void transformBox(int node,double [] m,double [] out) {
+		int b = node*6;
+		double cx = (bounds[b  ]+bounds[b+3])*0.5, ex = (bounds[b+3]-bounds[b  ])*0.5;
+		double cy = (bounds[b+1]+bounds[b+4])*0.5, ey = (bounds[b+4]-bounds[b+1])*0.5;
+		double cz = (bounds[b+2]+bounds[b+5])*0.5, ez = (bounds[b+5]-bounds[b+2])*0.5;
+		for(int r=0;r<3;++r) {
+			double c = m[r*4]*cx + m[r*4+1]*cy + m[r*4+2]*cz + m[r*4+3];
+			double e = Math.abs(m[r*4])*ex + Math.abs(m[r*4+1])*ey + Math.abs(m[r*4+2])*ez;
+			out[r  ] = c-e;
+			out[r+3] = c+e;
+		}
+	}
+
+	private boolean overlaps(int node,double [] box) {
+		int b = node*6;
+		for(int k=0;k<3;++k) {
+			if(bounds[b+k+3]<box[k] || bounds[b+k]>box[k+3]) return false;
+		}
+		return true;
+	}
+
+	private static double transformedArea(double [] box) {
+		double dx = box[3]-box[0];
+		double dy = box[4]-box[1];
+		double dz = box[5]-box[2];
+		return dx*dy + dy*dz + dz*dx;
+	}
+
+	/**
+	 * Separating axis test for two triangles.  The axes are both face normals, the nine edge / edge crosses, and
+	 * the six in-plane edge normals that separate triangles lying in the same plane.
+	 * @param a nine corner values
+	 * @param b nine corner values
+	 * @return true if they touch.
+	 */
+	static boolean triangleTriangle(double [] a,double [] b) {
+		double [] ea = edges(a);
+		double [] eb = edges(b);
+		double [] na = cross(ea,0,ea,3);
+		double [] nb = cross(eb,0,eb,3);
+		if(separates(na,a,b) || separates(nb,a,b)) return false;
+		for(int i=0;i<9;i+=3) {
+			for(int j=0;j<9;j+=3) {
+				if(separates(cross(ea,i,eb,j),a,b)) return false;
+			}
+		}
+		for(int i=0;i<9;i+=3) {
+			if(separates(cross(na,0,ea,i),a,b)) return false;
+			if(separates(cross(nb,0,eb,i),a,b)) return false;
+		}
+		return true;
+	}
+
+	private static double [] edges(double [] t) {
+		return new double[] {
+			t[3]-t[0], t[4]-t[1], t[5]-t[2],
+			t[6]-t[3], t[7]-t[4], t[8]-t[5],
+			t[0]-t[6], t[1]-t[7], t[2]-t[8],
+		};
+	}
+
+	private static double [] cross(double [] u,int i,double [] v,int j) {
+		return new double[] {
+			u[i+1]*v[j+2] - u[i+2]*v[j+1],
+			u[i+2]*v[j  ] - u[i  ]*v[j+2],
+			u[i  ]*v[j+1] - u[i+1]*v[j  ],
+		};
+	}
+
+	/**
+	 * @return true if the corners of a and b do not overlap along axis.  A zero length axis separates nothing.
+	 */
+	private static boolean separates(double [] axis,double [] a,double [] b) {
+		if(axis[0]==0 && axis[1]==0 && axis[2]==0) return false;
+		double a0 = dot(axis,a,0), a1 = dot(axis,a,3), a2 = dot(axis,a,6);
+		double b0 = dot(axis,b,0), b1 = dot(axis,b,3), b2 = dot(axis,b,6);
+		return Math.max(a0,Math.max(a1,a2)) < Math.min(b0,Math.min(b1,b2))
+			|| Math.max(b0,Math.max(b1,b2)) < Math.min(a0,Math.min(a1,a2));
+	}
+
+	private static double dot(double [] axis,double [] t,int i) {
+		return axis[0]*t[i] + axis[1]*t[i+1] + axis[2]*t[i+2];
+	}
+}
@@ -0,0 +1,478 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.vecmath.Point3d;
+
+import com.marginallyclever.convenience.FileAccess;
+import com.marginallyclever.convenience.log.Log;
+
+/**
+ * {@link MeshCache} keeps a parsed copy of every {@link Mesh} on disk so the next launch does not have to parse
+ * the source file again.  Each cache file is named for the source path.  The header remembers the SHA-1 of the
+ * source contents and the loader that made it, so a changed source or a changed loader is parsed again.
+ * Cache files are memory mapped when read and the mapped data is handed to OpenGL as-is.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * int    magic 'ROMC'
+ * int    format version
+ * int    loader version
+ * short+bytes loader class name, UTF-8
+ * short+bytes source name, UTF-8
+ * byte[20] SHA-1 of the source contents
+ * int    number of levels of detail
+ * padding to a multiple of 16 bytes
+ * then the mesh followed by each level of detail, each as
+ *   int    render style
+ *   int    flags (normals, colors, texture coordinates, indexes)
+ *   int[5] number of vertex, normal, color, texture coordinate floats and indexes
+ *   float[6] bounds, bottom then top
+ *   padding to a multiple of 16 bytes
+ *   float and int blocks in the same order as the counts, padded to a multiple of 16 bytes.
+ * </pre>
+ * Levels of detail are built after the mesh is first shown, so {@link #saveLevelsOfDetail(Mesh)} writes the
+ * file again once they are ready.
+ * When the directory grows past the limit the least recently used files are removed.
+ * @author Dan Royer
+ */
+public class MeshCache {
+	private static final int MAGIC = ('R'<<24) | ('O'<<16) | ('M'<<8) | 'C';
+	private static final int FORMAT_VERSION = 2;
+	private static final String EXTENSION = ".mesh";
+	private static final int COPY_CHUNK_BYTES = 1<<20;
+
+	private static final int FLAG_NORMALS = 1;
+	private static final int FLAG_COLORS = 2;
+	private static final int FLAG_UVS = 4;
+	private static final int FLAG_INDEXES = 8;
+	// more than MeshSimplifier will ever make.
+	private static final int MAX_LEVELS = 16;
+	// render style, flags, counts, and bounds.
+	private static final int MESH_HEADER_BYTES = 4*7 + 4*6;
+
+	private static File directory = new File(System.getProperty("robotOverlord.meshCache",
+			System.getProperty("user.home") + File.separator + "robotOverlord" + File.separator + "meshCache"));
+	private static long maxBytes = 512L*1024*1024;
+	private static boolean enabled = !Boolean.getBoolean("robotOverlord.meshCache.disabled");
+
+	public static void setDirectory(File dir) {
+		directory = dir;
+	}
+
+	public static File getDirectory() {
+		return directory;
+	}
+
+	public static void setMaxBytes(long bytes) {
+		maxBytes = bytes;
+	}
+
+	public static long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public static void setEnabled(boolean state) {
+		enabled = state;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Load a mesh from the cache, or parse it with loader and add it to the cache.
+	 * @param sourceName file from which to load.  may be filename.ext or zipfile.zip:filename.ext
+	 * @param loader the loader for this type of file.
+	 * @return the mesh, or null if the loader could not read the file.
+	 * @throws Exception if the file cannot be read.
+	 */
+	public static Mesh load(String sourceName,ShapeLoadAndSave loader) throws Exception {
+		byte [] hash = null;
+		File cacheFile = null;
+		if(enabled && loader.canCache()) {
+			// a missing source is reported here, the same as the loader would.
+			hash = hashContents(sourceName);
+			cacheFile = getCacheFile(sourceName);
+			try {
+				Mesh m = read(cacheFile,sourceName,loader,hash);
+				if(m!=null) return m;
+			} catch(IOException | RuntimeException e) {
+				// a damaged file is never going to get better.  parse the source and write a new one.
+				Log.error("Mesh cache read failed for "+sourceName+": "+e.getMessage());
+				cacheFile.delete();
+			}
+		}
+
+		Mesh m = new Mesh();
+		if(!loader.load(sourceName,m)) return null;
+		m.updateCuboid();
+		// for saveLevelsOfDetail()
+		m.cacheHash = hash;
+
+		if(enabled && hash!=null) {
+			try {
+				write(cacheFile,sourceName,loader,hash,m);
+				evict();
+			} catch(IOException e) {
+				Log.error("Mesh cache write failed for "+sourceName+": "+e.getMessage());
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Write m to the cache again with its levels of detail, so the next launch does not have to build them.
+	 * Does nothing if m was not parsed by {@link #load(String, ShapeLoadAndSave)} or has no levels.
+	 * @param m the mesh
+	 */
+	public static void saveLevelsOfDetail(Mesh m) {
+		byte [] hash = m.cacheHash;
+		if(!enabled || hash==null || m.getNumLevelsOfDetail()==0) return;
+		String sourceName = m.getSourceName();
+		ShapeLoadAndSave loader = m.getLoader();
+		if(sourceName==null || loader==null) return;
+		try {
+			write(getCacheFile(sourceName),sourceName,loader,hash,m);
+			m.cacheHash = null;
+			evict();
+		} catch(IOException e) {
+			Log.error("Mesh cache write failed for "+sourceName+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the file that would hold the cached copy of sourceName.
+	 */
+	public static File getCacheFile(String sourceName) {
+		return new File(directory, toHex(sha1(sourceName.getBytes(StandardCharsets.UTF_8))) + EXTENSION);
+	}
+
+	/**
+	 * SHA-1 of the source contents.  Files on disk are mapped, everything else is streamed.
+	 */
+	private static byte [] hashContents(String sourceName) throws IOException {
+		MessageDigest digest = newDigest();
+		File local = FileAccess.getLocalFile(sourceName);
+		if(local!=null) {
+			try(FileChannel channel = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+				long size = channel.size();
+				for(long position=0;position<size;position+=Integer.MAX_VALUE) {
+					digest.update(channel.map(MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size-position)));
+				}
+			}
+		} else {
+			try(BufferedInputStream stream = FileAccess.open(sourceName)) {
+				byte [] buffer = new byte[1<<16];
+				int n;
+				while((n=stream.read(buffer))>0) digest.update(buffer,0,n);
+			}
+		}
+		return digest.digest();
+	}
+
+	private static Mesh read(File cacheFile,String sourceName,ShapeLoadAndSave loader,byte [] hash) throws IOException {
+		if(!cacheFile.isFile()) return null;
+		// the float blocks are handed to OpenGL as-is, so they must already be in native order.
+		if(ByteOrder.nativeOrder()!=ByteOrder.LITTLE_ENDIAN) return null;
+
+		ByteBuffer data = map(cacheFile);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+
+		if(data.remaining()<12 || data.getInt()!=MAGIC) return null;
+		if(data.getInt()!=FORMAT_VERSION) return null;
+		if(data.getInt()!=loader.getVersion()) return null;
+		if(!readString(data).equals(loader.getClass().getName())) return null;
+		if(!readString(data).equals(sourceName)) return null;
+		byte [] storedHash = new byte[hash.length];
+		data.get(storedHash);
+		if(!Arrays.equals(storedHash, hash)) return null;
+		int numLevels = data.getInt();
+		if(numLevels<0 || numLevels>MAX_LEVELS) throw new IOException("damaged cache file, "+numLevels+" levels of detail");
+		data.position(align(data.position()));
+
+		Mesh m = readMesh(data);
+		m.setLoader(loader);
+		if(numLevels>0) {
+			Mesh [] levels = new Mesh[numLevels];
+			for(int i=0;i<numLevels;++i) levels[i] = readMesh(data);
+			m.setLevelsOfDetail(levels);
+			// nobody needs to build them again.
+			m.claimLevelsOfDetail();
+		} else {
+			// for saveLevelsOfDetail(), once they are built.
+			m.cacheHash = hash;
+		}
+
+		// remember this file was used recently.
+		cacheFile.setLastModified(System.currentTimeMillis());
+		return m;
+	}
+
+	/**
+	 * Map the file copy-on-write, so tools like ShapeSmoother can still change the mesh.  The file itself never
+	 * changes, but Java will only make a private mapping from a channel that could write.  If the cache can't be
+	 * written the file is mapped read only and copied.
+	 */
+	private static ByteBuffer map(File cacheFile) throws IOException {
+		try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(MapMode.PRIVATE, 0, channel.size());
+		} catch(AccessDeniedException | ReadOnlyFileSystemException e) {
+			try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+				MappedByteBuffer file = channel.map(MapMode.READ_ONLY, 0, channel.size());
+				ByteBuffer copy = ByteBuffer.allocateDirect(file.capacity()).order(ByteOrder.nativeOrder());
+				copy.put(file);
+				copy.flip();
+				return copy;
+			}
+		}
+	}
+
+	/**
+	 * Read one mesh starting at the position of data, and move past it.
+	 */
+	private static Mesh readMesh(ByteBuffer data) throws IOException {
+		if(data.remaining()<align(MESH_HEADER_BYTES)) throw new IOException("damaged cache file, too short");
+		Mesh m = new Mesh();
+		m.renderStyle = data.getInt();
+		int flags = data.getInt();
+		int numVertexes = data.getInt();
+		int numNormals = data.getInt();
+		int numColors = data.getInt();
+		int numUVs = data.getInt();
+		int numIndexes = data.getInt();
+		Point3d bottom = new Point3d(data.getFloat(),data.getFloat(),data.getFloat());
+		Point3d top = new Point3d(data.getFloat(),data.getFloat(),data.getFloat());
+		data.position(align(data.position()));
+		checkBlocks(data,numVertexes,numNormals,numColors,numUVs,numIndexes);
+
+		m.vertexArray = new FloatArray(floatBlock(data,numVertexes),numVertexes);
+		m.normalArray = new FloatArray(floatBlock(data,numNormals),numNormals);
+		m.colorArray = new FloatArray(floatBlock(data,numColors),numColors);
+		m.texCoordArray = new FloatArray(floatBlock(data,numUVs),numUVs);
+		m.indexArray = new IntArray(intBlock(data,numIndexes),numIndexes);
+		m.hasNormals = (flags & FLAG_NORMALS)!=0;
+		m.hasColors = (flags & FLAG_COLORS)!=0;
+		m.hasUVs = (flags & FLAG_UVS)!=0;
+		m.hasIndexes = (flags & FLAG_INDEXES)!=0;
+		m.getCuboid().setBounds(top, bottom);
+		m.isDirty=true;
+		data.position(align(data.position()));
+		return m;
+	}
+
+	/**
+	 * Make sure the counts in the header fit in the rest of the file, so a truncated or damaged file is
+	 * reported instead of read past its end.
+	 * @throws IOException if they don't fit.
+	 */
+	private static void checkBlocks(ByteBuffer data,int ... counts) throws IOException {
+		long bytes = 0;
+		for(int count : counts) {
+			if(count<0) throw new IOException("damaged cache file, negative count "+count);
+			bytes += (long)count*4;
+		}
+		if(bytes>data.remaining()) throw new IOException("damaged cache file, "+bytes+" bytes expected but "+data.remaining()+" left");
+	}
+
+	private static FloatBuffer floatBlock(ByteBuffer data,int count) {
+		ByteBuffer block = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		block.limit(count*Float.BYTES);
+		data.position(data.position()+count*Float.BYTES);
+		return block.asFloatBuffer();
+	}
+
+	private static IntBuffer intBlock(ByteBuffer data,int count) {
+		ByteBuffer block = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		block.limit(count*Integer.BYTES);
+		data.position(data.position()+count*Integer.BYTES);
+		return block.asIntBuffer();
+	}
+
+	/**
+	 * Write to a temporary file and then move it into place, so a crash never leaves half a cache file.
+	 */
+	private static void write(File cacheFile,String sourceName,ShapeLoadAndSave loader,byte [] hash,Mesh m) throws IOException {
+		directory.mkdirs();
+		Mesh [] levels = new Mesh[m.getNumLevelsOfDetail()];
+		for(int i=0;i<levels.length;++i) levels[i] = m.getLevelOfDetail(i+1);
+
+		File temp = File.createTempFile("mesh", ".tmp", directory);
+		try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			byte [] loaderName = loader.getClass().getName().getBytes(StandardCharsets.UTF_8);
+			byte [] source = sourceName.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer header = ByteBuffer.allocate(align(4*3 + 2+loaderName.length + 2+source.length + hash.length + 4));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(FORMAT_VERSION);
+			header.putInt(loader.getVersion());
+			header.putShort((short)loaderName.length);
+			header.put(loaderName);
+			header.putShort((short)source.length);
+			header.put(source);
+			header.put(hash);
+			header.putInt(levels.length);
+			header.position(header.capacity());
+			header.flip();
+			writeFully(channel,header);
+
+			ByteBuffer chunk = ByteBuffer.allocateDirect(COPY_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			writeMesh(channel,chunk,m);
+			for(Mesh level : levels) writeMesh(channel,chunk,level);
+		} catch(IOException e) {
+			temp.delete();
+			throw e;
+		}
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Write the header and blocks of one mesh.  See {@link #readMesh(ByteBuffer)}.
+	 */
+	private static void writeMesh(FileChannel channel,ByteBuffer chunk,Mesh m) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(align(MESH_HEADER_BYTES));
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(m.renderStyle);
+		int flags = (m.hasNormals ? FLAG_NORMALS : 0)
+				| (m.hasColors ? FLAG_COLORS : 0)
+				| (m.hasUVs ? FLAG_UVS : 0)
+				| (m.hasIndexes ? FLAG_INDEXES : 0);
+		header.putInt(flags);
+		header.putInt(m.vertexArray.size());
+		header.putInt(m.normalArray.size());
+		header.putInt(m.colorArray.size());
+		header.putInt(m.texCoordArray.size());
+		header.putInt(m.indexArray.size());
+		Point3d bottom = m.getCuboid().getBoundsBottom();
+		Point3d top = m.getCuboid().getBoundsTop();
+		header.putFloat((float)bottom.x);
+		header.putFloat((float)bottom.y);
+		header.putFloat((float)bottom.z);
+		header.putFloat((float)top.x);
+		header.putFloat((float)top.y);
+		header.putFloat((float)top.z);
+		header.position(header.capacity());
+		header.flip();
+		writeFully(channel,header);
+
+		writeBlock(channel,chunk,m.vertexArray.getBuffer());
+		writeBlock(channel,chunk,m.normalArray.getBuffer());
+		writeBlock(channel,chunk,m.colorArray.getBuffer());
+		writeBlock(channel,chunk,m.texCoordArray.getBuffer());
+		writeBlock(channel,chunk,m.indexArray.getBuffer());
+
+		// the next mesh starts on a multiple of 16 bytes.
+		long size = ((long)m.vertexArray.size()+m.normalArray.size()+m.colorArray.size()+m.texCoordArray.size()+m.indexArray.size())*4;
+		int padding = (int)(((size+15) & ~15L) - size);
+		if(padding>0) writeFully(channel,ByteBuffer.allocate(padding));
+	}
+
+	private static void writeBlock(FileChannel channel,ByteBuffer chunk,FloatBuffer values) throws IOException {
+		while(values.hasRemaining()) {
+			chunk.clear();
+			FloatBuffer f = chunk.asFloatBuffer();
+			int n = Math.min(f.capacity(), values.remaining());
+			FloatBuffer part = values.duplicate();
+			part.limit(part.position()+n);
+			f.put(part);
+			values.position(values.position()+n);
+			chunk.limit(n*Float.BYTES);
+			writeFully(channel,chunk);
+		}
+	}
+
+	private static void writeBlock(FileChannel channel,ByteBuffer chunk,IntBuffer values) throws IOException {
+		while(values.hasRemaining()) {
+			chunk.clear();
+			IntBuffer f = chunk.asIntBuffer();
+			int n = Math.min(f.capacity(), values.remaining());
+			IntBuffer part = values.duplicate();
+			part.limit(part.position()+n);
+			f.put(part);
+			values.position(values.position()+n);
+			chunk.limit(n*Integer.BYTES);
+			writeFully(channel,chunk);
+		}
+	}
+
+	private static void writeFully(FileChannel channel,ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	/**
+	 * Remove the least recently used cache files until the directory fits in {@link #getMaxBytes()}.
+	 */
+	public static synchronized void evict() {
+		File [] files = directory.listFiles((dir,name)->name.endsWith(EXTENSION));
+		if(files==null) return;
+
+		long total=0;
+		for(File f : files) total += f.length();
+		if(total<=maxBytes) return;
+
+		Arrays.sort(files, (a,b)->Long.compare(a.lastModified(), b.lastModified()));
+		for(File f : files) {
+			if(total<=maxBytes) break;
+			long size = f.length();
+			// a file that is still mapped may refuse to go on some systems.  try again next time.
+			if(f.delete()) total-=size;
+		}
+	}
+
+	/**
+	 * Remove every cache file.
+	 */
+	public static synchronized void clear() {
+		File [] files = directory.listFiles((dir,name)->name.endsWith(EXTENSION));
+		if(files==null) return;
+		for(File f : files) f.delete();
+	}
+
+	private static String readString(ByteBuffer data) {
+		int length = data.getShort() & 0xFFFF;
+		byte [] bytes = new byte[length];
+		data.get(bytes);
+		return new String(bytes,StandardCharsets.UTF_8);
+	}
+
+	private static int align(int position) {
+		return (position+15) & ~15;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to have SHA-1.
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte [] sha1(byte [] data) {
+		return newDigest().digest(data);
+	}
+
+	private static String toHex(byte [] data) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : data) sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,87 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link Mesh} that may still be loading in the background.  See {@link MeshLoader}.
+ * @author Dan Royer
+ */
+public class MeshHandle {
+	private final String sourceName;
+	private final CompletableFuture<Mesh> future;
+	// a mesh that loads in chunks, with the chunks read so far.
+	private volatile Mesh partial;
+
+	protected MeshHandle(String sourceName,CompletableFuture<Mesh> future) {
+		this.sourceName = sourceName;
+		this.future = future;
+	}
+
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/**
+	 * @return true when loading has finished, successfully or not.
+	 */
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	/**
+	 * @return true if loading has finished and failed.
+	 */
+	public boolean isFailed() {
+		return future.isCompletedExceptionally();
+	}
+
+	/**
+	 * Never blocks.
+	 * @return the mesh, or null if it is still loading or failed to load.
+	 */
+	public Mesh getNow() {
+		if(!future.isDone() || future.isCompletedExceptionally()) return null;
+		return future.join();
+	}
+
+	/**
+	 * Never blocks.
+	 * @return while a mesh that loads in chunks is loading, the mesh with the chunks read so far.  Otherwise null.
+	 */
+	public Mesh getPartial() {
+		return isDone() ? null : partial;
+	}
+
+	void setPartial(Mesh m) {
+		partial = m;
+	}
+
+	/**
+	 * Wait for loading to finish.
+	 * @return the mesh
+	 * @throws Exception the reason loading failed.
+	 */
+	public Mesh get() throws Exception {
+		try {
+			return future.get();
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception) throw (Exception)cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the reason loading failed, or null.
+	 */
+	public Throwable getError() {
+		if(!isFailed()) return null;
+		try {
+			future.join();
+			return null;
+		} catch(Exception e) {
+			return e.getCause()!=null ? e.getCause() : e;
+		}
+	}
+}
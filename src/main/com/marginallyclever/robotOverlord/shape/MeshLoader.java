@@ -0,0 +1,137 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.OnDemandAnimator;
+
+/**
+ * {@link MeshLoader} parses mesh files on a small pool of background threads so the calling thread,
+ * usually the Swing event thread, never waits for the disk.  {@link #load(String)} returns a {@link MeshHandle}
+ * right away.  Any number of requests for the same file while it is loading share the same work and the same
+ * {@link Mesh}.  Uploading to OpenGL happens later, in {@link Mesh#render(com.jogamp.opengl.GL2)}.
+ * Once a mesh is loaded its levels of detail are built by {@link MeshSimplifier} on the same threads, and
+ * saved in the {@link MeshCache} with the mesh.
+ * <p>
+ * Meshes that load in chunks, like large point clouds, can be drawn with {@link MeshHandle#getPartial()} while
+ * the rest of the file is read, so each chunk is uploaded and let go of long before the end.
+ * @author Dan Royer
+ */
+public class MeshLoader {
+	// leave one core for the event and render threads.
+	private static final int NUM_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+
+	private static final ExecutorService pool = createPool();
+
+	// requests still in progress, by source name.
+	private static final ConcurrentHashMap<String,MeshHandle> loading = new ConcurrentHashMap<String,MeshHandle>();
+	// the request being parsed on each thread.
+	private static final ThreadLocal<MeshHandle> parsing = new ThreadLocal<MeshHandle>();
+
+	private static ExecutorService createPool() {
+		ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"MeshLoader-"+count.incrementAndGet());
+				// don't keep the application alive.
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY-1);
+				return t;
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Start loading a mesh in the background.  Meshes already in the pool are returned at once.
+	 * @param sourceName file from which to load.  may be filename.ext or zipfile.zip:filename.ext
+	 * @return a handle to the mesh.  Never null.
+	 */
+	public static MeshHandle load(String sourceName) {
+		Mesh m = Mesh.findInPool(sourceName);
+		if(m!=null) {
+			return new MeshHandle(sourceName,CompletableFuture.completedFuture(m));
+		}
+
+		return loading.computeIfAbsent(sourceName, (name)->{
+			CompletableFuture<Mesh> future = new CompletableFuture<Mesh>();
+			MeshHandle handle = new MeshHandle(name,future);
+			pool.execute(()->{
+				parsing.set(handle);
+				try {
+					Mesh loaded = Mesh.loadFromFilename(name);
+					forgetPartial(handle,loaded);
+					future.complete(loaded);
+					// simpler versions can wait until the mesh is on screen.
+					if(loaded!=null && loaded.claimLevelsOfDetail()) {
+						pool.execute(()->{
+							try {
+								MeshSimplifier.generateLevelsOfDetail(loaded);
+								MeshCache.saveLevelsOfDetail(loaded);
+								OnDemandAnimator.requestFrame();
+							} catch(Exception e) {
+								Log.error("Levels of detail for '"+name+"' failed: "+e.getLocalizedMessage());
+							}
+						});
+					}
+				} catch(Throwable t) {
+					forgetPartial(handle,null);
+					future.completeExceptionally(t);
+				} finally {
+					parsing.remove();
+					loading.remove(name);
+					// draw it, or the error.
+					OnDemandAnimator.requestFrame();
+				}
+			});
+			return handle;
+		});
+	}
+
+	/**
+	 * Called by {@link Mesh#addChunk(Mesh)}.  If m is being loaded on this thread the chunks it has so far can be
+	 * drawn, and let go of their points once uploaded, while the rest of the file is read.
+	 * @param m the mesh that has a new chunk.
+	 */
+	static void chunkAdded(Mesh m) {
+		MeshHandle handle = parsing.get();
+		if(handle==null) return;
+		handle.setPartial(m);
+		OnDemandAnimator.requestFrame();
+	}
+
+	/**
+	 * Delete the buffers of the chunks drawn while loading, unless they are part of the loaded mesh.
+	 */
+	private static void forgetPartial(MeshHandle handle,Mesh loaded) {
+		Mesh partial = handle.getPartial();
+		if(partial!=null && partial!=loaded) MeshPool.unloadLater(partial);
+	}
+
+	/**
+	 * Run some other loading work on the same threads.
+	 * @param task the work
+	 */
+	static void execute(Runnable task) {
+		pool.execute(task);
+	}
+
+	/**
+	 * @return the number of meshes waiting for or being parsed.
+	 */
+	public static int getNumLoading() {
+		return loading.size();
+	}
+}
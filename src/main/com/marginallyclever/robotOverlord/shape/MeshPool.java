@@ -0,0 +1,223 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * {@link MeshPool} makes sure each source file is loaded only once.  Every {@link Shape} that uses a
+ * {@link Mesh} holds a reference to it.  When the last reference goes the mesh is kept in a least-recently-used
+ * tier in case it is needed again.  When that tier grows past {@link #getUnusedBudget()} the oldest meshes are
+ * removed from the pool and their OpenGL buffers are deleted at the start of the next frame.
+ * <p>
+ * Lookups never lock.  Changes to reference counts are synchronized on the pool.
+ * @author Dan Royer
+ */
+public class MeshPool {
+	private static final ConcurrentHashMap<String,Mesh> meshes = new ConcurrentHashMap<String,Mesh>();
+	// meshes with no references, oldest first.  Guarded by the class lock.
+	private static final LinkedHashMap<String,Mesh> unused = new LinkedHashMap<String,Mesh>();
+	// evicted meshes waiting for the GL thread.
+	private static final ConcurrentLinkedQueue<Mesh> toUnload = new ConcurrentLinkedQueue<Mesh>();
+
+	private static long unusedBudget = 256L*1024*1024;
+	private static long residentBytes = 0;
+	private static long unusedBytes = 0;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static long evictions = 0;
+
+	/**
+	 * @param sourceName the file a mesh was loaded from.
+	 * @return the mesh already loaded from sourceName, or null.
+	 */
+	public static Mesh get(String sourceName) {
+		Mesh m = meshes.get(sourceName);
+		if(m!=null) hits.incrementAndGet();
+		else misses.incrementAndGet();
+		return m;
+	}
+
+	/**
+	 * Add a newly loaded mesh.  It has no references until a {@link Shape} calls {@link #acquire(Mesh)}.
+	 * @param m the mesh.  {@link Mesh#getSourceName()} must be set.
+	 * @return the mesh in the pool, which is not m if another thread loaded the same file first.
+	 */
+	public static synchronized Mesh add(Mesh m) {
+		Mesh existing = meshes.putIfAbsent(m.getSourceName(), m);
+		if(existing!=null) return existing;
+
+		m.pooledBytes = m.getSizeInBytes();
+		residentBytes += m.pooledBytes;
+		makeUnused(m);
+		return m;
+	}
+
+	/**
+	 * Add one reference to m.  Meshes that were evicted while someone still had them go back in the pool.
+	 * @param m the mesh
+	 */
+	public static synchronized void acquire(Mesh m) {
+		if(m.referenceCount++ > 0) return;
+		// meshes made in code have no name and are not pooled.
+		if(m.getSourceName()==null) return;
+
+		if(meshes.get(m.getSourceName())==m) {
+			unused.remove(m.getSourceName());
+			unusedBytes -= m.pooledBytes;
+		} else if(meshes.putIfAbsent(m.getSourceName(), m)==null) {
+			m.pooledBytes = m.getSizeInBytes();
+			residentBytes += m.pooledBytes;
+		}
+	}
+
+	/**
+	 * Remove one reference from m.
+	 * @param m the mesh
+	 */
+	public static synchronized void release(Mesh m) {
+		if(m.referenceCount==0) return;
+		if(--m.referenceCount > 0) return;
+
+		if(m.getSourceName()!=null && meshes.get(m.getSourceName())==m) {
+			makeUnused(m);
+		} else {
+			// never pooled, or replaced by a newer copy.  nobody can find it again.
+			toUnload.add(m);
+		}
+	}
+
+	/**
+	 * Count m again after its size changed, as when its levels of detail are added.
+	 * @param m the mesh
+	 */
+	static synchronized void resize(Mesh m) {
+		if(m.getSourceName()==null || meshes.get(m.getSourceName())!=m) return;
+		long size = m.getSizeInBytes();
+		long change = size - m.pooledBytes;
+		m.pooledBytes = size;
+		residentBytes += change;
+		if(unused.get(m.getSourceName())==m) {
+			unusedBytes += change;
+			trim();
+		}
+	}
+
+	private static void makeUnused(Mesh m) {
+		unused.put(m.getSourceName(), m);
+		unusedBytes += m.pooledBytes;
+		trim();
+	}
+
+	/**
+	 * Evict the least recently used meshes until the unused tier fits the budget.
+	 */
+	private static void trim() {
+		Iterator<Mesh> iter = unused.values().iterator();
+		while(unusedBytes>unusedBudget && iter.hasNext()) {
+			Mesh m = iter.next();
+			iter.remove();
+			unusedBytes -= m.pooledBytes;
+			residentBytes -= m.pooledBytes;
+			meshes.remove(m.getSourceName(), m);
+			evictions++;
+			toUnload.add(m);
+		}
+	}
+
+	/**
+	 * Delete the OpenGL buffers of a mesh nobody uses at the start of the next frame.
+	 * @param m the mesh
+	 */
+	static void unloadLater(Mesh m) {
+		toUnload.add(m);
+	}
+
+	/**
+	 * Delete the OpenGL buffers of evicted meshes.  Must be called on the GL thread.
+	 * @param gl2 the render context
+	 */
+	public static void unloadEvicted(GL2 gl2) {
+		Mesh m;
+		while((m=toUnload.poll())!=null) {
+			// it may have been picked up again since it was evicted.
+			if(getReferenceCount(m)==0) m.unload(gl2);
+		}
+	}
+
+	/**
+	 * Delete the OpenGL buffers of every mesh in the pool, for when the context goes away.  Each mesh uploads
+	 * again the next time it is drawn.  Must be called on the GL thread.
+	 * @param gl2 the render context
+	 */
+	public static void disposeAll(GL2 gl2) {
+		unloadEvicted(gl2);
+		for(Mesh m : meshes.values()) m.unload(gl2);
+	}
+
+	/**
+	 * @param bytes the memory that meshes nobody uses may keep before they are evicted.
+	 */
+	public static synchronized void setUnusedBudget(long bytes) {
+		unusedBudget = bytes;
+		trim();
+	}
+
+	public static synchronized long getUnusedBudget() {
+		return unusedBudget;
+	}
+
+	/**
+	 * @return the bytes of vertex data held by all meshes in the pool.
+	 */
+	public static synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * @return the bytes of vertex data held by meshes nobody uses.
+	 */
+	public static synchronized long getUnusedBytes() {
+		return unusedBytes;
+	}
+
+	public static int getNumMeshes() {
+		return meshes.size();
+	}
+
+	public static synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of lookups that found a mesh already loaded, 0...1.
+	 */
+	public static double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total==0 ? 0 : (double)h/(double)total;
+	}
+
+	/**
+	 * @return the number of references to m.
+	 */
+	public static synchronized int getReferenceCount(Mesh m) {
+		return m.referenceCount;
+	}
+
+	/**
+	 * @return a one line report of the pool statistics.
+	 */
+	public static String getSummary() {
+		return "meshes="+getNumMeshes()
+				+" resident="+getResidentBytes()
+				+" unused="+getUnusedBytes()
+				+" hitRate="+getHitRate()
+				+" evictions="+getEvictions();
+	}
+}
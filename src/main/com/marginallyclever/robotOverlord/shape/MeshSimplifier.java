@@ -0,0 +1,465 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Build simpler versions of a {@link Mesh} with quadric error edge collapse.
+ * See Garland and Heckbert, "Surface Simplification Using Quadric Error Metrics", 1997.
+ * <p>
+ * Corners that share a position are treated as one point, so seams where the normals change are collapsed
+ * together and do not open cracks.  Each remaining corner keeps its own normal, color and texture coordinate.
+ * Open edges get an extra penalty so holes and outlines keep their shape.
+ * @author Dan Royer
+ */
+public class MeshSimplifier {
+	// fraction of the original triangles kept by each level of detail.
+	public static final double [] DEFAULT_LEVELS = { 0.5, 0.25, 0.1 };
+	// meshes smaller than this are cheap enough as they are.
+	public static final int MIN_TRIANGLES = 2000;
+	// weight of the planes that keep open edges in place.
+	private static final double BOUNDARY_WEIGHT = 1000;
+
+	private final Mesh source;
+	private final int numTriangles;
+
+	// per point
+	private double [] px,py,pz;
+	private double [] quadrics;
+	private int [] parent;
+	private int [] version;
+	private int [][] pointTriangles;
+	private int [] pointTriangleCount;
+
+	// per triangle: three points and the three source vertexes they came from.
+	private int [] triangles;
+	private int [] corners;
+	private boolean [] deadTriangle;
+	private int liveTriangles;
+
+	private PriorityQueue<Collapse> queue = new PriorityQueue<Collapse>();
+
+	/**
+	 * Joining point v into point u.
+	 */
+	private static class Collapse implements Comparable<Collapse> {
+		final int u,v;
+		final int versionU,versionV;
+		final double cost;
+		final double x,y,z;
+
+		Collapse(int u,int v,int versionU,int versionV,double cost,double x,double y,double z) {
+			this.u=u;
+			this.v=v;
+			this.versionU=versionU;
+			this.versionV=versionV;
+			this.cost=cost;
+			this.x=x;
+			this.y=y;
+			this.z=z;
+		}
+
+		@Override
+		public int compareTo(Collapse o) {
+			return Double.compare(cost, o.cost);
+		}
+	}
+
+	/**
+	 * Build the levels of detail for m and attach them with {@link Mesh#setLevelsOfDetail(Mesh[])}.
+	 * Does nothing for small meshes or meshes that are not triangles.
+	 * @param m the mesh
+	 */
+	public static void generateLevelsOfDetail(Mesh m) {
+		if(m.renderStyle!=GL2.GL_TRIANGLES) return;
+		int n = m.getNumTriangles();
+		if(n<MIN_TRIANGLES) return;
+
+		int [] targets = new int[DEFAULT_LEVELS.length];
+		for(int i=0;i<targets.length;++i) {
+			targets[i] = (int)(n*DEFAULT_LEVELS[i]);
+		}
+		m.setLevelsOfDetail(new MeshSimplifier(m).simplify(targets));
+	}
+
+	public MeshSimplifier(Mesh source) {
+		this.source = source;
+		this.numTriangles = source.getNumTriangles();
+	}
+
+	/**
+	 * Collapse edges, cheapest first, and take a copy each time the number of triangles reaches the next target.
+	 * @param targets triangle counts, largest first.
+	 * @return one mesh per target.  If the mesh cannot be simplified far enough the last meshes have more
+	 * triangles than asked.
+	 */
+	public Mesh [] simplify(int [] targets) {
+		buildPoints();
+		buildQuadrics();
+		buildQueue();
+
+		Mesh [] results = new Mesh[targets.length];
+		for(int level=0;level<targets.length;++level) {
+			while(liveTriangles>targets[level] && !queue.isEmpty()) {
+				Collapse c = queue.poll();
+				if(parent[c.u]!=c.u || parent[c.v]!=c.v) continue;
+				if(version[c.u]!=c.versionU || version[c.v]!=c.versionV) continue;
+				if(flips(c.u,c.v,c.x,c.y,c.z) || flips(c.v,c.u,c.x,c.y,c.z)) continue;
+				collapse(c);
+			}
+			results[level] = buildMesh();
+		}
+		return results;
+	}
+
+	/**
+	 * Join corners with exactly the same position into points.
+	 */
+	private void buildPoints() {
+		int numVertexes = source.getNumVertices();
+		IntTupleMap map = new IntTupleMap(3,numVertexes);
+		int [] pointOf = new int[numVertexes];
+		int [] key = new int[3];
+		int numPoints=0;
+		px = new double[numVertexes];
+		py = new double[numVertexes];
+		pz = new double[numVertexes];
+		for(int i=0;i<numVertexes;++i) {
+			float x = source.getVertexX(i);
+			float y = source.getVertexY(i);
+			float z = source.getVertexZ(i);
+			key[0] = Float.floatToIntBits(x+0.0f);
+			key[1] = Float.floatToIntBits(y+0.0f);
+			key[2] = Float.floatToIntBits(z+0.0f);
+			int p = map.putIfAbsent(key, 0, numPoints);
+			if(p==-1) {
+				p = numPoints++;
+				px[p]=x;
+				py[p]=y;
+				pz[p]=z;
+			}
+			pointOf[i]=p;
+		}
+
+		parent = new int[numPoints];
+		for(int i=0;i<numPoints;++i) parent[i]=i;
+		version = new int[numPoints];
+		pointTriangleCount = new int[numPoints];
+
+		triangles = new int[numTriangles*3];
+		corners = new int[numTriangles*3];
+		deadTriangle = new boolean[numTriangles];
+		for(int t=0;t<numTriangles;++t) {
+			for(int k=0;k<3;++k) {
+				int v = source.getTriangleVertex(t,k);
+				corners[t*3+k] = v;
+				triangles[t*3+k] = pointOf[v];
+			}
+			int a=triangles[t*3], b=triangles[t*3+1], c=triangles[t*3+2];
+			if(a==b || b==c || c==a) {
+				deadTriangle[t]=true;
+				continue;
+			}
+			liveTriangles++;
+			for(int k=0;k<3;++k) pointTriangleCount[triangles[t*3+k]]++;
+		}
+
+		pointTriangles = new int[numPoints][];
+		for(int p=0;p<numPoints;++p) {
+			pointTriangles[p] = new int[Math.max(pointTriangleCount[p],1)];
+			pointTriangleCount[p]=0;
+		}
+		for(int t=0;t<numTriangles;++t) {
+			if(deadTriangle[t]) continue;
+			for(int k=0;k<3;++k) {
+				int p = triangles[t*3+k];
+				pointTriangles[p][pointTriangleCount[p]++] = t;
+			}
+		}
+	}
+
+	/**
+	 * Each point starts with the sum of the planes of the triangles around it, weighted by area.
+	 */
+	private void buildQuadrics() {
+		quadrics = new double[parent.length*10];
+		double [] n = new double[4];
+		HashMap<Long,Integer> edgeUse = new HashMap<Long,Integer>();
+
+		for(int t=0;t<numTriangles;++t) {
+			if(deadTriangle[t]) continue;
+			int a=triangles[t*3], b=triangles[t*3+1], c=triangles[t*3+2];
+			double area = plane(a,b,c,n);
+			if(area==0) continue;
+			for(int k=0;k<3;++k) addPlane(triangles[t*3+k],n[0],n[1],n[2],n[3],area);
+			for(int k=0;k<3;++k) {
+				edgeUse.merge(edgeKey(triangles[t*3+k],triangles[t*3+(k+1)%3]), 1, Integer::sum);
+			}
+		}
+
+		// open edges: add a plane through the edge, at right angles to the triangle.
+		for(int t=0;t<numTriangles;++t) {
+			if(deadTriangle[t]) continue;
+			int a=triangles[t*3], b=triangles[t*3+1], c=triangles[t*3+2];
+			if(plane(a,b,c,n)==0) continue;
+			for(int k=0;k<3;++k) {
+				int p = triangles[t*3+k];
+				int q = triangles[t*3+(k+1)%3];
+				if(edgeUse.get(edgeKey(p,q))!=1) continue;
+				double ex = px[q]-px[p], ey = py[q]-py[p], ez = pz[q]-pz[p];
+				double bx = ey*n[2]-ez*n[1];
+				double by = ez*n[0]-ex*n[2];
+				double bz = ex*n[1]-ey*n[0];
+				double len = Math.sqrt(bx*bx+by*by+bz*bz);
+				if(len==0) continue;
+				bx/=len;
+				by/=len;
+				bz/=len;
+				double d = -(bx*px[p]+by*py[p]+bz*pz[p]);
+				double w = BOUNDARY_WEIGHT*(ex*ex+ey*ey+ez*ez);
+				addPlane(p,bx,by,bz,d,w);
+				addPlane(q,bx,by,bz,d,w);
+			}
+		}
+	}
+
+	private static long edgeKey(int a,int b) {
+		return a<b ? ((long)a<<32)|b : ((long)b<<32)|a;
+	}
+
+	/**
+	 * @param n receives the unit normal and the plane offset d, so that n.p+d=0.
+	 * @return the area of the triangle abc.
+	 */
+	private double plane(int a,int b,int c,double [] n) {
+		double ux = px[b]-px[a], uy = py[b]-py[a], uz = pz[b]-pz[a];
+		double vx = px[c]-px[a], vy = py[c]-py[a], vz = pz[c]-pz[a];
+		double nx = uy*vz-uz*vy;
+		double ny = uz*vx-ux*vz;
+		double nz = ux*vy-uy*vx;
+		double len = Math.sqrt(nx*nx+ny*ny+nz*nz);
+		if(len==0) return 0;
+		n[0]=nx/len;
+		n[1]=ny/len;
+		n[2]=nz/len;
+		n[3]=-(n[0]*px[a]+n[1]*py[a]+n[2]*pz[a]);
+		return len*0.5;
+	}
+
+	private void addPlane(int p,double a,double b,double c,double d,double w) {
+		int q=p*10;
+		quadrics[q  ] += w*a*a;
+		quadrics[q+1] += w*a*b;
+		quadrics[q+2] += w*a*c;
+		quadrics[q+3] += w*a*d;
+		quadrics[q+4] += w*b*b;
+		quadrics[q+5] += w*b*c;
+		quadrics[q+6] += w*b*d;
+		quadrics[q+7] += w*c*c;
+		quadrics[q+8] += w*c*d;
+		quadrics[q+9] += w*d*d;
+	}
+
+	private void buildQueue() {
+		for(int t=0;t<numTriangles;++t) {
+			if(deadTriangle[t]) continue;
+			for(int k=0;k<3;++k) {
+				int p = triangles[t*3+k];
+				int q = triangles[t*3+(k+1)%3];
+				// each inside edge is seen from two triangles.  add it once.
+				if(p<q || isOpenEdge(t,p,q)) queue.add(measure(p,q));
+			}
+		}
+	}
+
+	/**
+	 * @return true if no other triangle has the edge pq.
+	 */
+	private boolean isOpenEdge(int t,int p,int q) {
+		for(int i=0;i<pointTriangleCount[p];++i) {
+			int s = pointTriangles[p][i];
+			if(s==t || deadTriangle[s]) continue;
+			if(contains(s,q)) return false;
+		}
+		return true;
+	}
+
+	private boolean contains(int t,int p) {
+		return triangles[t*3]==p || triangles[t*3+1]==p || triangles[t*3+2]==p;
+	}
+
+	/**
+	 * Find where u and v should meet and what it costs.
+	 */
+	private Collapse measure(int u,int v) {
+		double [] q = new double[10];
+		for(int i=0;i<10;++i) q[i] = quadrics[u*10+i]+quadrics[v*10+i];
+
+		// solve for the point with the smallest error
+		double a=q[0], b=q[1], c=q[2], d=q[4], e=q[5], f=q[7];
+		double det = a*(d*f-e*e) - b*(b*f-e*c) + c*(b*e-d*c);
+		double x,y,z;
+		if(Math.abs(det)>1e-12) {
+			double rx=-q[3], ry=-q[6], rz=-q[8];
+			x = (rx*(d*f-e*e) - b*(ry*f-e*rz) + c*(ry*e-d*rz)) / det;
+			y = (a*(ry*f-e*rz) - rx*(b*f-e*c) + c*(b*rz-ry*c)) / det;
+			z = (a*(d*rz-ry*e) - b*(b*rz-ry*c) + rx*(b*e-d*c)) / det;
+			// far from both ends means the system was nearly singular.
+			double span = distanceSquared(u,v)*4 + 1e-12;
+			double mx = (px[u]+px[v])/2, my = (py[u]+py[v])/2, mz = (pz[u]+pz[v])/2;
+			if((x-mx)*(x-mx)+(y-my)*(y-my)+(z-mz)*(z-mz) <= span) {
+				return new Collapse(u,v,version[u],version[v],error(q,x,y,z),x,y,z);
+			}
+		}
+
+		// otherwise the best of the two ends and the middle.
+		double eu = error(q,px[u],py[u],pz[u]);
+		double ev = error(q,px[v],py[v],pz[v]);
+		x = (px[u]+px[v])/2;
+		y = (py[u]+py[v])/2;
+		z = (pz[u]+pz[v])/2;
+		double em = error(q,x,y,z);
+		if(eu<=ev && eu<=em) return new Collapse(u,v,version[u],version[v],eu,px[u],py[u],pz[u]);
+		if(ev<=em)           return new Collapse(u,v,version[u],version[v],ev,px[v],py[v],pz[v]);
+		return new Collapse(u,v,version[u],version[v],em,x,y,z);
+	}
+
+	private double distanceSquared(int u,int v) {
+		double dx=px[u]-px[v], dy=py[u]-py[v], dz=pz[u]-pz[v];
+		return dx*dx+dy*dy+dz*dz;
+	}
+
+	private static double error(double [] q,double x,double y,double z) {
+		return q[0]*x*x + 2*q[1]*x*y + 2*q[2]*x*z + 2*q[3]*x
+			 + q[4]*y*y + 2*q[5]*y*z + 2*q[6]*y
+			 + q[7]*z*z + 2*q[8]*z
+			 + q[9];
+	}
+
+	/**
+	 * @return true if moving u to (x,y,z) would turn over one of the triangles around u that does not touch v.
+	 */
+	private boolean flips(int u,int v,double x,double y,double z) {
+		for(int i=0;i<pointTriangleCount[u];++i) {
+			int t = pointTriangles[u][i];
+			if(deadTriangle[t] || contains(t,v) || !contains(t,u)) continue;
+
+			int k = triangles[t*3]==u ? 0 : triangles[t*3+1]==u ? 1 : 2;
+			int a = triangles[t*3+(k+1)%3];
+			int b = triangles[t*3+(k+2)%3];
+			// normal before
+			double n1x = (py[a]-py[u])*(pz[b]-pz[u]) - (pz[a]-pz[u])*(py[b]-py[u]);
+			double n1y = (pz[a]-pz[u])*(px[b]-px[u]) - (px[a]-px[u])*(pz[b]-pz[u]);
+			double n1z = (px[a]-px[u])*(py[b]-py[u]) - (py[a]-py[u])*(px[b]-px[u]);
+			// normal after
+			double n2x = (py[a]-y)*(pz[b]-z) - (pz[a]-z)*(py[b]-y);
+			double n2y = (pz[a]-z)*(px[b]-x) - (px[a]-x)*(pz[b]-z);
+			double n2z = (px[a]-x)*(py[b]-y) - (py[a]-y)*(px[b]-x);
+			double dot = n1x*n2x+n1y*n2y+n1z*n2z;
+			double len = Math.sqrt((n1x*n1x+n1y*n1y+n1z*n1z)*(n2x*n2x+n2y*n2y+n2z*n2z));
+			// more than ~80 degrees, or squashed flat.
+			if(len==0 || dot<0.2*len) return true;
+		}
+		return false;
+	}
+
+	private void collapse(Collapse c) {
+		int u=c.u, v=c.v;
+		px[u]=c.x;
+		py[u]=c.y;
+		pz[u]=c.z;
+		for(int i=0;i<10;++i) quadrics[u*10+i] += quadrics[v*10+i];
+		parent[v]=u;
+		version[u]++;
+
+		// move v's triangles to u.  Triangles with both u and v disappear.
+		for(int i=0;i<pointTriangleCount[v];++i) {
+			int t = pointTriangles[v][i];
+			if(deadTriangle[t] || !contains(t,v)) continue;
+			if(contains(t,u)) {
+				deadTriangle[t]=true;
+				liveTriangles--;
+				continue;
+			}
+			for(int k=0;k<3;++k) {
+				if(triangles[t*3+k]==v) triangles[t*3+k]=u;
+			}
+			appendTriangle(u,t);
+		}
+		pointTriangles[v]=null;
+		pointTriangleCount[v]=0;
+		compactTriangles(u);
+
+		// the edges around u have new costs.
+		for(int i=0;i<pointTriangleCount[u];++i) {
+			int t = pointTriangles[u][i];
+			for(int k=0;k<3;++k) {
+				int w = triangles[t*3+k];
+				if(w!=u) queue.add(measure(u,w));
+			}
+		}
+	}
+
+	private void appendTriangle(int p,int t) {
+		if(pointTriangleCount[p]==pointTriangles[p].length) {
+			pointTriangles[p] = Arrays.copyOf(pointTriangles[p], pointTriangles[p].length*2);
+		}
+		pointTriangles[p][pointTriangleCount[p]++] = t;
+	}
+
+	/**
+	 * Forget triangles that died or no longer use p.
+	 */
+	private void compactTriangles(int p) {
+		int [] list = pointTriangles[p];
+		int n=0;
+		for(int i=0;i<pointTriangleCount[p];++i) {
+			int t = list[i];
+			if(!deadTriangle[t] && contains(t,p)) list[n++]=t;
+		}
+		pointTriangleCount[p]=n;
+	}
+
+	/**
+	 * Copy the live triangles into a new indexed mesh.  Each source vertex still in use appears once,
+	 * at the position of the point it was collapsed into.
+	 */
+	private Mesh buildMesh() {
+		Mesh m = new Mesh();
+		m.renderStyle = source.renderStyle;
+		int numVertexes = source.getNumVertices();
+		boolean normals = source.hasNormals && source.normalArray.size()>=numVertexes*3;
+		boolean colors = source.hasColors && source.colorArray.size()>=numVertexes*4;
+		boolean uvs = source.hasUVs && source.texCoordArray.size()>=numVertexes*2;
+		int [] remap = new int[numVertexes];
+		Arrays.fill(remap, -1);
+
+		m.getIndexArray().ensureCapacity(liveTriangles*3);
+		int count=0;
+		for(int t=0;t<numTriangles;++t) {
+			if(deadTriangle[t]) continue;
+			for(int k=0;k<3;++k) {
+				int v = corners[t*3+k];
+				if(remap[v]==-1) {
+					remap[v] = count++;
+					int p = triangles[t*3+k];
+					m.addVertex((float)px[p],(float)py[p],(float)pz[p]);
+					if(normals) m.addNormal(source.normalArray.get(v*3),source.normalArray.get(v*3+1),source.normalArray.get(v*3+2));
+					if(colors) m.addColor(source.colorArray.get(v*4),source.colorArray.get(v*4+1),source.colorArray.get(v*4+2),source.colorArray.get(v*4+3));
+					if(uvs) m.addTexCoord(source.texCoordArray.get(v*2),source.texCoordArray.get(v*2+1));
+				}
+				m.addIndex(remap[v]);
+			}
+		}
+		m.hasNormals = normals;
+		m.hasColors = colors;
+		m.hasUVs = uvs;
+		m.hasIndexes = true;
+		m.setSourceName(source.getSourceName());
+		m.updateCuboid();
+		return m;
+	}
+}
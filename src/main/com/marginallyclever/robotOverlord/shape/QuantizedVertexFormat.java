@@ -0,0 +1,225 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * A compact, interleaved vertex layout for {@link Mesh}, all in one buffer.  Each vertex is
+ * <pre>
+ * short[3] position, relative to the bounding box, +1 short padding   8 bytes
+ * byte[3]  normal, signed normalized, +1 byte padding                 4 bytes (if the mesh has normals)
+ * ubyte[4] color RGBA                                                  4 bytes (if the mesh has colors)
+ * float[2] texture coordinate                                          8 bytes (if the mesh has texture coordinates)
+ * </pre>
+ * A mesh with positions and normals goes from 24 to 12 bytes per vertex.
+ * <p>
+ * The fixed function pipeline does not scale short positions, so {@link #applyTransform(GL2)} adds the
+ * scale and offset to the modelview matrix.  It does scale byte normals to -1...1, and GL_NORMALIZE fixes
+ * their length after the scale.  Octahedral normals would be smaller still but need a shader to unpack.
+ * @author Dan Royer
+ */
+public class QuantizedVertexFormat {
+	public static final int POSITION_BYTES = 8;
+	public static final int NORMAL_BYTES = 4;
+	public static final int COLOR_BYTES = 4;
+	public static final int TEXTURE_BYTES = 8;
+	private static final int POSITION_RANGE = 32767;
+	private static final int NORMAL_RANGE = 127;
+
+	public final int stride;
+	public final int normalOffset;
+	public final int colorOffset;
+	public final int textureOffset;
+
+	// position = center + short * scale
+	private final double [] center = new double[3];
+	private final double [] scale = new double[3];
+
+	/**
+	 * Choose the layout for a mesh and the scale to fit its bounding box.
+	 * @param hasNormals
+	 * @param hasColors
+	 * @param hasUVs
+	 * @param bottom the smallest corner of the bounding box
+	 * @param top the largest corner of the bounding box
+	 */
+	public QuantizedVertexFormat(boolean hasNormals,boolean hasColors,boolean hasUVs,Point3d bottom,Point3d top) {
+		normalOffset = POSITION_BYTES;
+		colorOffset = normalOffset + (hasNormals ? NORMAL_BYTES : 0);
+		textureOffset = colorOffset + (hasColors ? COLOR_BYTES : 0);
+		stride = getStride(hasNormals,hasColors,hasUVs);
+
+		double [] lo = { bottom.x, bottom.y, bottom.z };
+		double [] hi = { top.x, top.y, top.z };
+		for(int i=0;i<3;++i) {
+			center[i] = (lo[i]+hi[i])/2;
+			double half = (hi[i]-lo[i])/2;
+			// a flat box still needs a scale.
+			scale[i] = half>0 ? half/POSITION_RANGE : 1.0/POSITION_RANGE;
+		}
+	}
+
+	/**
+	 * @return the number of bytes per vertex for this combination of attributes.
+	 */
+	public static int getStride(boolean hasNormals,boolean hasColors,boolean hasUVs) {
+		return POSITION_BYTES
+				+ (hasNormals ? NORMAL_BYTES : 0)
+				+ (hasColors ? COLOR_BYTES : 0)
+				+ (hasUVs ? TEXTURE_BYTES : 0);
+	}
+
+	public QuantizedVertexFormat(Mesh m) {
+		this(m.hasNormals,m.hasColors,m.hasUVs,m.getCuboid().getBoundsBottom(),m.getCuboid().getBoundsTop());
+	}
+
+	/**
+	 * Pack every vertex of m.
+	 * @param m the mesh
+	 * @return a direct buffer of {@link #stride} bytes per vertex, ready for glBufferData.
+	 */
+	public ByteBuffer encode(Mesh m) {
+		int numVertexes = m.getNumVertices();
+		ByteBuffer data = ByteBuffer.allocateDirect(numVertexes*stride).order(ByteOrder.nativeOrder());
+		FloatArray v = m.vertexArray;
+		FloatArray n = m.normalArray;
+		FloatArray c = m.colorArray;
+		FloatArray t = m.texCoordArray;
+		boolean hasNormals = normalOffset!=colorOffset;
+		boolean hasColors = colorOffset!=textureOffset;
+		boolean hasUVs = textureOffset!=stride;
+		byte [] normal = new byte[3];
+
+		for(int i=0;i<numVertexes;++i) {
+			int b = i*stride;
+			data.putShort(b  , encodePosition(v.get(i*3  ),0));
+			data.putShort(b+2, encodePosition(v.get(i*3+1),1));
+			data.putShort(b+4, encodePosition(v.get(i*3+2),2));
+			if(hasNormals) {
+				encodeNormal(n.get(i*3),n.get(i*3+1),n.get(i*3+2),normal);
+				data.put(b+normalOffset  , normal[0]);
+				data.put(b+normalOffset+1, normal[1]);
+				data.put(b+normalOffset+2, normal[2]);
+			}
+			if(hasColors) {
+				for(int j=0;j<4;++j) {
+					data.put(b+colorOffset+j, encodeColor(c.get(i*4+j)));
+				}
+			}
+			if(hasUVs) {
+				data.putFloat(b+textureOffset  , t.get(i*2  ));
+				data.putFloat(b+textureOffset+4, t.get(i*2+1));
+			}
+		}
+		return data;
+	}
+
+	public short encodePosition(float value,int axis) {
+		long q = Math.round((value-center[axis])/scale[axis]);
+		return (short)Math.max(-POSITION_RANGE, Math.min(POSITION_RANGE, q));
+	}
+
+	public double decodePosition(short value,int axis) {
+		return center[axis] + value*scale[axis];
+	}
+
+	/**
+	 * OpenGL turns normals by the inverse of the scale in {@link #applyTransform(GL2)}, so they are stored
+	 * already multiplied by that scale.
+	 * @param out receives three signed normalized bytes.
+	 */
+	public void encodeNormal(float x,float y,float z,byte [] out) {
+		double nx = x*scale[0];
+		double ny = y*scale[1];
+		double nz = z*scale[2];
+		double len = Math.sqrt(nx*nx+ny*ny+nz*nz);
+		if(len==0) len=1;
+		out[0] = toSignedByte(nx/len);
+		out[1] = toSignedByte(ny/len);
+		out[2] = toSignedByte(nz/len);
+	}
+
+	/**
+	 * Undo {@link #encodeNormal(float, float, float, byte[])} the way OpenGL would.
+	 * @param out receives the unit normal in model units.
+	 */
+	public void decodeNormal(byte [] in,float [] out) {
+		double nx = Math.max(-1.0, in[0]/(double)NORMAL_RANGE)/scale[0];
+		double ny = Math.max(-1.0, in[1]/(double)NORMAL_RANGE)/scale[1];
+		double nz = Math.max(-1.0, in[2]/(double)NORMAL_RANGE)/scale[2];
+		double len = Math.sqrt(nx*nx+ny*ny+nz*nz);
+		if(len==0) len=1;
+		out[0] = (float)(nx/len);
+		out[1] = (float)(ny/len);
+		out[2] = (float)(nz/len);
+	}
+
+	private static byte toSignedByte(double value) {
+		return (byte)Math.max(-NORMAL_RANGE, Math.min(NORMAL_RANGE, Math.round(value*NORMAL_RANGE)));
+	}
+
+	public static byte encodeColor(float value) {
+		return (byte)Math.max(0, Math.min(255, Math.round(value*255)));
+	}
+
+	public static float decodeColor(byte value) {
+		return (value & 0xFF)/255.0f;
+	}
+
+	/**
+	 * Turn the short positions back into model units.  Call before drawing, inside glPushMatrix().
+	 * @param gl2 the render context
+	 */
+	public void applyTransform(GL2 gl2) {
+		gl2.glTranslated(center[0], center[1], center[2]);
+		gl2.glScaled(scale[0], scale[1], scale[2]);
+	}
+
+	/**
+	 * @param m receives the same scale and offset as {@link #applyTransform(GL2)}, for shaders.
+	 */
+	public void getTransform(Matrix4d m) {
+		m.setIdentity();
+		m.m00 = scale[0];
+		m.m11 = scale[1];
+		m.m22 = scale[2];
+		m.m03 = center[0];
+		m.m13 = center[1];
+		m.m23 = center[2];
+	}
+
+	/**
+	 * Normals were stored multiplied by the scale.  Shaders multiply them by this to undo it.
+	 * @param axis 0, 1, or 2
+	 * @return one over the scale on that axis.
+	 */
+	public double getNormalScale(int axis) {
+		return 1.0/scale[axis];
+	}
+
+	/**
+	 * Point the fixed function pipeline at the interleaved buffer, which must be bound to GL_ARRAY_BUFFER.
+	 * @param gl2 the render context
+	 */
+	public void setPointers(GL2 gl2) {
+		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glVertexPointer(3, GL2.GL_SHORT, stride, 0);
+		if(normalOffset!=colorOffset) {
+			gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+			gl2.glNormalPointer(GL2.GL_BYTE, stride, normalOffset);
+		}
+		if(colorOffset!=textureOffset) {
+			gl2.glEnableClientState(GL2.GL_COLOR_ARRAY);
+			gl2.glColorPointer(4, GL2.GL_UNSIGNED_BYTE, stride, colorOffset);
+		}
+		if(textureOffset!=stride) {
+			gl2.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+			gl2.glTexCoordPointer(2, GL2.GL_FLOAT, stride, textureOffset);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.GLStateCache;
+import com.marginallyclever.convenience.MatrixHelper;
+import com.marginallyclever.robotOverlord.FrustumCuller;
+import com.marginallyclever.robotOverlord.Viewport;
+import com.marginallyclever.robotOverlord.uiExposedTypes.MaterialEntity;
+
+/**
+ * {@link RenderQueue} collects the {@link Shape}s of a scene as it is walked and draws them afterwards, sorted so
+ * that shapes with the same material and the same mesh are drawn one after another.  Every material change goes
+ * through a {@link GLStateCache}, so a material that is already set costs nothing.
+ * <p>
+ * Each shape gets a 64 bit key.  Opaque shapes are sorted by material, then mesh, then nearest first.  Shapes that
+ * can be seen through are drawn after, farthest first, so they blend over what is behind them.  The low 16 bits
+ * are the item number, so equal keys stay in the order they were added.
+ * <p>
+ * Between {@link #begin(Viewport)} and {@link #end()} {@link Shape#render(GL2)} adds to the queue instead of
+ * drawing, when the shape is drawn by its parent in the scene.  Shapes drawn by hand, such as the parts of some
+ * robots, are drawn at once as before, and set every part of their material again because anything may have been
+ * changed around them.  {@link #flush(GL2)} draws what has been added.
+ * @author Dan Royer
+ */
+public class RenderQueue {
+	public static final int PASS_OPAQUE = 0;
+	public static final int PASS_TRANSPARENT = 1;
+
+	// the item number is 16 bits of the key.
+	private static final int MAX_ITEMS = 1<<16;
+	private static final int DEPTH_BITS = 16;
+	private static final int MATERIAL_BITS = 16;
+	private static final int MESH_BITS = 14;
+
+	// the queue between begin() and end(), if any.
+	private static RenderQueue active;
+
+	/**
+	 * One shape waiting to be drawn.
+	 */
+	private static class Item {
+		Shape shape;
+		Mesh mesh;
+		Matrix4d pose = new Matrix4d();
+	}
+
+	private Item [] items = new Item[0];
+	private long [] keys = new long[0];
+	private int numItems;
+
+	private IdentityHashMap<MaterialEntity,Integer> materialIds = new IdentityHashMap<MaterialEntity,Integer>();
+	private IdentityHashMap<Mesh,Integer> meshIds = new IdentityHashMap<Mesh,Integer>();
+	private GLStateCache state = new GLStateCache();
+	private Matrix4d view = new Matrix4d();
+	private double farZ = 1;
+	private boolean enabled = true;
+	private Point3d bottom = new Point3d();
+	private Point3d top = new Point3d();
+
+	private int numDrawn;
+	private int numDrawnLastFrame;
+	private long stateChangesLastFrame;
+	private long stateChangesSkippedLastFrame;
+
+	/**
+	 * Start collecting shapes seen by viewport.  Does nothing if disabled.
+	 * @param viewport the view being drawn, for the depth of each shape.  may be null.
+	 */
+	public void begin(Viewport viewport) {
+		numItems=0;
+		numDrawn=0;
+		materialIds.clear();
+		meshIds.clear();
+		state.invalidate();
+		state.resetCounts();
+		if(!enabled) return;
+		if(viewport!=null) {
+			viewport.getViewMatrix(view);
+			farZ = viewport.getFarZ();
+		} else {
+			view.setIdentity();
+			farZ = 1;
+		}
+		active = this;
+	}
+
+	/**
+	 * Stop collecting.  Call {@link #flush(GL2)} first or anything left is not drawn.
+	 */
+	public void end() {
+		if(active==this) active=null;
+		numItems=0;
+		numDrawnLastFrame = numDrawn;
+		stateChangesLastFrame = state.getNumChanges();
+		stateChangesSkippedLastFrame = state.getNumSkipped();
+	}
+
+	/**
+	 * Add s to the active queue, to be drawn with mesh m.
+	 * @param gl2 the render context, in case the queue is full and must be drawn now.
+	 * @param s the shape
+	 * @param m the mesh to draw, perhaps a simpler one than the shape has.
+	 * @return false if s must be drawn now, because there is no active queue or s was drawn by hand.
+	 */
+	public static boolean add(GL2 gl2,Shape s,Mesh m) {
+		// the queue draws at the world pose, which is only certain for shapes drawn by their parent.
+		if(active==null || !FrustumCuller.isDrawingFromTree(s)) return false;
+		active.addItem(gl2,s,m);
+		return true;
+	}
+
+	/**
+	 * Set a material through the {@link GLStateCache} of the active queue, or directly if there is none.  The
+	 * cache only knows what was set through it, so anything that may have changed the state since, such as a
+	 * shape drawn by hand, must call {@link #invalidateState()} first.
+	 * @param gl2 the render context
+	 * @param material the material
+	 */
+	public static void applyMaterial(GL2 gl2,MaterialEntity material) {
+		if(active==null) material.render(gl2);
+		else material.render(gl2,active.state);
+	}
+
+	/**
+	 * Tell the active queue, if any, that the state may have been changed behind its back.
+	 */
+	public static void invalidateState() {
+		if(active!=null) active.state.invalidate();
+	}
+
+	/**
+	 * Tell the active queue, if any, that m was drawn after a call to {@link #applyMaterial(GL2, MaterialEntity)}.
+	 * @param m the mesh
+	 */
+	public static void meshDrawn(Mesh m) {
+		if(active!=null) active.forgetColor(m);
+	}
+
+	private void forgetColor(Mesh m) {
+		// a color array leaves the current color undefined.
+		if(m.hasColors || m.getNumChunks()>0) state.forgetColor();
+	}
+
+	private void addItem(GL2 gl2,Shape s,Mesh m) {
+		if(numItems==MAX_ITEMS) flush(gl2);
+		if(numItems==items.length) {
+			int size = Math.max(64,items.length*2);
+			items = Arrays.copyOf(items,size);
+			keys = Arrays.copyOf(keys,size);
+		}
+		Item item = items[numItems];
+		if(item==null) item = items[numItems] = new Item();
+		item.shape = s;
+		item.mesh = m;
+		s.getPoseWorld(item.pose);
+
+		MaterialEntity material = s.getMaterial();
+		int pass = material.isTransparent() ? PASS_TRANSPARENT : PASS_OPAQUE;
+		keys[numItems] = makeKey(pass,getId(materialIds,material),getId(meshIds,m),getDepth(s,item.pose),numItems);
+		numItems++;
+	}
+
+	/**
+	 * Ids are handed out in the order things are first seen.  When there are too many the last id is shared,
+	 * which only costs some sorting.
+	 */
+	private static <T> int getId(IdentityHashMap<T,Integer> ids,T thing) {
+		Integer id = ids.get(thing);
+		if(id==null) {
+			id = ids.size();
+			ids.put(thing,id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the distance in front of the camera to the middle of s, 0 at the camera and 1 at the far plane.
+	 */
+	private double getDepth(Shape s,Matrix4d pose) {
+		double x,y,z;
+		if(s.getBoundsWorld(bottom,top)) {
+			x = (bottom.x+top.x)/2;
+			y = (bottom.y+top.y)/2;
+			z = (bottom.z+top.z)/2;
+		} else {
+			x = pose.m03;
+			y = pose.m13;
+			z = pose.m23;
+		}
+		// camera looks down -z
+		double depth = -(view.m20*x + view.m21*y + view.m22*z + view.m23);
+		return depth/farZ;
+	}
+
+	/**
+	 * @param pass {@link #PASS_OPAQUE} or {@link #PASS_TRANSPARENT}
+	 * @param material material id
+	 * @param mesh mesh id
+	 * @param depth 0 at the camera, 1 at the far plane.
+	 * @param index the item number
+	 * @return the sort key.
+	 */
+	public static long makeKey(int pass,int material,int mesh,double depth,int index) {
+		long d = (long)(Math.max(0,Math.min(1,depth)) * ((1L<<DEPTH_BITS)-1));
+		long mat = Math.min(material,(1<<MATERIAL_BITS)-1);
+		long m = Math.min(mesh,(1<<MESH_BITS)-1);
+		long key = (long)pass << 62;
+		if(pass==PASS_TRANSPARENT) {
+			// farthest first, then as few changes as possible.
+			d = ((1L<<DEPTH_BITS)-1) - d;
+			key |= d << (62-DEPTH_BITS);
+			key |= mat << (62-DEPTH_BITS-MATERIAL_BITS);
+			key |= m << 16;
+		} else {
+			key |= mat << (62-MATERIAL_BITS);
+			key |= m << (62-MATERIAL_BITS-MESH_BITS);
+			key |= d << 16;
+		}
+		return key | index;
+	}
+
+	/**
+	 * Draw everything added since the last flush, in key order, as seen from the viewport given to
+	 * {@link #begin(Viewport)}.  The modelview matrix is put back after.
+	 * @param gl2 the render context
+	 */
+	public void flush(GL2 gl2) {
+		if(numItems==0) return;
+		// whatever was drawn since the last flush may have changed anything.
+		state.invalidate();
+		Arrays.sort(keys,0,numItems);
+		// the queue may be full in the middle of the scene, with anything on the stack.
+		gl2.glPushMatrix();
+		gl2.glLoadIdentity();
+		MatrixHelper.applyMatrix(gl2, view);
+		for(int i=0;i<numItems;++i) {
+			Item item = items[(int)(keys[i] & (MAX_ITEMS-1))];
+			gl2.glPushMatrix();
+			MatrixHelper.applyMatrix(gl2, item.pose);
+			if(item.shape.renderMesh(gl2,item.mesh)) {
+				// the placeholder sets its own state.
+				state.invalidate();
+			} else {
+				forgetColor(item.mesh);
+			}
+			gl2.glPopMatrix();
+			item.shape = null;
+			item.mesh = null;
+		}
+		gl2.glPopMatrix();
+		numDrawn += numItems;
+		numItems=0;
+		materialIds.clear();
+		meshIds.clear();
+	}
+
+	/**
+	 * @return true between {@link #begin(Viewport)} and {@link #end()} of some queue.
+	 */
+	public static boolean isActive() {
+		return active!=null;
+	}
+
+	/**
+	 * @param state false to draw every shape as it is found.
+	 */
+	public void setEnabled(boolean state) {
+		enabled = state;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the number of shapes waiting to be drawn.
+	 */
+	public int getNumItems() {
+		return numItems;
+	}
+
+	/**
+	 * @return the number of shapes drawn by the queue last frame.
+	 */
+	public int getNumDrawnLastFrame() {
+		return numDrawnLastFrame;
+	}
+
+	/**
+	 * @return the number of state changes sent to OpenGL last frame, by materials set through the queue.
+	 */
+	public long getStateChangesLastFrame() {
+		return stateChangesLastFrame;
+	}
+
+	/**
+	 * @return the number of state changes skipped last frame because they were already set.
+	 */
+	public long getStateChangesSkippedLastFrame() {
+		return stateChangesSkippedLastFrame;
+	}
+
+	/**
+	 * @return a one line report of the last frame.
+	 */
+	public String getSummary() {
+		return "shapes="+getNumDrawnLastFrame()
+				+" stateChanges="+getStateChangesLastFrame()
+				+" skipped="+getStateChangesSkippedLastFrame()
+				+" drawCalls="+Mesh.getDrawCallsLastFrame();
+	}
+}
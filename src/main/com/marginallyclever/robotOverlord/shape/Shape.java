@@ -2,8 +2,7 @@ package com.marginallyclever.robotOverlord.shape;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedInputStream;
-import java.io.IOException;
+import java.lang.ref.Cleaner;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.ServiceLoader;
@@ -16,12 +15,15 @@ import javax.vecmath.Vector3d;
 
 import com.jogamp.opengl.GL2;
 import com.marginallyclever.convenience.Cuboid;
-import com.marginallyclever.convenience.FileAccess;
 import com.marginallyclever.convenience.MatrixHelper;
 import com.marginallyclever.convenience.PrimitiveSolids;
 import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.AbstractEntity;
 import com.marginallyclever.robotOverlord.Collidable;
+import com.marginallyclever.robotOverlord.Entity;
+import com.marginallyclever.robotOverlord.FrustumCuller;
 import com.marginallyclever.robotOverlord.PoseEntity;
+import com.marginallyclever.robotOverlord.Viewport;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewElementButton;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewPanel;
 import com.marginallyclever.robotOverlord.uiExposedTypes.BooleanEntity;
@@ -46,6 +48,12 @@ public class Shape extends PoseEntity implements Collidable {
 
 	// the shape for this entity
 	protected transient Mesh shape;
+	// the shape being loaded in the background, if any.
+	protected transient MeshHandle pendingShape;
+	// releases this entity's reference to shape when detached or garbage collected.
+	private transient Cleaner.Cleanable shapeReference;
+	
+	private static final Cleaner cleaner = Cleaner.create();
 
 	protected StringEntity filename = new StringEntity("File","");
 	
@@ -61,7 +69,21 @@ public class Shape extends PoseEntity implements Collidable {
 	private BooleanEntity hasColors = new BooleanEntity("Has colors",false);
 	private BooleanEntity hasUVs = new BooleanEntity("Has UVs",false);
 	
+	// static shapes that never move can be drawn together by a StaticBatcher.
+	protected BooleanEntity isStatic = new BooleanEntity("Static",false);
+	// the batcher drawing this shape, if any.
+	protected transient StaticBatcher staticBatcher;
+	// the renderer that drew this shape with its copies this frame, if any.
+	protected transient InstancedRenderer instancedRenderer;
+	
 	private Cuboid cuboid = new Cuboid();
+
+	// projected size in pixels below which each level of detail is used.  Largest first.
+	protected double [] levelOfDetailThresholds = { 300, 120, 40 };
+	// scratch space to find the modelview matrix, shared by every shape.  Only used on the GL thread.
+	private static final Matrix4d modelView = new Matrix4d();
+	private static final Matrix4d poseWorld = new Matrix4d();
+	private static final double [] glModelView = new double[16];
 	
 	public Shape() {
 		super();
@@ -71,11 +93,13 @@ public class Shape extends PoseEntity implements Collidable {
 		addChild(rotationAdjust);
 		addChild(originAdjust);
 		addChild(scale);
+		addChild(isStatic);
 				
 		filename.addPropertyChangeListener(this);
 		rotationAdjust.addPropertyChangeListener(this);
 		originAdjust.addPropertyChangeListener(this);
 		scale.addPropertyChangeListener(this);
+		isStatic.addPropertyChangeListener(this);
 
 		addChild(numTriangles);
 		addChild(hasNormals);
@@ -94,10 +118,13 @@ public class Shape extends PoseEntity implements Collidable {
 		cuboid.set(b.cuboid);
 		
 		filename.set(b.filename.get());
-		shape = b.shape;
+		attachShape(b.shape);
+		pendingShape = b.pendingShape;
 		material.set(b.material);
+		levelOfDetailThresholds = b.levelOfDetailThresholds.clone();
 		originAdjust.set(b.originAdjust.get());
 		rotationAdjust.set(b.rotationAdjust.get());
+		isStatic.set(b.isStatic.get());
 	}
     
 	public String getModelFilename() {
@@ -106,26 +133,122 @@ public class Shape extends PoseEntity implements Collidable {
 
 	/**
 	 * Sets the new shape filename, which causes the shape to be reloaded.
+	 * The file is loaded in the background by {@link MeshLoader}.  Until it is ready the old shape, or a
+	 * placeholder, is drawn.  {@link #getModel()} waits for the new shape.
 	 * @param newFilename
 	 */
 	public void setShapeFilename(String newFilename) {
 		// if the filename has changed, throw out the shape so it will be reloaded.
 		//if( this.filename.get().equals(newFilename) ) return;
 		
-		try {
-			shape = Mesh.createModelFromFilename(newFilename);
-			if(shape!=null) {
-				updateCuboid();
-				numTriangles.set(shape.getNumTriangles());
-				hasNormals.set(shape.hasNormals);
-				hasColors.set(shape.hasColors);
-				hasUVs.set(shape.hasUVs);
-			}
-			// only change this after loading has completely succeeded.
+		if(newFilename==null || newFilename.trim().isEmpty()) {
+			pendingShape = null;
+			attachShape(null);
 			filename.set(newFilename);
-		} catch (Exception e) {
-			Log.error("Loading shape '"+newFilename+"' failed: "+e.getLocalizedMessage());
+			updateCuboid();
+			return;
 		}
+		if(pendingShape!=null && pendingShape.getSourceName().equals(newFilename)) return;
+
+		pendingShape = MeshLoader.load(newFilename);
+		filename.set(newFilename);
+		checkPendingShape();
+	}
+
+	/**
+	 * Start using the background shape if it has finished loading.  Never blocks.
+	 */
+	protected void checkPendingShape() {
+		MeshHandle handle = pendingShape;
+		if(handle==null || !handle.isDone()) return;
+		pendingShape = null;
+
+		if(handle.isFailed()) {
+			Log.error("Loading shape '"+handle.getSourceName()+"' failed: "+handle.getError().getLocalizedMessage());
+			return;
+		}
+		
+		attachShape(handle.getNow());
+		if(shape!=null) {
+			updateCuboid();
+			numTriangles.set(shape.getNumTriangles());
+			hasNormals.set(shape.hasNormals);
+			hasColors.set(shape.hasColors);
+			hasUVs.set(shape.hasUVs);
+		}
+	}
+
+	/**
+	 * Use m as this entity's shape.  The {@link MeshPool} counts every {@link Shape} that uses a {@link Mesh}.
+	 * @param m the new shape, or null.
+	 */
+	protected void attachShape(Mesh m) {
+		if(m!=null) MeshPool.acquire(m);
+		detachShape();
+		shape = m;
+		if(m!=null) shapeReference = cleaner.register(this, new ShapeReleaser(m));
+	}
+
+	/**
+	 * Give up this entity's reference to the shape.  The shape is kept so it can be drawn again after
+	 * {@link #reattachShape()}.
+	 */
+	protected void detachShape() {
+		if(shapeReference==null) return;
+		shapeReference.clean();
+		shapeReference=null;
+	}
+
+	protected void reattachShape() {
+		if(shape!=null && shapeReference==null) attachShape(shape);
+	}
+
+	/**
+	 * Removing a {@link Shape} from the scene, or any branch above it, releases its {@link Mesh}.  Putting it
+	 * back, as with undo, takes the mesh again.
+	 */
+	@Override
+	protected void setBranchAttached(boolean isAttached) {
+		super.setBranchAttached(isAttached);
+		if(isAttached) reattachShape();
+		else detachShape();
+	}
+
+	/**
+	 * Must not refer to the {@link Shape}, or the shape could never be garbage collected.
+	 */
+	private static class ShapeReleaser implements Runnable {
+		private final Mesh mesh;
+
+		public ShapeReleaser(Mesh mesh) {
+			this.mesh = mesh;
+		}
+
+		@Override
+		public void run() {
+			MeshPool.release(mesh);
+		}
+	}
+
+	/**
+	 * Wait for the background shape to finish loading.
+	 */
+	protected void waitForPendingShape() {
+		MeshHandle handle = pendingShape;
+		if(handle==null) return;
+		try {
+			handle.get();
+		} catch(Exception e) {
+			// reported by checkPendingShape()
+		}
+		checkPendingShape();
+	}
+
+	/**
+	 * @return true if the shape is still loading in the background.
+	 */
+	public boolean isLoading() {
+		return pendingShape!=null && !pendingShape.isDone();
 	}
 
 	public void setShapeScale(double arg0) {
@@ -163,6 +286,7 @@ public class Shape extends PoseEntity implements Collidable {
 		Matrix4d rotZ = new Matrix4d();		rotZ.rotZ(Math.toRadians(r.z));		pose.mul(rotZ);
 		pose.setScale(scale.get());
 		pose.setTranslation(originAdjust.get());
+		markPoseDirty();
 		updateCuboid();
 	}
 
@@ -175,6 +299,23 @@ public class Shape extends PoseEntity implements Collidable {
 		return new Vector3d(rotationAdjust.get());
 	}
 
+	/**
+	 * A static shape that shares its material with other static shapes is drawn in one batch with them.
+	 * Moving it is allowed but rebuilds the batch.
+	 * @param state true if this shape will rarely move.
+	 */
+	public void setStatic(boolean state) {
+		isStatic.set(state);
+	}
+	
+	public boolean isStatic() {
+		return isStatic.get();
+	}
+	
+	protected boolean isDrawnByStaticBatcher() {
+		return staticBatcher!=null && staticBatcher.isEnabled();
+	}
+
 	@Override
 	public void update(double dt) {
 		super.update(dt);
@@ -194,7 +335,8 @@ public class Shape extends PoseEntity implements Collidable {
 	}
 	
 	/**
-	 * Updates the {@link Cuboid} bounds.
+	 * Updates the {@link Cuboid} bounds.  Without a shape the bounds are an empty box at the origin, which means
+	 * "unknown": {@link #getCuboidList()} leaves it out.
 	 */
 	public void updateCuboid() {
 		if(shape != null) {
@@ -203,28 +345,142 @@ public class Shape extends PoseEntity implements Collidable {
 			cuboid.setShape(null);
 			cuboid.setBounds(new Point3d(0,0,0),new Point3d(0,0,0));
 		}
+		markBoundsDirty();
+	}
+
+	/**
+	 * A shape only changes when told, unless it is still loading.
+	 */
+	@Override
+	protected boolean hasChangingBounds() {
+		return pendingShape!=null;
 	}
 	
 	@Override
 	public void render(GL2 gl2) {
-		gl2.glPushMatrix();
-		MatrixHelper.applyMatrix(gl2, pose);
-
-		if( shape==null ) {
-			// draw placeholder
-			PrimitiveSolids.drawBox(gl2, 1, 1, 1);
-			PrimitiveSolids.drawStar(gl2,15.0);
-		} else {
-			material.render(gl2);
-			shape.render(gl2);
+		checkPendingShape();
+		
+		// a batch or a group of copies has already drawn this shape.
+		if(isDrawnByStaticBatcher() || (instancedRenderer!=null && instancedRenderer.isEnabled())) {
+			if(hasChildrenToDraw()) super.render(gl2);
+			return;
 		}
 		
-		gl2.glPopMatrix();
+		Mesh m = (shape==null) ? getPartialShape() : chooseLevelOfDetail(gl2,shape);
+		// sorted with the rest of the scene and drawn later, if there is a queue.
+		if(m==null || !RenderQueue.add(gl2,this,m)) {
+			gl2.glPushMatrix();
+			MatrixHelper.applyMatrix(gl2, pose);
+			// whatever drew this by hand may have changed anything.
+			RenderQueue.invalidateState();
+			renderMesh(gl2,m);
+			gl2.glPopMatrix();
+		}
 
 		// draw children
 		super.render(gl2);
 	}
 	
+	/**
+	 * @return the part of the new shape loaded so far, if it loads in chunks.  Otherwise null.
+	 */
+	private Mesh getPartialShape() {
+		MeshHandle handle = pendingShape;
+		return (handle==null) ? null : handle.getPartial();
+	}
+
+	/**
+	 * Draw m with this shape's material, or a placeholder while the shape loads.  The pose must already be on
+	 * the stack.
+	 * @param gl2 the render context
+	 * @param m the level of detail to draw, or null.
+	 * @return true if a placeholder was drawn.
+	 */
+	boolean renderMesh(GL2 gl2,Mesh m) {
+		if( m!=null ) {
+			RenderQueue.applyMaterial(gl2,material);
+			m.render(gl2);
+			// a new level may have to wait for its turn to upload.
+			if(shape!=null && m!=shape && !m.isReadyToDraw()) shape.render(gl2);
+		}
+		if( shape==null || !shape.isReadyToDraw() ) {
+			// draw placeholder while loading or waiting to upload.
+			PrimitiveSolids.drawBox(gl2, 1, 1, 1);
+			PrimitiveSolids.drawStar(gl2,15.0);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Values such as the filename and scale never draw.  Skipping them saves three GL calls per copy.
+	 * @return true if the pose must be on the stack for the children.
+	 */
+	private boolean hasChildrenToDraw() {
+		if(showLocalOrigin.get() || showLineage.get()) return true;
+		for(Entity e : children) {
+			if(!(e instanceof AbstractEntity)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Pick a simpler version of m when it is small on screen.  The size is the diameter of the bounding box
+	 * in pixels, as seen through {@link Viewport#getActive()} from the world pose of this {@link Shape}.
+	 * A shape drawn by hand may not be where its pose says, so it asks OpenGL for the modelview instead.
+	 * @param gl2 the render context
+	 * @param m the full detail mesh
+	 * @return the mesh to draw.
+	 */
+	protected Mesh chooseLevelOfDetail(GL2 gl2,Mesh m) {
+		int levels = Math.min(m.getNumLevelsOfDetail(), levelOfDetailThresholds.length);
+		if(levels==0) return m;
+		Viewport viewport = Viewport.getActive();
+		if(viewport==null) return m;
+
+		Point3d top = m.getCuboid().getBoundsTop();
+		Point3d bottom = m.getCuboid().getBoundsBottom();
+		double cx = (top.x+bottom.x)/2;
+		double cy = (top.y+bottom.y)/2;
+		double cz = (top.z+bottom.z)/2;
+		double diameter = top.distance(bottom);
+
+		Matrix4d mv = modelView;
+		if(FrustumCuller.isDrawingFromTree(this)) {
+			// worked out here instead of asking OpenGL, which would wait for the GPU.
+			getPoseWorld(poseWorld);
+			viewport.getViewMatrix(mv);
+			mv.mul(poseWorld);
+		} else {
+			gl2.glGetDoublev(GL2.GL_MODELVIEW_MATRIX, glModelView, 0);
+			// OpenGL is column major.  The stack does not hold this pose yet.
+			mv.set(glModelView);
+			mv.transpose();
+			mv.mul(pose);
+		}
+		// camera looks down -z
+		double depth = -(mv.m20*cx + mv.m21*cy + mv.m22*cz + mv.m23);
+		double scale = Math.sqrt(Math.max(mv.m00*mv.m00+mv.m10*mv.m10+mv.m20*mv.m20,
+								 Math.max(mv.m01*mv.m01+mv.m11*mv.m11+mv.m21*mv.m21,
+										  mv.m02*mv.m02+mv.m12*mv.m12+mv.m22*mv.m22)));
+		double pixels = diameter * scale * viewport.getPixelsPerUnit(depth);
+
+		int level=0;
+		while(level<levels && pixels<levelOfDetailThresholds[level]) level++;
+		return m.getLevelOfDetail(level);
+	}
+
+	/**
+	 * @param thresholds projected size in pixels below which each level of detail is used, largest first.
+	 */
+	public void setLevelOfDetailThresholds(double ... thresholds) {
+		levelOfDetailThresholds = thresholds.clone();
+	}
+
+	public double [] getLevelOfDetailThresholds() {
+		return levelOfDetailThresholds.clone();
+	}
+
 	public MaterialEntity getMaterial() {
 		return material;
 	}
@@ -236,10 +492,17 @@ public class Shape extends PoseEntity implements Collidable {
 	}
 	
 	public void setModel(Mesh m) {
-		shape = m;
+		pendingShape = null;
+		attachShape(m);
+		updateCuboid();
 	}
 	
+	/**
+	 * Waits if the shape is still loading.
+	 * @return the shape, or null.
+	 */
 	public Mesh getModel() {
+		waitForPendingShape();
 		return shape;
 	}
 	
@@ -260,6 +523,7 @@ public class Shape extends PoseEntity implements Collidable {
 		view.add(rotationAdjust);
 		view.add(originAdjust);
 		view.add(scale);
+		view.add(isStatic);
 		
 		Mesh m = this.shape;
 		if(m!=null) {
@@ -285,25 +549,27 @@ public class Shape extends PoseEntity implements Collidable {
 	}
 	
 	protected void reload() {
+		waitForPendingShape();
 		if(shape==null) return;
 		try {
 			shape.clear();
-			BufferedInputStream stream = FileAccess.open(this.getModelFilename());
 			ShapeLoadAndSave loader = shape.loader;
-			loader.load(stream,shape);
-		} catch (IOException e) {
-			e.printStackTrace();
+			loader.load(this.getModelFilename(),shape);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * @return a list of {@link Cuboid}, or null.
+	 * While the shape is loading, or if it failed to load, the size is unknown and the list is empty, so
+	 * collision and picking never mistake it for a point at the origin.
+	 * @return a list of {@link Cuboid}.
 	 */
 	@Override
 	public ArrayList<Cuboid> getCuboidList() {
+		checkPendingShape();
 		ArrayList<Cuboid> list = new ArrayList<Cuboid>();
+		if(shape==null) return list;
 		list.add(cuboid);
 		Matrix4d m2 = new Matrix4d();
 		getPoseWorld(m2);
@@ -1,8 +1,12 @@
 package com.marginallyclever.robotOverlord.shape;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.OutputStream;
 
+import com.marginallyclever.convenience.FileAccess;
+
 public interface ShapeLoadAndSave {
 	public String getEnglishName();
 	public String getValidExtensions();
@@ -27,6 +31,38 @@ public interface ShapeLoadAndSave {
 	 * @throws Exception
 	 */
 	public boolean load(BufferedInputStream inputStream,Mesh model) throws Exception;
+	
+	/**
+	 * Load data from a file into model.  Loaders that can do better with random access to files on disk 
+	 * may override this.  The default opens a stream with {@link FileAccess#open(String)}.
+	 * @param filename may be filename.ext or zipfile.zip:filename.ext
+	 * @param model
+	 * @returns true if model loaded OK.
+	 * @throws Exception
+	 */
+	public default boolean load(String filename,Mesh model) throws Exception {
+		try(BufferedInputStream stream = FileAccess.open(filename)) {
+			return load(stream,model);
+		}
+	}
+
+	/**
+	 * Change this number whenever the loader makes a different {@link Mesh} from the same file.
+	 * Meshes cached by an older version are loaded again.
+	 * @return the version of this loader.
+	 */
+	public default int getVersion() {
+		return 1;
+	}
+
+	/**
+	 * Loaders that are already about as fast as reading the file, or that make meshes the
+	 * {@link MeshCache} cannot store, may return false.
+	 * @return true if meshes from this loader may be kept in the {@link MeshCache}.
+	 */
+	public default boolean canCache() {
+		return true;
+	}
 
 	/**
 	 * Can you save at all?
@@ -47,4 +83,17 @@ public interface ShapeLoadAndSave {
 	 * @throws Exception
 	 */
 	public void save(OutputStream outputStream,Mesh model) throws Exception;
+
+	/**
+	 * save data from model to a file, replacing it if it exists.  Savers that can write faster straight to a
+	 * file may override this.  The default writes through a buffered stream.
+	 * @param filename the file to write
+	 * @param model
+	 * @throws Exception
+	 */
+	public default void save(String filename,Mesh model) throws Exception {
+		try(OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename))) {
+			save(stream,model);
+		}
+	}
 }
@@ -1,22 +1,28 @@
 package com.marginallyclever.robotOverlord.shape;
 
 import java.io.IOException;
-import java.util.ArrayList;
-
-import com.marginallyclever.convenience.log.Log;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Smooth STL models and save them back to disk.  Meant for one time processing files.
+ * <p>
+ * Vertexes are put in a uniform grid of cells vertexEpsilon wide, so each vertex only has to be compared with
+ * the vertexes in its own cell and the 26 around it.  Neighbors are found in parallel, one group of cells per
+ * task.  The normals are then merged in vertex order, which gives the same result as comparing every vertex
+ * with every other vertex.
  * @author dan royer
  */
 public class ShapeSmoother {/*
 	public static void main(String[] argv) throws IllegalArgumentException, IOException {
 		float vertexEpsilon = 0.1f;
 		float normalEpsilon = 0.25f;
-		
+
 		if( argv.length     == 0 ) throw new IllegalArgumentException("not enough parameters");
 		if( argv.length % 2 != 0 ) throw new IllegalArgumentException("not enough parameters");
-		
+
 		int i;
 		for(i=0;i<argv.length;++i) {
 			String sourceName = argv[i+0];
@@ -25,108 +31,268 @@ public class ShapeSmoother {/*
 		}
 	}*/
 
+	/**
+	 * Receives progress from {@link ShapeSmoother#smoothNormals(Mesh, float, float, ProgressListener)}.
+	 * May be called from any thread.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param fraction 0...1
+		 */
+		public void smoothingProgress(float fraction);
+	}
+
+	// cells per task
+	private static final int THRESHOLD = 512;
+
+	/**
+	 * Smooth a file and save the result.  The extension of outName picks the format.
+	 */
 	public static void smoothModel(String inName,String outName,float vertexEpsilon,float normalEpsilon) throws IOException {
 		try {
 			Mesh m = Mesh.createModelFromFilename(inName);
 			smoothNormals(m,vertexEpsilon,normalEpsilon);
-			
-			//File file = new File(outName);
-			//FileOutputStream fos = new FileOutputStream(file);
-			//m.getModelLoadAndSave().saveToStreamAsBinary(fos);
+			m.saveToFilename(outName);
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	public static void smoothNormals(Mesh model,float vertexEpsilon,float normalEpsilon) {
+		smoothNormals(model,vertexEpsilon,normalEpsilon,null);
+	}
+
 	/**
-	 * Smooth normals.  Find points within vertexEpsilon of each other, sharing normals within normalEpsilon 
-	 * of each other, and then smooths the nromals (makes them the same, an average of the normals considered).
+	 * Smooth normals.  Find points within vertexEpsilon of each other, sharing normals within normalEpsilon
+	 * of each other, and then smooths the normals (makes them the same, an average of the normals considered).
 	 * Note: Modified the original model.
-	 * 
-	 * @param model the model containing the data to smooth. 
+	 *
+	 * @param model the model containing the data to smooth.
 	 * @param vertexEpsilon how close should points be to be considered one and the same.  typically ~0.001
 	 * @param normalEpsilon how close should normals be to be merged. 0...2 larger values more smoothing.
+	 * @param listener told how much work is done.  may be null.
 	 */
-	public static void smoothNormals(Mesh model,float vertexEpsilon,float normalEpsilon) {
-		float vertexEpsilonSquared = vertexEpsilon * vertexEpsilon;
-		float normalEpsilonSquared = normalEpsilon * normalEpsilon;
+	public static void smoothNormals(Mesh model,float vertexEpsilon,float normalEpsilon,ProgressListener listener) {
+		int numVertexes = model.getNumVertices();
+		if(numVertexes==0 || model.getNormalArray().size()<numVertexes*3) return;
+
+		Grid grid = new Grid(model.getVertexArray().toArray(),numVertexes,vertexEpsilon);
+		float [] normals = model.getNormalArray().toArray();
+		Neighbors neighbors = new Neighbors(grid,normals,vertexEpsilon*vertexEpsilon,normalEpsilon*normalEpsilon,listener);
+		neighbors.find();
 
-		int numFaces = model.vertexArray.size()/3;
-		ArrayList<Integer> indexList = new ArrayList<Integer>();
-		boolean [] skip = new boolean[numFaces];
+		merge(model,normals,neighbors);
+		model.isDirty=true;
+		if(listener!=null) listener.smoothingProgress(1);
+	}
 
-		int i,j;
-		for(i=0;i<numFaces;++i) {
+	/**
+	 * Visit the vertexes in order.  Each vertex not already merged is averaged with the later vertexes near it
+	 * that have not been merged either.
+	 */
+	private static void merge(Mesh model,float [] normals,Neighbors neighbors) {
+		int numVertexes = normals.length/3;
+		boolean [] skip = new boolean[numVertexes];
+
+		for(int i=0;i<numVertexes;++i) {
 			if(skip[i]) continue;
-			
-			Log.message("Smoothing "+i);
-			
-
-			// find vertices that are in the same position
-			float p1x = model.vertexArray.get(i*3+0);
-			float p1y = model.vertexArray.get(i*3+1);
-			float p1z = model.vertexArray.get(i*3+2);
-
-			float n1x = model.normalArray.get(i*3+0);
-			float n1y = model.normalArray.get(i*3+1);
-			float n1z = model.normalArray.get(i*3+2);
-
-			indexList.clear();
-			indexList.add(i);
-			
-			for(j=i+1;j<numFaces;++j) {
+
+			float n1x = normals[i*3  ];
+			float n1y = normals[i*3+1];
+			float n1z = normals[i*3+2];
+			int size=1;
+
+			int end = neighbors.start[i+1];
+			for(int k=neighbors.start[i];k<end;++k) {
+				int j = neighbors.list[k];
 				if(skip[j]) continue;
+				n1x += normals[j*3  ];
+				n1y += normals[j*3+1];
+				n1z += normals[j*3+2];
+				size++;
+			}
+			if(size==1) continue;
 
-				float p2x = model.vertexArray.get(j*3+0);
-				float p2y = model.vertexArray.get(j*3+1);
-				float p2z = model.vertexArray.get(j*3+2);
-				//if(Math.abs(p1x-p2x)>vertexEpsilonSquared) continue;
-				//if(Math.abs(p1y-p2y)>vertexEpsilonSquared) continue;
-				//if(Math.abs(p1z-p2z)>vertexEpsilonSquared) continue;
-				
-				if( lengthDifferenceSquared(p1x,p1y,p1z,p2x,p2y,p2z) <= vertexEpsilonSquared ) {
-
-					float n2x = model.normalArray.get(j*3+0);
-					float n2y = model.normalArray.get(j*3+1);
-					float n2z = model.normalArray.get(j*3+2);
-					if( lengthDifferenceSquared(n1x,n1y,n1z,n2x,n2y,n2z) <= normalEpsilonSquared ) {
-						indexList.add(j);
-					}
+			float len = length(n1x,n1y,n1z);
+			n1x /= len;
+			n1y /= len;
+			n1z /= len;
+
+			skip[i]=true;
+			model.setNormal(i, n1x, n1y, n1z);
+			for(int k=neighbors.start[i];k<end;++k) {
+				int j = neighbors.list[k];
+				if(skip[j]) continue;
+				skip[j]=true;
+				model.setNormal(j, n1x, n1y, n1z);
+			}
+		}
+	}
+
+	/**
+	 * Vertexes sorted into cells.  The vertexes of cell c are cellVertexes[cellStart[c]...cellStart[c+1]-1],
+	 * lowest index first.
+	 */
+	private static class Grid {
+		final float [] positions;
+		final IntTupleMap cells;
+		final int [] cellKeys;
+		final int [] cellStart;
+		final int [] cellVertexes;
+		final int numCells;
+
+		Grid(float [] positions,int numVertexes,float cellSize) {
+			this.positions = positions;
+			// with no tolerance only identical points match.  any cell size will do.
+			float scale = cellSize>0 ? 1.0f/cellSize : 1.0f;
+
+			cells = new IntTupleMap(3,numVertexes/4);
+			int [] cellOf = new int[numVertexes];
+			IntArray keys = new IntArray();
+			int [] key = new int[3];
+			for(int i=0;i<numVertexes;++i) {
+				key[0] = (int)Math.floor(positions[i*3  ]*scale);
+				key[1] = (int)Math.floor(positions[i*3+1]*scale);
+				key[2] = (int)Math.floor(positions[i*3+2]*scale);
+				int c = cells.putIfAbsent(key, 0, keys.size()/3);
+				if(c==-1) {
+					c = keys.size()/3;
+					keys.add(key[0],key[1],key[2]);
 				}
+				cellOf[i] = c;
 			}
-			
-			if(indexList.size()>1) {
-				n1x=0;
-				n1y=0;
-				n1z=0;
-
-				int size = indexList.size();
-				int k;
-				for(k=0;k<size;++k) {
-					j = indexList.get(k)*3;
-					n1x += model.normalArray.get(j+0);
-					n1y += model.normalArray.get(j+1);
-					n1z += model.normalArray.get(j+2);
+			numCells = keys.size()/3;
+			cellKeys = keys.toArray();
+
+			// counting sort by cell.  keeps vertexes in index order within each cell.
+			cellStart = new int[numCells+1];
+			for(int i=0;i<numVertexes;++i) cellStart[cellOf[i]+1]++;
+			for(int c=0;c<numCells;++c) cellStart[c+1]+=cellStart[c];
+			int [] next = Arrays.copyOf(cellStart, numCells);
+			cellVertexes = new int[numVertexes];
+			for(int i=0;i<numVertexes;++i) cellVertexes[next[cellOf[i]]++] = i;
+		}
+
+		/**
+		 * @param c a cell
+		 * @param result receives up to 27 cells next to c, including c.
+		 * @return the number of cells found.
+		 */
+		int getNeighborCells(int c,int [] result) {
+			int [] key = new int[3];
+			int count=0;
+			for(int dx=-1;dx<=1;++dx) {
+				for(int dy=-1;dy<=1;++dy) {
+					for(int dz=-1;dz<=1;++dz) {
+						key[0] = cellKeys[c*3  ]+dx;
+						key[1] = cellKeys[c*3+1]+dy;
+						key[2] = cellKeys[c*3+2]+dz;
+						int n = cells.get(key,0);
+						if(n!=-1) result[count++] = n;
+					}
 				}
-				float len = length(n1x,n1y,n1z);
-				n1x /= len;
-				n1y /= len;
-				n1z /= len;
-
-				for(k=0;k<size;++k) {
-					j = indexList.get(k);
-					skip[j]=true;
-					j*=3;
-					model.normalArray.set(j+0, n1x);
-					model.normalArray.set(j+1, n1y);
-					model.normalArray.set(j+2, n1z);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * For every vertex i, the later vertexes j that are close enough in position and normal.
+	 * The neighbors of i are list[start[i]...start[i+1]-1], lowest index first.
+	 */
+	private static class Neighbors {
+		final Grid grid;
+		final float [] normals;
+		final float vertexEpsilonSquared;
+		final float normalEpsilonSquared;
+		final ProgressListener listener;
+		final AtomicInteger cellsDone = new AtomicInteger();
+
+		int [] start;
+		int [] list;
+
+		Neighbors(Grid grid,float [] normals,float vertexEpsilonSquared,float normalEpsilonSquared,ProgressListener listener) {
+			this.grid = grid;
+			this.normals = normals;
+			this.vertexEpsilonSquared = vertexEpsilonSquared;
+			this.normalEpsilonSquared = normalEpsilonSquared;
+			this.listener = listener;
+		}
+
+		void find() {
+			int numVertexes = normals.length/3;
+			// count, then fill.  Searching twice is cheaper than growing lists from many threads.
+			start = new int[numVertexes+1];
+			ForkJoinPool.commonPool().invoke(new SearchTask(this,0,grid.numCells,false));
+			for(int i=0;i<numVertexes;++i) start[i+1]+=start[i];
+			list = new int[start[numVertexes]];
+			ForkJoinPool.commonPool().invoke(new SearchTask(this,0,grid.numCells,true));
+		}
+
+		/**
+		 * Count or fill the neighbors of every vertex in cells first...first+count-1.
+		 */
+		void search(int first,int count,boolean fill) {
+			int [] nearby = new int[27];
+			for(int c=first;c<first+count;++c) {
+				int numNearby = grid.getNeighborCells(c,nearby);
+				for(int a=grid.cellStart[c];a<grid.cellStart[c+1];++a) {
+					int i = grid.cellVertexes[a];
+					// start[i+1] holds the count until it becomes an offset, start[i] is the offset while filling.
+					int k = fill ? start[i] : 0;
+					for(int n=0;n<numNearby;++n) {
+						int nc = nearby[n];
+						for(int b=grid.cellStart[nc];b<grid.cellStart[nc+1];++b) {
+							int j = grid.cellVertexes[b];
+							if(j<=i || !isMatch(i,j)) continue;
+							if(fill) list[k]=j;
+							k++;
+						}
+					}
+					if(fill) Arrays.sort(list, start[i], k);
+					else start[i+1] = k;
 				}
 			}
+
+			if(listener!=null) {
+				int done = cellsDone.addAndGet(count);
+				listener.smoothingProgress(0.95f * done / (2.0f*grid.numCells));
+			}
+		}
+
+		private boolean isMatch(int i,int j) {
+			float [] p = grid.positions;
+			if( lengthDifferenceSquared(p[i*3],p[i*3+1],p[i*3+2],p[j*3],p[j*3+1],p[j*3+2]) > vertexEpsilonSquared ) return false;
+			float [] n = normals;
+			return lengthDifferenceSquared(n[i*3],n[i*3+1],n[i*3+2],n[j*3],n[j*3+1],n[j*3+2]) <= normalEpsilonSquared;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class SearchTask extends RecursiveAction {
+		private final Neighbors neighbors;
+		private final int first, count;
+		private final boolean fill;
+
+		SearchTask(Neighbors neighbors,int first,int count,boolean fill) {
+			this.neighbors = neighbors;
+			this.first = first;
+			this.count = count;
+			this.fill = fill;
+		}
+
+		@Override
+		protected void compute() {
+			if(count>THRESHOLD) {
+				int half = count/2;
+				invokeAll(new SearchTask(neighbors,first     ,half      ,fill),
+						  new SearchTask(neighbors,first+half,count-half,fill));
+				return;
+			}
+			neighbors.search(first,count,fill);
 		}
-		model.isDirty=true;
 	}
 
-	
 	private static float lengthDifferenceSquared(float p1x,float p1y,float p1z,float p2x,float p2y,float p2z) {
 		float dx = p2x-p1x;
 		float dy = p2y-p1y;
@@ -134,12 +300,12 @@ public class ShapeSmoother {/*
 
 		return lengthSquared(dx,dy,dz);
 	}
-	
-	
+
+
 	private static float lengthSquared(float dx,float dy,float dz) {
 		return dx*dx+dy*dy+dz*dz;
 	}
-	
+
 	private static float length(float dx,float dy,float dz) {
 		return (float)Math.sqrt(lengthSquared(dx,dy,dz));
 	}
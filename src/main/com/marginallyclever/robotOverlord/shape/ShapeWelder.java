@@ -0,0 +1,112 @@
+package com.marginallyclever.robotOverlord.shape;
+
+/**
+ * Weld the vertexes of a {@link Mesh} so that corners with the same position, normal, color and texture
+ * coordinate are stored once and shared through the index buffer.
+ * Triangle soup from STL files typically shrinks by a factor of two to six.
+ * @author Dan Royer
+ */
+public class ShapeWelder {
+	// values closer than this are considered the same.
+	public static final float DEFAULT_POSITION_QUANTUM = 1e-5f;
+	public static final float DEFAULT_NORMAL_QUANTUM = 1e-4f;
+	public static final float DEFAULT_ATTRIBUTE_QUANTUM = 1e-5f;
+
+	public static void weld(Mesh model) {
+		weld(model,DEFAULT_POSITION_QUANTUM,DEFAULT_NORMAL_QUANTUM,DEFAULT_ATTRIBUTE_QUANTUM);
+	}
+
+	/**
+	 * Weld the vertexes of model.  Afterwards the mesh always has indexes.
+	 * Normals, colors, or texture coordinates that don't have one value per vertex are removed.
+	 * Each value is snapped to a grid before comparing, so two values a hair on either side of a grid line
+	 * will not weld.  Meshes that share exact values, like STL, are not affected by this.
+	 * @param model the mesh to change.
+	 * @param positionQuantum grid size for positions
+	 * @param normalQuantum grid size for normals
+	 * @param attributeQuantum grid size for colors and texture coordinates
+	 */
+	public static void weld(Mesh model,float positionQuantum,float normalQuantum,float attributeQuantum) {
+		int numVertexes = model.getNumVertices();
+		boolean normals = model.hasNormals && model.normalArray.size()==numVertexes*3;
+		boolean colors = model.hasColors && model.colorArray.size()==numVertexes*4;
+		boolean uvs = model.hasUVs && model.texCoordArray.size()==numVertexes*2;
+		int width = 3 + (normals?3:0) + (colors?4:0) + (uvs?2:0);
+
+		IntTupleMap map = new IntTupleMap(width,numVertexes/2);
+		int [] remap = new int[numVertexes];
+		int [] key = new int[width];
+
+		FloatArray newVertexes = new FloatArray(numVertexes*3/2);
+		FloatArray newNormals = new FloatArray(normals ? numVertexes*3/2 : 1);
+		FloatArray newColors = new FloatArray(colors ? numVertexes*4/2 : 1);
+		FloatArray newTexCoords = new FloatArray(uvs ? numVertexes*2/2 : 1);
+		int count=0;
+
+		for(int i=0;i<numVertexes;++i) {
+			int k=0;
+			k = quantize(model.vertexArray,i*3,3,positionQuantum,key,k);
+			if(normals) k = quantize(model.normalArray,i*3,3,normalQuantum,key,k);
+			if(colors) k = quantize(model.colorArray,i*4,4,attributeQuantum,key,k);
+			if(uvs) k = quantize(model.texCoordArray,i*2,2,attributeQuantum,key,k);
+
+			int existing = map.putIfAbsent(key,0,count);
+			if(existing!=-1) {
+				remap[i] = existing;
+				continue;
+			}
+			remap[i] = count++;
+			newVertexes.add(model.vertexArray.get(i*3),model.vertexArray.get(i*3+1),model.vertexArray.get(i*3+2));
+			if(normals) newNormals.add(model.normalArray.get(i*3),model.normalArray.get(i*3+1),model.normalArray.get(i*3+2));
+			if(colors) newColors.add(model.colorArray.get(i*4),model.colorArray.get(i*4+1),model.colorArray.get(i*4+2),model.colorArray.get(i*4+3));
+			if(uvs) newTexCoords.add(model.texCoordArray.get(i*2),model.texCoordArray.get(i*2+1));
+		}
+
+		IntArray indexes = model.indexArray;
+		if(model.hasIndexes) {
+			for(int i=0;i<indexes.size();++i) {
+				indexes.set(i, remap[indexes.get(i)]);
+			}
+		} else {
+			indexes.clear();
+			indexes.ensureCapacity(numVertexes);
+			for(int i=0;i<numVertexes;++i) {
+				indexes.add(remap[i]);
+			}
+		}
+
+		// an attribute that didn't match the vertexes can't follow the new indexes.  drop it.
+		model.vertexArray = newVertexes;
+		if(normals) model.normalArray = newNormals;
+		else if(model.hasNormals) {
+			model.normalArray.clear();
+			model.hasNormals = false;
+		}
+		if(colors) model.colorArray = newColors;
+		else if(model.hasColors) {
+			model.colorArray.clear();
+			model.hasColors = false;
+		}
+		if(uvs) model.texCoordArray = newTexCoords;
+		else if(model.hasUVs) {
+			model.texCoordArray.clear();
+			model.hasUVs = false;
+		}
+		model.hasIndexes = true;
+		model.isDirty = true;
+	}
+
+	/**
+	 * Snap size values starting at offset to a grid and put the results in key.
+	 * The snapped value is kept as float bits, which never overflows and keeps the precision of the float itself.
+	 * @return the next free position in key.
+	 */
+	private static int quantize(FloatArray source,int offset,int size,float quantum,int [] key,int k) {
+		for(int j=0;j<size;++j) {
+			float v = (float)Math.rint(source.get(offset+j)/quantum);
+			// -0 and 0 are the same vertex.
+			key[k++] = Float.floatToIntBits(v+0.0f);
+		}
+		return k;
+	}
+}
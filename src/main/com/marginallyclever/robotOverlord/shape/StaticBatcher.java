@@ -0,0 +1,272 @@
+package com.marginallyclever.robotOverlord.shape;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.Cuboid;
+import com.marginallyclever.robotOverlord.AbstractEntity;
+import com.marginallyclever.robotOverlord.Entity;
+import com.marginallyclever.robotOverlord.FrustumCuller;
+import com.marginallyclever.robotOverlord.uiExposedTypes.MaterialEntity;
+
+/**
+ * {@link StaticBatcher} draws every static {@link Shape} that looks the same with one material change and one draw
+ * call.  Shapes are grouped when their {@link MaterialEntity} has the same values and their {@link Mesh} has the
+ * same kind of data.  Each group is copied into one {@link Mesh}, already moved to the world pose of each member.
+ * <p>
+ * The members are checked every frame.  A group is built again when a member moves, changes material, changes
+ * mesh, stops being static, or leaves the scene.  The other groups are left alone.
+ * <p>
+ * Batches always draw the full detail mesh.
+ * @author Dan Royer
+ */
+public class StaticBatcher {
+	// batching fewer shapes than this saves nothing.
+	private static final int MIN_BATCH_SIZE = 2;
+
+	/**
+	 * one static {@link Shape} as it was when its batch was built.
+	 */
+	private static class Member {
+		Shape shape;
+		Mesh mesh;
+		int numVertices;
+		Matrix4d pose = new Matrix4d();
+		MaterialEntity material;
+		long materialVersion;
+
+		Member(Shape shape) {
+			this.shape = shape;
+			mesh = shape.shape;
+			numVertices = mesh.getNumVertices();
+			shape.getPoseWorld(pose);
+			material = shape.material;
+			materialVersion = material.getVersion();
+		}
+
+		boolean isSameAs(Member b) {
+			return shape==b.shape
+				&& mesh==b.mesh
+				&& numVertices==b.numVertices
+				&& material==b.material
+				&& materialVersion==b.materialVersion
+				&& pose.equals(b.pose);
+		}
+	}
+
+	private static class Batch {
+		ArrayList<Member> members = new ArrayList<Member>();
+		Mesh mesh;
+
+		MaterialEntity getMaterial() {
+			return members.get(0).shape.material;
+		}
+
+		boolean accepts(Shape s) {
+			Mesh a = members.get(0).mesh;
+			Mesh b = s.shape;
+			return a.renderStyle==b.renderStyle
+				&& a.hasNormals==b.hasNormals
+				&& a.hasColors==b.hasColors
+				&& a.hasUVs==b.hasUVs
+				&& getMaterial().hasSameValues(s.material);
+		}
+
+		boolean isSameAs(Batch b) {
+			if(members.size()!=b.members.size()) return false;
+			for(int i=0;i<members.size();++i) {
+				if(!members.get(i).isSameAs(b.members.get(i))) return false;
+			}
+			return true;
+		}
+	}
+
+	private ArrayList<Batch> batches = new ArrayList<Batch>();
+	private boolean enabled = true;
+	private int numBuilt;
+
+	/**
+	 * Bring the batches up to date with the static shapes under root and draw them.  Call before the rest of the
+	 * scene is drawn, with the same modelview matrix as root.
+	 * @param gl2 the render context
+	 * @param root the top of the scene.
+	 */
+	public void render(GL2 gl2,Entity root) {
+		if(!enabled) return;
+		update(gl2,root);
+		for(Batch b : batches) {
+			// a batch outside the view is skipped.
+			Cuboid c = b.mesh.getCuboid();
+			if(!FrustumCuller.isVisible(c.getBoundsBottom(),c.getBoundsTop())) continue;
+			RenderQueue.applyMaterial(gl2,b.getMaterial());
+			b.mesh.render(gl2);
+			RenderQueue.meshDrawn(b.mesh);
+		}
+	}
+
+	/**
+	 * Bring the batches up to date with the static shapes under root.
+	 * @param gl2 the render context, used to release the buffers of old batches.
+	 * @param root the top of the scene.
+	 */
+	public void update(GL2 gl2,Entity root) {
+		ArrayList<Batch> groups = new ArrayList<Batch>();
+		findStaticShapes(root,groups);
+
+		ArrayList<Batch> next = new ArrayList<Batch>();
+		for(Batch g : groups) {
+			if(g.members.size()<MIN_BATCH_SIZE) continue;
+			Batch old = null;
+			for(Batch b : batches) {
+				if(b.isSameAs(g)) {
+					old = b;
+					break;
+				}
+			}
+			if(old!=null) {
+				batches.remove(old);
+				next.add(old);
+			} else {
+				g.mesh = build(g);
+				numBuilt++;
+				next.add(g);
+			}
+		}
+
+		// whatever is left is out of date.
+		for(Batch b : batches) {
+			if(gl2!=null) b.mesh.unload(gl2);
+			for(Member m : b.members) m.shape.staticBatcher = null;
+		}
+		for(Batch b : next) {
+			for(Member m : b.members) m.shape.staticBatcher = this;
+		}
+		batches = next;
+	}
+
+	private void findStaticShapes(Entity e,ArrayList<Batch> groups) {
+		if(e instanceof Shape) {
+			Shape s = (Shape)e;
+			s.checkPendingShape();
+			if(s.isStatic() && s.pendingShape==null && s.shape!=null && s.shape.getNumVertices()>0) {
+				addToGroup(s,groups);
+			}
+		}
+		for(Entity c : e.getChildren()) {
+			// values such as a filename never hold shapes.
+			if(!(c instanceof AbstractEntity)) findStaticShapes(c,groups);
+		}
+	}
+
+	private static void addToGroup(Shape s,ArrayList<Batch> groups) {
+		for(Batch g : groups) {
+			if(g.accepts(s)) {
+				g.members.add(new Member(s));
+				return;
+			}
+		}
+		Batch g = new Batch();
+		g.members.add(new Member(s));
+		groups.add(g);
+	}
+
+	/**
+	 * Copy every member into one mesh in world space.
+	 */
+	private static Mesh build(Batch b) {
+		Mesh first = b.members.get(0).mesh;
+		Mesh out = new Mesh();
+		out.renderStyle = first.renderStyle;
+		out.hasColors = first.hasColors;
+		out.hasUVs = first.hasUVs;
+		int total=0;
+		for(Member m : b.members) total += m.numVertices;
+		out.ensureCapacity(total);
+
+		Point3d p = new Point3d();
+		Vector3d n = new Vector3d();
+		Matrix3d normalMatrix = new Matrix3d();
+		for(Member member : b.members) {
+			Mesh m = member.mesh;
+			// normals move with the inverse transpose, so they stay at right angles to a scaled surface.
+			member.pose.getRotationScale(normalMatrix);
+			normalMatrix.invert();
+			normalMatrix.transpose();
+
+			int base = out.getNumVertices();
+			for(int i=0;i<member.numVertices;++i) {
+				p.set(m.getVertexX(i),m.getVertexY(i),m.getVertexZ(i));
+				member.pose.transform(p);
+				out.addVertex((float)p.x,(float)p.y,(float)p.z);
+				if(m.hasNormals) {
+					n.set(m.getNormalX(i),m.getNormalY(i),m.getNormalZ(i));
+					normalMatrix.transform(n);
+					if(n.lengthSquared()>0) n.normalize();
+					out.addNormal((float)n.x,(float)n.y,(float)n.z);
+				}
+				if(m.hasColors) {
+					FloatArray c = m.getColorArray();
+					out.addColor(c.get(i*4),c.get(i*4+1),c.get(i*4+2),c.get(i*4+3));
+				}
+				if(m.hasUVs) {
+					FloatArray t = m.getTexCoordArray();
+					out.addTexCoord(t.get(i*2),t.get(i*2+1));
+				}
+			}
+			if(m.hasIndexes) {
+				IntArray indexes = m.getIndexArray();
+				for(int i=0;i<indexes.size();++i) out.addIndex(base+indexes.get(i));
+			} else {
+				for(int i=0;i<member.numVertices;++i) out.addIndex(base+i);
+			}
+		}
+		out.updateCuboid();
+		return out;
+	}
+
+	/**
+	 * @param state false to draw every static shape on its own.
+	 */
+	public void setEnabled(boolean state) {
+		enabled = state;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the number of batches drawn each frame.
+	 */
+	public int getNumBatches() {
+		return batches.size();
+	}
+
+	/**
+	 * @return the number of shapes drawn by all batches.
+	 */
+	public int getNumShapes() {
+		int sum=0;
+		for(Batch b : batches) sum += b.members.size();
+		return sum;
+	}
+
+	/**
+	 * @return the combined mesh of one batch.
+	 */
+	public Mesh getBatchMesh(int index) {
+		return batches.get(index).mesh;
+	}
+
+	/**
+	 * @return the number of batches built so far, including rebuilds.
+	 */
+	public int getNumBuilt() {
+		return numBuilt;
+	}
+}
@@ -0,0 +1,243 @@
+package com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ByteTokenizer} reads whitespace separated text straight from the bytes of a stream.  Numbers are parsed
+ * without regular expressions and without making a String for every token, which is where most of the time
+ * goes when loading large text meshes.
+ * Only ASCII is understood.  Lines end with '\n', and '\r' is treated as a space.
+ * @author Dan Royer
+ */
+public class ByteTokenizer {
+	private static final int DEFAULT_BUFFER_SIZE = 1<<16;
+	private static final double [] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0]=1;
+		for(int i=1;i<POWERS_OF_TEN.length;++i) POWERS_OF_TEN[i]=POWERS_OF_TEN[i-1]*10;
+	}
+
+	private final InputStream in;
+	private final byte [] buffer;
+	private int position;
+	private int limit;
+	// bytes of the stream before the buffer.
+	private long bytesBefore;
+	private int lineNumber=1;
+
+	public ByteTokenizer(InputStream in) {
+		this(in,DEFAULT_BUFFER_SIZE);
+	}
+
+	public ByteTokenizer(InputStream in,int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	private boolean fill() throws IOException {
+		bytesBefore += limit;
+		int n = in.read(buffer,0,buffer.length);
+		if(n<=0) {
+			position=limit=0;
+			return false;
+		}
+		position=0;
+		limit=n;
+		return true;
+	}
+
+	/**
+	 * @return the next byte without consuming it, or -1 at the end of the stream.
+	 * @throws IOException
+	 */
+	public int peek() throws IOException {
+		if(position>=limit && !fill()) return -1;
+		return buffer[position] & 0xFF;
+	}
+
+	/**
+	 * @return the next byte, or -1 at the end of the stream.
+	 * @throws IOException
+	 */
+	public int read() throws IOException {
+		if(position>=limit && !fill()) return -1;
+		int c = buffer[position++] & 0xFF;
+		if(c=='\n') lineNumber++;
+		return c;
+	}
+
+	/**
+	 * @return the line the tokenizer is on, starting at 1.  Useful for error messages.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the number of bytes consumed so far.
+	 */
+	public long getBytesRead() {
+		return bytesBefore+position;
+	}
+
+	public boolean isEndOfStream() throws IOException {
+		return peek()==-1;
+	}
+
+	/**
+	 * Skip spaces and tabs, but not the end of the line.
+	 * @throws IOException
+	 */
+	public void skipSpaces() throws IOException {
+		int c;
+		while((c=peek())==' ' || c=='\t' || c=='\r') position++;
+	}
+
+	/**
+	 * @return true if there is nothing but spaces left on this line.
+	 * @throws IOException
+	 */
+	public boolean isEndOfLine() throws IOException {
+		skipSpaces();
+		int c = peek();
+		return c=='\n' || c==-1;
+	}
+
+	/**
+	 * Consume everything up to and including the end of this line.
+	 * @throws IOException
+	 */
+	public void skipLine() throws IOException {
+		int c;
+		while((c=read())!='\n' && c!=-1) {}
+	}
+
+	/**
+	 * Read the next word on this line into word.  Longer words are truncated.
+	 * @param word destination
+	 * @return the number of bytes in the word, 0 if the line is empty.
+	 * @throws IOException
+	 */
+	public int readWord(byte [] word) throws IOException {
+		skipSpaces();
+		int len=0;
+		int c;
+		while((c=peek())!=-1 && c>' ') {
+			if(len<word.length) word[len++]=(byte)c;
+			position++;
+		}
+		return len;
+	}
+
+	/**
+	 * @return true if the first len bytes of word are the same as s.
+	 */
+	public static boolean equals(byte [] word,int len,String s) {
+		if(len!=s.length()) return false;
+		for(int i=0;i<len;++i) {
+			if(word[i]!=s.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse an optionally signed integer.  Stops at the first byte that is not a digit.
+	 * @return the value
+	 * @throws IOException if there is no number here.
+	 */
+	public int nextInt() throws IOException {
+		skipSpaces();
+		boolean negative=false;
+		int c = peek();
+		if(c=='-' || c=='+') {
+			negative = (c=='-');
+			position++;
+		}
+		int value=0;
+		int digits=0;
+		while((c=peek())>='0' && c<='9') {
+			value = value*10 + (c-'0');
+			digits++;
+			position++;
+		}
+		if(digits==0) throw new IOException("Expected an integer on line "+lineNumber);
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse a decimal number like 1, -2.5, .5, 3e-4, or 1.2E+06.
+	 * At most 18 significant digits are used, which is far more than a float can hold.
+	 * @return the value
+	 * @throws IOException if there is no number here.
+	 */
+	public float nextFloat() throws IOException {
+		return (float)nextDouble();
+	}
+
+	/**
+	 * @see #nextFloat()
+	 */
+	public double nextDouble() throws IOException {
+		skipSpaces();
+		boolean negative=false;
+		int c = peek();
+		if(c=='-' || c=='+') {
+			negative = (c=='-');
+			position++;
+		}
+
+		long mantissa=0;
+		int significant=0;
+		int exponent=0;
+		boolean anyDigits=false;
+
+		while((c=peek())>='0' && c<='9') {
+			anyDigits=true;
+			if(significant<18) {
+				mantissa = mantissa*10 + (c-'0');
+				if(mantissa!=0) significant++;
+			} else {
+				exponent++;
+			}
+			position++;
+		}
+		if(c=='.') {
+			position++;
+			while((c=peek())>='0' && c<='9') {
+				anyDigits=true;
+				if(significant<18) {
+					mantissa = mantissa*10 + (c-'0');
+					if(mantissa!=0) significant++;
+					exponent--;
+				}
+				position++;
+			}
+		}
+		if(!anyDigits) {
+			return negative ? -nextSpecial() : nextSpecial();
+		}
+		if(c=='e' || c=='E') {
+			position++;
+			exponent += nextInt();
+		}
+
+		double value = mantissa;
+		if(exponent<0) {
+			value = (-exponent<POWERS_OF_TEN.length) ? value / POWERS_OF_TEN[-exponent] : value * Math.pow(10,exponent);
+		} else if(exponent>0) {
+			value = (exponent<POWERS_OF_TEN.length) ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10,exponent);
+		}
+		return negative ? -value : value;
+	}
+
+	// nan, inf, and infinity, as written by some C libraries.
+	private double nextSpecial() throws IOException {
+		byte [] word = new byte[8];
+		int len = readWord(word);
+		for(int i=0;i<len;++i) word[i] = (byte)Character.toLowerCase(word[i]);
+		if(equals(word,len,"nan")) return Double.NaN;
+		if(equals(word,len,"inf") || equals(word,len,"infinity")) return Double.POSITIVE_INFINITY;
+		throw new IOException("Expected a number on line "+lineNumber);
+	}
+}
@@ -0,0 +1,117 @@
+package com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link ChannelWriter} collects values in one large direct buffer and hands it to a channel whenever it fills.
+ * Exporters call it once per value, so there is no per-triangle buffer and nothing is boxed.
+ * @author Dan Royer
+ */
+class ChannelWriter implements AutoCloseable {
+	private static final int BUFFER_SIZE = 1<<20;
+
+	private final WritableByteChannel channel;
+	private final boolean closeChannel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param channel where the bytes go.  It is not closed by {@link #close()}.
+	 * @param order byte order for numbers.
+	 */
+	ChannelWriter(WritableByteChannel channel,ByteOrder order) {
+		this(channel,order,false);
+	}
+
+	private ChannelWriter(WritableByteChannel channel,ByteOrder order,boolean closeChannel) {
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+	}
+
+	/**
+	 * Create or replace a file.  The file is closed by {@link #close()}.
+	 */
+	static ChannelWriter open(String filename,ByteOrder order) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		return new ChannelWriter(channel,order,true);
+	}
+
+	private void need(int bytes) throws IOException {
+		if(buffer.remaining()<bytes) flush();
+	}
+
+	void putByte(int value) throws IOException {
+		need(1);
+		buffer.put((byte)value);
+	}
+
+	void putShort(int value) throws IOException {
+		need(2);
+		buffer.putShort((short)value);
+	}
+
+	void putInt(int value) throws IOException {
+		need(4);
+		buffer.putInt(value);
+	}
+
+	void putFloat(float value) throws IOException {
+		need(4);
+		buffer.putFloat(value);
+	}
+
+	void put(byte [] data) throws IOException {
+		for(int i=0;i<data.length;) {
+			need(1);
+			int n = Math.min(buffer.remaining(), data.length-i);
+			buffer.put(data,i,n);
+			i+=n;
+		}
+	}
+
+	/**
+	 * Write text one byte per character.  Only ASCII is expected.
+	 */
+	void putASCII(String text) throws IOException {
+		int len = text.length();
+		for(int i=0;i<len;) {
+			need(1);
+			int n = Math.min(buffer.remaining(), len-i);
+			for(int j=0;j<n;++j) buffer.put((byte)text.charAt(i+j));
+			i+=n;
+		}
+	}
+
+	/**
+	 * Write a number as text.  Float.toString gives the shortest text that reads back as the same float.
+	 */
+	void putASCII(float value) throws IOException {
+		putASCII(Float.toString(value));
+	}
+
+	void putASCII(int value) throws IOException {
+		putASCII(Integer.toString(value));
+	}
+
+	void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if(closeChannel) channel.close();
+		}
+	}
+}
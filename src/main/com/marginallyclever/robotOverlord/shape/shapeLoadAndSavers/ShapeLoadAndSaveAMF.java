@@ -1,22 +1,37 @@
 package com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers;
 
 import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
-import javax.vecmath.Vector3f;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.robotOverlord.shape.FloatArray;
 import com.marginallyclever.robotOverlord.shape.Mesh;
 import com.marginallyclever.robotOverlord.shape.ShapeLoadAndSave;
+import com.marginallyclever.robotOverlord.shape.ShapeWelder;
 
+/**
+ * Loads AMF files in one pass with a streaming XML reader.  Nothing but the coordinates of the current object is
+ * kept in memory.  Every volume of every object is added to the same mesh.  AMF files compressed as a zip
+ * archive are read from the first entry.
+ * @author Dan Royer
+ */
+// much help from https://www.sculpteo.com/en/glossary/amf-definition/
 public class ShapeLoadAndSaveAMF implements ShapeLoadAndSave {
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+	static {
+		// AMF never needs them, and they are a way for a file to reach outside itself.
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
 	@Override
 	public String getEnglishName() { return "3D printing file (AMF)"; }
 	@Override
@@ -38,93 +53,151 @@ public class ShapeLoadAndSaveAMF implements ShapeLoadAndSave {
 		return false;
 	}
 
-	// much help from https://www.sculpteo.com/en/glossary/amf-definition/
+	/**
+	 * Version 2 keeps the vertex numbers of each object separate.
+	 */
+	@Override
+	public int getVersion() {
+		return 2;
+	}
+
 	@Override
 	public boolean load(BufferedInputStream inputStream,Mesh model) throws Exception {
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        Document doc = dBuilder.parse(inputStream);
-        doc.getDocumentElement().normalize();
-        if(!doc.getDocumentElement().getNodeName().contains("amf")) {
-        	// uh oh!
-        } else {
-    		ArrayList<Float> vertexArray = new ArrayList<Float>();
-    		//ArrayList<Integer> faceArray = new ArrayList<Integer>();
-    		
-        	NodeList coordinateList = doc.getElementsByTagName("coordinates");
-    		int numCoordinates = coordinateList.getLength();
-            Log.message(numCoordinates + " coordinates.");
-            for (int a = 0; a < numCoordinates; a++) {
-            	Element coordinate = (Element)coordinateList.item(a);
-            	//Log.message("x: "+coordinate.getElementsByTagName("x").item(0).getTextContent());
-            	//Log.message("y: "+coordinate.getElementsByTagName("y").item(0).getTextContent());
-            	//Log.message("z: "+coordinate.getElementsByTagName("z").item(0).getTextContent());
-            	float x = Float.parseFloat(coordinate.getElementsByTagName("x").item(0).getTextContent());
-            	float y = Float.parseFloat(coordinate.getElementsByTagName("y").item(0).getTextContent());
-            	float z = Float.parseFloat(coordinate.getElementsByTagName("z").item(0).getTextContent());
-                vertexArray.add(x);
-                vertexArray.add(y);
-                vertexArray.add(z);
-            }
-
-        	NodeList volumeList = doc.getElementsByTagName("volume");
-            Log.message(volumeList.getLength() + " volumes.");
-            int numVolumes = volumeList.getLength();
-            for (int a = 0; a < numVolumes; a++) {
-            	Element volume = (Element)volumeList.item(a);
-            	NodeList triangleList = volume.getElementsByTagName("triangle");
-
-                int numTriangles = triangleList.getLength();
-                Log.message("\t"+ numTriangles + " triangles.");
-                for (int b = 0; b < numTriangles; b++) {
-                	Element triangle = (Element)triangleList.item(b);
-                	int v1 = Integer.parseInt(triangle.getElementsByTagName("v1").item(0).getTextContent());
-                	int v2 = Integer.parseInt(triangle.getElementsByTagName("v2").item(0).getTextContent());
-                	int v3 = Integer.parseInt(triangle.getElementsByTagName("v3").item(0).getTextContent());
-                    //Log.message("\t\t"+v1+", "+v2+", "+v3);
-                	
-                	float x1 = vertexArray.get(v1*3+0);
-                	float y1 = vertexArray.get(v1*3+1);
-                	float z1 = vertexArray.get(v1*3+2);
-
-                	float x2 = vertexArray.get(v2*3+0);
-                	float y2 = vertexArray.get(v2*3+1);
-                	float z2 = vertexArray.get(v2*3+2);
-                	
-                	float x3 = vertexArray.get(v3*3+0);
-                	float y3 = vertexArray.get(v3*3+1);
-                	float z3 = vertexArray.get(v3*3+2);
-                	
-					model.addVertex(x1,y1,z1);
-					model.addVertex(x2,y2,z2);
-					model.addVertex(x3,y3,z3);
-					
-					// calculate normal from triangle face
-					Vector3f p1 = new Vector3f(x1,y1,z1);	
-					Vector3f p2 = new Vector3f(x2,y2,z2);	
-					Vector3f p3 = new Vector3f(x3,y3,z3);	
-					
-					p2.sub(p1);
-					p3.sub(p1);
-					p2.normalize();
-					p3.normalize();
-					p1.cross(p2, p3);
-					p1.normalize();
-					model.addNormal(p1.x, p1.y, p1.z);
-					model.addNormal(p1.x, p1.y, p1.z);
-					model.addNormal(p1.x, p1.y, p1.z);
-                }
-            }
-            model.hasNormals=true;
-        }
-        
+		if(isZip(inputStream)) {
+			try(ZipInputStream zip = new ZipInputStream(inputStream)) {
+				ZipEntry entry = zip.getNextEntry();
+				if(entry==null) throw new IOException("AMF zip is empty");
+				return parse(zip,model);
+			}
+		}
+		return parse(inputStream,model);
+	}
+
+	/**
+	 * @return true if the stream starts with the zip signature "PK".  The stream is not moved.
+	 */
+	private boolean isZip(BufferedInputStream inputStream) throws IOException {
+		inputStream.mark(2);
+		int a = inputStream.read();
+		int b = inputStream.read();
+		inputStream.reset();
+		return a=='P' && b=='K';
+	}
+
+	private boolean parse(InputStream inputStream,Mesh model) throws IOException {
+		XMLStreamReader reader=null;
+		try {
+			reader = FACTORY.createXMLStreamReader(inputStream);
+			reader.nextTag();
+			if(!reader.getLocalName().contains("amf")) return false;
+
+			// coordinates of the current object.  Triangles count vertexes from the start of their object.
+			FloatArray vertexes = new FloatArray();
+			int [] v = new int[3];
+
+			while(reader.hasNext()) {
+				if(reader.next()!=XMLStreamConstants.START_ELEMENT) continue;
+				switch(reader.getLocalName()) {
+				case "object":		vertexes.clear();  break;
+				case "coordinates":	readCoordinates(reader,vertexes);  break;
+				case "triangle":
+					readTriangle(reader,v);
+					addTriangle(model,vertexes,v);
+					break;
+				default: break;
+				}
+			}
+		} catch(XMLStreamException|NumberFormatException e) {
+			throw new IOException("AMF "+e.getMessage(),e);
+		} finally {
+			if(reader!=null) {
+				try {
+					reader.close();
+				} catch(XMLStreamException e) {}
+			}
+		}
+
+		model.hasNormals=true;
+		// AMF has no normals so the flat shaded corners are welded rather than shared by raw index,
+		// which would smear normals across hard edges.
+		ShapeWelder.weld(model);
 		return true;
 	}
 
-	
+	/**
+	 * Read x, y and z up to the end of the coordinates element.
+	 */
+	private void readCoordinates(XMLStreamReader reader,FloatArray vertexes) throws XMLStreamException {
+		float x=0,y=0,z=0;
+		int depth=1;
+		while(depth>0) {
+			int event = reader.next();
+			if(event==XMLStreamConstants.END_ELEMENT) depth--;
+			else if(event==XMLStreamConstants.START_ELEMENT) {
+				switch(reader.getLocalName()) {
+				case "x":	x = Float.parseFloat(reader.getElementText().trim());  break;
+				case "y":	y = Float.parseFloat(reader.getElementText().trim());  break;
+				case "z":	z = Float.parseFloat(reader.getElementText().trim());  break;
+				default:	depth++;  break;
+				}
+			}
+		}
+		vertexes.add(x,y,z);
+	}
+
+	/**
+	 * Read v1, v2 and v3 up to the end of the triangle element.  Any that are missing are left at -1.
+	 */
+	private void readTriangle(XMLStreamReader reader,int [] v) throws XMLStreamException {
+		v[0]=v[1]=v[2]=-1;
+		int depth=1;
+		while(depth>0) {
+			int event = reader.next();
+			if(event==XMLStreamConstants.END_ELEMENT) depth--;
+			else if(event==XMLStreamConstants.START_ELEMENT) {
+				switch(reader.getLocalName()) {
+				case "v1":	v[0] = Integer.parseInt(reader.getElementText().trim());  break;
+				case "v2":	v[1] = Integer.parseInt(reader.getElementText().trim());  break;
+				case "v3":	v[2] = Integer.parseInt(reader.getElementText().trim());  break;
+				default:	depth++;  break;
+				}
+			}
+		}
+	}
+
+	private void addTriangle(Mesh model,FloatArray vertexes,int [] v) throws IOException {
+		int numVertexes = vertexes.size()/3;
+		for(int i=0;i<3;++i) {
+			if(v[i]<0) throw new IOException("AMF triangle is missing v"+(i+1));
+			if(v[i]>=numVertexes) throw new IOException("AMF triangle uses missing vertex "+v[i]);
+		}
+		float x1 = vertexes.get(v[0]*3  ),	y1 = vertexes.get(v[0]*3+1),	z1 = vertexes.get(v[0]*3+2);
+		float x2 = vertexes.get(v[1]*3  ),	y2 = vertexes.get(v[1]*3+1),	z2 = vertexes.get(v[1]*3+2);
+		float x3 = vertexes.get(v[2]*3  ),	y3 = vertexes.get(v[2]*3+1),	z3 = vertexes.get(v[2]*3+2);
+		model.addVertex(x1,y1,z1);
+		model.addVertex(x2,y2,z2);
+		model.addVertex(x3,y3,z3);
+
+		// calculate normal from triangle face
+		float ax = x2-x1, ay = y2-y1, az = z2-z1;
+		float bx = x3-x1, by = y3-y1, bz = z3-z1;
+		float nx = ay*bz - az*by;
+		float ny = az*bx - ax*bz;
+		float nz = ax*by - ay*bx;
+		float len = (float)Math.sqrt(nx*nx+ny*ny+nz*nz);
+		if(len>0) {
+			nx/=len;
+			ny/=len;
+			nz/=len;
+		}
+		model.addNormal(nx,ny,nz);
+		model.addNormal(nx,ny,nz);
+		model.addNormal(nx,ny,nz);
+	}
+
 	@Override
 	public void save(OutputStream inputStream, Mesh model) throws Exception {
 		// TODO Auto-generated method stub
-		
+
 	}
 }
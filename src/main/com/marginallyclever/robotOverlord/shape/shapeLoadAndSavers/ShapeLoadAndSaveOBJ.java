@@ -1,17 +1,24 @@
 package com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 
-import com.marginallyclever.convenience.MathHelper;
+import com.marginallyclever.robotOverlord.shape.FloatArray;
+import com.marginallyclever.robotOverlord.shape.IntArray;
+import com.marginallyclever.robotOverlord.shape.IntTupleMap;
 import com.marginallyclever.robotOverlord.shape.Mesh;
 import com.marginallyclever.robotOverlord.shape.ShapeLoadAndSave;
 
 /**
- * 
+ * Reads OBJ files one byte at a time with a {@link ByteTokenizer}.
+ * Each unique combination of position, texture coordinate, and normal becomes one vertex and faces become
+ * triangles that index those vertexes, so the index structure of the file is kept and drawn with glDrawElements.
+ * Polygons with more than three sides are split into a fan of triangles.  Negative (relative) indexes are
+ * supported.  Objects, groups, materials, and smoothing groups are skipped, so all faces go into the same
+ * {@link Mesh}, which suits OBJ indexes being global to the file.
  * @author Admin
  *
  */
@@ -21,7 +28,7 @@ public class ShapeLoadAndSaveOBJ implements ShapeLoadAndSave {
 	public String getEnglishName() { return "Wavefront Object File (OBJ)"; }
 	@Override
 	public String getValidExtensions() { return "obj"; }
-	
+
 	@Override
 	public boolean canLoad(String filename) {
 		boolean result = filename.toLowerCase().endsWith(".obj");
@@ -35,104 +42,205 @@ public class ShapeLoadAndSaveOBJ implements ShapeLoadAndSave {
 
 	@Override
 	public boolean load(BufferedInputStream inputStream,Mesh model) throws Exception {
-		ArrayList<Float> vertexArray = new ArrayList<Float>();
-		ArrayList<Float> normalArray = new ArrayList<Float>();
-		ArrayList<Float> texCoordArray = new ArrayList<Float>();
-
-		BufferedReader br = new BufferedReader(new InputStreamReader(inputStream,"UTF-8"));
-		String line;
-		while( ( line = br.readLine() ) != null ) {
-			line = line.trim();
-			if(line.startsWith("v ")) {
+		FloatArray positions = new FloatArray();
+		FloatArray normals = new FloatArray();
+		FloatArray texCoords = new FloatArray();
+
+		// each unique vertex is a (position,texture,normal) triple.  -1 means none.
+		IntTupleMap uniqueVertexes = new IntTupleMap(3,4096);
+		IntArray vertexKeys = new IntArray();
+		IntArray triangles = new IntArray();
+		IntArray polygon = new IntArray(16);
+		int [] key = new int[3];
+
+		ByteTokenizer tokenizer = new ByteTokenizer(inputStream);
+		byte [] word = new byte[16];
+
+		while(!tokenizer.isEndOfStream()) {
+			int len = tokenizer.readWord(word);
+			if(ByteTokenizer.equals(word,len,"v")) {
 				// vertex
-				String[] tokens = line.split("\\s+");
-				vertexArray.add(Float.parseFloat(tokens[1]));
-				vertexArray.add(Float.parseFloat(tokens[2]));
-				vertexArray.add(Float.parseFloat(tokens[3]));
-			} else if(line.startsWith("vn ")) {
+				positions.add(tokenizer.nextFloat(),tokenizer.nextFloat(),tokenizer.nextFloat());
+			} else if(ByteTokenizer.equals(word,len,"vn")) {
 				// normal - might not be unit length
-				String[] tokens = line.split("\\s+");
-
-				float x=Float.parseFloat(tokens[1]);
-				float y=Float.parseFloat(tokens[2]);
-				float z=Float.parseFloat(tokens[3]);
-				float len = (float)MathHelper.length((double)x,(double)y,(double)z);
-				x/=len;
-				y/=len;
-				z/=len;
-				
-				normalArray.add(x);
-				normalArray.add(y);
-				normalArray.add(z);
-			} else if(line.startsWith("vt ")) {
+				float x=tokenizer.nextFloat();
+				float y=tokenizer.nextFloat();
+				float z=tokenizer.nextFloat();
+				float length = (float)Math.sqrt(x*x+y*y+z*z);
+				if(length>0) {
+					x/=length;
+					y/=length;
+					z/=length;
+				}
+				normals.add(x,y,z);
+			} else if(ByteTokenizer.equals(word,len,"vt")) {
 				// texture coordinate
-				String[] tokens = line.split("\\s+");
-				texCoordArray.add(Float.parseFloat(tokens[1]));
-				texCoordArray.add(Float.parseFloat(tokens[2]));
-			} else if(line.startsWith("f ")) {
+				texCoords.add(tokenizer.nextFloat(),tokenizer.nextFloat());
+			} else if(ByteTokenizer.equals(word,len,"f")) {
 				// face
-				String[] tokens = line.split("\\s+");
-				//Log.message("face len="+tokens.length);
-				int index;
-				for(int i=1;i<tokens.length;++i) {
-					String [] subTokens = tokens[i].split("/");
-					// vertex data
-					index = Integer.parseInt(subTokens[0])-1;
-					
-					try {
-						model.addVertex(
-								vertexArray.get(index*3+0),
-								vertexArray.get(index*3+1),
-								vertexArray.get(index*3+2));
-					} catch(Exception e) {
-						e.printStackTrace();
-					}
-					// texture data (if any)
-					if(subTokens.length>1 && subTokens[1].length()>0) {
-						int indexT = Integer.parseInt(subTokens[1])-1;
-						try {
-							model.addTexCoord(
-									texCoordArray.get(indexT*2+0),
-									texCoordArray.get(indexT*2+1));
-						} catch(Exception e) {
-							e.printStackTrace();
-						}
-					}
-					// normal data (if any)
-					if(subTokens.length>2 && subTokens[2].length()>0) {
-						int indexN = Integer.parseInt(subTokens[2])-1;
-						try {
-							model.addNormal(
-									normalArray.get(indexN*3+0),
-									normalArray.get(indexN*3+1),
-									normalArray.get(indexN*3+2));
-						} catch(Exception e) {
-							e.printStackTrace();
-						}
+				polygon.clear();
+				while(!tokenizer.isEndOfLine()) {
+					readFaceCorner(tokenizer,key,positions.size()/3,texCoords.size()/2,normals.size()/3);
+					int index = uniqueVertexes.putIfAbsent(key, 0, vertexKeys.size()/3);
+					if(index==-1) {
+						index = vertexKeys.size()/3;
+						vertexKeys.add(key[0],key[1],key[2]);
 					}
+					polygon.add(index);
+				}
+				// triangle fan
+				for(int i=2;i<polygon.size();++i) {
+					triangles.add(polygon.get(0),polygon.get(i-1),polygon.get(i));
 				}
 			}
+			// o, g, usemtl, mtllib, s, comments, and anything else are skipped.
+			tokenizer.skipLine();
 		}
-		
+
+		buildMesh(model,positions,normals,texCoords,vertexKeys,triangles);
+
 		return true;
 	}
 
+	/**
+	 * Read one v, v/vt, v//vn, or v/vt/vn face corner and turn the indexes into zero-based values.
+	 * @param key receives position, texture, and normal index.  -1 for missing values.
+	 */
+	private void readFaceCorner(ByteTokenizer tokenizer,int [] key,int numPositions,int numTexCoords,int numNormals) throws IOException {
+		key[0] = toZeroBased(tokenizer.nextInt(),numPositions,tokenizer);
+		key[1] = -1;
+		key[2] = -1;
+		if(tokenizer.peek()!='/') return;
+		tokenizer.read();
+		if(tokenizer.peek()!='/') {
+			key[1] = toZeroBased(tokenizer.nextInt(),numTexCoords,tokenizer);
+			if(tokenizer.peek()!='/') return;
+		}
+		tokenizer.read();
+		key[2] = toZeroBased(tokenizer.nextInt(),numNormals,tokenizer);
+	}
+
+	/**
+	 * OBJ indexes start at 1.  Negative indexes count back from the most recent element.
+	 */
+	private int toZeroBased(int index,int count,ByteTokenizer tokenizer) throws IOException {
+		int i = (index<0) ? count+index : index-1;
+		if(i<0 || i>=count) throw new IOException("OBJ index "+index+" out of range on line "+tokenizer.getLineNumber());
+		return i;
+	}
+
+	/**
+	 * Copy the unique vertexes and the triangle indexes into the mesh.
+	 */
+	private void buildMesh(Mesh model,FloatArray positions,FloatArray normals,FloatArray texCoords,IntArray vertexKeys,IntArray triangles) {
+		boolean hasUVs = texCoords.size()>0;
+		boolean hasNormals = normals.size()>0;
+		int numVertexes = vertexKeys.size()/3;
+		int first = model.getNumVertices();
+		model.ensureCapacity(first+numVertexes);
+
+		for(int i=0;i<numVertexes;++i) {
+			int k = i*3;
+			int p = vertexKeys.get(k  )*3;
+			int t = vertexKeys.get(k+1)*2;
+			int n = vertexKeys.get(k+2)*3;
+			model.addVertex(positions.get(p),positions.get(p+1),positions.get(p+2));
+			if(hasUVs) {
+				if(t>=0) model.addTexCoord(texCoords.get(t),texCoords.get(t+1));
+				else     model.addTexCoord(0,0);
+			}
+			if(hasNormals) {
+				if(n>=0) model.addNormal(normals.get(n),normals.get(n+1),normals.get(n+2));
+				else     model.addNormal(0,0,0);
+			}
+		}
+		
+		int numIndexes = triangles.size();
+		model.getIndexArray().ensureCapacity(model.getNumIndexes()+numIndexes);
+		for(int i=0;i<numIndexes;++i) {
+			model.addIndex(first+triangles.get(i));
+		}
+	}
+
 	@Override
 	public boolean canSave() {
-		// TODO Auto-generated method stub
-		return false;
+		return true;
 	}
 
 	@Override
 	public boolean canSave(String filename) {
-		// TODO Auto-generated method stub
-		return false;
+		return filename.toLowerCase().endsWith(".obj");
 	}
 
 	@Override
-	public void save(OutputStream inputStream, Mesh model) throws Exception {
-		// TODO Auto-generated method stub
-		
+	public void save(OutputStream outputStream, Mesh model) throws Exception {
+		try(ChannelWriter writer = new ChannelWriter(Channels.newChannel(outputStream),ByteOrder.nativeOrder())) {
+			save(writer,model);
+		}
+	}
+
+	@Override
+	public void save(String filename, Mesh model) throws Exception {
+		try(ChannelWriter writer = ChannelWriter.open(filename,ByteOrder.nativeOrder())) {
+			save(writer,model);
+		}
 	}
 
+	/**
+	 * Write every vertex once with its texture coordinate and normal, then the triangles as indexes.
+	 * Vertex i is position i, texture coordinate i and normal i, so every face corner is i/i/i.
+	 */
+	private void save(ChannelWriter writer, Mesh model) throws IOException {
+		int numVertexes = model.getNumVertices();
+		boolean hasUVs = model.hasUVs && model.getTexCoordArray().size()>=numVertexes*2;
+		boolean hasNormals = model.hasNormals && model.getNormalArray().size()>=numVertexes*3;
+
+		writer.putASCII("# "+numVertexes+" vertexes, "+model.getNumTriangles()+" triangles\n");
+		FloatArray v = model.getVertexArray();
+		for(int i=0;i<numVertexes*3;i+=3) {
+			writer.putASCII("v ");
+			putTuple(writer,v,i,3);
+		}
+		if(hasUVs) {
+			FloatArray t = model.getTexCoordArray();
+			for(int i=0;i<numVertexes*2;i+=2) {
+				writer.putASCII("vt ");
+				putTuple(writer,t,i,2);
+			}
+		}
+		if(hasNormals) {
+			FloatArray n = model.getNormalArray();
+			for(int i=0;i<numVertexes*3;i+=3) {
+				writer.putASCII("vn ");
+				putTuple(writer,n,i,3);
+			}
+		}
+
+		int numTriangles = model.getNumTriangles();
+		for(int i=0;i<numTriangles;++i) {
+			writer.putASCII("f");
+			for(int j=0;j<3;++j) {
+				int index = model.getTriangleVertex(i, j)+1;
+				writer.putASCII(" ");
+				writer.putASCII(index);
+				if(hasUVs || hasNormals) {
+					writer.putASCII("/");
+					if(hasUVs) writer.putASCII(index);
+					if(hasNormals) {
+						writer.putASCII("/");
+						writer.putASCII(index);
+					}
+				}
+			}
+			writer.putASCII("\n");
+		}
+	}
+
+	private void putTuple(ChannelWriter writer,FloatArray data,int first,int count) throws IOException {
+		for(int j=0;j<count;++j) {
+			if(j>0) writer.putASCII(" ");
+			writer.putASCII(data.get(first+j));
+		}
+		writer.putASCII("\n");
+	}
 }
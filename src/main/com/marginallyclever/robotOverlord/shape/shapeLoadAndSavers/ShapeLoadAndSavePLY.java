@@ -1,29 +1,137 @@
 package com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 
 import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.FileAccess;
+import com.marginallyclever.robotOverlord.shape.FloatArray;
 import com.marginallyclever.robotOverlord.shape.Mesh;
 import com.marginallyclever.robotOverlord.shape.ShapeLoadAndSave;
 
 /**
- * 
- * @author Admin
- *
+ * Loads the vertexes of a PLY file as a point cloud.  Reads ascii, binary_little_endian and
+ * binary_big_endian files.  Vertex positions, normals (nx,ny,nz) and colors (red,green,blue,alpha) are kept.
+ * Other elements, such as faces, are skipped.
+ * <p>
+ * Scanned clouds can have many millions of points, so the points are streamed into chunks of
+ * {@link #getPointsPerChunk()} points.  Each chunk is uploaded and drawn separately as GL_POINTS, starting while
+ * the rest of the file is read.  Once a chunk loaded from a file is uploaded the {@link Mesh} lets go of its
+ * points, and reads just that chunk's part of the file again if it ever needs them.
+ * <p>
+ * Saves binary_little_endian PLY, with faces if the mesh is made of triangles.
+ * @author Dan Royer
  */
-// see https://en.wikipedia.org/wiki/Wavefront_.obj_file
+// see http://paulbourke.net/dataformats/ply/
 public class ShapeLoadAndSavePLY implements ShapeLoadAndSave {
+	private static final int FORMAT_ASCII = 0;
+	private static final int FORMAT_BINARY_LITTLE_ENDIAN = 1;
+	private static final int FORMAT_BINARY_BIG_ENDIAN = 2;
+
+	private static final int MAX_HEADER_LINE = 1024;
+
+	// where each vertex property goes in the values of one point.
+	private static final int SLOT_X=0, SLOT_NX=3, SLOT_RED=6, SLOT_ALPHA=9, NUM_SLOTS=10;
+
+	// 10MB of floats with normals and colors, which fits the default upload budget of one frame.
+	private static int pointsPerChunk = 1<<18;
+
+	/**
+	 * One scalar or list property of an element.
+	 */
+	private static class Property {
+		String name;
+		Type type;
+		// if not null, this is a list and countType is the type of its length.
+		Type countType;
+		// which value of a point this property fills, or -1 to ignore it.
+		int slot=-1;
+		// colors stored as integers are scaled to 0...1.
+		double scale=1;
+	}
+
+	private static class Element {
+		String name;
+		long count;
+		ArrayList<Property> properties = new ArrayList<Property>();
+	}
+
+	private static class Header {
+		int format=-1;
+		ArrayList<Element> elements = new ArrayList<Element>();
+		// bytes from the start of the file to the first item.
+		long length;
+
+		PointReader newReader(InputStream in) {
+			if(format==FORMAT_ASCII) return new AsciiReader(in);
+			return new BinaryReader(in, format==FORMAT_BINARY_LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		}
+	}
+
+	private enum Type {
+		CHAR(1), UCHAR(1), SHORT(2), USHORT(2), INT(4), UINT(4), FLOAT(4), DOUBLE(8);
+
+		final int size;
+
+		Type(int size) {
+			this.size=size;
+		}
+
+		static Type parse(String name) throws IOException {
+			switch(name) {
+			case "char":	case "int8":	return CHAR;
+			case "uchar":	case "uint8":	return UCHAR;
+			case "short":	case "int16":	return SHORT;
+			case "ushort":	case "uint16":	return USHORT;
+			case "int":		case "int32":	return INT;
+			case "uint":	case "uint32":	return UINT;
+			case "float":	case "float32":	return FLOAT;
+			case "double":	case "float64":	return DOUBLE;
+			default: throw new IOException("PLY unknown property type "+name);
+			}
+		}
+
+		/**
+		 * @return the largest value of an integer type, used to scale colors.  1 for floating point types.
+		 */
+		double getColorRange() {
+			switch(this) {
+			case UCHAR:		return 255;
+			case USHORT:	return 65535;
+			case CHAR:		return 127;
+			case SHORT:		return 32767;
+			default:		return 1;
+			}
+		}
+
+		double read(ByteBuffer b) {
+			switch(this) {
+			case CHAR:		return b.get();
+			case UCHAR:		return b.get() & 0xFF;
+			case SHORT:		return b.getShort();
+			case USHORT:	return b.getShort() & 0xFFFF;
+			case INT:		return b.getInt();
+			case UINT:		return b.getInt() & 0xFFFFFFFFL;
+			case FLOAT:		return b.getFloat();
+			default:		return b.getDouble();
+			}
+		}
+	}
+
 	@Override
-	public String getEnglishName() { return "3D scanner data (CSV)"; }
+	public String getEnglishName() { return "3D scanner data (PLY)"; }
 	@Override
-	public String getValidExtensions() { return "csv"; }
+	public String getValidExtensions() { return "ply"; }
 
 	@Override
 	public boolean canLoad(String filename) {
-		boolean result = filename.toLowerCase().endsWith(".csv");
+		boolean result = filename.toLowerCase().endsWith(".ply");
 		return result;
 	}
 
@@ -32,43 +140,442 @@ public class ShapeLoadAndSavePLY implements ShapeLoadAndSave {
 		return true;
 	}
 
+	/**
+	 * Binary clouds load about as fast as the cache could be read, and the chunks are not cached.
+	 */
+	@Override
+	public boolean canCache() {
+		return false;
+	}
+
+	/**
+	 * @param count the most points in each chunk.
+	 */
+	public static void setPointsPerChunk(int count) {
+		pointsPerChunk = Math.max(1, count);
+	}
+
+	public static int getPointsPerChunk() {
+		return pointsPerChunk;
+	}
+
+	/**
+	 * Chunks loaded from a file remember where they are in it, so they can let go of their points once uploaded.
+	 */
+	@Override
+	public boolean load(String filename,Mesh model) throws Exception {
+		try(BufferedInputStream stream = FileAccess.open(filename)) {
+			return load(stream,model,filename);
+		}
+	}
+
 	@Override
 	public boolean load(BufferedInputStream inputStream,Mesh model) throws Exception {
+		return load(inputStream,model,null);
+	}
+
+	/**
+	 * @param sourceName the file being read, or null if the points can't be read again.
+	 */
+	private boolean load(BufferedInputStream inputStream,Mesh model,String sourceName) throws Exception {
 		model.renderStyle = GL2.GL_POINTS;
 
-		BufferedReader br = new BufferedReader(new InputStreamReader(inputStream,"UTF-8"));
-		String line;
-		// eat the first line that says "X,Y,Z,SIGNAL_STRENGTH"
-		line = br.readLine();
-		// read the vertexes
-		while( ( line = br.readLine() ) != null ) {
-			line = line.trim();
-			String[] tokens = line.split(",");
-			float x=Float.parseFloat(tokens[0]);
-			float y=Float.parseFloat(tokens[1]);
-			float z=Float.parseFloat(tokens[2]);
-			//float strength=Float.parseFloat(tokens[3]);
-			model.addVertex(x,y,z);
-		}
-		
+		Header header = readHeader(inputStream);
+		PointReader reader = header.newReader(inputStream);
+		for(Element e : header.elements) {
+			if(e.name.equals("vertex")) {
+				readVertexes(reader,header,e,model,sourceName);
+				// nothing after the vertexes is used.
+				break;
+			}
+			for(long i=0;i<e.count;++i) reader.skip(e);
+		}
+
 		return true;
 	}
 
+	private static Header readHeader(InputStream inputStream) throws IOException {
+		Header header = new Header();
+		if(!"ply".equals(readHeaderLine(inputStream,header))) throw new IOException("PLY missing magic number");
+
+		String line;
+		while(!"end_header".equals(line = readHeaderLine(inputStream,header))) {
+			if(line==null) throw new IOException("PLY header has no end");
+			String [] tokens = line.split("\\s+");
+			switch(tokens[0]) {
+			case "format":
+				if(tokens.length<2) throw new IOException("PLY bad format line");
+				switch(tokens[1]) {
+				case "ascii":					header.format = FORMAT_ASCII;  break;
+				case "binary_little_endian":	header.format = FORMAT_BINARY_LITTLE_ENDIAN;  break;
+				case "binary_big_endian":		header.format = FORMAT_BINARY_BIG_ENDIAN;  break;
+				default: throw new IOException("PLY unknown format "+tokens[1]);
+				}
+				break;
+			case "element":
+				if(tokens.length<3) throw new IOException("PLY bad element line");
+				Element e = new Element();
+				e.name = tokens[1];
+				e.count = Long.parseLong(tokens[2]);
+				header.elements.add(e);
+				break;
+			case "property":
+				if(header.elements.isEmpty()) throw new IOException("PLY property before element");
+				header.elements.get(header.elements.size()-1).properties.add(parseProperty(tokens));
+				break;
+			default:
+				// comment, obj_info, or blank
+				break;
+			}
+		}
+		if(header.format==-1) throw new IOException("PLY header has no format");
+		return header;
+	}
+
+	private static Property parseProperty(String [] tokens) throws IOException {
+		Property p = new Property();
+		if(tokens.length>=5 && tokens[1].equals("list")) {
+			p.countType = Type.parse(tokens[2]);
+			p.type = Type.parse(tokens[3]);
+			p.name = tokens[4];
+		} else if(tokens.length>=3) {
+			p.type = Type.parse(tokens[1]);
+			p.name = tokens[2];
+		} else throw new IOException("PLY bad property line");
+		return p;
+	}
+
+	/**
+	 * @return the next line of the header, or null at the end of the stream.
+	 */
+	private static String readHeaderLine(InputStream in,Header header) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while((c=in.read())!='\n') {
+			if(c==-1) return sb.length()==0 ? null : sb.toString().trim();
+			header.length++;
+			if(sb.length()>MAX_HEADER_LINE) throw new IOException("PLY header line too long");
+			sb.append((char)c);
+		}
+		header.length++;
+		return sb.toString().trim();
+	}
+
+	private void readVertexes(PointReader reader,Header header,Element vertexes,Mesh model,String sourceName) throws IOException {
+		boolean hasNormals=false;
+		boolean hasColors=false;
+		for(Property p : vertexes.properties) {
+			if(p.countType!=null) continue;
+			switch(p.name) {
+			case "x":	p.slot = SLOT_X;	break;
+			case "y":	p.slot = SLOT_X+1;	break;
+			case "z":	p.slot = SLOT_X+2;	break;
+			case "nx":	p.slot = SLOT_NX;	hasNormals=true;  break;
+			case "ny":	p.slot = SLOT_NX+1;	hasNormals=true;  break;
+			case "nz":	p.slot = SLOT_NX+2;	hasNormals=true;  break;
+			case "red":		case "diffuse_red":		p.slot = SLOT_RED;		hasColors=true;  break;
+			case "green":	case "diffuse_green":	p.slot = SLOT_RED+1;	hasColors=true;  break;
+			case "blue":	case "diffuse_blue":	p.slot = SLOT_RED+2;	hasColors=true;  break;
+			case "alpha":	case "diffuse_alpha":	p.slot = SLOT_ALPHA;	hasColors=true;  break;
+			default: break;
+			}
+			if(p.slot>=SLOT_RED) p.scale = 1.0/p.type.getColorRange();
+		}
+
+		for(long i=0;i<vertexes.count;) {
+			int size = (int)Math.min(pointsPerChunk, vertexes.count-i);
+			VertexRange range = new VertexRange(sourceName,header,vertexes,header.length+reader.getPosition(),size,hasNormals,hasColors);
+			Mesh chunk = range.read(reader);
+			if(sourceName!=null) chunk.setChunkSource(range);
+			// drawn from now on, while the rest is read.
+			model.addChunk(chunk);
+			i+=size;
+		}
+	}
+
+	/**
+	 * Where the points of one chunk are in a file, so they can be read again without reading the rest.
+	 */
+	private static class VertexRange implements Mesh.ChunkSource {
+		final String sourceName;
+		final Header header;
+		final Element vertexes;
+		// bytes from the start of the file to the first point.
+		final long offset;
+		final int count;
+		final boolean hasNormals;
+		final boolean hasColors;
+
+		VertexRange(String sourceName,Header header,Element vertexes,long offset,int count,boolean hasNormals,boolean hasColors) {
+			this.sourceName = sourceName;
+			this.header = header;
+			this.vertexes = vertexes;
+			this.offset = offset;
+			this.count = count;
+			this.hasNormals = hasNormals;
+			this.hasColors = hasColors;
+		}
+
+		/**
+		 * Read the next count points from reader into a new chunk.
+		 */
+		Mesh read(PointReader reader) throws IOException {
+			Mesh chunk = newChunk(count,hasNormals,hasColors);
+			float [] v = new float[NUM_SLOTS];
+			for(int i=0;i<count;++i) {
+				v[SLOT_ALPHA]=1;
+				reader.read(vertexes,v);
+				chunk.addVertex(v[SLOT_X],v[SLOT_X+1],v[SLOT_X+2]);
+				if(hasNormals) chunk.addNormal(v[SLOT_NX],v[SLOT_NX+1],v[SLOT_NX+2]);
+				if(hasColors) chunk.addColor(v[SLOT_RED],v[SLOT_RED+1],v[SLOT_RED+2],v[SLOT_ALPHA]);
+			}
+			return chunk;
+		}
+
+		/**
+		 * Skip to the points of this chunk and read only them.
+		 */
+		@Override
+		public Mesh read() throws IOException {
+			try(BufferedInputStream in = FileAccess.open(sourceName)) {
+				Header now = readHeader(in);
+				if(now.length!=header.length || now.format!=header.format) throw new IOException(sourceName+" has changed");
+				in.skipNBytes(offset-now.length);
+				return read(header.newReader(in));
+			}
+		}
+	}
+
+	private static Mesh newChunk(int size,boolean hasNormals,boolean hasColors) {
+		Mesh chunk = new Mesh();
+		chunk.renderStyle = GL2.GL_POINTS;
+		chunk.getVertexArray().ensureCapacity(size*3);
+		if(hasNormals) chunk.getNormalArray().ensureCapacity(size*3);
+		if(hasColors) {
+			chunk.getColorArray().ensureCapacity(size*4);
+			chunk.hasColors=true;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Reads one item of an element at a time.
+	 */
+	private interface PointReader {
+		/**
+		 * Read one item of e.  Properties with a slot are put in values, the rest are skipped.
+		 */
+		void read(Element e,float [] values) throws IOException;
+
+		void skip(Element e) throws IOException;
+
+		/**
+		 * @return the number of bytes read so far, from the end of the header.
+		 */
+		long getPosition();
+	}
+
+	/**
+	 * One item per line, properties separated by spaces.
+	 */
+	private static class AsciiReader implements PointReader {
+		private final ByteTokenizer tokenizer;
+
+		AsciiReader(InputStream in) {
+			tokenizer = new ByteTokenizer(in);
+		}
+
+		@Override
+		public void read(Element e,float [] values) throws IOException {
+			for(Property p : e.properties) {
+				if(p.countType!=null) {
+					int n = tokenizer.nextInt();
+					for(int j=0;j<n;++j) tokenizer.nextDouble();
+				} else {
+					double d = tokenizer.nextDouble();
+					if(p.slot>=0) values[p.slot] = (float)(d*p.scale);
+				}
+			}
+			tokenizer.skipLine();
+		}
+
+		@Override
+		public void skip(Element e) throws IOException {
+			if(tokenizer.isEndOfStream()) throw new IOException("PLY ended early");
+			tokenizer.skipLine();
+		}
+
+		@Override
+		public long getPosition() {
+			return tokenizer.getBytesRead();
+		}
+	}
+
+	/**
+	 * Items packed one after the other.  The stream is read in blocks and parsed from a buffer.
+	 */
+	private static class BinaryReader implements PointReader {
+		private static final int BLOCK_SIZE = 1<<16;
+		private final InputStream in;
+		private final ByteBuffer buffer;
+		// including what is still in the buffer.
+		private long bytesRead;
+
+		BinaryReader(InputStream in,ByteOrder order) {
+			this.in = in;
+			buffer = ByteBuffer.allocate(BLOCK_SIZE).order(order);
+			buffer.limit(0);
+		}
+
+		/**
+		 * Make sure the next n bytes are in the buffer.
+		 */
+		private void need(int n) throws IOException {
+			if(buffer.remaining()>=n) return;
+			buffer.compact();
+			while(buffer.position()<n) {
+				int got = in.read(buffer.array(), buffer.position(), buffer.remaining());
+				if(got<=0) throw new IOException("PLY ended early");
+				buffer.position(buffer.position()+got);
+				bytesRead+=got;
+			}
+			buffer.flip();
+		}
+
+		private double next(Type type) throws IOException {
+			need(type.size);
+			return type.read(buffer);
+		}
+
+		@Override
+		public void read(Element e,float [] values) throws IOException {
+			for(Property p : e.properties) {
+				if(p.countType!=null) {
+					skipList(p);
+				} else {
+					double d = next(p.type);
+					if(p.slot>=0) values[p.slot] = (float)(d*p.scale);
+				}
+			}
+		}
+
+		private void skipList(Property p) throws IOException {
+			long n = (long)next(p.countType);
+			for(long j=0;j<n;++j) next(p.type);
+		}
+
+		@Override
+		public void skip(Element e) throws IOException {
+			for(Property p : e.properties) {
+				if(p.countType!=null) skipList(p);
+				else next(p.type);
+			}
+		}
+
+		@Override
+		public long getPosition() {
+			return bytesRead-buffer.remaining();
+		}
+	}
+
 	@Override
 	public boolean canSave() {
-		// TODO Auto-generated method stub
-		return false;
+		return true;
 	}
 
 	@Override
 	public boolean canSave(String filename) {
-		// TODO Auto-generated method stub
-		return false;
+		return filename.toLowerCase().endsWith(".ply");
+	}
+
+	@Override
+	public void save(OutputStream outputStream, Mesh model) throws Exception {
+		try(ChannelWriter writer = new ChannelWriter(Channels.newChannel(outputStream),ByteOrder.LITTLE_ENDIAN)) {
+			save(writer,model);
+		}
 	}
 
 	@Override
-	public void save(OutputStream inputStream, Mesh model) throws Exception {
-		// TODO Auto-generated method stub
+	public void save(String filename, Mesh model) throws Exception {
+		try(ChannelWriter writer = ChannelWriter.open(filename,ByteOrder.LITTLE_ENDIAN)) {
+			save(writer,model);
+		}
+	}
+
+	/**
+	 * Write binary_little_endian PLY.  The vertexes of the mesh and all its chunks are written, with normals and
+	 * colors if every part has them.  Triangle meshes also get a face element.  Chunks that let go of their
+	 * points are read again one at a time, so the whole cloud is never in memory.
+	 */
+	private void save(ChannelWriter writer, Mesh model) throws IOException {
+		int numParts = model.getNumChunks()+1;
+		long numVertexes=0;
+		boolean anyParts=false;
+		boolean hasNormals=true;
+		boolean hasColors=true;
+		for(int p=0;p<numParts;++p) {
+			Mesh m = getPart(model,p);
+			if(m==null) continue;
+			anyParts=true;
+			int n = m.getNumVertices();
+			numVertexes += n;
+			hasNormals &= m.hasNormals && m.getNormalArray().size()>=n*3;
+			hasColors &= m.hasColors && m.getColorArray().size()>=n*4;
+		}
+		hasNormals &= anyParts;
+		hasColors &= anyParts;
+		int numFaces = (model.renderStyle==GL2.GL_TRIANGLES) ? model.getNumTriangles() : 0;
+
+		StringBuilder header = new StringBuilder();
+		header.append("ply\nformat binary_little_endian 1.0\ncomment Robot Overlord\n");
+		header.append("element vertex "+numVertexes+"\n");
+		header.append("property float x\nproperty float y\nproperty float z\n");
+		if(hasNormals) header.append("property float nx\nproperty float ny\nproperty float nz\n");
+		if(hasColors) header.append("property uchar red\nproperty uchar green\nproperty uchar blue\nproperty uchar alpha\n");
+		if(numFaces>0) {
+			header.append("element face "+numFaces+"\n");
+			header.append("property list uchar int vertex_indices\n");
+		}
+		header.append("end_header\n");
+		writer.putASCII(header.toString());
+
+		for(int p=0;p<numParts;++p) {
+			Mesh m = getPart(model,p);
+			if(m==null) continue;
+			int n = m.getNumVertices();
+			FloatArray v = m.getVertexArray();
+			FloatArray normals = m.getNormalArray();
+			FloatArray colors = m.getColorArray();
+			for(int i=0;i<n;++i) {
+				writer.putFloat(v.get(i*3  ));
+				writer.putFloat(v.get(i*3+1));
+				writer.putFloat(v.get(i*3+2));
+				if(hasNormals) {
+					writer.putFloat(normals.get(i*3  ));
+					writer.putFloat(normals.get(i*3+1));
+					writer.putFloat(normals.get(i*3+2));
+				}
+				if(hasColors) {
+					for(int j=0;j<4;++j) {
+						writer.putByte(Math.round(Math.max(0, Math.min(1, colors.get(i*4+j)))*255));
+					}
+				}
+			}
+		}
+
+		for(int i=0;i<numFaces;++i) {
+			writer.putByte(3);
+			writer.putInt(model.getTriangleVertex(i, 0));
+			writer.putInt(model.getTriangleVertex(i, 1));
+			writer.putInt(model.getTriangleVertex(i, 2));
+		}
 	}
 
+	/**
+	 * @return the mesh itself for part 0, if it has any vertexes, then each chunk in turn.  null for nothing.
+	 */
+	private Mesh getPart(Mesh model,int index) {
+		if(index==0) return model.getNumVertices()>0 ? model : null;
+		return model.getChunk(index-1);
+	}
 }
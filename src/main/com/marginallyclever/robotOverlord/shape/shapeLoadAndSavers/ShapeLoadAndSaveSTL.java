@@ -2,19 +2,33 @@ package com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
-import java.util.Iterator;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import com.marginallyclever.convenience.FileAccess;
 import com.marginallyclever.convenience.MathHelper;
+import com.marginallyclever.robotOverlord.shape.FloatArray;
 import com.marginallyclever.robotOverlord.shape.Mesh;
 import com.marginallyclever.robotOverlord.shape.ShapeLoadAndSave;
+import com.marginallyclever.robotOverlord.shape.ShapeWelder;
 
 public class ShapeLoadAndSaveSTL implements ShapeLoadAndSave {
+	private static final int HEADER_BYTES = 84;
+	private static final int TRIANGLE_BYTES = 50;
+	private static final int CHUNK_TRIANGLES = 4096;
+	
 	@Override
 	public String getEnglishName() { return "3D printing file (STL)"; }
 	@Override
@@ -22,7 +36,7 @@ public class ShapeLoadAndSaveSTL implements ShapeLoadAndSave {
 	@Override
 	public boolean canLoad() {	return true;	}
 	@Override
-	public boolean canSave() {	return false;	}
+	public boolean canSave() {	return true;	}
 
 	@Override
 	public boolean canLoad(String filename) {
@@ -33,7 +47,7 @@ public class ShapeLoadAndSaveSTL implements ShapeLoadAndSave {
 
 	@Override
 	public boolean canSave(String filename) {
-		return false;
+		return filename.toLowerCase().endsWith(".stl");
 	}
 
 	// much help from http://www.java-gaming.org/index.php?;topic=18710.0
@@ -56,6 +70,8 @@ public class ShapeLoadAndSaveSTL implements ShapeLoadAndSave {
 			} else {
 			    loadASCII(inputStream,model);   
 			}
+			// STL is triangle soup.  share the corners.
+			ShapeWelder.weld(model);
 		}
 		catch(IOException e) {
 			e.printStackTrace();
@@ -67,110 +83,249 @@ public class ShapeLoadAndSaveSTL implements ShapeLoadAndSave {
 
 	@Override
 	public void save(OutputStream outputStream, Mesh model) throws Exception {
+		try(ChannelWriter writer = new ChannelWriter(Channels.newChannel(outputStream),ByteOrder.LITTLE_ENDIAN)) {
+			save(writer,model);
+		}
+	}
+
+	@Override
+	public void save(String filename, Mesh model) throws Exception {
+		try(ChannelWriter writer = ChannelWriter.open(filename,ByteOrder.LITTLE_ENDIAN)) {
+			save(writer,model);
+		}
+	}
+
+	/**
+	 * Write binary STL: an 80 byte header, the number of triangles, then one normal, three corners and
+	 * two attribute bytes per triangle.
+	 */
+	private void save(ChannelWriter writer, Mesh model) throws IOException {
 		byte[] info = new byte[80];
 		for(int k=0;k<80;++k) info[k]=' ';
-	    info[0]='M';
-	    info[1]='C';
-	    info[2]='R';
-	    info[4]='D';
-	    info[5]='R';
-	    outputStream.write(info);
-
-	    int numTriangles = model.vertexArray.size()/3;
-		ByteBuffer dataBuffer = ByteBuffer.allocate(4);
-	    dataBuffer.order(ByteOrder.LITTLE_ENDIAN);
-	    dataBuffer.putInt(numTriangles);
-	    outputStream.write(dataBuffer.array());
-
-	    dataBuffer = ByteBuffer.allocate(74);
-	    dataBuffer.order(ByteOrder.LITTLE_ENDIAN);
-	    
-	    Iterator<Float> vi = model.vertexArray.iterator();
-	    Iterator<Float> ni = model.normalArray.iterator();
-	    
-	    int i;
-	    for(i=0;i<numTriangles;++i) {
-	    	dataBuffer.rewind();
-	    	dataBuffer.putFloat(ni.next().floatValue());
-	    	dataBuffer.putFloat(ni.next().floatValue());
-	    	dataBuffer.putFloat(ni.next().floatValue());
-
-	    	dataBuffer.putFloat(ni.next().floatValue());
-	    	dataBuffer.putFloat(ni.next().floatValue());
-	    	dataBuffer.putFloat(ni.next().floatValue());
-
-	    	dataBuffer.putFloat(ni.next().floatValue());
-	    	dataBuffer.putFloat(ni.next().floatValue());
-	    	dataBuffer.putFloat(ni.next().floatValue());
-
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	dataBuffer.putFloat(vi.next().floatValue());
-
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	dataBuffer.putFloat(vi.next().floatValue());
-
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	dataBuffer.putFloat(vi.next().floatValue());
-	    	
-	    	dataBuffer.put((byte)0);
-	    	dataBuffer.put((byte)0);
-	    	outputStream.write(dataBuffer.array());
-	    }
+		info[0]='M';
+		info[1]='C';
+		info[2]='R';
+		info[4]='D';
+		info[5]='R';
+		writer.put(info);
+
+		int numTriangles = model.getNumTriangles();
+		writer.putInt(numTriangles);
+
+		FloatArray vertexes = model.getVertexArray();
+		float [] p = new float[9];
+		for(int i=0;i<numTriangles;++i) {
+			for(int j=0;j<3;++j) {
+				int v = model.getTriangleVertex(i, j)*3;
+				p[j*3  ] = vertexes.get(v  );
+				p[j*3+1] = vertexes.get(v+1);
+				p[j*3+2] = vertexes.get(v+2);
+			}
+			writeFaceNormal(writer,model,i,p);
+			for(int j=0;j<9;++j) writer.putFloat(p[j]);
+			writer.putShort(0);
+		}
 	}
 
+	/**
+	 * STL has one normal per triangle.  Use the winding of the corners, or the corner normals if the triangle
+	 * has no area.
+	 */
+	private void writeFaceNormal(ChannelWriter writer,Mesh model,int triangle,float [] p) throws IOException {
+		float ax = p[3]-p[0], ay = p[4]-p[1], az = p[5]-p[2];
+		float bx = p[6]-p[0], by = p[7]-p[1], bz = p[8]-p[2];
+		float nx = ay*bz - az*by;
+		float ny = az*bx - ax*bz;
+		float nz = ax*by - ay*bx;
+		if(nx==0 && ny==0 && nz==0 && model.hasNormals) {
+			for(int j=0;j<3;++j) {
+				int v = model.getTriangleVertex(triangle, j);
+				nx += model.getNormalX(v);
+				ny += model.getNormalY(v);
+				nz += model.getNormalZ(v);
+			}
+		}
+		float len = (float)Math.sqrt(nx*nx+ny*ny+nz*nz);
+		if(len>0) {
+			nx/=len;
+			ny/=len;
+			nz/=len;
+		}
+		writer.putFloat(nx);
+		writer.putFloat(ny);
+		writer.putFloat(nz);
+	}
 
-	// see https://github.com/cpedrinaci/STL-Loader/blob/master/StlFile.java#L345
-	protected void loadBinary(BufferedInputStream inputStream,Mesh model) throws IOException {
-		int j;
-
-	    byte[] headerInfo=new byte[80];             // Header data
-	    inputStream.read(headerInfo);
-
-	    byte[] arrayNumber= new byte[4];     // Holds the number of faces
-	    inputStream.read(arrayNumber);
-	    ByteBuffer dataBuffer = ByteBuffer.wrap(arrayNumber);
-	    dataBuffer.order(ByteOrder.LITTLE_ENDIAN);
-	    int numTriangles = dataBuffer.getInt();
-	    int byteCount = 50;
-	    byte[] tempInfo = new byte[byteCount*numTriangles];     // Each face has 50 bytes of data
-        inputStream.read(tempInfo);                         // We get the rest of the file
-        dataBuffer = ByteBuffer.wrap(tempInfo);    // Now we have all the data in this ByteBuffer
-        dataBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        		
+
+	/**
+	 * Binary files on disk are memory mapped and decoded in parallel.  Everything else goes through the stream.
+	 */
+	@Override
+	public boolean load(String filename,Mesh model) throws Exception {
+		File file = FileAccess.getLocalFile(filename);
+		if(file!=null) {
+			try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				int numTriangles = getBinaryTriangleCount(channel);
+				if(numTriangles>=0) {
+					loadMapped(channel,numTriangles,model);
+					ShapeWelder.weld(model);
+					return true;
+				}
+			}
+		}
+		try(BufferedInputStream stream = FileAccess.open(filename)) {
+			return load(stream,model);
+		}
+	}
+	
+	/**
+	 * A binary STL is exactly 84 bytes of header and count followed by 50 bytes per triangle.
+	 * Some binary files start with "solid" so the size is a better test than the header text.
+	 * @param channel the open file
+	 * @return the number of triangles, or -1 if the file is not binary STL.
+	 * @throws IOException
+	 */
+	private int getBinaryTriangleCount(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if(size<HEADER_BYTES) return -1;
+		
+		ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		while(count.hasRemaining()) {
+			if(channel.read(count, 80+count.position())<0) return -1;
+		}
+		long numTriangles = count.getInt(0) & 0xFFFFFFFFL;
+		if(HEADER_BYTES + numTriangles*TRIANGLE_BYTES != size) return -1;
+		if(numTriangles*9 > Integer.MAX_VALUE) throw new IOException("STL too large: "+numTriangles+" triangles.");
+		return (int)numTriangles;
+	}
+	
+	/**
+	 * Map the file and split the triangles across the common fork/join pool.  Each task decodes its range
+	 * straight into the mesh storage, which was sized once up front.
+	 */
+	private void loadMapped(FileChannel channel,int numTriangles,Mesh model) throws IOException {
+		FloatArray vertexes = model.getVertexArray();
+		FloatArray normals = model.getNormalArray();
+		int firstVertex = model.getNumVertices();
+		vertexes.setSize((firstVertex+numTriangles*3)*3);
+		normals.setSize((firstVertex+numTriangles*3)*3);
+		
+		// a single mapping is limited to 2GB.
+		int maxPerMap = Integer.MAX_VALUE / TRIANGLE_BYTES;
+		for(int first=0;first<numTriangles;first+=maxPerMap) {
+			int count = Math.min(maxPerMap, numTriangles-first);
+			ByteBuffer data = channel.map(MapMode.READ_ONLY, HEADER_BYTES+(long)first*TRIANGLE_BYTES, (long)count*TRIANGLE_BYTES);
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			ForkJoinPool.commonPool().invoke(new DecodeTask(data,0,count,(firstVertex+first*3)*3,vertexes,normals));
+		}
+		model.hasNormals=true;
+		model.isDirty=true;
+	}
+	
+	/**
+	 * Decode a range of binary STL triangles.  Uses only absolute reads and writes so that many tasks 
+	 * can share the same buffers.
+	 */
+	@SuppressWarnings("serial")
+	private static class DecodeTask extends RecursiveAction {
+		private static final int THRESHOLD = 8192;
+		
+		private final ByteBuffer data;
+		private final int first, count, floatOffset;
+		private final FloatArray vertexes, normals;
+		
+		DecodeTask(ByteBuffer data,int first,int count,int floatOffset,FloatArray vertexes,FloatArray normals) {
+			this.data=data;
+			this.first=first;
+			this.count=count;
+			this.floatOffset=floatOffset;
+			this.vertexes=vertexes;
+			this.normals=normals;
+		}
+		
+		@Override
+		protected void compute() {
+			if(count>THRESHOLD) {
+				int half = count/2;
+				invokeAll(new DecodeTask(data,first     ,half      ,floatOffset          ,vertexes,normals),
+						  new DecodeTask(data,first+half,count-half,floatOffset+half*9,vertexes,normals));
+				return;
+			}
+			decode(data,first,count,floatOffset,vertexes,normals);
+		}
+	}
+	
+	/**
+	 * Decode count triangles starting at triangle first of data into the mesh storage.
+	 * @param data little endian triangle records, 50 bytes each.
+	 * @param first index of the first triangle in data.
+	 * @param count number of triangles
+	 * @param floatOffset where the first vertex goes in vertexes and normals.
+	 */
+	private static void decode(ByteBuffer data,int first,int count,int floatOffset,FloatArray vertexes,FloatArray normals) {
+		int b = first*TRIANGLE_BYTES;
+		int f = floatOffset;
 		float x,y,z;
-		for(j=0;j<numTriangles;++j) {
-			x=dataBuffer.getFloat();
-			y=dataBuffer.getFloat();
-			z=dataBuffer.getFloat();
-
-			model.addNormal(x, y, z);
-			model.addNormal(x, y, z);
-			model.addNormal(x, y, z);
-
-			x=dataBuffer.getFloat();
-			y=dataBuffer.getFloat();
-			z=dataBuffer.getFloat();
-			model.addVertex(x, y, z);
-
-			x=dataBuffer.getFloat();
-			y=dataBuffer.getFloat();
-			z=dataBuffer.getFloat();
-			model.addVertex(x, y, z);
-
-			x=dataBuffer.getFloat();
-			y=dataBuffer.getFloat();
-			z=dataBuffer.getFloat();
-			model.addVertex(x, y, z);
-			
-			// attribute bytes
-			dataBuffer.get();
-			dataBuffer.get();
+		for(int j=0;j<count;++j) {
+			x=data.getFloat(b   );
+			y=data.getFloat(b+ 4);
+			z=data.getFloat(b+ 8);
+			for(int k=0;k<9;k+=3) {
+				normals.set(f+k  ,x);
+				normals.set(f+k+1,y);
+				normals.set(f+k+2,z);
+			}
+			for(int k=0;k<9;++k) {
+				vertexes.set(f+k,data.getFloat(b+12+k*4));
+			}
+			// skip the two attribute bytes
+			b+=TRIANGLE_BYTES;
+			f+=9;
+		}
+	}
+
+	/**
+	 * Read a binary STL from a stream, such as a jar resource or a zip entry.  The triangles are read in 
+	 * fixed size chunks so the whole body is never in memory at once.
+	 * @param inputStream
+	 * @param model
+	 * @throws IOException if the stream ends early.
+	 */
+	protected void loadBinary(BufferedInputStream inputStream,Mesh model) throws IOException {
+		byte[] header = new byte[HEADER_BYTES];
+		readFully(inputStream,header,HEADER_BYTES);
+		int numTriangles = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(80);
+		
+		FloatArray vertexes = model.getVertexArray();
+		FloatArray normals = model.getNormalArray();
+		int floatOffset = model.getNumVertices()*3;
+		// the count can't be checked against the length of a stream, so don't trust it with an allocation.
+		if(numTriangles<0 || numTriangles>(Integer.MAX_VALUE-floatOffset)/9) {
+			throw new IOException("STL has a bad triangle count: "+(numTriangles & 0xFFFFFFFFL));
+		}
+		
+		byte[] chunk = new byte[CHUNK_TRIANGLES*TRIANGLE_BYTES];
+		ByteBuffer dataBuffer = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+		for(int first=0;first<numTriangles;first+=CHUNK_TRIANGLES) {
+			int count = Math.min(CHUNK_TRIANGLES, numTriangles-first);
+			readFully(inputStream,chunk,count*TRIANGLE_BYTES);
+			// grow as the triangles arrive.
+			int end = floatOffset+(first+count)*9;
+			vertexes.setSize(end);
+			normals.setSize(end);
+			decode(dataBuffer,0,count,floatOffset+first*9,vertexes,normals);
 		}
 		model.hasNormals=true;
 	}
+	
+	private void readFully(BufferedInputStream inputStream,byte[] buffer,int length) throws IOException {
+		int total=0;
+		while(total<length) {
+			int n = inputStream.read(buffer,total,length-total);
+			if(n<0) throw new EOFException("STL ended early.");
+			total+=n;
+		}
+	}
 
 	
 	protected void loadASCII(BufferedInputStream inputStream,Mesh model) throws IOException {
@@ -115,8 +115,14 @@ public class InputManager {
 	};
 	
 
+	// what the simulation step sees.
 	protected static double [] keyStateOld = new double[Source.values().length];
 	protected static double [] keyState = new double[Source.values().length];
+	// filled by update() on the Swing thread.
+	protected static double [] pollState = new double[Source.values().length];
+	// the last finished poll, waiting for the next step.  guarded by the class.
+	private static double [] polledState = new double[Source.values().length];
+	private static boolean isPollNew;
 	
 	protected static int prevIdentifier;
 	
@@ -159,6 +165,10 @@ public class InputManager {
         }
 	}
 	
+	/**
+	 * Poll every device.  Call on the Swing thread.  The results are seen after the next {@link #useLatestPoll()}.
+	 * @param isMouseIn true if the mouse is over the 3D view.
+	 */
 	static public void update(boolean isMouseIn) {
 		Controller[] ca = ControllerEnvironment.getDefaultEnvironment().getControllers();
 
@@ -198,6 +208,23 @@ public class InputManager {
         	}
         }
         //Log.message(numSticks+"/"+numMice+"/"+numKeyboard);
+
+        synchronized(InputManager.class) {
+        	System.arraycopy(pollState, 0, polledState, 0, pollState.length);
+        	isPollNew=true;
+        }
+	}
+	
+	/**
+	 * Show the latest poll to {@link #isOn(Source)}, {@link #isPressed(Source)} and the rest.  Call once at the
+	 * start of each simulation step, so the whole step sees the same input and each press is seen once.
+	 */
+	static public synchronized void useLatestPoll() {
+		System.arraycopy(keyState, 0, keyStateOld, 0, keyState.length);
+		if(isPollNew) {
+			System.arraycopy(polledState, 0, keyState, 0, keyState.length);
+			isPollNew=false;
+		}
 	}
 	
 	static public boolean isOn(Source i) {
@@ -222,22 +249,23 @@ public class InputManager {
 	
 	static protected void setRawValue(Source i,double value) {
 		int v = i.getValue();
-		//keyStateOld[v]=keyState[v];
-		keyState[v]=value;
+		pollState[v]=value;
 	}
 
 	static protected void advanceKeyStates() {
 		for(int i=0;i<Source.values().length;++i) {
-			keyStateOld[i]=keyState[i];
-			keyState[i]=0;
+			pollState[i]=0;
 		}
 	}
 
-	static protected void resetKeyStates() {
+	static protected synchronized void resetKeyStates() {
 		for(int i=0;i<Source.values().length;++i) {
 			keyStateOld[i]=0;
 			keyState[i]=0;
+			pollState[i]=0;
+			polledState[i]=0;
 		}
+		isPollNew=false;
 	}
 
 	static public void updateStick(Controller controller) {
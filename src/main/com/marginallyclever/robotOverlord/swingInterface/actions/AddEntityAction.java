@@ -9,7 +9,6 @@ import javax.swing.AbstractAction;
 import javax.swing.JComboBox;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.swing.event.UndoableEditEvent;
 
 import com.marginallyclever.robotOverlord.Entity;
 import com.marginallyclever.robotOverlord.RobotOverlord;
@@ -48,7 +47,7 @@ public class AddEntityAction extends AbstractAction {
 			String objectTypeName = additionComboBox.getItemAt(additionComboBox.getSelectedIndex());
 
 			Entity newInstance = createInstanceOf(objectTypeName);
-			if(newInstance != null) ro.undoableEditHappened(new UndoableEditEvent(this,new AddEntityEdit(ro,newInstance)));
+			if(newInstance != null) ro.undoableEditHappened(this,() -> new AddEntityEdit(ro,newInstance));
 		}
     }
 
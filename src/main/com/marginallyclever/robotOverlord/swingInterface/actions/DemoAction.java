@@ -2,6 +2,8 @@ package com.marginallyclever.robotOverlord.swingInterface.actions;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.locks.ReentrantLock;
+
 import javax.swing.AbstractAction;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
@@ -30,7 +32,14 @@ public class DemoAction extends AbstractAction implements ActionListener {
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
-		demo.execute(ro);
+		// the demo builds a new scene, so the simulation waits.
+		ReentrantLock lock = ro.getSimulation().getLock();
+		lock.lock();
+		try {
+			demo.execute(ro);
+		} finally {
+			lock.unlock();
+		}
 		ro.updateEntityTree();
 	}
 }
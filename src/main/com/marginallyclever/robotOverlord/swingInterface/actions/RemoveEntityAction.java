@@ -6,7 +6,6 @@ import java.util.ArrayList;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
-import javax.swing.event.UndoableEditEvent;
 
 import com.marginallyclever.convenience.log.Log;
 import com.marginallyclever.robotOverlord.Entity;
@@ -42,7 +41,7 @@ public class RemoveEntityAction extends AbstractAction {
 		}
 		for(Entity e : entityList) {
 			if(e instanceof Removable) {
-				ro.undoableEditHappened(new UndoableEditEvent(this,new RemoveEdit(ro,e) ) );
+				ro.undoableEditHappened(this,() -> new RemoveEdit(ro,e));
 			} else {
 				Log.error("Entity "+e.getFullPath()+" is not a RemovableEntity.");
 			}
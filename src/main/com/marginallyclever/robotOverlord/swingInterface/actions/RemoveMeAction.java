@@ -6,7 +6,6 @@ import java.awt.event.ActionListener;
 
 import javax.swing.JButton;
 import javax.swing.JPanel;
-import javax.swing.event.UndoableEditEvent;
 
 import com.marginallyclever.robotOverlord.Entity;
 import com.marginallyclever.robotOverlord.RobotOverlord;
@@ -41,6 +40,6 @@ public class RemoveMeAction extends JPanel implements ActionListener {
 	}
 
 	public void actionPerformed(ActionEvent e) {
-		ro.undoableEditHappened(new UndoableEditEvent(this,new RemoveEdit(ro,entity) ) );
+		ro.undoableEditHappened(this,() -> new RemoveEdit(ro,entity));
 	}
 }
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 
 import javax.swing.AbstractAction;
 import javax.swing.JOptionPane;
-import javax.swing.event.UndoableEditEvent;
 
 import com.marginallyclever.convenience.log.Log;
 import com.marginallyclever.robotOverlord.Entity;
@@ -45,7 +44,7 @@ public class RenameEntityAction extends AbstractAction {
 				"Rename Entity",
 				JOptionPane.PLAIN_MESSAGE,null,null,e.getName());
 		if( newName!=null && !newName.equals(e.getName()) ) {
-			ro.undoableEditHappened(new UndoableEditEvent(this,new RenameEdit(ro,e,newName) ) );
+			ro.undoableEditHappened(this,() -> new RenameEdit(ro,e,newName));
 		}
 	}
 }
@@ -57,7 +57,11 @@ public class MoveEdit extends AbstractUndoableEdit {
 	public boolean addEdit(UndoableEdit anEdit) {
 		if(anEdit instanceof MoveEdit) {
 			MoveEdit APEM = (MoveEdit)anEdit;
-			if(APEM.entity==this.entity) return true;
+			if(APEM.entity==this.entity) {
+				// redo goes to the last pose of the merged moves.
+				next = APEM.next;
+				return true;
+			}
 		}
 		return super.addEdit(anEdit);
 	}
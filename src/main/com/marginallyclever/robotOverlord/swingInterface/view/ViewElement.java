@@ -8,9 +8,12 @@ import java.awt.event.FocusListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.function.Supplier;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.undo.UndoableEdit;
 import com.marginallyclever.robotOverlord.RobotOverlord;
 
 /**
@@ -31,6 +34,24 @@ public class ViewElement implements FocusListener {
 		this.ro=ro;
 	}
 	
+	/**
+	 * Make an edit with the simulation paused and add it to the undo history.
+	 * @param maker makes the edit, which changes the entity.
+	 */
+	protected void undoableEditHappened(Supplier<UndoableEdit> maker) {
+		if(ro!=null) ro.undoableEditHappened(this,maker);
+		else maker.get();
+	}
+	
+	/**
+	 * Entities may change on the simulation thread, but Swing must only be touched on its own thread.
+	 * @param r the change to the view.  Runs now if this is the Swing thread, or soon after if not.
+	 */
+	protected static void runOnSwingThread(Runnable r) {
+		if(SwingUtilities.isEventDispatchThread()) r.run();
+		else SwingUtilities.invokeLater(r);
+	}
+	
 	public void setReadOnly(boolean arg0) {
 		// an empty element is already read only.
 	}
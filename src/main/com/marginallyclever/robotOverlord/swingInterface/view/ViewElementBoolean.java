@@ -9,8 +9,6 @@ import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.SwingConstants;
 import javax.swing.border.EmptyBorder;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.BooleanEdit;
@@ -37,8 +35,7 @@ public class ViewElementBoolean extends ViewElement implements PropertyChangeLis
 			public void itemStateChanged(ItemEvent arg0) {
 				boolean newValue = field.isSelected();
 				if(e.get()!=newValue) {
-					AbstractUndoableEdit event = new BooleanEdit(e, newValue);
-					if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this, event ) );
+					undoableEditHappened(() -> new BooleanEdit(e, newValue));
 				}
 			}
 		});
@@ -54,7 +51,8 @@ public class ViewElementBoolean extends ViewElement implements PropertyChangeLis
 	public void propertyChange(PropertyChangeEvent evt) {
 		Object o = evt.getSource();
 		if(o instanceof BooleanEntity) {
-			field.setSelected(((BooleanEntity)o).get());
+			boolean value = ((BooleanEntity)o).get();
+			runOnSwingThread(()->field.setSelected(value));
 		}
 	}
 
@@ -11,8 +11,6 @@ import javax.swing.JPanel;
 import javax.swing.JSlider;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.CollapsiblePanel;
@@ -84,12 +82,13 @@ public class ViewElementColor extends ViewElement implements ChangeListener, Pro
 	 * entity changed, poke panel
 	 */
 	@Override
-	public void propertyChange(PropertyChangeEvent evt) {		
+	public void propertyChange(PropertyChangeEvent evt) {
 		float [] newValues = e.getFloatArray();
-		
-		for(int i=0;i<newValues.length;++i) {
-			fields[i].setValue((int)(newValues[i]*255.0f));
-		}
+		runOnSwingThread(()->{
+			for(int i=0;i<newValues.length;++i) {
+				fields[i].setValue((int)(newValues[i]*255.0f));
+			}
+		});
 	}
 
 	@Override
@@ -104,8 +103,7 @@ public class ViewElementColor extends ViewElement implements ChangeListener, Pro
 		}
 
 		if(sum>1e-3) {
-			AbstractUndoableEdit event = new ColorRGBAEdit(e,newValues);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new ColorRGBAEdit(e,newValues));
 		}
 	}
 
@@ -9,8 +9,6 @@ import java.beans.PropertyChangeListener;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.border.EmptyBorder;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.ComboBoxEdit;
@@ -51,14 +49,14 @@ public class ViewElementComboBox extends ViewElement implements ActionListener,
 	public void actionPerformed(ActionEvent arg0) {
 		int newIndex = field.getSelectedIndex();
 		if(newIndex != e.get()) {
-			AbstractUndoableEdit event = new ComboBoxEdit(e, e.getName(), newIndex);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new ComboBoxEdit(e, e.getName(), newIndex));
 		}
 	}
 
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
-		field.setSelectedIndex((Integer)evt.getNewValue());
+		int index = (Integer)evt.getNewValue();
+		runOnSwingThread(()->field.setSelectedIndex(index));
 	}
 
 	@Override
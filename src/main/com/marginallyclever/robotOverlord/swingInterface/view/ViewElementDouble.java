@@ -16,8 +16,6 @@ import javax.swing.SwingConstants;
 import javax.swing.UIManager;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.convenience.StringHelper;
 import com.marginallyclever.robotOverlord.RobotOverlord;
@@ -87,12 +85,12 @@ public class ViewElementDouble extends ViewElement implements DocumentListener,
 
 		field.setForeground(UIManager.getColor("Textfield.foreground"));
 		
-		if(lock.isLocked()) return;
+		// a change made by this view on this thread, not by the user.
+		if(lock.isHeldByCurrentThread()) return;
 		lock.lock();
 
 		if(newNumber != e.get()) {
-			AbstractUndoableEdit event = new DoubleEdit(e, newNumber);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new DoubleEdit(e, newNumber));
 		}
 		
 		lock.unlock();
@@ -131,10 +129,13 @@ public class ViewElementDouble extends ViewElement implements DocumentListener,
 	}
 
 	@Override
-	public void propertyChange(PropertyChangeEvent evt) {		
-		if(lock.isLocked()) return;
-		lock.lock();
-		field.setText(StringHelper.formatDouble((Double)evt.getNewValue()));
-		lock.unlock();		
+	public void propertyChange(PropertyChangeEvent evt) {
+		Double value = (Double)evt.getNewValue();
+		runOnSwingThread(()->{
+			if(lock.isHeldByCurrentThread()) return;
+			lock.lock();
+			field.setText(StringHelper.formatDouble(value));
+			lock.unlock();
+		});
 	}
 }
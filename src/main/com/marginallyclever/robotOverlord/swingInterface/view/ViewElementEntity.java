@@ -12,8 +12,6 @@ import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JTextField;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.Entity;
 import com.marginallyclever.robotOverlord.RobotOverlord;
@@ -59,7 +57,8 @@ public class ViewElementEntity extends ViewElement implements ActionListener {
 		
 		e.addPropertyChangeListener(new PropertyChangeListener() {
 			public void propertyChange(PropertyChangeEvent evt) {
-				field.setText(e.get());
+				String value = e.get();
+				runOnSwingThread(()->field.setText(value));
 			}
 		});
 	}
@@ -77,8 +76,7 @@ public class ViewElementEntity extends ViewElement implements ActionListener {
 		if(returnVal == JOptionPane.OK_OPTION) {
 			ArrayList<Entity> subject = treePanel.getSelected();
 			String s = (subject == null) ? "" : subject.get(0).getFullPath();
-			AbstractUndoableEdit event = new StringEdit(e, s);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new StringEdit(e, s));
 		}
 	}
 
@@ -15,9 +15,7 @@ import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JTextField;
-import javax.swing.event.UndoableEditEvent;
 import javax.swing.filechooser.FileFilter;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.translator.Translator;
@@ -73,7 +71,8 @@ public class ViewElementFilename extends ViewElement implements ActionListener {
 		
 		e.addPropertyChangeListener(new PropertyChangeListener() {
 			public void propertyChange(PropertyChangeEvent evt) {
-				field.setText(e.get());
+				String value = e.get();
+				runOnSwingThread(()->field.setText(value));
 			}
 		});
 	}
@@ -94,8 +93,7 @@ public class ViewElementFilename extends ViewElement implements ActionListener {
 			String newFilename = chooser.getSelectedFile().getAbsolutePath();
 			lastPath = chooser.getSelectedFile().getParent();
 
-			AbstractUndoableEdit event = new StringEdit(e, newFilename);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new StringEdit(e, newFilename));
 		}
 	}
 
@@ -16,8 +16,6 @@ import javax.swing.SwingConstants;
 import javax.swing.UIManager;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.IntEdit;
@@ -85,12 +83,13 @@ public class ViewElementInt extends ViewElement implements DocumentListener, Pro
 			newNumber = e.get();
 		}
 		
-		if(lock.isLocked()) return;
+		// a change made by this view on this thread, not by the user.
+		if(lock.isHeldByCurrentThread()) return;
 		lock.lock();
 
 		if(newNumber != e.get()) {
-			AbstractUndoableEdit event = new IntEdit(e, newNumber);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			final int n = newNumber;
+			undoableEditHappened(() -> new IntEdit(e, n));
 		}
 		lock.unlock();
 	}
@@ -129,10 +128,12 @@ public class ViewElementInt extends ViewElement implements DocumentListener, Pro
 
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
-		if(lock.isLocked()) return;
-		lock.lock();
 		Integer i = (Integer)evt.getNewValue();
-		field.setText(i.toString());
-		lock.unlock();
+		runOnSwingThread(()->{
+			if(lock.isHeldByCurrentThread()) return;
+			lock.lock();
+			field.setText(i.toString());
+			lock.unlock();
+		});
 	}
 }
@@ -8,8 +8,6 @@ import javax.swing.JLabel;
 import javax.swing.JSlider;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.IntEdit;
@@ -56,8 +54,11 @@ public class ViewElementSlider extends ViewElement implements ChangeListener, Pr
 	 */
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
-		field.setValue((Integer)evt.getNewValue());
-		value.setText(Integer.toString(field.getValue()));
+		int newValue = (Integer)evt.getNewValue();
+		runOnSwingThread(()->{
+			field.setValue(newValue);
+			value.setText(Integer.toString(field.getValue()));
+		});
 	}
 
 	@Override
@@ -66,8 +67,7 @@ public class ViewElementSlider extends ViewElement implements ChangeListener, Pr
 		int newValue = field.getValue();
 		
 		if(newValue!=oldValue) {
-			AbstractUndoableEdit event = new IntEdit(e,newValue);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new IntEdit(e,newValue));
 		}
 	}
 
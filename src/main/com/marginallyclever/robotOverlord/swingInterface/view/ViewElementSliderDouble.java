@@ -8,8 +8,6 @@ import javax.swing.JLabel;
 import javax.swing.JSlider;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.DoubleEdit;
@@ -57,12 +55,15 @@ public class ViewElementSliderDouble extends ViewElement implements ChangeListen
 	 */
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
-		inUpdate=true;
-		if(field != null) {
-			field.setValue((int)Math.floor((Double)evt.getNewValue()*10));
-			value.setText(Double.toString(field.getValue()/10.0));
-		}
-		inUpdate=false;
+		double newValue = (Double)evt.getNewValue();
+		runOnSwingThread(()->{
+			inUpdate=true;
+			if(field != null) {
+				field.setValue((int)Math.floor(newValue*10));
+				value.setText(Double.toString(field.getValue()/10.0));
+			}
+			inUpdate=false;
+		});
 	}
 
 	@Override
@@ -73,8 +74,7 @@ public class ViewElementSliderDouble extends ViewElement implements ChangeListen
 		double newValue = field.getValue()/10.0;
 		
 		if(newValue!=oldValue) {
-			AbstractUndoableEdit event = new DoubleEdit(e,newValue);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new DoubleEdit(e,newValue));
 		}
 	}
 
@@ -9,8 +9,6 @@ import javax.swing.JLabel;
 import javax.swing.JTextField;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 
 import com.marginallyclever.robotOverlord.RobotOverlord;
 import com.marginallyclever.robotOverlord.swingInterface.undoableEdits.StringEdit;
@@ -50,13 +48,13 @@ public class ViewElementString extends ViewElement implements DocumentListener,
 	 */
 	@Override
 	public void changedUpdate(DocumentEvent arg0) {
-		if(lock.isLocked()) return;
+		// a change made by this view on this thread, not by the user.
+		if(lock.isHeldByCurrentThread()) return;
 		lock.lock();
 
 		String newValue = field.getText();
 		if( !newValue.equals(e.get()) ) {
-			AbstractUndoableEdit event = new StringEdit(e, newValue);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this,event) );
+			undoableEditHappened(() -> new StringEdit(e, newValue));
 		}
 		lock.unlock();
 	}
@@ -76,11 +74,13 @@ public class ViewElementString extends ViewElement implements DocumentListener,
 	 */
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
-		
-		if(lock.isLocked()) return;
-		lock.lock();
-		field.setText((String)evt.getNewValue());
-		lock.unlock();
+		String value = (String)evt.getNewValue();
+		runOnSwingThread(()->{
+			if(lock.isHeldByCurrentThread()) return;
+			lock.lock();
+			field.setText(value);
+			lock.unlock();
+		});
 	}
 
 	@Override
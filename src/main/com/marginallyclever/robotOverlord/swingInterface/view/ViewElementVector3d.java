@@ -18,8 +18,6 @@ import javax.swing.JTextField;
 import javax.swing.UIManager;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.undo.AbstractUndoableEdit;
 import javax.vecmath.Vector3d;
 
 import com.marginallyclever.convenience.StringHelper;
@@ -103,7 +101,8 @@ public class ViewElementVector3d extends ViewElement implements DocumentListener
 	}
 	
 	protected void conditionalChange() {
-		if(lock.isLocked()) return;
+		// a change made by this view on this thread, not by the user.
+		if(lock.isHeldByCurrentThread()) return;
 		lock.lock();
 			
 		Vector3d oldValue = e.get(); 
@@ -117,8 +116,7 @@ public class ViewElementVector3d extends ViewElement implements DocumentListener
 		diff.sub(newValue,oldValue);
 		
 		if(diff.lengthSquared()>1e-6) {
-			AbstractUndoableEdit event = new Vector3dEdit(e, newValue);
-			if(ro!=null) ro.undoableEditHappened(new UndoableEditEvent(this, event) );
+			undoableEditHappened(() -> new Vector3dEdit(e, newValue));
 		}
 		
 		lock.unlock();
@@ -150,15 +148,16 @@ public class ViewElementVector3d extends ViewElement implements DocumentListener
 
 	@Override
 	public void propertyChange(PropertyChangeEvent evt) {
-		Object o = evt.getSource();
-		
-		if(lock.isLocked()) return;
-		lock.lock();
-		Vector3d input = (Vector3d)o;
-		fields[0].setText(StringHelper.formatDouble(input.x));
-		fields[1].setText(StringHelper.formatDouble(input.y));
-		fields[2].setText(StringHelper.formatDouble(input.z));
-		lock.unlock();		
+		// a copy, in case the simulation changes it again before Swing gets to it.
+		Vector3d input = new Vector3d((Vector3d)evt.getNewValue());
+		runOnSwingThread(()->{
+			if(lock.isHeldByCurrentThread()) return;
+			lock.lock();
+			fields[0].setText(StringHelper.formatDouble(input.x));
+			fields[1].setText(StringHelper.formatDouble(input.y));
+			fields[2].setText(StringHelper.formatDouble(input.z));
+			lock.unlock();
+		});
 	}
 
 	@Override
@@ -1,7 +1,13 @@
 package com.marginallyclever.robotOverlord.uiExposedTypes;
 
+import java.beans.PropertyChangeEvent;
+import java.util.Arrays;
+import java.util.Objects;
+
 import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.GLStateCache;
 import com.marginallyclever.robotOverlord.Entity;
+import com.marginallyclever.robotOverlord.shape.RenderQueue;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewPanel;
 
 
@@ -22,6 +28,11 @@ public class MaterialEntity extends Entity {
 	private IntEntity shininess    = new IntEntity("Shininess",10);
 	private BooleanEntity isLit    = new BooleanEntity("Lit",true);
 	private TextureEntity texture  = new TextureEntity();
+	
+	// counts changes to any property, so anything built from this material can tell it is out of date.
+	private transient long version;
+	// for render(GL2), which can't know what is already set.
+	private static final GLStateCache uncached = new GLStateCache();
 		
 	public MaterialEntity() {
 		super();
@@ -34,30 +45,81 @@ public class MaterialEntity extends Entity {
 		addChild(ambient);
 		addChild(shininess);
 		addChild(texture);
+		
+		for(Entity e : getChildren()) e.addPropertyChangeListener(this);
+	}
+	
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		version++;
 	}
 	
+	/**
+	 * @return a number that changes every time a property of this material changes.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @param b another material
+	 * @return true if b would draw exactly like this material.
+	 */
+	public boolean hasSameValues(MaterialEntity b) {
+		if(b==this) return true;
+		return Arrays.equals(ambient.get(), b.ambient.get())
+			&& Arrays.equals(diffuse.get(), b.diffuse.get())
+			&& Arrays.equals(specular.get(), b.specular.get())
+			&& Arrays.equals(emission.get(), b.emission.get())
+			&& shininess.get().equals(b.shininess.get())
+			&& isLit.get().equals(b.isLit.get())
+			&& Objects.equals(texture.get(), b.texture.get());
+	}
+	
+	/**
+	 * Set the material, the same as {@link #render(GL2, GLStateCache)} without skipping anything.
+	 * @param gl2 the render context
+	 */
 	public void render(GL2 gl2) {
-		gl2.glColor4d(diffuse.getR(),diffuse.getG(),diffuse.getB(),diffuse.getA());
-		gl2.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, diffuse.getFloatArray(),0);
-	    gl2.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, specular.getFloatArray(),0);
-	    gl2.glMaterialfv(GL2.GL_FRONT, GL2.GL_EMISSION, emission.getFloatArray(),0);
-	    gl2.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, ambient.getFloatArray(),0);
-	    gl2.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, shininess.get().floatValue());
-	    gl2.glColorMaterial(GL2.GL_FRONT,GL2.GL_AMBIENT_AND_DIFFUSE );
-	    
-	    boolean isColorEnabled = gl2.glIsEnabled(GL2.GL_COLOR_MATERIAL);
-		gl2.glDisable(GL2.GL_COLOR_MATERIAL);
-		
-		gl2.glShadeModel(GL2.GL_SMOOTH);
-		
-	    if(isLit()) gl2.glEnable(GL2.GL_LIGHTING);
-	    else gl2.glDisable(GL2.GL_LIGHTING);
+		uncached.invalidate();
+		render(gl2,uncached);
+		// the render queue, if any, no longer knows what is set.
+		RenderQueue.invalidateState();
+	}
 
-	    texture.render(gl2);
-	    
-	    if(isColorEnabled) gl2.glEnable(GL2.GL_COLOR_MATERIAL);
+	/**
+	 * Set the material, skipping whatever is already set.  Never reads state back from OpenGL.
+	 * @param gl2 the render context
+	 * @param state what is already set.
+	 */
+	public void render(GL2 gl2,GLStateCache state) {
+		state.setColor(gl2, diffuse.getFloatArray());
+		state.setMaterial(gl2, GL2.GL_DIFFUSE, diffuse.getFloatArray());
+		state.setMaterial(gl2, GL2.GL_SPECULAR, specular.getFloatArray());
+		state.setMaterial(gl2, GL2.GL_EMISSION, emission.getFloatArray());
+		state.setMaterial(gl2, GL2.GL_AMBIENT, ambient.getFloatArray());
+		state.setShininess(gl2, shininess.get().floatValue());
+		state.setColorMaterial(gl2, GL2.GL_AMBIENT_AND_DIFFUSE);
+		// the color must not replace the material.
+		state.setEnabled(gl2, GL2.GL_COLOR_MATERIAL, false);
+		state.setShadeModel(gl2, GL2.GL_SMOOTH);
+		state.setEnabled(gl2, GL2.GL_LIGHTING, isLit());
+		texture.render(gl2,state);
+	}
+
+	/**
+	 * @return true if some of this material can be seen through.
+	 */
+	public boolean isTransparent() {
+		return diffuse.getA()<1;
+	}
+
+	/**
+	 * @return true if the texture of this material is loaded and was used by the last render.
+	 */
+	public boolean isTextured() {
+		return texture.isReady();
 	}
-	
 
 	public void setShininess(int arg0) {
 		arg0 = Math.min(Math.max(arg0, 0), 128);
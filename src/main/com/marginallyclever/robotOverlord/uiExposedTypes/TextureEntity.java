@@ -1,27 +1,33 @@
 package com.marginallyclever.robotOverlord.uiExposedTypes;
 
-import java.io.IOException;
+import java.lang.ref.Cleaner;
 import java.util.ArrayList;
 
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.util.texture.Texture;
-import com.jogamp.opengl.util.texture.TextureIO;
-import com.marginallyclever.convenience.FileAccess;
-import com.marginallyclever.convenience.log.Log;
+import com.marginallyclever.convenience.GLStateCache;
+import com.marginallyclever.robotOverlord.TextureHandle;
+import com.marginallyclever.robotOverlord.TexturePool;
 import com.marginallyclever.robotOverlord.swingInterface.view.ViewPanel;
 
-// TODO Load textures from a texture pool to eliminate duplicates?  See ShapeEntity for example.
+/**
+ * The name of an image file, and the texture loaded from it.  Textures come from the {@link TexturePool}, so every
+ * {@link TextureEntity} with the same image shares one copy.  Nothing is drawn with the texture until it has
+ * loaded in the background.
+ * @author Dan Royer
+ */
 public class TextureEntity extends StringEntity {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = -2104122122058199991L;
 	
-	private transient Texture texture;
-	private transient boolean textureDirty;
+	private static final Cleaner cleaner = Cleaner.create();
+
+	private transient TextureHandle handle;
+	private transient Cleaner.Cleanable handleReference;
 	
 	public TextureEntity() {
 		super();
@@ -31,37 +37,85 @@ public class TextureEntity extends StringEntity {
 	public TextureEntity(String fileName) {
 		super(fileName);
 		setName("Texture");
-		textureDirty=false;
 	}
 
 	public void render(GL2 gl2) {
-		if(textureDirty) {
-			// texture has changed, load the new texture.
-			if(t == null || t.length()==0) texture = null;
-			else {
-				try {
-					texture = TextureIO.newTexture(FileAccess.open(t), false, t.substring(t.lastIndexOf('.')+1));
-				} catch(IOException e) {
-					//e.printStackTrace();
-					Log.error("I can't load "+t);
-				}
-				textureDirty=false;
-			}
-		}
-	    if(texture==null) {
-			gl2.glDisable(GL2.GL_TEXTURE_2D);
-	    } else {
+		updateTexture();
+		if(handle!=null && handle.bind(gl2)) {
 			gl2.glEnable(GL2.GL_TEXTURE_2D);
-	    	texture.bind(gl2);
-	    }
+		} else {
+			gl2.glDisable(GL2.GL_TEXTURE_2D);
+		}
+	}
+
+	/**
+	 * The same as {@link #render(GL2)}, skipping whatever is already set.
+	 * @param gl2 the render context
+	 * @param state what is already set.
+	 */
+	public void render(GL2 gl2,GLStateCache state) {
+		updateTexture();
+		int id = (handle==null) ? 0 : handle.getTextureId();
+		if(id!=0) {
+			state.bindTexture(gl2, id);
+			state.setEnabled(gl2, GL2.GL_TEXTURE_2D, true);
+		} else {
+			state.setEnabled(gl2, GL2.GL_TEXTURE_2D, false);
+		}
+	}
+
+	/**
+	 * @return true if the texture is loaded and can be drawn.
+	 */
+	public boolean isReady() {
+		return handle!=null && handle.isReady();
+	}
+
+	private void updateTexture() {
+		if(handle==null ? (t!=null && t.length()>0) : !handle.getSourceName().equals(t)) {
+			// the file has changed, use the new texture.
+			attachTexture((t==null || t.length()==0) ? null : TexturePool.acquire(t));
+		}
 	}
 
+	/**
+	 * Give up the old texture and keep h until the next one, until this entity leaves the scene, or until it is
+	 * garbage collected.
+	 * @param h the new texture, or null.
+	 */
+	private void attachTexture(TextureHandle h) {
+		if(handleReference!=null) handleReference.clean();
+		handleReference=null;
+		handle = h;
+		if(h!=null) handleReference = cleaner.register(this, new TextureReleaser(h));
+	}
+
+	/**
+	 * Removing this entity from the scene, or any branch above it, gives up the texture.  Putting it back, as with
+	 * undo, takes it again the next time it is drawn.
+	 */
 	@Override
-	public void set(String s) {
-		super.set(s);
-		textureDirty=true;
+	protected void setBranchAttached(boolean isAttached) {
+		super.setBranchAttached(isAttached);
+		if(!isAttached) attachTexture(null);
 	}
-	
+
+	/**
+	 * Must not refer to the {@link TextureEntity}, or it could never be garbage collected.
+	 */
+	private static class TextureReleaser implements Runnable {
+		private final TextureHandle handle;
+
+		public TextureReleaser(TextureHandle handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		public void run() {
+			TexturePool.release(handle);
+		}
+	}
+
 	@Override
 	public void getView(ViewPanel view) {
 		//TODO Swing elements like FileFilter should not be mentioned outside of the view.
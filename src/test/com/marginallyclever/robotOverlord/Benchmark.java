@@ -0,0 +1,20 @@
+package com.marginallyclever.robotOverlord;
+
+/**
+ * The benchmark tests check their results on every run, but only print their timings when asked with
+ * -Dbenchmark=true, so a normal test run stays quiet and never depends on how fast the machine is.
+ * @author Dan Royer
+ */
+public class Benchmark {
+	public static boolean isEnabled() {
+		return Boolean.getBoolean("benchmark");
+	}
+
+	/**
+	 * Print message if benchmarks are enabled.
+	 * @param message the timings
+	 */
+	public static void report(String message) {
+		if(isEnabled()) System.out.println(message);
+	}
+}
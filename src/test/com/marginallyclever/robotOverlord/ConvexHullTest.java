@@ -0,0 +1,234 @@
+package com.marginallyclever.robotOverlord;
+
+import java.util.Random;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.marginallyclever.convenience.Cuboid;
+import com.marginallyclever.convenience.GJK;
+import com.marginallyclever.convenience.IntersectionHelper;
+import com.marginallyclever.robotOverlord.shape.ConvexHull;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveOBJ;
+
+public class ConvexHullTest {
+	private static Mesh loadOBJ(String name) throws Exception {
+		Mesh m = new Mesh();
+		assert(new ShapeLoadAndSaveOBJ().load(name,m));
+		m.updateCuboid();
+		return m;
+	}
+
+	/**
+	 * @return the eight corners of a cube from -s to s, then some points inside it.
+	 */
+	private static double [] cubePoints(double s,int inside,Random r) {
+		double [] p = new double[(8+inside)*3];
+		for(int i=0;i<8;++i) {
+			p[i*3  ] = (i&1)!=0 ? s : -s;
+			p[i*3+1] = (i&2)!=0 ? s : -s;
+			p[i*3+2] = (i&4)!=0 ? s : -s;
+		}
+		for(int i=8*3;i<p.length;++i) p[i] = (r.nextDouble()*2-1)*s;
+		return p;
+	}
+
+	/**
+	 * @return points spread evenly over a sphere.
+	 */
+	private static double [] spherePoints(double radius,int n) {
+		double [] p = new double[n*3];
+		double golden = Math.PI*(3-Math.sqrt(5));
+		for(int i=0;i<n;++i) {
+			double z = 1-2.0*(i+0.5)/n;
+			double r = Math.sqrt(1-z*z);
+			p[i*3  ] = Math.cos(golden*i)*r*radius;
+			p[i*3+1] = Math.sin(golden*i)*r*radius;
+			p[i*3+2] = z*radius;
+		}
+		return p;
+	}
+
+	/**
+	 * Every point must be on or behind every face, and the faces must close like a sphere.
+	 */
+	private static void assertHullHolds(ConvexHull hull,double [] p,double epsilon) {
+		for(int f=0;f<hull.getNumFaces();++f) {
+			int a = hull.getFaceVertex(f,0), b = hull.getFaceVertex(f,1), c = hull.getFaceVertex(f,2);
+			Vector3d va = new Vector3d(hull.getVertexX(a),hull.getVertexY(a),hull.getVertexZ(a));
+			Vector3d ab = new Vector3d(hull.getVertexX(b),hull.getVertexY(b),hull.getVertexZ(b));  ab.sub(va);
+			Vector3d ac = new Vector3d(hull.getVertexX(c),hull.getVertexY(c),hull.getVertexZ(c));  ac.sub(va);
+			Vector3d n = new Vector3d();
+			n.cross(ab,ac);
+			if(n.length()==0) continue;
+			n.normalize();
+			for(int i=0;i<p.length;i+=3) {
+				double d = n.x*(p[i]-va.x) + n.y*(p[i+1]-va.y) + n.z*(p[i+2]-va.z);
+				assert(d<=epsilon) : "point "+(i/3)+" is "+d+" outside face "+f;
+			}
+		}
+		// V - E + F = 2, and every edge is in two faces.
+		int faces = hull.getNumFaces();
+		assert(hull.getNumVertices() - faces*3/2 + faces == 2);
+	}
+
+	private static Matrix4d pose(double angle,double x,double y,double z) {
+		Matrix4d m = new Matrix4d();
+		m.rotZ(angle);
+		m.setTranslation(new Vector3d(x,y,z));
+		return m;
+	}
+
+	@Test
+	public void testCube() {
+		double [] p = cubePoints(1,1000,new Random(1));
+		ConvexHull hull = new ConvexHull(p);
+		assert(hull.getNumPoints()==1008);
+		assert(hull.getNumVertices()==8) : hull.getNumVertices();
+		assert(hull.getNumFaces()==12) : hull.getNumFaces();
+		assertHullHolds(hull,p,1e-9);
+
+		// climbing the hull from any vertex finds the corner furthest along the direction.
+		for(int start=0;start<8;++start) {
+			int v = hull.support(1,2,3,start);
+			assert(hull.getVertexX(v)==1 && hull.getVertexY(v)==1 && hull.getVertexZ(v)==1);
+		}
+	}
+
+	@Test
+	public void testMesh() throws Exception {
+		Mesh m = loadOBJ("/Sixi2/bicep.obj");
+		ConvexHull hull = m.getConvexHull();
+		assert(m.getConvexHull()==hull);
+		assert(hull.getNumVertices()<m.getNumVertices());
+		double [] p = new double[m.getNumVertices()*3];
+		for(int i=0;i<p.length;++i) p[i] = m.getVertexArray().get(i);
+		assertHullHolds(hull,p,1e-4);
+	}
+
+	@Test
+	public void testGJKCubes() {
+		ConvexHull cube = new ConvexHull(cubePoints(1,0,null));
+		Matrix4d ma = pose(0,0,0,0);
+
+		assert(Math.abs(GJK.distance(cube,ma,cube,pose(0,3,0,0))-1)<1e-9);
+		assert(Math.abs(GJK.distance(cube,ma,cube,pose(0,2,0,0)))<1e-9);
+		assert(Math.abs(GJK.distance(cube,ma,cube,pose(0,1.5,0,0))+0.5)<1e-6);
+		// corner to corner
+		double d = GJK.distance(cube,ma,cube,pose(0,3,3,3));
+		assert(Math.abs(d-Math.sqrt(3))<1e-9) : d;
+		// turned 45 degrees the corner reaches sqrt(2) along x.
+		d = GJK.distance(cube,ma,cube,pose(Math.PI/4,3,0,0));
+		assert(Math.abs(d-(2-Math.sqrt(2)))<1e-9) : d;
+		assert(GJK.intersects(cube,ma,cube,pose(Math.PI/4,2.3,0,0)));
+	}
+
+	/**
+	 * A hull of many points on a sphere is nearly a sphere, so distance and depth are nearly what a sphere would give.
+	 */
+	@Test
+	public void testGJKSpheres() {
+		double radius = 10;
+		ConvexHull sphere = new ConvexHull(spherePoints(radius,2000));
+		Random r = new Random(2);
+		Matrix4d ma = pose(0,0,0,0);
+		for(int i=0;i<1000;++i) {
+			Vector3d c = new Vector3d(r.nextGaussian(),r.nextGaussian(),r.nextGaussian());
+			c.normalize();
+			c.scale(r.nextDouble()*40+1);
+			double expected = c.length()-radius*2;
+			double actual = GJK.distance(sphere,ma,sphere,pose(r.nextDouble()*6,c.x,c.y,c.z));
+			assert(Math.abs(actual-expected)<radius*0.02) : "test "+i+" "+expected+" vs "+actual;
+		}
+	}
+
+	/**
+	 * Put the hand in random places around the L shaped bicep.  Count how often the boxes, the hulls, and the
+	 * triangles touch, and time each test.
+	 */
+	@Test
+	public void compareWithCuboidsAndMeshes() throws Exception {
+		Mesh a = loadOBJ("/Sixi2/bicep.obj");
+		Mesh b = loadOBJ("/Sixi2/hand.obj");
+		a.getConvexHull();
+		b.getConvexHull();
+		a.getBVH();
+		b.getBVH();
+
+		Cuboid ca = new Cuboid();
+		ca.set(a.getCuboid());
+		Cuboid cb = new Cuboid();
+		cb.set(b.getCuboid());
+		Matrix4d ma = pose(0,0,0,0);
+		ca.setPose(ma);
+
+		// spin the hand around its middle and drop it somewhere near the middle of the bicep.
+		Vector3d centerA = new Vector3d(a.getCuboid().getBoundsTop());
+		centerA.add(a.getCuboid().getBoundsBottom());
+		centerA.scale(0.5);
+		Vector3d centerB = new Vector3d(b.getCuboid().getBoundsTop());
+		centerB.add(b.getCuboid().getBoundsBottom());
+		centerB.scale(-0.5);
+		Matrix4d toCenterB = pose(0,centerB.x,centerB.y,centerB.z);
+
+		Random r = new Random(3);
+		int tests=2000;
+		Matrix4d [] poses = new Matrix4d[tests];
+		for(int i=0;i<tests;++i) {
+			Matrix4d m = new Matrix4d();
+			m.rotX(r.nextDouble()*Math.PI*2);
+			Matrix4d m2 = new Matrix4d();
+			m2.rotY(r.nextDouble()*Math.PI*2);
+			m.mul(m2);
+			m.setTranslation(new Vector3d(
+					centerA.x+r.nextGaussian()*8,
+					centerA.y+r.nextGaussian()*8,
+					centerA.z+r.nextGaussian()*15));
+			m.mul(toCenterB);
+			poses[i]=m;
+		}
+
+		boolean [] boxHit = new boolean[tests];
+		boolean [] hullHit = new boolean[tests];
+		boolean [] meshHit = new boolean[tests];
+		long boxTime=0, hullTime=0, meshTime=0;
+
+		// the first pass warms up the compiler.
+		for(int pass=0;pass<2;++pass) {
+			long start = System.nanoTime();
+			for(int i=0;i<tests;++i) {
+				cb.setPose(poses[i]);
+				boxHit[i] = IntersectionHelper.cuboidCuboid(ca,cb);
+			}
+			boxTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for(int i=0;i<tests;++i) hullHit[i] = GJK.intersects(a.getConvexHull(),ma,b.getConvexHull(),poses[i]);
+			hullTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for(int i=0;i<tests;++i) meshHit[i] = IntersectionHelper.meshMesh(ma,a,poses[i],b);
+			meshTime = System.nanoTime()-start;
+		}
+
+		int boxes=0, hulls=0, meshes=0;
+		for(int i=0;i<tests;++i) {
+			// the hull holds the mesh and the box holds the hull.
+			if(meshHit[i]) assert(hullHit[i]) : "test "+i;
+			if(hullHit[i]) assert(boxHit[i]) : "test "+i;
+			if(boxHit[i]) boxes++;
+			if(hullHit[i]) hulls++;
+			if(meshHit[i]) meshes++;
+		}
+		assert(hulls<boxes);
+
+		Benchmark.report("ConvexHullTest.compareWithCuboidsAndMeshes "
+				+a.getNumTriangles()+" triangles, hull of "+a.getConvexHull().getNumVertices()+" vertexes."
+				+" hits of "+tests+": box="+boxes+" hull="+hulls+" mesh="+meshes
+				+" (false positives box="+(boxes-meshes)+" hull="+(hulls-meshes)+")"
+				+" time each: box="+(boxTime/tests/1000)+"us hull="+(hullTime/tests/1000)+"us mesh="+(meshTime/tests/1000)+"us");
+	}
+}
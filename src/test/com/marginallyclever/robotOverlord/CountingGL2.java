@@ -0,0 +1,133 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * A {@link GL2} that draws nothing and counts the calls made to it, so render code can be tested and timed
+ * without a window.  GL2 has too many methods for {@link java.lang.reflect.Proxy}, so the class is written and
+ * compiled on first use.
+ * <p>
+ * Every int query answers 1, every glGet*iv writes 1 (so shaders compile and link), glGenTextures names texture 1, and
+ * isFunctionAvailable answers {@link #setFunctionsAvailable(boolean)}.
+ * @author Dan Royer
+ */
+public class CountingGL2 {
+	private static final String STUB_NAME = "CountingGL2Stub";
+	private static Class<?> stubClass;
+
+	/**
+	 * @return a new stub.  They all share the same counters.
+	 */
+	public static GL2 create() throws Exception {
+		if(stubClass==null) stubClass = compile();
+		return (GL2)stubClass.getDeclaredConstructor().newInstance();
+	}
+
+	public static void reset() throws Exception {
+		stubClass.getField("calls").setLong(null,0);
+		stubClass.getField("draws").setLong(null,0);
+	}
+
+	/**
+	 * @return the number of calls since {@link #reset()}.
+	 */
+	public static long getCalls() throws Exception {
+		return stubClass.getField("calls").getLong(null);
+	}
+
+	/**
+	 * @return the number of glDraw* calls since {@link #reset()}.
+	 */
+	public static long getDraws() throws Exception {
+		return stubClass.getField("draws").getLong(null);
+	}
+
+	/**
+	 * @param state true to pretend every GL function is available.
+	 */
+	public static void setFunctionsAvailable(boolean state) throws Exception {
+		stubClass.getField("functionsAvailable").setBoolean(null,state);
+	}
+
+	private static Class<?> compile() throws Exception {
+		// one method per signature, with the most specific return type.
+		Map<String,Method> methods = new HashMap<String,Method>();
+		for(Method m : GL2.class.getMethods()) {
+			if(Modifier.isStatic(m.getModifiers())) continue;
+			String key = m.getName()+Arrays.toString(m.getParameterTypes());
+			Method old = methods.get(key);
+			if(old==null || old.getReturnType().isAssignableFrom(m.getReturnType())) methods.put(key,m);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("@SuppressWarnings(\"all\")\n");
+		sb.append("public class "+STUB_NAME+" implements com.jogamp.opengl.GL2 {\n");
+		sb.append("public static long calls, draws;\n");
+		sb.append("public static boolean functionsAvailable;\n");
+		for(Method m : methods.values()) {
+			Class<?> [] params = m.getParameterTypes();
+			Class<?> type = m.getReturnType();
+			String name = m.getName();
+			sb.append("public ").append(type.getCanonicalName()).append(' ').append(name).append('(');
+			for(int i=0;i<params.length;++i) {
+				if(i>0) sb.append(',');
+				sb.append(params[i].getCanonicalName()).append(" a").append(i);
+			}
+			sb.append(") {\n");
+			sb.append("calls++;\n");
+			if(name.startsWith("glDraw")) sb.append("draws++;\n");
+			if((name.startsWith("glGet") || name.equals("glGenTextures")) && params.length>=2
+					&& params[params.length-2]==int[].class && params[params.length-1]==int.class) {
+				sb.append("a").append(params.length-2).append("[a").append(params.length-1).append("]=1;\n");
+			}
+			if(type==void.class) {
+				// nothing
+			} else if(type==boolean.class) {
+				sb.append("return ").append(name.equals("isFunctionAvailable") ? "functionsAvailable" : "false").append(";\n");
+			} else if(type.isPrimitive()) {
+				sb.append("return (").append(type.getName()).append(")1;\n");
+			} else if(type.isAssignableFrom(GL2.class)) {
+				sb.append("return this;\n");
+			} else {
+				sb.append("return null;\n");
+			}
+			sb.append("}\n");
+		}
+		sb.append("}\n");
+
+		File dir = Files.createTempDirectory(STUB_NAME).toFile();
+		File source = new File(dir,STUB_NAME+".java");
+		try(FileWriter w = new FileWriter(source)) {
+			w.write(sb.toString());
+		}
+
+		// jogl may be on the class path or the module path.
+		String classPath = System.getProperty("java.class.path","");
+		String modulePath = System.getProperty("jdk.module.path");
+		if(modulePath!=null) classPath += File.pathSeparator+modulePath;
+
+		// through reflection, so this module does not have to require java.compiler.
+		Object javac = Class.forName("javax.tools.ToolProvider").getMethod("getSystemJavaCompiler").invoke(null);
+		if(javac==null) throw new Exception("CountingGL2 needs a JDK.");
+		Method run = Class.forName("javax.tools.Tool").getMethod("run",InputStream.class,OutputStream.class,OutputStream.class,String[].class);
+		String [] args = { "-nowarn","-classpath",classPath,"-d",dir.getPath(),source.getPath() };
+		int result = (Integer)run.invoke(javac,null,null,null,args);
+		if(result!=0) throw new Exception(STUB_NAME+" did not compile.");
+
+		URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() },GL2.class.getClassLoader());
+		return loader.loadClass(STUB_NAME);
+	}
+}
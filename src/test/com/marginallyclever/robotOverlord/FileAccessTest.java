@@ -0,0 +1,159 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.convenience.FileAccess;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshCache;
+
+public class FileAccessTest {
+	private File tempDirectory;
+	private int oldMaxOpen;
+	private boolean cacheWasEnabled;
+
+	@Before
+	public void before() throws IOException {
+		tempDirectory = Files.createTempDirectory("fileAccess").toFile();
+		oldMaxOpen = FileAccess.getMaxOpenZipFiles();
+		cacheWasEnabled = MeshCache.isEnabled();
+		MeshCache.setEnabled(false);
+	}
+
+	@After
+	public void after() {
+		FileAccess.closeZipFiles();
+		FileAccess.setMaxOpenZipFiles(oldMaxOpen);
+		MeshCache.setEnabled(cacheWasEnabled);
+		for(File f : tempDirectory.listFiles()) f.delete();
+		tempDirectory.delete();
+	}
+
+	/**
+	 * Pack the Sixi2 demo meshes into a zip.  Every other entry is stored instead of deflated.
+	 */
+	private File makeZip(String name) throws IOException {
+		File zip = new File(tempDirectory,name);
+		try(ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+			int i=0;
+			for(String part : MeshCacheTest.SIXI2) {
+				byte [] data = read(part);
+				ZipEntry entry = new ZipEntry(entryName(part));
+				if((i++%2)==1) {
+					CRC32 crc = new CRC32();
+					crc.update(data);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(data.length);
+					entry.setCrc(crc.getValue());
+				}
+				out.putNextEntry(entry);
+				out.write(data);
+				out.closeEntry();
+			}
+		}
+		return zip;
+	}
+
+	private static String entryName(String part) {
+		return part.substring(1).replace('/', '_');
+	}
+
+	private static byte [] read(String name) throws IOException {
+		try(BufferedInputStream stream = FileAccess.open(name)) {
+			return stream.readAllBytes();
+		}
+	}
+
+	@Test
+	public void testReadEntries() throws Exception {
+		File zip = makeZip("parts.zip");
+		for(String part : MeshCacheTest.SIXI2) {
+			byte [] expected = read(part);
+			byte [] actual = read(zip.getAbsolutePath()+":"+entryName(part));
+			assert(Arrays.equals(expected, actual)) : part;
+		}
+		assert(FileAccess.getNumOpenZipFiles()==1);
+
+		try {
+			read(zip.getAbsolutePath()+":missing.stl");
+			assert(false);
+		} catch(IOException e) {}
+
+		Mesh m = Mesh.createModelFromFilename(zip.getAbsolutePath()+":"+entryName("/table.stl"));
+		assert(m.getNumTriangles()>0);
+	}
+
+	@Test
+	public void testEvictionWaitsForOpenStreams() throws IOException {
+		FileAccess.setMaxOpenZipFiles(1);
+		File a = makeZip("a.zip");
+		File b = makeZip("b.zip");
+		String part = entryName("/table.stl");
+		byte [] expected = read("/table.stl");
+
+		try(InputStream stillReading = FileAccess.open(a.getAbsolutePath()+":"+part)) {
+			// opening b evicts a, but a stays open until this stream is done.
+			read(b.getAbsolutePath()+":"+part);
+			assert(FileAccess.getNumOpenZipFiles()==1);
+			assert(Arrays.equals(expected, stillReading.readAllBytes()));
+		}
+
+		// a changed on disk, so it is opened again.
+		read(a.getAbsolutePath()+":"+part);
+		File c = makeZip("c.zip");
+		Files.copy(c.toPath(), a.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		a.setLastModified(a.lastModified()+2000);
+		assert(Arrays.equals(expected, read(a.getAbsolutePath()+":"+part)));
+	}
+
+	/**
+	 * Read every part of a pack the old way (scan the archive once per part) and the new way.  Both must
+	 * read the same bytes.
+	 */
+	@Test
+	public void benchmarkPartsFromOneZip() throws IOException {
+		File zip = makeZip("pack.zip");
+		byte [][] scanned = new byte[MeshCacheTest.SIXI2.length][];
+		long scanStart = System.nanoTime();
+		for(int i=0;i<scanned.length;++i) {
+			try(ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+				ZipEntry entry;
+				while((entry=in.getNextEntry())!=null) {
+					if(entry.getName().equals(entryName(MeshCacheTest.SIXI2[i]))) {
+						scanned[i] = in.readAllBytes();
+						break;
+					}
+				}
+			}
+		}
+		long scanTime = System.nanoTime()-scanStart;
+
+		FileAccess.closeZipFiles();
+		byte [][] indexed = new byte[scanned.length][];
+		long indexStart = System.nanoTime();
+		for(int i=0;i<indexed.length;++i) {
+			indexed[i] = read(zip.getAbsolutePath()+":"+entryName(MeshCacheTest.SIXI2[i]));
+		}
+		long indexTime = System.nanoTime()-indexStart;
+
+		for(int i=0;i<scanned.length;++i) {
+			assert(Arrays.equals(scanned[i],indexed[i])) : MeshCacheTest.SIXI2[i];
+		}
+		Benchmark.report("FileAccessTest.benchmarkPartsFromOneZip scan="+(scanTime/1000000)+"ms index="+(indexTime/1000000)+"ms");
+	}
+}
@@ -0,0 +1,143 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.Shape;
+
+public class FrustumCullingTest {
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 600;
+
+	private static Mesh cube() {
+		Mesh m = new Mesh();
+		for(int i=0;i<8;++i) {
+			m.addVertex((i&1)-0.5f,((i>>1)&1)-0.5f,((i>>2)&1)-0.5f);
+		}
+		int [] faces = {
+			0,2,1, 1,2,3,  4,5,6, 5,7,6,
+			0,1,4, 1,5,4,  2,6,3, 3,6,7,
+			0,4,2, 2,4,6,  1,3,5, 3,7,5,
+		};
+		for(int i : faces) m.addIndex(i);
+		m.updateCuboid();
+		return m;
+	}
+
+	private static Shape addCube(Entity parent,Mesh mesh,double x,double y,double z) {
+		Shape s = new Shape();
+		s.setModel(mesh);
+		s.setPosition(new Vector3d(x,y,z));
+		parent.addChild(s);
+		return s;
+	}
+
+	/**
+	 * A scene, a camera at z=100 looking down, and a viewport of that camera.
+	 */
+	private static class World {
+		Entity root = new Entity();
+		Scene scene = new Scene();
+		Camera camera = new Camera();
+		Viewport viewport = new Viewport();
+
+		World() {
+			root.addChild(scene);
+			root.addChild(camera);
+			root.addChild(viewport);
+			camera.setPosition(new Vector3d(0,0,100));
+			viewport.setAttachedTo(camera.getFullPath());
+			viewport.setCanvasWidth(WIDTH);
+			viewport.setCanvasHeight(HEIGHT);
+		}
+
+		/**
+		 * Draw the scene children through the culler, as {@link Scene#render(GL2)} does.
+		 */
+		FrustumCuller draw(GL2 gl2) {
+			FrustumCuller culler = scene.getFrustumCuller();
+			culler.begin(viewport);
+			for(Entity e : scene.getChildren()) FrustumCuller.render(gl2,e);
+			culler.end();
+			return culler;
+		}
+	}
+
+	@Test
+	public void testFrustum() {
+		World w = new World();
+		Frustum f = new Frustum();
+		w.viewport.getFrustum(f);
+		assert(f.test(new Point3d(-1,-1,-1),new Point3d(1,1,1))==Frustum.INSIDE);
+		// behind the camera, beside it, and past the far plane.
+		assert(f.test(new Point3d(-1,-1,101),new Point3d(1,1,102))==Frustum.OUTSIDE);
+		assert(f.test(new Point3d(500,-1,-1),new Point3d(501,1,1))==Frustum.OUTSIDE);
+		assert(f.test(new Point3d(-1,-1,-100000),new Point3d(1,1,-99999))==Frustum.OUTSIDE);
+		// across the edge of the view.
+		assert(f.test(new Point3d(-1000,-1,-1),new Point3d(0,1,1))==Frustum.INTERSECTS);
+	}
+
+	@Test
+	public void testBoundsFollowPose() {
+		World w = new World();
+		Mesh mesh = cube();
+		Shape parent = addCube(w.scene,mesh,0,0,0);
+		addCube(parent,mesh,10,0,0);
+
+		Point3d bottom = new Point3d();
+		Point3d top = new Point3d();
+		assert(parent.getBoundsWorld(bottom,top));
+		assert(bottom.epsilonEquals(new Point3d(-0.5,-0.5,-0.5),1e-6));
+		assert(top.epsilonEquals(new Point3d(10.5,0.5,0.5),1e-6));
+
+		// moving the parent moves the bounds of the branch.
+		parent.setPosition(new Vector3d(0,5,0));
+		assert(parent.getBoundsWorld(bottom,top));
+		assert(bottom.epsilonEquals(new Point3d(-0.5,4.5,-0.5),1e-6));
+		assert(top.epsilonEquals(new Point3d(10.5,5.5,0.5),1e-6));
+
+		// an entity with no shape has unknown bounds.
+		PoseEntity empty = new PoseEntity();
+		w.scene.addChild(empty);
+		assert(!empty.getBoundsWorld(bottom,top));
+	}
+
+	@Test
+	public void testCulling() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		World w = new World();
+		Mesh mesh = cube();
+		Shape inside = addCube(w.scene,mesh,0,0,0);
+		addCube(inside,mesh,1,0,0);
+		Shape outside = addCube(w.scene,mesh,1000,0,0);
+		addCube(outside,mesh,1,0,0);
+		w.scene.addChild(new PoseEntity());
+
+		// the inside branch and the entity with unknown bounds are drawn.  the outside branch is culled at the top.
+		FrustumCuller culler = w.draw(gl2);
+		assert(culler.getNumDrawn()==3);
+		assert(culler.getNumCulled()==1);
+
+		// bring it into view.
+		outside.setPosition(new Vector3d(2,0,0));
+		culler = w.draw(gl2);
+		assert(culler.getNumDrawn()==5);
+		assert(culler.getNumCulled()==0);
+
+		// nothing is culled when disabled.
+		outside.setPosition(new Vector3d(1000,0,0));
+		culler.setEnabled(false);
+		CountingGL2.reset();
+		culler = w.draw(gl2);
+		long all = CountingGL2.getDraws();
+		assert(culler.getNumCulled()==0);
+		culler.setEnabled(true);
+		CountingGL2.reset();
+		w.draw(gl2);
+		assert(CountingGL2.getDraws()<all);
+	}
+}
@@ -0,0 +1,158 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.shape.InstancedRenderer;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.Shape;
+
+public class InstancedRendererTest {
+	/**
+	 * One cube, 12 triangles.
+	 */
+	private static Mesh cube() {
+		Mesh m = new Mesh();
+		for(int i=0;i<8;++i) {
+			m.addVertex((i&1)-0.5f,((i>>1)&1)-0.5f,((i>>2)&1)-0.5f);
+			m.addNormal((i&1)-0.5f,((i>>1)&1)-0.5f,((i>>2)&1)-0.5f);
+		}
+		int [] faces = {
+			0,2,1, 1,2,3,  4,5,6, 5,7,6,
+			0,1,4, 1,5,4,  2,6,3, 3,6,7,
+			0,4,2, 2,4,6,  1,3,5, 3,7,5,
+		};
+		for(int i : faces) m.addIndex(i);
+		m.updateCuboid();
+		return m;
+	}
+
+	private static Scene makeScene(Mesh mesh,int count) {
+		Scene scene = new Scene();
+		for(int i=0;i<count;++i) {
+			Shape s = new Shape();
+			s.setModel(mesh);
+			s.setPosition(new Vector3d(i%32,i/32,0));
+			scene.addChild(s);
+		}
+		return scene;
+	}
+
+	@Test
+	public void testGrouping() {
+		Mesh a = cube();
+		Scene scene = makeScene(a,10);
+		// the same mesh in another color is a second group.
+		for(int i=0;i<5;++i) {
+			Shape s = new Shape();
+			s.setModel(a);
+			s.getMaterial().setDiffuseColor(1,0,0,1);
+			scene.addChild(s);
+		}
+		// too few copies to be worth it.
+		Mesh b = cube();
+		for(int i=0;i<3;++i) {
+			Shape s = new Shape();
+			s.setModel(b);
+			scene.addChild(s);
+		}
+		// a child of a copy is also a copy.
+		Shape parent = (Shape)scene.getChildren().get(0);
+		Shape child = new Shape();
+		child.setModel(a);
+		parent.addChild(child);
+
+		InstancedRenderer renderer = scene.getInstancedRenderer();
+		renderer.update(scene);
+		assert(renderer.getNumGroups()==2) : renderer.getNumGroups();
+		assert(renderer.getNumShapes()==16) : renderer.getNumShapes();
+
+		// static shapes in a batch are not copies.
+		for(int i=0;i<5;++i) ((Shape)scene.getChildren().get(i)).setStatic(true);
+		scene.getStaticBatcher().update(null,scene);
+		renderer.update(scene);
+		assert(renderer.getNumShapes()==11) : renderer.getNumShapes();
+	}
+
+	@Test
+	public void testOneDrawPerGroup() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		Scene scene = makeScene(cube(),20);
+		CountingGL2.setFunctionsAvailable(true);
+		CountingGL2.reset();
+		Mesh.startFrame(gl2);
+		scene.render(gl2);
+		InstancedRenderer renderer = scene.getInstancedRenderer();
+		assert(renderer.isSupported());
+		assert(renderer.getNumInstancedDraws()==1);
+		assert(CountingGL2.getDraws()==1) : CountingGL2.getDraws();
+
+		// without instancing every copy is drawn, but the material is set once.
+		scene = makeScene(cube(),20);
+		CountingGL2.setFunctionsAvailable(false);
+		CountingGL2.reset();
+		Mesh.startFrame(gl2);
+		scene.render(gl2);
+		assert(!scene.getInstancedRenderer().isSupported());
+		assert(CountingGL2.getDraws()==20) : CountingGL2.getDraws();
+
+		// turned off, every shape draws itself.
+		scene.getInstancedRenderer().setEnabled(false);
+		CountingGL2.reset();
+		scene.render(gl2);
+		assert(CountingGL2.getDraws()==20) : CountingGL2.getDraws();
+	}
+
+	/**
+	 * Draw 100 and then 1000 copies of a mesh with and without instancing.  Count the GL calls and time the
+	 * fastest frame.  {@link CountingGL2} costs nothing per call, so the times are only the Java side.  A real
+	 * driver adds a cost to every call.
+	 */
+	@Test
+	public void benchmark() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		String [] names = { "each shape alone", "one material per group", "instanced" };
+		String report = "InstancedRendererTest.benchmark";
+		long [] instancedCalls = new long[2];
+
+		int [] sizes = { 100, 1000 };
+		for(int size=0;size<sizes.length;++size) {
+			int copies = sizes[size];
+			Scene scene = makeScene(cube(),copies);
+			scene.getInstancedRenderer().setEnabled(false);
+			report += "\n  "+copies+" copies.";
+
+			for(int mode=0;mode<names.length;++mode) {
+				CountingGL2.setFunctionsAvailable(mode==2);
+				InstancedRenderer renderer = new InstancedRenderer();
+				renderer.setEnabled(mode!=0);
+
+				long best=Long.MAX_VALUE;
+				for(int i=0;i<500;++i) {
+					CountingGL2.reset();
+					long start = System.nanoTime();
+					Mesh.startFrame(gl2);
+					renderer.render(gl2,scene);
+					for(Entity e : scene.getChildren()) e.render(gl2);
+					best = Math.min(best,System.nanoTime()-start);
+				}
+				// let the shapes draw themselves again.
+				renderer.setEnabled(false);
+				renderer.render(gl2,scene);
+
+				report += " "+names[mode]+": "+(best/1000)+"us "+CountingGL2.getCalls()+" GL calls "+CountingGL2.getDraws()+" draws.";
+				if(mode==2) {
+					assert(CountingGL2.getDraws()==1);
+					instancedCalls[size] = CountingGL2.getCalls();
+				} else {
+					assert(CountingGL2.getDraws()==copies);
+				}
+			}
+		}
+		// ten times the copies, the same GL calls.
+		assert(instancedCalls[0]==instancedCalls[1]) : instancedCalls[0]+" vs "+instancedCalls[1];
+		Benchmark.report(report);
+	}
+}
@@ -0,0 +1,199 @@
+package com.marginallyclever.robotOverlord;
+
+import java.util.Random;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.marginallyclever.convenience.IntersectionHelper;
+import com.marginallyclever.convenience.Ray;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshBVH;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveOBJ;
+
+public class MeshBVHTest {
+	private static Mesh loadOBJ(String name) throws Exception {
+		Mesh m = new Mesh();
+		assert(new ShapeLoadAndSaveOBJ().load(name,m));
+		return m;
+	}
+
+	/**
+	 * A cube from -s to s, 12 triangles.
+	 */
+	private static Mesh cube(float s) {
+		float [][] c = {
+			{-s,-s,-s},{ s,-s,-s},{ s, s,-s},{-s, s,-s},
+			{-s,-s, s},{ s,-s, s},{ s, s, s},{-s, s, s},
+		};
+		int [] faces = {
+			0,2,1, 0,3,2,  4,5,6, 4,6,7,
+			0,1,5, 0,5,4,  2,3,7, 2,7,6,
+			1,2,6, 1,6,5,  0,4,7, 0,7,3,
+		};
+		Mesh m = new Mesh();
+		for(int i : faces) m.addVertex(c[i][0],c[i][1],c[i][2]);
+		return m;
+	}
+
+	/**
+	 * Test every triangle, the way a ray would be tested without a tree.
+	 */
+	private static double bruteForce(Mesh m,Ray ray) {
+		double best=-1;
+		for(int t=0;t<m.getNumTriangles();++t) {
+			Vector3d [] p = new Vector3d[3];
+			for(int c=0;c<3;++c) {
+				int i = m.getTriangleVertex(t,c);
+				p[c] = new Vector3d(m.getVertexX(i),m.getVertexY(i),m.getVertexZ(i));
+			}
+			Vector3d e1 = new Vector3d();  e1.sub(p[1],p[0]);
+			Vector3d e2 = new Vector3d();  e2.sub(p[2],p[0]);
+			Vector3d h = new Vector3d();  h.cross(ray.direction,e2);
+			double det = e1.dot(h);
+			if(Math.abs(det)<1e-12) continue;
+			Vector3d s = new Vector3d(ray.start);  s.sub(p[0]);
+			double u = s.dot(h)/det;
+			if(u<0 || u>1) continue;
+			Vector3d q = new Vector3d();  q.cross(s,e1);
+			double v = ray.direction.dot(q)/det;
+			if(v<0 || u+v>1) continue;
+			double d = e2.dot(q)/det;
+			if(d>=0 && (best<0 || d<best)) best=d;
+		}
+		return best;
+	}
+
+	/**
+	 * Start outside the bounds of m and aim at a random point inside them.  Call m.updateCuboid() first.
+	 */
+	private static Ray randomRay(Random r,Mesh m) {
+		Point3d bottom = m.getCuboid().getBoundsBottom();
+		Point3d top = m.getCuboid().getBoundsTop();
+		Ray ray = new Ray();
+		double x = bottom.x + r.nextDouble()*(top.x-bottom.x);
+		double y = bottom.y + r.nextDouble()*(top.y-bottom.y);
+		double z = bottom.z + r.nextDouble()*(top.z-bottom.z);
+		ray.direction.set(r.nextGaussian(),r.nextGaussian(),r.nextGaussian());
+		ray.direction.normalize();
+		ray.start.set(x-ray.direction.x*500,y-ray.direction.y*500,z-ray.direction.z*500);
+		return ray;
+	}
+
+	@Test
+	public void testRayMatchesBruteForce() throws Exception {
+		Mesh m = loadOBJ("/Sixi2/hand.obj");
+		MeshBVH bvh = m.getBVH();
+		assert(bvh.getNumTriangles()==m.getNumTriangles());
+		assert(m.getBVH()==bvh);
+
+		m.updateCuboid();
+		Random r = new Random(1234);
+		int hits=0;
+		for(int i=0;i<500;++i) {
+			Ray ray = randomRay(r,m);
+			double expected = bruteForce(m,ray);
+			double actual = bvh.intersect(ray);
+			if(expected<0) assert(actual<0) : "ray "+i;
+			else {
+				assert(Math.abs(expected-actual)<1e-6) : "ray "+i+" "+expected+" vs "+actual;
+				hits++;
+			}
+		}
+		assert(hits>0);
+	}
+
+	@Test
+	public void testRayMesh() {
+		Mesh m = cube(1);
+		Matrix4d pose = new Matrix4d();
+		pose.rotZ(Math.toRadians(45));
+		pose.setTranslation(new Vector3d(10,0,0));
+		Ray ray = new Ray();
+		ray.start.set(0,0,0);
+		ray.direction.set(1,0,0);
+		// turned 45 degrees the near corner of the cube is sqrt(2) from its center.
+		assert(Math.abs(IntersectionHelper.rayMesh(ray,pose,m)-(10-Math.sqrt(2)))<1e-6);
+		ray.direction.set(-1,0,0);
+		assert(IntersectionHelper.rayMesh(ray,pose,m)<0);
+	}
+
+	@Test
+	public void testMeshMesh() {
+		Mesh a = cube(1);
+		Mesh b = cube(1);
+		Matrix4d ma = new Matrix4d();
+		ma.setIdentity();
+		Matrix4d mb = new Matrix4d();
+		mb.setIdentity();
+
+		mb.setTranslation(new Vector3d(1.5,0,0));
+		assert(IntersectionHelper.meshMesh(ma,a,mb,b));
+		mb.setTranslation(new Vector3d(2.5,0,0));
+		assert(!IntersectionHelper.meshMesh(ma,a,mb,b));
+
+		// turned 45 degrees the corner reaches sqrt(2) and the boxes overlap, but the meshes do not.
+		mb.rotZ(Math.toRadians(45));
+		mb.setTranslation(new Vector3d(2.5,0,0));
+		assert(!IntersectionHelper.meshMesh(ma,a,mb,b));
+		mb.setTranslation(new Vector3d(2.3,0,0));
+		assert(IntersectionHelper.meshMesh(ma,a,mb,b));
+
+		// a small cube inside a big one touches no triangle.
+		Mesh small = cube(0.1f);
+		mb.setIdentity();
+		assert(!IntersectionHelper.meshMesh(ma,a,mb,small));
+
+		// moving both the same way changes nothing.
+		ma.rotX(1);
+		ma.setTranslation(new Vector3d(5,6,7));
+		mb.set(ma);
+		Matrix4d shift = new Matrix4d();
+		shift.setIdentity();
+		shift.setTranslation(new Vector3d(0,1.5,0));
+		mb.mul(shift);
+		assert(IntersectionHelper.meshMesh(ma,a,mb,b));
+	}
+
+	/**
+	 * Time building the tree and testing two detailed meshes against each other, as an IK sanity check would.
+	 */
+	@Test
+	public void benchmark() throws Exception {
+		Mesh a = loadOBJ("/Sixi2/bicep.obj");
+		Mesh b = loadOBJ("/Sixi2/hand.obj");
+
+		long start = System.nanoTime();
+		a.getBVH();
+		b.getBVH();
+		long buildTime = System.nanoTime()-start;
+
+		Random r = new Random(5678);
+		Matrix4d ma = new Matrix4d();
+		ma.setIdentity();
+		Matrix4d mb = new Matrix4d();
+		int queries=2000, hits=0;
+		start = System.nanoTime();
+		for(int i=0;i<queries;++i) {
+			mb.rotZ(r.nextDouble()*Math.PI*2);
+			mb.setTranslation(new Vector3d(r.nextGaussian()*30,r.nextGaussian()*30,r.nextGaussian()*30));
+			if(IntersectionHelper.meshMesh(ma,a,mb,b)) hits++;
+		}
+		long queryTime = System.nanoTime()-start;
+
+		a.updateCuboid();
+		Random r2 = new Random(9);
+		int rays=10000;
+		start = System.nanoTime();
+		for(int i=0;i<rays;++i) a.getBVH().intersect(randomRay(r2,a));
+		long rayTime = System.nanoTime()-start;
+
+		Benchmark.report("MeshBVHTest.benchmark "+a.getNumTriangles()+"+"+b.getNumTriangles()+" triangles"
+				+" build="+(buildTime/1000000)+"ms"
+				+" meshMesh="+(queryTime/1000/queries)+"us each ("+hits+"/"+queries+" hits)"
+				+" ray="+(rayTime/1000/rays)+"us each");
+	}
+}
@@ -0,0 +1,204 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.FloatArray;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshCache;
+import com.marginallyclever.robotOverlord.shape.MeshSimplifier;
+import com.marginallyclever.robotOverlord.shape.ShapeLoadAndSave;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveOBJ;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveSTL;
+
+public class MeshCacheTest {
+	// the meshes loaded when the Sixi2 demo starts.
+	static final String [] SIXI2 = {
+		"/Sixi2/anchor.obj",
+		"/Sixi2/shoulder.obj",
+		"/Sixi2/bicep.obj",
+		"/Sixi2/tuningFork.obj",
+		"/Sixi2/picassoBox.obj",
+		"/Sixi2/hand.obj",
+		"/Sixi2/chuckGripper/base.stl",
+		"/Sixi2/chuckGripper/a.stl",
+		"/Sixi2/chuckGripper/b.stl",
+		"/table.stl",
+	};
+
+	private File oldDirectory;
+	private File tempDirectory;
+
+	@Before
+	public void before() throws IOException {
+		oldDirectory = MeshCache.getDirectory();
+		tempDirectory = Files.createTempDirectory("meshCache").toFile();
+		MeshCache.setDirectory(tempDirectory);
+		MeshCache.setEnabled(true);
+	}
+
+	@After
+	public void after() {
+		MeshCache.clear();
+		tempDirectory.delete();
+		MeshCache.setDirectory(oldDirectory);
+	}
+
+	private ShapeLoadAndSave getLoader(String name) {
+		return name.endsWith(".obj") ? new ShapeLoadAndSaveOBJ() : new ShapeLoadAndSaveSTL();
+	}
+
+	/**
+	 * Time a cold start (parse and write the cache) against a warm start (map the cache) for the Sixi2 demo.
+	 * Both must give the same mesh.
+	 */
+	@Test
+	public void benchmarkSixi2Startup() throws Exception {
+		long coldTotal=0, warmTotal=0;
+		for(String name : SIXI2) {
+			ShapeLoadAndSave loader = getLoader(name);
+			long t0 = System.nanoTime();
+			Mesh cold = MeshCache.load(name,loader);
+			long t1 = System.nanoTime();
+			Mesh warm = MeshCache.load(name,loader);
+			long t2 = System.nanoTime();
+			assertSameMesh(cold,warm);
+			Benchmark.report(name+"\tcold="+((t1-t0)/1000000.0)+"ms\twarm="+((t2-t1)/1000000.0)+"ms");
+			coldTotal+=t1-t0;
+			warmTotal+=t2-t1;
+		}
+		Benchmark.report("total\tcold="+(coldTotal/1000000.0)+"ms\twarm="+(warmTotal/1000000.0)+"ms");
+	}
+
+	@Test
+	public void testChangedSourceIsLoadedAgain() throws Exception {
+		File source = new File(tempDirectory,"triangle.obj");
+		writeText(source,"v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n");
+		Mesh a = MeshCache.load(source.getAbsolutePath(),new ShapeLoadAndSaveOBJ());
+		assert(a.getNumTriangles()==1);
+		assert(MeshCache.getCacheFile(source.getAbsolutePath()).isFile());
+
+		writeText(source,"v 0 0 0\nv 1 0 0\nv 0 1 0\nv 1 1 0\nf 1 2 3\nf 2 4 3\n");
+		Mesh b = MeshCache.load(source.getAbsolutePath(),new ShapeLoadAndSaveOBJ());
+		assert(b.getNumTriangles()==2);
+		source.delete();
+	}
+
+	/**
+	 * A cut short cache file is parsed again from the source, and replaced.
+	 */
+	@Test
+	public void testDamagedFileIsLoadedAgain() throws Exception {
+		String name = SIXI2[0];
+		ShapeLoadAndSave loader = getLoader(name);
+		Mesh original = MeshCache.load(name,loader);
+		File cacheFile = MeshCache.getCacheFile(name);
+		long length = cacheFile.length();
+		try(RandomAccessFile f = new RandomAccessFile(cacheFile,"rw")) {
+			f.setLength(length/2);
+		}
+
+		Mesh copy = MeshCache.load(name,loader);
+		assertSameMesh(original,copy);
+		assert(cacheFile.length()==length);
+	}
+
+	/**
+	 * Levels of detail are saved with the mesh and not built again.
+	 */
+	@Test
+	public void testLevelsOfDetailAreCached() throws Exception {
+		String name = "/Sixi2/chuckGripper/base.stl";
+		ShapeLoadAndSave loader = getLoader(name);
+		Mesh cold = MeshCache.load(name,loader);
+		cold.setSourceName(name);
+		cold.setLoader(loader);
+		long size = cold.getSizeInBytes();
+		MeshSimplifier.generateLevelsOfDetail(cold);
+		assert(cold.getNumLevelsOfDetail()==3);
+		// the pool counts them.
+		assert(cold.getSizeInBytes()>size);
+		MeshCache.saveLevelsOfDetail(cold);
+
+		Mesh warm = MeshCache.load(name,loader);
+		assert(warm.getNumLevelsOfDetail()==3);
+		assert(!warm.claimLevelsOfDetail());
+		assertSameMesh(cold,warm);
+		for(int i=1;i<=3;++i) {
+			assertSameMesh(cold.getLevelOfDetail(i),warm.getLevelOfDetail(i));
+		}
+		assert(warm.getSizeInBytes()==cold.getSizeInBytes());
+	}
+
+	/**
+	 * Levels of detail built for a mesh that came from the cache without them are saved too.
+	 */
+	@Test
+	public void testLevelsOfDetailOfCachedMeshAreSaved() throws Exception {
+		String name = "/Sixi2/chuckGripper/a.stl";
+		ShapeLoadAndSave loader = getLoader(name);
+		MeshCache.load(name,loader);
+		Mesh warm = MeshCache.load(name,loader);
+		assert(warm.getNumLevelsOfDetail()==0);
+		warm.setSourceName(name);
+		warm.setLoader(loader);
+		MeshSimplifier.generateLevelsOfDetail(warm);
+		assert(warm.getNumLevelsOfDetail()>0);
+		MeshCache.saveLevelsOfDetail(warm);
+
+		Mesh next = MeshCache.load(name,loader);
+		assert(next.getNumLevelsOfDetail()==warm.getNumLevelsOfDetail());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		for(String name : SIXI2) {
+			MeshCache.load(name,getLoader(name));
+		}
+		long limit = MeshCache.getMaxBytes();
+		try {
+			MeshCache.setMaxBytes(0);
+			MeshCache.evict();
+			File [] files = tempDirectory.listFiles();
+			assert(files==null || files.length==0);
+		} finally {
+			MeshCache.setMaxBytes(limit);
+		}
+	}
+
+	private void writeText(File file,String text) throws IOException {
+		try(FileOutputStream out = new FileOutputStream(file)) {
+			out.write(text.getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private void assertSameMesh(Mesh a,Mesh b) {
+		assert(a.getNumVertices()==b.getNumVertices());
+		assert(a.getNumTriangles()==b.getNumTriangles());
+		assert(a.hasNormals==b.hasNormals);
+		assert(a.hasIndexes==b.hasIndexes);
+		assertSameArrays(a.getVertexArray(),b.getVertexArray());
+		assertSameArrays(a.getNormalArray(),b.getNormalArray());
+		assertSameArrays(a.getTexCoordArray(),b.getTexCoordArray());
+		for(int i=0;i<a.getNumIndexes();++i) {
+			assert(a.getIndexArray().get(i)==b.getIndexArray().get(i));
+		}
+		assert(a.getCuboid().getBoundsTop().epsilonEquals(b.getCuboid().getBoundsTop(),1e-6));
+		assert(a.getCuboid().getBoundsBottom().epsilonEquals(b.getCuboid().getBoundsBottom(),1e-6));
+	}
+
+	private void assertSameArrays(FloatArray a,FloatArray b) {
+		assert(a.size()==b.size());
+		for(int i=0;i<a.size();++i) {
+			assert(a.get(i)==b.get(i));
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.ShapeLoadAndSave;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveOBJ;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSavePLY;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveSTL;
+
+/**
+ * Save meshes with each exporter and read them back with the matching loader.
+ */
+public class MeshExportTest {
+	private File tempDirectory;
+
+	@Before
+	public void before() throws IOException {
+		tempDirectory = Files.createTempDirectory("meshExport").toFile();
+	}
+
+	@After
+	public void after() {
+		for(File f : tempDirectory.listFiles()) f.delete();
+		tempDirectory.delete();
+	}
+
+	private static Mesh load(ShapeLoadAndSave loader,String name) throws Exception {
+		Mesh m = new Mesh();
+		assert(loader.load(name,m));
+		return m;
+	}
+
+	/**
+	 * Every triangle of a must have the same corners as the same triangle of b.
+	 */
+	private static void assertSameTriangles(Mesh a,Mesh b) {
+		assert(a.getNumTriangles()==b.getNumTriangles()) : a.getNumTriangles()+" vs "+b.getNumTriangles();
+		for(int t=0;t<a.getNumTriangles();++t) {
+			for(int c=0;c<3;++c) {
+				int i = a.getTriangleVertex(t,c);
+				int j = b.getTriangleVertex(t,c);
+				assert(a.getVertexX(i)==b.getVertexX(j) && a.getVertexY(i)==b.getVertexY(j) && a.getVertexZ(i)==b.getVertexZ(j)) : "triangle "+t;
+			}
+		}
+	}
+
+	@Test
+	public void testSTL() throws Exception {
+		ShapeLoadAndSaveSTL stl = new ShapeLoadAndSaveSTL();
+		Mesh original = load(stl,"/Sixi2/chuckGripper/base.stl");
+		String name = new File(tempDirectory,"base.stl").getAbsolutePath();
+		assert(stl.canSave() && stl.canSave(name));
+		stl.save(name,original);
+
+		// one normal per triangle: 84 bytes of header and 50 bytes per triangle.
+		assert(new File(name).length()==84+50L*original.getNumTriangles());
+
+		Mesh copy = load(stl,name);
+		assertSameTriangles(original,copy);
+		// the face normal points the same way as the corner normals of a flat shaded STL.
+		for(int t=0;t<copy.getNumTriangles();++t) {
+			int i = original.getTriangleVertex(t,0);
+			int j = copy.getTriangleVertex(t,0);
+			float dot = original.getNormalX(i)*copy.getNormalX(j)
+					+ original.getNormalY(i)*copy.getNormalY(j)
+					+ original.getNormalZ(i)*copy.getNormalZ(j);
+			assert(dot>0.99f) : "triangle "+t;
+		}
+	}
+
+	/**
+	 * A stream can't be measured, so a bad triangle count must fail without trying to allocate for it.
+	 */
+	@Test
+	public void testSTLBadCount() throws Exception {
+		byte [] data = new byte[84+50];
+		for(int i=80;i<84;++i) data[i]=(byte)0xFF;
+		Mesh m = new Mesh();
+		assert(!new ShapeLoadAndSaveSTL().load(new BufferedInputStream(new ByteArrayInputStream(data)),m));
+		assert(m.getNumVertices()==0);
+	}
+
+	@Test
+	public void testOBJ() throws Exception {
+		ShapeLoadAndSaveOBJ obj = new ShapeLoadAndSaveOBJ();
+		Mesh original = load(obj,"/Sixi2/hand.obj");
+		String name = new File(tempDirectory,"hand.obj").getAbsolutePath();
+		assert(obj.canSave() && obj.canSave(name));
+		original.saveToFilename(name);
+
+		Mesh copy = load(obj,name);
+		// indexed, so the vertexes are written once and read back the same way.
+		assert(copy.hasIndexes);
+		assert(copy.getNumVertices()==original.getNumVertices());
+		assert(copy.hasUVs==original.hasUVs);
+		assertSameTriangles(original,copy);
+		// the loader normalizes normals again, which may change the last bit.
+		for(int i=0;i<original.getNumVertices();++i) {
+			assert(Math.abs(original.getNormalX(i)-copy.getNormalX(i))<1e-6);
+			assert(Math.abs(original.getNormalZ(i)-copy.getNormalZ(i))<1e-6);
+		}
+	}
+
+	@Test
+	public void testPLY() throws Exception {
+		ShapeLoadAndSavePLY ply = new ShapeLoadAndSavePLY();
+		Mesh original = load(new ShapeLoadAndSaveOBJ(),"/Sixi2/hand.obj");
+		original.hasColors=true;
+		for(int i=0;i<original.getNumVertices();++i) {
+			original.addColor((i%256)/255.0f,0,1,1);
+		}
+		String name = new File(tempDirectory,"hand.ply").getAbsolutePath();
+		assert(ply.canSave() && ply.canSave(name));
+		ply.save(name,original);
+
+		// the loader reads the vertexes as a point cloud.
+		Mesh copy = load(ply,name);
+		assert(copy.renderStyle==GL2.GL_POINTS);
+		int i=0;
+		for(int c=0;c<copy.getNumChunks();++c) {
+			Mesh chunk = copy.getChunk(c);
+			for(int j=0;j<chunk.getNumVertices();++j,++i) {
+				assert(chunk.getVertexX(j)==original.getVertexX(i) && chunk.getVertexY(j)==original.getVertexY(i) && chunk.getVertexZ(j)==original.getVertexZ(i));
+				assert(chunk.getNormalY(j)==original.getNormalY(i));
+				assert(chunk.getColorArray().get(j*4)==original.getColorArray().get(i*4));
+			}
+		}
+		assert(i==original.getNumVertices());
+
+		// and a point cloud saves all of its chunks.
+		String name2 = new File(tempDirectory,"cloud.ply").getAbsolutePath();
+		ply.save(name2,copy);
+		Mesh copy2 = load(ply,name2);
+		int total=0;
+		for(int c=0;c<copy2.getNumChunks();++c) total += copy2.getChunk(c).getNumVertices();
+		assert(total==original.getNumVertices());
+	}
+
+	/**
+	 * Time each exporter on the same mesh.
+	 */
+	@Test
+	public void benchmarkExport() throws Exception {
+		Mesh m = load(new ShapeLoadAndSaveOBJ(),"/Sixi2/bicep.obj");
+		ShapeLoadAndSave [] savers = { new ShapeLoadAndSaveSTL(), new ShapeLoadAndSaveOBJ(), new ShapeLoadAndSavePLY() };
+		String [] names = { "bicep.stl", "bicep.obj", "bicep.ply" };
+		StringBuilder sb = new StringBuilder("MeshExportTest.benchmarkExport "+m.getNumTriangles()+" triangles");
+		for(int i=0;i<savers.length;++i) {
+			File f = new File(tempDirectory,names[i]);
+			long start = System.nanoTime();
+			savers[i].save(f.getAbsolutePath(),m);
+			long time = System.nanoTime()-start;
+			sb.append(" "+names[i]+"="+(time/1000000)+"ms/"+(f.length()>>10)+"KB");
+		}
+		Benchmark.report(sb.toString());
+	}
+}
@@ -0,0 +1,94 @@
+package com.marginallyclever.robotOverlord;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshCache;
+import com.marginallyclever.robotOverlord.shape.MeshHandle;
+import com.marginallyclever.robotOverlord.shape.MeshLoader;
+import com.marginallyclever.robotOverlord.shape.Shape;
+
+public class MeshLoaderTest {
+	private static boolean cacheWasEnabled;
+
+	@BeforeClass
+	public static void beforeClass() {
+		// parse every time, don't touch the user's cache.
+		cacheWasEnabled = MeshCache.isEnabled();
+		MeshCache.setEnabled(false);
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		MeshCache.setEnabled(cacheWasEnabled);
+	}
+
+	/**
+	 * Many threads asking for the same file at the same time must all get the same {@link Mesh}.
+	 */
+	@Test
+	public void testRequestsForTheSameFileShareOneMesh() throws Exception {
+		final String name = "/Sixi2/bicep.obj";
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		ArrayList<Future<Mesh>> results = new ArrayList<Future<Mesh>>();
+		for(int i=0;i<8;++i) {
+			results.add(threads.submit(new Callable<Mesh>() {
+				@Override
+				public Mesh call() throws Exception {
+					return MeshLoader.load(name).get();
+				}
+			}));
+		}
+		Mesh first = results.get(0).get();
+		assert(first!=null);
+		for(Future<Mesh> f : results) {
+			assert(f.get()==first);
+		}
+		threads.shutdown();
+		// once loaded the mesh comes straight from the pool.
+		MeshHandle handle = MeshLoader.load(name);
+		assert(handle.isDone());
+		assert(handle.getNow()==first);
+	}
+
+	@Test
+	public void testMissingFileFails() throws Exception {
+		MeshHandle handle = MeshLoader.load("/doesNotExist.stl");
+		try {
+			handle.get();
+			assert(false);
+		} catch(Exception e) {
+			// expected
+		}
+		assert(handle.isFailed());
+		assert(handle.getNow()==null);
+		assert(handle.getError()!=null);
+	}
+
+	@Test
+	public void testShapeWaitsForModel() throws Exception {
+		Shape shape = new Shape("/Sixi2/hand.obj");
+		assert(shape.getModelFilename().equals("/Sixi2/hand.obj"));
+		Mesh m = shape.getModel();
+		assert(m!=null);
+		assert(!shape.isLoading());
+		assert(m.getNumTriangles()>0);
+		assert(shape.getCuboidList().size()==1);
+	}
+
+	@Test
+	public void testFailedShapeHasNoBounds() throws Exception {
+		Shape shape = new Shape("/doesNotExist.stl");
+		assert(shape.getModel()==null);
+		// not a point at the origin.
+		assert(shape.getCuboidList().isEmpty());
+	}
+}
@@ -0,0 +1,121 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshCache;
+import com.marginallyclever.robotOverlord.shape.MeshPool;
+import com.marginallyclever.robotOverlord.shape.Shape;
+
+public class MeshPoolTest {
+	private static boolean cacheWasEnabled;
+	private static long oldBudget;
+
+	@BeforeClass
+	public static void beforeClass() {
+		cacheWasEnabled = MeshCache.isEnabled();
+		MeshCache.setEnabled(false);
+		oldBudget = MeshPool.getUnusedBudget();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		MeshCache.setEnabled(cacheWasEnabled);
+		MeshPool.setUnusedBudget(oldBudget);
+	}
+
+	/**
+	 * A mesh file no other test loads, so nobody else holds a reference to it.
+	 */
+	private static String makeTriangle() throws IOException {
+		File f = File.createTempFile("meshPoolTest", ".obj");
+		f.deleteOnExit();
+		Files.write(f.toPath(), "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes(StandardCharsets.US_ASCII));
+		return f.getAbsolutePath();
+	}
+
+	@Test
+	public void testReferencesAndEviction() throws Exception {
+		String first = makeTriangle();
+		String second = makeTriangle();
+		Shape a = new Shape(first);
+		Shape b = new Shape(first);
+		Mesh hand = a.getModel();
+		assert(b.getModel()==hand);
+		assert(MeshPool.getReferenceCount(hand)==2);
+
+		// swapping the file releases the old mesh
+		a.setShapeFilename(second);
+		Mesh box = a.getModel();
+		assert(box!=hand);
+		assert(MeshPool.getReferenceCount(hand)==1);
+		assert(MeshPool.getReferenceCount(box)==1);
+
+		// no more references.  kept until the budget says otherwise.
+		b.setModel(null);
+		assert(MeshPool.getReferenceCount(hand)==0);
+		assert(Mesh.findInPool(first)==hand);
+		assert(MeshPool.getUnusedBytes()>=hand.getSizeInBytes());
+
+		long evictions = MeshPool.getEvictions();
+		MeshPool.setUnusedBudget(0);
+		assert(Mesh.findInPool(first)==null);
+		assert(MeshPool.getEvictions()>evictions);
+		assert(MeshPool.getUnusedBytes()==0);
+		// still in use, so not evicted.
+		assert(Mesh.findInPool(second)==box);
+		MeshPool.setUnusedBudget(oldBudget);
+		a.setModel(null);
+		assert(MeshPool.getReferenceCount(box)==0);
+	}
+
+	@Test
+	public void testRemoveFromSceneReleases() throws Exception {
+		Entity parent = new Entity();
+		Shape c = new Shape(makeTriangle());
+		Mesh m = c.getModel();
+		parent.addChild(c);
+		int before = MeshPool.getReferenceCount(m);
+		assert(before>=1);
+
+		parent.removeChild(c);
+		assert(MeshPool.getReferenceCount(m)==before-1);
+
+		// undo puts it back
+		parent.addChild(c);
+		assert(MeshPool.getReferenceCount(m)==before);
+		assert(MeshPool.getHitRate()>=0 && MeshPool.getHitRate()<=1);
+		c.setModel(null);
+		assert(MeshPool.getReferenceCount(m)==before-1);
+	}
+
+	@Test
+	public void testRemoveBranchReleases() throws Exception {
+		Entity scene = new Entity();
+		Entity robot = new Entity("Robot");
+		Entity arm = new Entity("Arm");
+		Shape c = new Shape(makeTriangle());
+		Mesh m = c.getModel();
+		arm.addChild(c);
+		robot.addChild(arm);
+		scene.addChild(robot);
+		int before = MeshPool.getReferenceCount(m);
+		assert(before>=1);
+
+		// the shape itself keeps its parent.
+		scene.removeChild(robot);
+		assert(MeshPool.getReferenceCount(m)==before-1);
+
+		scene.addChild(robot);
+		assert(MeshPool.getReferenceCount(m)==before);
+		c.setModel(null);
+		assert(MeshPool.getReferenceCount(m)==before-1);
+	}
+}
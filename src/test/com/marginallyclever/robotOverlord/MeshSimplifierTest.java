@@ -0,0 +1,83 @@
+package com.marginallyclever.robotOverlord;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshSimplifier;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveSTL;
+
+public class MeshSimplifierTest {
+	/**
+	 * @return a closed sphere of radius r as triangle soup, with normals.
+	 */
+	private Mesh buildSphere(double r,int slices,int stacks) {
+		Mesh m = new Mesh();
+		for(int i=0;i<stacks;++i) {
+			double t0 = Math.PI*i/stacks;
+			double t1 = Math.PI*(i+1)/stacks;
+			for(int j=0;j<slices;++j) {
+				double p0 = 2*Math.PI*j/slices;
+				double p1 = 2*Math.PI*(j+1)/slices;
+				double [][] q = { point(t0,p0), point(t1,p0), point(t1,p1), point(t0,p1) };
+				if(i!=0)        addTriangle(m,r,q[0],q[1],q[2]);
+				if(i!=stacks-1) addTriangle(m,r,q[0],q[2],q[3]);
+			}
+		}
+		m.hasNormals=true;
+		return m;
+	}
+
+	private double [] point(double theta,double phi) {
+		return new double[] { Math.sin(theta)*Math.cos(phi), Math.sin(theta)*Math.sin(phi), Math.cos(theta) };
+	}
+
+	private void addTriangle(Mesh m,double r,double [] a,double [] b,double [] c) {
+		for(double [] p : new double[][] {a,b,c}) {
+			m.addVertex((float)(p[0]*r),(float)(p[1]*r),(float)(p[2]*r));
+			m.addNormal((float)p[0],(float)p[1],(float)p[2]);
+		}
+	}
+
+	@Test
+	public void testSphereKeepsItsShape() {
+		double r = 10;
+		Mesh sphere = buildSphere(r,64,32);
+		int n = sphere.getNumTriangles();
+		int [] targets = { n/2, n/4, n/10 };
+		Mesh [] levels = new MeshSimplifier(sphere).simplify(targets);
+		assert(levels.length==3);
+		for(int i=0;i<levels.length;++i) {
+			Mesh m = levels[i];
+			assert(m.getNumTriangles()<=targets[i]);
+			assert(m.getNumTriangles()>targets[i]/2);
+			double worst=0;
+			for(int v=0;v<m.getNumVertices();++v) {
+				double x=m.getVertexX(v), y=m.getVertexY(v), z=m.getVertexZ(v);
+				worst = Math.max(worst, Math.abs(Math.sqrt(x*x+y*y+z*z)-r));
+			}
+			for(int k=0;k<m.getNumIndexes();++k) {
+				int index = m.getIndexArray().get(k);
+				assert(index>=0 && index<m.getNumVertices());
+			}
+			// points stay near the surface.
+			assert(worst<r*0.05);
+			Benchmark.report("sphere level "+(i+1)+": "+n+" -> "+m.getNumTriangles()+" triangles, worst error "+worst);
+		}
+	}
+
+	@Test
+	public void timeGripper() throws Exception {
+		Mesh m = new Mesh();
+		new ShapeLoadAndSaveSTL().load("/Sixi2/chuckGripper/base.stl",m);
+		m.updateCuboid();
+		long t0 = System.nanoTime();
+		MeshSimplifier.generateLevelsOfDetail(m);
+		long t1 = System.nanoTime();
+		assert(m.getNumLevelsOfDetail()==3);
+		StringBuilder sb = new StringBuilder("base.stl "+m.getNumTriangles());
+		for(int i=1;i<=3;++i) {
+			sb.append(" -> "+m.getLevelOfDetail(i).getNumTriangles());
+		}
+		Benchmark.report(sb+" triangles in "+((t1-t0)/1000000.0)+"ms");
+	}
+}
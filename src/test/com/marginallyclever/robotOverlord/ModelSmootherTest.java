@@ -1,8 +1,13 @@
 package com.marginallyclever.robotOverlord;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
 import com.marginallyclever.robotOverlord.shape.ShapeSmoother;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveSTL;
 
 public class ModelSmootherTest {
 	
@@ -20,5 +25,102 @@ public class ModelSmootherTest {
 		System.out.println("forearm");		ShapeSmoother.smoothModel("/AH/Forearm.stl",		wd + "/AH/Forearm-smooth.stl",		vertexEpsilon,normalEpsilon);
 		System.out.println("wrist");		ShapeSmoother.smoothModel("/AH/Wrist_r1.stl",		wd + "/AH/Wrist_r1-smooth.stl",		vertexEpsilon,normalEpsilon);
 	}
-	
+
+	/**
+	 * The grid must give exactly the same normals as comparing every vertex with every other vertex.
+	 */
+	@Test
+	public void compareWithBruteForce() throws Exception {
+		float vertexEpsilon = 0.1f;
+		float normalEpsilon = 0.25f;
+		String [] names = { "/Sixi2/chuckGripper/a.stl", "/Sixi2/chuckGripper/base.stl" };
+		for(String name : names) {
+			Mesh a = new Mesh();
+			Mesh b = new Mesh();
+			new ShapeLoadAndSaveSTL().load(name,a);
+			new ShapeLoadAndSaveSTL().load(name,b);
+
+			long t0 = System.nanoTime();
+			smoothNormalsBruteForce(a,vertexEpsilon,normalEpsilon);
+			long t1 = System.nanoTime();
+			final float [] lastProgress = { 0 };
+			ShapeSmoother.smoothNormals(b,vertexEpsilon,normalEpsilon,(fraction)->{
+				synchronized(lastProgress) {
+					lastProgress[0] = Math.max(lastProgress[0],fraction);
+				}
+			});
+			long t2 = System.nanoTime();
+
+			assert(lastProgress[0]==1);
+			float [] na = a.getNormalArray().toArray();
+			float [] nb = b.getNormalArray().toArray();
+			assert(na.length==nb.length);
+			for(int i=0;i<na.length;++i) {
+				assert(na[i]==nb[i]);
+			}
+			Benchmark.report(name+"\t"+a.getNumVertices()+" vertexes"
+					+"\tbrute force="+((t1-t0)/1000000.0)+"ms\tgrid="+((t2-t1)/1000000.0)+"ms");
+		}
+	}
+
+	/**
+	 * The original O(n^2) smoother, kept for comparison.
+	 */
+	private void smoothNormalsBruteForce(Mesh model,float vertexEpsilon,float normalEpsilon) {
+		float vertexEpsilonSquared = vertexEpsilon * vertexEpsilon;
+		float normalEpsilonSquared = normalEpsilon * normalEpsilon;
+
+		int numFaces = model.getNumVertices();
+		ArrayList<Integer> indexList = new ArrayList<Integer>();
+		boolean [] skip = new boolean[numFaces];
+
+		for(int i=0;i<numFaces;++i) {
+			if(skip[i]) continue;
+
+			float p1x = model.getVertexX(i);
+			float p1y = model.getVertexY(i);
+			float p1z = model.getVertexZ(i);
+			float n1x = model.getNormalX(i);
+			float n1y = model.getNormalY(i);
+			float n1z = model.getNormalZ(i);
+
+			indexList.clear();
+			indexList.add(i);
+
+			for(int j=i+1;j<numFaces;++j) {
+				if(skip[j]) continue;
+				if( lengthDifferenceSquared(p1x,p1y,p1z,model.getVertexX(j),model.getVertexY(j),model.getVertexZ(j)) <= vertexEpsilonSquared ) {
+					if( lengthDifferenceSquared(n1x,n1y,n1z,model.getNormalX(j),model.getNormalY(j),model.getNormalZ(j)) <= normalEpsilonSquared ) {
+						indexList.add(j);
+					}
+				}
+			}
+
+			if(indexList.size()>1) {
+				n1x=0;
+				n1y=0;
+				n1z=0;
+				for(int j : indexList) {
+					n1x += model.getNormalX(j);
+					n1y += model.getNormalY(j);
+					n1z += model.getNormalZ(j);
+				}
+				float len = (float)Math.sqrt(n1x*n1x+n1y*n1y+n1z*n1z);
+				n1x /= len;
+				n1y /= len;
+				n1z /= len;
+				for(int j : indexList) {
+					skip[j]=true;
+					model.setNormal(j, n1x, n1y, n1z);
+				}
+			}
+		}
+	}
+
+	private float lengthDifferenceSquared(float p1x,float p1y,float p1z,float p2x,float p2y,float p2z) {
+		float dx = p2x-p1x;
+		float dy = p2y-p1y;
+		float dz = p2z-p1z;
+		return dx*dx+dy*dy+dz*dz;
+	}
 }
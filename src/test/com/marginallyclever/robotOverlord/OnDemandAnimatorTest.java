@@ -0,0 +1,133 @@
+package com.marginallyclever.robotOverlord;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+
+public class OnDemandAnimatorTest {
+	private static final int FPS = 30;
+	// how long one pretend frame keeps the CPU busy.
+	private static final long FRAME_COST = 5000000L;
+
+	private AtomicInteger numDisplays = new AtomicInteger();
+
+	/**
+	 * A drawable that counts frames and keeps the CPU busy for each, as drawing a scene does.
+	 */
+	private GLAutoDrawable drawable() {
+		return (GLAutoDrawable)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { GLAutoDrawable.class },
+				(proxy,method,args)->{
+					if(method.getName().equals("display")) {
+						numDisplays.incrementAndGet();
+						long end = System.nanoTime()+FRAME_COST;
+						while(System.nanoTime()<end);
+					}
+					return null;
+				});
+	}
+
+	/**
+	 * @return CPU time used by this process, in nanoseconds.
+	 */
+	private static long getProcessCpuTime() {
+		return ((com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+	}
+
+	@Test
+	public void testOnDemand() throws Exception {
+		PoseEntity e = new PoseEntity();
+		OnDemandAnimator animator = new OnDemandAnimator(drawable(),FPS);
+		animator.start();
+		// the first frame.
+		Thread.sleep(200);
+		assert(numDisplays.get()==1);
+
+		// nothing changed, nothing drawn.
+		Thread.sleep(200);
+		assert(numDisplays.get()==1);
+
+		// a pose change asks for a frame.
+		e.setPosition(new Vector3d(1,2,3));
+		Thread.sleep(200);
+		assert(numDisplays.get()==2);
+
+		// many changes are one frame, and one more for those made while it was drawn.
+		for(int i=0;i<100;++i) e.setPosition(new Vector3d(i,0,0));
+		Thread.sleep(200);
+		assert(numDisplays.get()>=3 && numDisplays.get()<=4);
+
+		// continuous draws every frame.
+		animator.setContinuous(true);
+		Thread.sleep(300);
+		animator.stop();
+		assert(numDisplays.get()>5);
+		assert(!animator.isRunning());
+	}
+
+	@Test
+	public void testDeferredUploadAsksForFrame() throws Exception {
+		Mesh [] meshes = new Mesh[2];
+		for(int i=0;i<meshes.length;++i) {
+			meshes[i] = new Mesh();
+			for(int j=0;j<300;++j) meshes[i].addVertex(j,0,0);
+		}
+		long budget = Mesh.getUploadBudget();
+		Mesh.setUploadBudget(1);
+		try {
+			GL2 gl2 = CountingGL2.create();
+			Mesh.startFrame(gl2);
+			meshes[0].render(gl2);
+			long before = OnDemandAnimator.getNumRequests();
+			// over the budget, so it waits for the next frame.
+			meshes[1].render(gl2);
+			assert(!meshes[1].isReadyToDraw());
+			assert(OnDemandAnimator.getNumRequests()>before);
+
+			Mesh.startFrame(gl2);
+			meshes[1].render(gl2);
+			assert(meshes[1].isReadyToDraw());
+		} finally {
+			Mesh.setUploadBudget(budget);
+		}
+	}
+
+	/**
+	 * Compare the CPU used while nothing moves, drawing on demand and drawing every frame.
+	 */
+	@Test
+	public void measureIdleCpu() throws Exception {
+		long idle = measure(false);
+		int idleFrames = numDisplays.get();
+		long continuous = measure(true);
+		int continuousFrames = numDisplays.get();
+		Benchmark.report("OnDemandAnimatorTest.measureIdleCpu one idle second at "+FPS+"fps: on demand "+(idle/1000000)
+				+"ms CPU "+idleFrames+" frames, continuous "+(continuous/1000000)+"ms CPU "+continuousFrames+" frames.");
+		// the CPU time is shared with whatever else the process runs, so check the frames drawn instead.
+		assert(idleFrames<continuousFrames) : idleFrames+" vs "+continuousFrames;
+	}
+
+	/**
+	 * @return the CPU used in one second.  numDisplays holds the frames drawn in that second.
+	 */
+	private long measure(boolean continuous) throws Exception {
+		OnDemandAnimator animator = new OnDemandAnimator(drawable(),FPS);
+		animator.setContinuous(continuous);
+		animator.start();
+		Thread.sleep(100);
+		numDisplays.set(0);
+		long start = getProcessCpuTime();
+		Thread.sleep(1000);
+		long used = getProcessCpuTime()-start;
+		animator.stop();
+		return used;
+	}
+}
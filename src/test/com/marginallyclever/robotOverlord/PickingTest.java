@@ -0,0 +1,207 @@
+package com.marginallyclever.robotOverlord;
+
+import java.nio.ByteBuffer;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.IntersectionHelper;
+import com.marginallyclever.convenience.Ray;
+import com.marginallyclever.robotOverlord.picking.ColorIdPicker;
+import com.marginallyclever.robotOverlord.picking.PickRegistry;
+import com.marginallyclever.robotOverlord.picking.RayPicker;
+import com.marginallyclever.robotOverlord.picking.ScenePickTree;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.Shape;
+
+public class PickingTest {
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 600;
+
+	/**
+	 * One cube, 12 triangles.
+	 */
+	private static Mesh cube() {
+		Mesh m = new Mesh();
+		for(int i=0;i<8;++i) {
+			m.addVertex((i&1)-0.5f,((i>>1)&1)-0.5f,((i>>2)&1)-0.5f);
+		}
+		int [] faces = {
+			0,2,1, 1,2,3,  4,5,6, 5,7,6,
+			0,1,4, 1,5,4,  2,6,3, 3,6,7,
+			0,4,2, 2,4,6,  1,3,5, 3,7,5,
+		};
+		for(int i : faces) m.addIndex(i);
+		m.updateCuboid();
+		return m;
+	}
+
+	private static Shape addCube(Entity parent,Mesh mesh,double x,double y,double z) {
+		Shape s = new Shape();
+		s.setModel(mesh);
+		s.setPosition(new Vector3d(x,y,z));
+		parent.addChild(s);
+		return s;
+	}
+
+	/**
+	 * A scene, a camera at z=100 looking down, and a viewport of that camera, as in {@link RobotOverlord}.
+	 */
+	private static class World {
+		Entity root = new Entity();
+		Scene scene = new Scene();
+		Camera camera = new Camera();
+		Viewport viewport = new Viewport();
+
+		World() {
+			root.addChild(scene);
+			root.addChild(camera);
+			root.addChild(viewport);
+			camera.setPosition(new Vector3d(0.1,0.1,100));
+			viewport.setAttachedTo(camera.getFullPath());
+			viewport.setCanvasWidth(WIDTH);
+			viewport.setCanvasHeight(HEIGHT);
+		}
+
+		/**
+		 * @return the ray through pixel x,y.
+		 */
+		Ray ray(int x,int y) {
+			viewport.setCursor(x,y);
+			return viewport.rayPick();
+		}
+	}
+
+	@Test
+	public void testRegistry() {
+		Shape a = new Shape();
+		Shape b = new Shape();
+		assert(a.getPickName()!=0);
+		assert(a.getPickName()!=b.getPickName());
+		assert(PickRegistry.get(a.getPickName())==a);
+		assert(PickRegistry.get(0)==null);
+
+		// found anywhere in the scene, but not outside it.
+		Scene scene = new Scene();
+		Shape parent = new Shape();
+		scene.addChild(parent);
+		parent.addChild(a);
+		assert(scene.pickPhysicalEntityWithName(a.getPickName())==a);
+		assert(scene.pickPhysicalEntityWithName(b.getPickName())==null);
+	}
+
+	@Test
+	public void testNearestAndDeepest() {
+		World w = new World();
+		Mesh mesh = cube();
+		Shape low = addCube(w.scene,mesh,0,0,0);
+		Shape high = addCube(w.scene,mesh,0,0,10);
+		// a grandchild, which the old picking could not find.
+		Shape child = addCube(high,mesh,20,0,0);
+		Shape grandchild = addCube(child,mesh,0,0,0);
+
+		RayPicker picker = new RayPicker();
+		// straight down the middle of the canvas.
+		assert(picker.pick(null,w.scene,w.viewport,WIDTH/2,HEIGHT/2)==high);
+		ScenePickTree tree = w.scene.getPickTree();
+		assert(tree.getNumItems()==4);
+		assert(tree.getNumBuilt()==1);
+
+		// the child and grandchild are in the same place.  the deeper one wins.
+		Ray ray = new Ray();
+		ray.start.set(20.1,0.1,100);
+		ray.direction.set(0,0,-1);
+		assert(tree.pick(ray)==grandchild);
+
+		// moving keeps the shape of the tree.
+		high.setPosition(new Vector3d(50,0,10));
+		assert(picker.pick(null,w.scene,w.viewport,WIDTH/2,HEIGHT/2)==low);
+		assert(tree.getNumBuilt()==1);
+		assert(tree.getNumRefits()==1);
+
+		// nothing there.
+		assert(picker.pick(null,w.scene,w.viewport,0,0)==null);
+
+		// a new shape builds it again.
+		addCube(w.scene,mesh,0,0,20);
+		picker.pick(null,w.scene,w.viewport,WIDTH/2,HEIGHT/2);
+		assert(tree.getNumBuilt()==2);
+	}
+
+	@Test
+	public void testColorIds() throws Exception {
+		float [] rgba = new float[4];
+		int id = 0x123456;
+		ColorIdPicker.getColor(id,rgba);
+		int size = ColorIdPicker.SIZE;
+		ByteBuffer pixels = ByteBuffer.allocate(size*size*4);
+		assert(ColorIdPicker.findId(pixels,size)==0);
+
+		// one pixel in the corner.
+		pixels.put(0,(byte)Math.round(rgba[0]*255));
+		pixels.put(1,(byte)Math.round(rgba[1]*255));
+		pixels.put(2,(byte)Math.round(rgba[2]*255));
+		assert(ColorIdPicker.findId(pixels,size)==id);
+
+		// the middle pixel wins.
+		int middle = (size/2*size+size/2)*4;
+		pixels.put(middle,(byte)7);
+		assert(ColorIdPicker.findId(pixels,size)==7);
+
+		// without framebuffers it picks with rays.
+		GL2 gl2 = CountingGL2.create();
+		CountingGL2.setFunctionsAvailable(false);
+		World w = new World();
+		Shape s = addCube(w.scene,cube(),0,0,0);
+		ColorIdPicker picker = new ColorIdPicker();
+		assert(picker.pick(gl2,w.scene,w.viewport,WIDTH/2,HEIGHT/2)==s);
+		assert(!picker.isSupported());
+	}
+
+	/**
+	 * 1000 cubes in a grid.  Time a ray pick through the tree, with and without reading the scene again, against
+	 * testing the mesh of every cube.
+	 */
+	@Test
+	public void benchmark() {
+		World w = new World();
+		Mesh mesh = cube();
+		for(int i=0;i<1000;++i) {
+			addCube(w.scene,mesh,(i%32)*2-32,(i/32)*2-32,0);
+		}
+		Ray ray = w.ray(WIDTH/2,HEIGHT/2);
+		ScenePickTree tree = w.scene.getPickTree();
+
+		long update=Long.MAX_VALUE, pick=Long.MAX_VALUE, every=Long.MAX_VALUE;
+		PoseEntity a=null, b=null;
+		Matrix4d pose = new Matrix4d();
+		for(int i=0;i<200;++i) {
+			long start = System.nanoTime();
+			tree.update(w.scene);
+			long middle = System.nanoTime();
+			a = tree.pick(ray);
+			long end = System.nanoTime();
+			update = Math.min(update,middle-start);
+			pick = Math.min(pick,end-middle);
+
+			start = System.nanoTime();
+			double best = Double.MAX_VALUE;
+			for(Entity e : w.scene.getChildren()) {
+				Shape s = (Shape)e;
+				s.getPoseWorld(pose);
+				double d = IntersectionHelper.rayMesh(ray,pose,mesh);
+				if(d>=0 && d<best) {
+					best = d;
+					b = s;
+				}
+			}
+			every = Math.min(every,System.nanoTime()-start);
+		}
+		assert(a!=null && a==b);
+		Benchmark.report("PickingTest.benchmark 1000 cubes: update "+(update/1000)+"us, tree pick "+(pick/1000)
+				+"us, every mesh "+(every/1000)+"us.");
+	}
+}
@@ -0,0 +1,113 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.vecmath.Point3d;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.MeshLoader;
+import com.marginallyclever.robotOverlord.shape.QuantizedVertexFormat;
+
+public class QuantizedVertexFormatTest {
+	private static final Point3d BOTTOM = new Point3d(-120,-30,5);
+	private static final Point3d TOP = new Point3d(80,45,305);
+
+	@Test
+	public void testPositionRoundTrip() {
+		QuantizedVertexFormat format = new QuantizedVertexFormat(true,false,false,BOTTOM,TOP);
+		double [] lo = { BOTTOM.x, BOTTOM.y, BOTTOM.z };
+		double [] hi = { TOP.x, TOP.y, TOP.z };
+		Random r = new Random(1234);
+		for(int i=0;i<10000;++i) {
+			for(int axis=0;axis<3;++axis) {
+				float v = (float)(lo[axis] + r.nextDouble()*(hi[axis]-lo[axis]));
+				double decoded = format.decodePosition(format.encodePosition(v, axis), axis);
+				// half of one step, plus a little for float rounding.
+				double tolerance = (hi[axis]-lo[axis])/2/32767/2 + 1e-5;
+				assert(Math.abs(decoded-v)<=tolerance) : "axis "+axis+" "+v+" became "+decoded;
+			}
+		}
+		// the corners are exact.
+		assert(Math.abs(format.decodePosition(format.encodePosition((float)TOP.z, 2), 2)-TOP.z)<1e-4);
+		assert(Math.abs(format.decodePosition(format.encodePosition((float)BOTTOM.x, 0), 0)-BOTTOM.x)<1e-4);
+	}
+
+	@Test
+	public void testNormalRoundTrip() {
+		QuantizedVertexFormat format = new QuantizedVertexFormat(true,false,false,BOTTOM,TOP);
+		Random r = new Random(5678);
+		byte [] packed = new byte[3];
+		float [] out = new float[3];
+		double worst = 0;
+		for(int i=0;i<10000;++i) {
+			double x = r.nextGaussian();
+			double y = r.nextGaussian();
+			double z = r.nextGaussian();
+			double len = Math.sqrt(x*x+y*y+z*z);
+			x/=len;
+			y/=len;
+			z/=len;
+			format.encodeNormal((float)x,(float)y,(float)z,packed);
+			format.decodeNormal(packed,out);
+			double dot = Math.min(1, x*out[0]+y*out[1]+z*out[2]);
+			worst = Math.max(worst, Math.toDegrees(Math.acos(dot)));
+		}
+		assert(worst<2.0) : "worst normal error "+worst+" degrees";
+	}
+
+	@Test
+	public void testColorRoundTrip() {
+		for(int i=0;i<=1000;++i) {
+			float c = i/1000.0f;
+			float decoded = QuantizedVertexFormat.decodeColor(QuantizedVertexFormat.encodeColor(c));
+			assert(Math.abs(decoded-c)<=0.5f/255.0f+1e-6f);
+		}
+		assert(QuantizedVertexFormat.decodeColor(QuantizedVertexFormat.encodeColor(2)) == 1);
+		assert(QuantizedVertexFormat.decodeColor(QuantizedVertexFormat.encodeColor(-1)) == 0);
+	}
+
+	@Test
+	public void testMeshIsAtLeastHalfTheSize() {
+		Mesh m = new Mesh();
+		m.addVertex(0,0,0);		m.addNormal(0,0,1);
+		m.addVertex(10,0,0);	m.addNormal(0,0,1);
+		m.addVertex(0,10,0);	m.addNormal(0,0,1);
+		m.updateCuboid();
+
+		long floats = m.getSizeInBytes();
+		m.setQuantized(true);
+		assert(m.isQuantized());
+		long shorts = m.getSizeInBytes();
+		assert(shorts*2<=floats) : shorts+" vs "+floats;
+
+		QuantizedVertexFormat format = new QuantizedVertexFormat(m);
+		ByteBuffer data = format.encode(m);
+		assert(data.capacity()==3*format.stride);
+		assert(format.stride==12);
+		// the second vertex is the far corner in x.
+		assert(Math.abs(format.decodePosition(data.getShort(format.stride), 0)-10)<1e-3);
+		// the normal is stored +z.
+		assert(data.get(format.normalOffset+2)==127);
+	}
+
+	@Test
+	public void testLoadedMeshesCanBeQuantized() throws Exception {
+		File f = File.createTempFile("QuantizedVertexFormatTest", ".obj");
+		f.deleteOnExit();
+		Files.write(f.toPath(), "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes(StandardCharsets.US_ASCII));
+		boolean old = Mesh.getQuantizeLoadedMeshes();
+		Mesh.setQuantizeLoadedMeshes(true);
+		try {
+			Mesh m = MeshLoader.load(f.getAbsolutePath()).get();
+			assert(m.isQuantized());
+		} finally {
+			Mesh.setQuantizeLoadedMeshes(old);
+		}
+	}
+}
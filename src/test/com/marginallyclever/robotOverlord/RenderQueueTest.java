@@ -0,0 +1,166 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.convenience.GLStateCache;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.RenderQueue;
+import com.marginallyclever.robotOverlord.shape.Shape;
+import com.marginallyclever.robotOverlord.uiExposedTypes.MaterialEntity;
+
+public class RenderQueueTest {
+	private static Mesh cube() {
+		Mesh m = new Mesh();
+		for(int i=0;i<8;++i) {
+			m.addVertex((i&1)-0.5f,((i>>1)&1)-0.5f,((i>>2)&1)-0.5f);
+			m.addNormal((i&1)-0.5f,((i>>1)&1)-0.5f,((i>>2)&1)-0.5f);
+		}
+		int [] faces = {
+			0,2,1, 1,2,3,  4,5,6, 5,7,6,
+			0,1,4, 1,5,4,  2,6,3, 3,6,7,
+			0,4,2, 2,4,6,  1,3,5, 3,7,5,
+		};
+		for(int i : faces) m.addIndex(i);
+		m.updateCuboid();
+		return m;
+	}
+
+	/**
+	 * Red and blue shapes, one after the other, on too few copies of each mesh to be instanced.
+	 */
+	private static Scene makeScene() {
+		Scene scene = new Scene();
+		Mesh [] meshes = { cube(), cube(), cube() };
+		for(int i=0;i<6;++i) {
+			Shape s = new Shape();
+			s.setModel(meshes[i%3]);
+			s.setPosition(new Vector3d(i,0,0));
+			if((i%2)==0) s.getMaterial().setDiffuseColor(1,0,0,1);
+			else s.getMaterial().setDiffuseColor(0,0,1,1);
+			scene.addChild(s);
+		}
+		return scene;
+	}
+
+	@Test
+	public void testKeyOrder() {
+		int o = RenderQueue.PASS_OPAQUE;
+		int t = RenderQueue.PASS_TRANSPARENT;
+		// solid before see-through, whatever else.
+		assert(RenderQueue.makeKey(o,9,9,1,9) < RenderQueue.makeKey(t,0,0,0,0));
+		// solid by material, then mesh, then nearest first.
+		assert(RenderQueue.makeKey(o,0,9,1,9) < RenderQueue.makeKey(o,1,0,0,0));
+		assert(RenderQueue.makeKey(o,0,0,1,9) < RenderQueue.makeKey(o,0,1,0,0));
+		assert(RenderQueue.makeKey(o,0,0,0.1,9) < RenderQueue.makeKey(o,0,0,0.9,0));
+		// see-through farthest first.
+		assert(RenderQueue.makeKey(t,9,9,0.9,9) < RenderQueue.makeKey(t,0,0,0.1,0));
+		// equal keys keep the order they were added.
+		assert(RenderQueue.makeKey(o,2,3,0.5,0) < RenderQueue.makeKey(o,2,3,0.5,1));
+	}
+
+	@Test
+	public void testStateCache() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		GLStateCache state = new GLStateCache();
+		float [] red = {1,0,0,1};
+
+		state.setEnabled(gl2, GL2.GL_LIGHTING, true);
+		state.setColor(gl2, red);
+		assert(state.getNumChanges()==2);
+		CountingGL2.reset();
+		// the same again costs nothing.
+		state.setEnabled(gl2, GL2.GL_LIGHTING, true);
+		state.setColor(gl2, red.clone());
+		assert(CountingGL2.getCalls()==0);
+		assert(state.getNumSkipped()==2);
+		assert(state.isEnabled(GL2.GL_LIGHTING));
+
+		// once forgotten, it goes through.
+		state.invalidate();
+		state.setEnabled(gl2, GL2.GL_LIGHTING, true);
+		assert(CountingGL2.getCalls()==1);
+		assert(state.getNumChanges()==3);
+	}
+
+	@Test
+	public void testFewerStateChanges() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		Scene scene = makeScene();
+		RenderQueue queue = scene.getRenderQueue();
+
+		queue.setEnabled(false);
+		scene.render(gl2);
+		CountingGL2.reset();
+		scene.render(gl2);
+		long callsBefore = CountingGL2.getCalls();
+		long drawsBefore = CountingGL2.getDraws();
+		assert(queue.getNumDrawnLastFrame()==0);
+
+		queue.setEnabled(true);
+		CountingGL2.reset();
+		scene.render(gl2);
+		assert(queue.getNumDrawnLastFrame()==6) : queue.getSummary();
+		assert(!RenderQueue.isActive());
+		// every shape is still drawn, with fewer calls.
+		assert(CountingGL2.getDraws()==drawsBefore) : CountingGL2.getDraws()+" vs "+drawsBefore;
+		assert(CountingGL2.getCalls()<callsBefore) : CountingGL2.getCalls()+" vs "+callsBefore;
+		assert(queue.getStateChangesSkippedLastFrame()>0) : queue.getSummary();
+	}
+
+	@Test
+	public void testDrawnByHand() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		Scene scene = makeScene();
+		Shape s = (Shape)scene.getChildren().get(0);
+		RenderQueue queue = scene.getRenderQueue();
+
+		queue.begin(null);
+		try {
+			// not drawn by its parent, so the queue can't know where it goes.
+			CountingGL2.reset();
+			s.render(gl2);
+			assert(queue.getNumItems()==0);
+			assert(CountingGL2.getDraws()>0);
+		} finally {
+			queue.end();
+		}
+	}
+
+	/**
+	 * Anything may change the state between shapes drawn by hand, so each one sets its whole material again.
+	 */
+	@Test
+	public void testDrawnByHandSetsEverything() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		Scene scene = makeScene();
+		Shape s = (Shape)scene.getChildren().get(0);
+		MaterialEntity blue = ((Shape)scene.getChildren().get(1)).getMaterial();
+		RenderQueue queue = scene.getRenderQueue();
+
+		queue.begin(null);
+		try {
+			// the first time also uploads the mesh.
+			s.render(gl2);
+			CountingGL2.reset();
+			s.render(gl2);
+			long calls = CountingGL2.getCalls();
+
+			// a raw color, as some robots use.
+			gl2.glColor4f(0,1,0,1);
+			CountingGL2.reset();
+			s.render(gl2);
+			assert(CountingGL2.getCalls()==calls) : CountingGL2.getCalls()+" vs "+calls;
+
+			// another material set without the queue.
+			blue.render(gl2);
+			CountingGL2.reset();
+			s.render(gl2);
+			assert(CountingGL2.getCalls()==calls) : CountingGL2.getCalls()+" vs "+calls;
+		} finally {
+			queue.end();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import com.jogamp.opengl.GLProfile;
+import com.marginallyclever.convenience.PrimitiveSolids;
+import com.marginallyclever.convenience.RetainedGeometry;
+
+public class RetainedGeometryTest {
+	private static final int GIZMOS = 100;
+
+	@Test
+	public void testRecord() {
+		RetainedGeometry g = new RetainedGeometry();
+		g.begin(GL2.GL_LINES);
+		g.vertex(0,0,0);
+		g.vertex(1,0,0);
+		g.end();
+		g.begin(GL2.GL_TRIANGLES);
+		g.normal(0,0,1);
+		g.vertex(0,0,0);
+		g.vertex(1,0,0);
+		g.vertex(0,1,0);
+		g.end();
+		// nothing in between begin and end is not a part.
+		g.begin(GL2.GL_QUADS);
+		g.end();
+		assert(g.getNumParts()==2);
+		assert(g.getNumVertexes()==5);
+	}
+
+	@Test
+	public void testShared() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		CountingGL2.setFunctionsAvailable(true);
+		PrimitiveSolids.drawCircleXY(gl2,1,50);
+		int size = RetainedGeometry.getCacheSize();
+		// another radius is the same circle, scaled.
+		PrimitiveSolids.drawCircleXY(gl2,5,50);
+		assert(RetainedGeometry.getCacheSize()==size);
+		// another quality is not.
+		PrimitiveSolids.drawCircleXY(gl2,5,20);
+		assert(RetainedGeometry.getCacheSize()==size+1);
+
+		// the first draw uploads, the second only draws.
+		CountingGL2.reset();
+		PrimitiveSolids.drawGrid(gl2,123,7);
+		long first = CountingGL2.getCalls();
+		CountingGL2.reset();
+		PrimitiveSolids.drawGrid(gl2,123,7);
+		long second = CountingGL2.getCalls();
+		assert(second<first);
+		assert(CountingGL2.getDraws()==1);
+
+		// without vertex buffers it still draws, from memory.
+		CountingGL2.setFunctionsAvailable(false);
+		CountingGL2.reset();
+		PrimitiveSolids.drawBox(gl2,new Point3d(1,1,1),new Point3d(0,0,0));
+		PrimitiveSolids.drawSphere(gl2,3);
+		assert(CountingGL2.getDraws()==2);
+		RetainedGeometry.disposeAll(gl2);
+		CountingGL2.setFunctionsAvailable(true);
+	}
+
+	/**
+	 * The gizmos a busy scene draws every frame: a grid, two circles, a box, and a star each.
+	 */
+	private static void drawRetained(GL2 gl2) {
+		for(int i=0;i<GIZMOS;++i) {
+			PrimitiveSolids.drawGrid(gl2,20,1);
+			PrimitiveSolids.drawCircleXY(gl2,1.05,50);
+			PrimitiveSolids.drawCircleXY(gl2,1.0,50);
+			PrimitiveSolids.drawBox(gl2,new Point3d(0,0,0),new Point3d(1,1,1));
+			PrimitiveSolids.drawStar(gl2,new Vector3d(),1);
+		}
+	}
+
+	/**
+	 * The same gizmos the way they were drawn before, one call per vertex.
+	 */
+	private static void drawImmediate(GL2 gl2) {
+		for(int i=0;i<GIZMOS;++i) {
+			gl2.glBegin(GL2.GL_LINES);
+			for(int j=-10;j<=10;++j) {
+				gl2.glVertex2f(j,-10);	gl2.glVertex2f(j,0);	gl2.glVertex2f(j,0);	gl2.glVertex2f(j,10);
+			}
+			for(int j=-10;j<=10;++j) {
+				gl2.glVertex2f(-10,j);	gl2.glVertex2f(0,j);	gl2.glVertex2f(0,j);	gl2.glVertex2f(10,j);
+			}
+			gl2.glEnd();
+			for(double r : new double[] { 1.05, 1.0 }) {
+				double stepSize = Math.PI*2 / 51.0;
+				gl2.glBegin(GL2.GL_LINE_LOOP);
+				for(double n=0;n<Math.PI*2;n+=stepSize) gl2.glVertex3d(Math.cos(n)*r,Math.sin(n)*r,0);
+				gl2.glEnd();
+			}
+			gl2.glBegin(GL2.GL_QUADS);
+			for(int f=0;f<6;++f) {
+				gl2.glNormal3f(0,0,1);
+				gl2.glVertex3d(0,0,f);	gl2.glVertex3d(1,0,f);	gl2.glVertex3d(1,1,f);	gl2.glVertex3d(0,1,f);
+			}
+			gl2.glEnd();
+			double [] params = new double[4];
+			gl2.glGetDoublev(GL2.GL_CURRENT_COLOR, params, 0);
+			gl2.glBegin(GL2.GL_LINES);
+			gl2.glColor3d(1,0,0);	gl2.glVertex3d(0,0,0);	gl2.glVertex3d(0.5,0,0);
+			gl2.glColor3d(0,1,0);	gl2.glVertex3d(0,0,0);	gl2.glVertex3d(0,0.5,0);
+			gl2.glColor3d(0,0,1);	gl2.glVertex3d(0,0,0);	gl2.glVertex3d(0,0,0.5);
+			gl2.glEnd();
+			gl2.glColor4dv(params,0);
+		}
+	}
+
+	/**
+	 * Count GL calls for the same gizmos drawn both ways, then time them on an offscreen context if this machine
+	 * has one.
+	 */
+	@Test
+	public void benchmark() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		CountingGL2.setFunctionsAvailable(true);
+		drawRetained(gl2);
+		CountingGL2.reset();
+		drawImmediate(gl2);
+		long immediate = CountingGL2.getCalls();
+		CountingGL2.reset();
+		drawRetained(gl2);
+		long retained = CountingGL2.getCalls();
+		assert(retained<immediate);
+		Benchmark.report("RetainedGeometryTest.benchmark "+GIZMOS+" gizmos: immediate "+immediate
+				+" GL calls, retained "+retained+" GL calls.");
+		// timing on a real context is only worth the start up when someone is reading it.
+		if(!Benchmark.isEnabled()) return;
+
+		GLOffscreenAutoDrawable drawable;
+		try {
+			GLProfile profile = GLProfile.get(GLProfile.GL2);
+			GLCapabilities caps = new GLCapabilities(profile);
+			caps.setOnscreen(false);
+			drawable = GLDrawableFactory.getFactory(profile).createOffscreenAutoDrawable(null,caps,null,512,512);
+		} catch(Throwable e) {
+			Benchmark.report("RetainedGeometryTest.benchmark: no offscreen GL context here ("+e.getMessage()+").");
+			return;
+		}
+		drawable.addGLEventListener(new GLEventListener() {
+			@Override
+			public void init(GLAutoDrawable d) {}
+			@Override
+			public void dispose(GLAutoDrawable d) {
+				RetainedGeometry.disposeAll(d.getGL().getGL2());
+			}
+			@Override
+			public void reshape(GLAutoDrawable d,int x,int y,int width,int height) {}
+			@Override
+			public void display(GLAutoDrawable d) {
+				GL2 gl = d.getGL().getGL2();
+				long bestImmediate=Long.MAX_VALUE, bestRetained=Long.MAX_VALUE;
+				for(int i=0;i<20;++i) {
+					long start = System.nanoTime();
+					drawImmediate(gl);
+					gl.glFinish();
+					long middle = System.nanoTime();
+					drawRetained(gl);
+					gl.glFinish();
+					long end = System.nanoTime();
+					bestImmediate = Math.min(bestImmediate,middle-start);
+					bestRetained = Math.min(bestRetained,end-middle);
+				}
+				Benchmark.report("RetainedGeometryTest.benchmark offscreen "+GIZMOS+" gizmos: immediate "
+						+(bestImmediate/1000)+"us, retained "+(bestRetained/1000)+"us.");
+			}
+		});
+		drawable.display();
+		drawable.destroy();
+	}
+}
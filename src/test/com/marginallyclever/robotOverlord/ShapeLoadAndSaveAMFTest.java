@@ -0,0 +1,196 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveAMF;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveOBJ;
+
+public class ShapeLoadAndSaveAMFTest {
+	/**
+	 * Write the triangles of source as AMF.  Each object is a copy moved dx further along x, and the triangles of
+	 * each object are split between two volumes.
+	 */
+	private static byte [] toAMF(Mesh source,int numObjects,float dx) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<amf unit=\"millimeter\">\n");
+		for(int o=0;o<numObjects;++o) {
+			sb.append("<object id=\""+o+"\"><mesh><vertices>\n");
+			for(int i=0;i<source.getNumVertices();++i) {
+				sb.append("<vertex><coordinates><x>"+(source.getVertexX(i)+o*dx)+"</x><y>"+source.getVertexY(i)+"</y><z>"+source.getVertexZ(i)+"</z></coordinates></vertex>\n");
+			}
+			sb.append("</vertices>\n");
+			int numTriangles = source.getNumTriangles();
+			for(int volume=0;volume<2;++volume) {
+				sb.append("<volume>\n");
+				int first = volume==0 ? 0 : numTriangles/2;
+				int last = volume==0 ? numTriangles/2 : numTriangles;
+				for(int t=first;t<last;++t) {
+					sb.append("<triangle><v1>"+source.getTriangleVertex(t,0)+"</v1><v2>"+source.getTriangleVertex(t,1)+"</v2><v3>"+source.getTriangleVertex(t,2)+"</v3></triangle>\n");
+				}
+				sb.append("</volume>\n");
+			}
+			sb.append("</mesh></object>\n");
+		}
+		sb.append("</amf>\n");
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte [] zip(byte [] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("model.amf"));
+			zip.write(data);
+			zip.closeEntry();
+		}
+		return out.toByteArray();
+	}
+
+	private static Mesh loadOBJ(String name) throws Exception {
+		Mesh m = new Mesh();
+		new ShapeLoadAndSaveOBJ().load(name,m);
+		return m;
+	}
+
+	private static Mesh loadAMF(byte [] data) throws Exception {
+		Mesh m = new Mesh();
+		assert(new ShapeLoadAndSaveAMF().load(new BufferedInputStream(new ByteArrayInputStream(data)),m));
+		return m;
+	}
+
+	@Test
+	public void testObjectsVolumesAndZip() throws Exception {
+		Mesh source = loadOBJ("/Sixi2/hand.obj");
+		float dx = 1000;
+		Mesh m = loadAMF(toAMF(source,2,dx));
+		assert(m.getNumTriangles()==source.getNumTriangles()*2);
+
+		// the second object uses its own vertexes, so every triangle of it is moved by dx.
+		int half = source.getNumTriangles();
+		for(int t=0;t<source.getNumTriangles();++t) {
+			for(int c=0;c<3;++c) {
+				int a = source.getTriangleVertex(t,c);
+				int b = m.getTriangleVertex(t,c);
+				int b2 = m.getTriangleVertex(t+half,c);
+				assert(Math.abs(m.getVertexX(b)-source.getVertexX(a))<1e-3);
+				assert(Math.abs(m.getVertexX(b2)-(source.getVertexX(a)+dx))<1e-2);
+				assert(Math.abs(m.getVertexZ(b2)-source.getVertexZ(a))<1e-3);
+			}
+		}
+
+		Mesh zipped = loadAMF(zip(toAMF(source,2,dx)));
+		assert(zipped.getNumTriangles()==m.getNumTriangles());
+		assert(zipped.getNumVertices()==m.getNumVertices());
+	}
+
+	@Test
+	public void testBadTriangle() throws Exception {
+		String amf = "<amf><object><mesh><vertices><vertex><coordinates><x>0</x><y>0</y><z>0</z></coordinates></vertex></vertices>"
+				+"<volume><triangle><v1>0</v1><v2>1</v2><v3>2</v3></triangle></volume></mesh></object></amf>";
+		try {
+			loadAMF(amf.getBytes(StandardCharsets.UTF_8));
+			assert(false);
+		} catch(IOException e) {}
+	}
+
+	@Test
+	public void testIncompleteTriangle() throws Exception {
+		String vertex = "<vertex><coordinates><x>0</x><y>0</y><z>0</z></coordinates></vertex>";
+		// the second triangle has no v3 and must not borrow it from the first.
+		String amf = "<amf><object><mesh><vertices>"+vertex+vertex+vertex+"</vertices><volume>"
+				+"<triangle><v1>0</v1><v2>1</v2><v3>2</v3></triangle>"
+				+"<triangle><v1>2</v1><v2>1</v2></triangle>"
+				+"</volume></mesh></object></amf>";
+		try {
+			loadAMF(amf.getBytes(StandardCharsets.UTF_8));
+			assert(false);
+		} catch(IOException e) {
+			assert(e.getMessage().contains("v3"));
+		}
+	}
+
+	/**
+	 * How the loader used to work: parse a DOM, then search each element for its coordinates.
+	 */
+	private static int loadWithDOM(byte [] data) throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(data));
+		ArrayList<Float> vertexArray = new ArrayList<Float>();
+		NodeList coordinateList = doc.getElementsByTagName("coordinates");
+		for(int a=0;a<coordinateList.getLength();a++) {
+			Element coordinate = (Element)coordinateList.item(a);
+			vertexArray.add(Float.parseFloat(coordinate.getElementsByTagName("x").item(0).getTextContent()));
+			vertexArray.add(Float.parseFloat(coordinate.getElementsByTagName("y").item(0).getTextContent()));
+			vertexArray.add(Float.parseFloat(coordinate.getElementsByTagName("z").item(0).getTextContent()));
+		}
+		Mesh model = new Mesh();
+		NodeList triangleList = doc.getElementsByTagName("triangle");
+		for(int b=0;b<triangleList.getLength();b++) {
+			Element triangle = (Element)triangleList.item(b);
+			int v1 = Integer.parseInt(triangle.getElementsByTagName("v1").item(0).getTextContent());
+			int v2 = Integer.parseInt(triangle.getElementsByTagName("v2").item(0).getTextContent());
+			int v3 = Integer.parseInt(triangle.getElementsByTagName("v3").item(0).getTextContent());
+			model.addVertex(vertexArray.get(v1*3),vertexArray.get(v1*3+1),vertexArray.get(v1*3+2));
+			model.addVertex(vertexArray.get(v2*3),vertexArray.get(v2*3+1),vertexArray.get(v2*3+2));
+			model.addVertex(vertexArray.get(v3*3),vertexArray.get(v3*3+1),vertexArray.get(v3*3+2));
+		}
+		return model.getNumTriangles();
+	}
+
+	private static void resetPeakHeap() {
+		System.gc();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType()==MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	private static long getPeakHeap() {
+		long sum=0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType()==MemoryType.HEAP) sum += pool.getPeakUsage().getUsed();
+		}
+		return sum;
+	}
+
+	/**
+	 * Compare parse time and peak heap with the old DOM loader on one object.
+	 * The DOM version slows down with the square of the file size, so keep it small.
+	 */
+	@Test
+	public void benchmarkAgainstDOM() throws Exception {
+		byte [] data = toAMF(loadOBJ("/Sixi2/hand.obj"),1,0);
+
+		resetPeakHeap();
+		long start = System.nanoTime();
+		int domTriangles = loadWithDOM(data);
+		long domTime = System.nanoTime()-start;
+		long domPeak = getPeakHeap();
+
+		resetPeakHeap();
+		start = System.nanoTime();
+		Mesh m = loadAMF(data);
+		long staxTime = System.nanoTime()-start;
+		long staxPeak = getPeakHeap();
+
+		assert(m.getNumTriangles()==domTriangles);
+		Benchmark.report("ShapeLoadAndSaveAMFTest.benchmarkAgainstDOM "+(data.length>>20)+"MB "+domTriangles+" triangles"
+				+" dom="+(domTime/1000000)+"ms peak="+(domPeak>>20)+"MB"
+				+" stax="+(staxTime/1000000)+"ms peak="+(staxPeak>>20)+"MB");
+	}
+}
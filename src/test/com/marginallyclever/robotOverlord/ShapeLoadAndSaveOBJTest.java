@@ -0,0 +1,171 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.marginallyclever.convenience.FileAccess;
+import com.marginallyclever.robotOverlord.shape.FloatArray;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.ShapeWelder;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSaveOBJ;
+
+public class ShapeLoadAndSaveOBJTest {
+	static final String [] SIXI2 = {
+		"/Sixi2/anchor.obj",
+		"/Sixi2/bicep.obj",
+		"/Sixi2/box.obj",
+		"/Sixi2/hand-old.obj",
+		"/Sixi2/hand.obj",
+		"/Sixi2/picassoBox.obj",
+		"/Sixi2/shoulder.obj",
+		"/Sixi2/tuningFork.obj",
+	};
+	static final int REPEATS = 5;
+
+	/**
+	 * Compare the byte tokenizer with the old split() parser on the Sixi2 models.
+	 * Both must produce the same triangles.  Files are read into memory first so only parsing is timed.
+	 */
+	@Test
+	public void benchmarkSixi2() throws Exception {
+		long oldTotal=0, newTotal=0;
+		for(String name : SIXI2) {
+			byte [] data = IOUtils.toByteArray(FileAccess.open(name));
+			long oldBest=Long.MAX_VALUE, newBest=Long.MAX_VALUE;
+			Mesh a=null,b=null;
+			for(int i=0;i<REPEATS;++i) {
+				long t0 = System.nanoTime();
+				a = new Mesh();
+				loadWithSplit(new BufferedInputStream(new ByteArrayInputStream(data)),a);
+				long t1 = System.nanoTime();
+				b = new Mesh();
+				new ShapeLoadAndSaveOBJ().load(new BufferedInputStream(new ByteArrayInputStream(data)),b);
+				long t2 = System.nanoTime();
+				oldBest = Math.min(oldBest, t1-t0);
+				newBest = Math.min(newBest, t2-t1);
+			}
+			assertSameArrays(a.getVertexArray().toArray(), expand(b,b.getVertexArray(),3));
+			assertSameArrays(a.getNormalArray().toArray(), expand(b,b.getNormalArray(),3));
+			assertSameArrays(a.getTexCoordArray().toArray(), expand(b,b.getTexCoordArray(),2));
+			assert(a.getNumVertices()/3 == b.getNumTriangles());
+			Benchmark.report(name+"\tsplit="+(oldBest/1000000.0)+"ms\ttokenizer="+(newBest/1000000.0)+"ms"
+					+"\tvertexes "+a.getNumVertices()+" -> "+b.getNumVertices());
+			oldTotal+=oldBest;
+			newTotal+=newBest;
+		}
+		Benchmark.report("total\tsplit="+(oldTotal/1000000.0)+"ms\ttokenizer="+(newTotal/1000000.0)+"ms");
+	}
+
+	/**
+	 * Texture coordinates for only some of the vertexes can't follow the welded indexes, so they are dropped.
+	 */
+	@Test
+	public void testWeldDropsMismatchedAttributes() {
+		Mesh m = new Mesh();
+		for(int i=0;i<6;++i) m.addVertex(i%3,0,0);
+		m.addTexCoord(0,0);
+		m.addColor(1,0,0,1);
+		m.hasColors=true;
+		ShapeWelder.weld(m);
+		assert(m.getNumVertices()==3);
+		assert(!m.hasUVs && m.getTexCoordArray().size()==0);
+		assert(!m.hasColors && m.getColorArray().size()==0);
+	}
+
+	@Test
+	public void testPolygonsAndRelativeIndexes() throws Exception {
+		String obj = "# quad, then a triangle using negative indexes\n"
+				+ "o first\n"
+				+ "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+				+ "vn 0 0 2\n"
+				+ "g side\nusemtl red\n"
+				+ "f 1//1 2//1 3//1 4//1\n"
+				+ "v 0 0 1.5e0\n"
+				+ "f -1//-1 -4//-1 -3//-1\r\n";
+		Mesh m = new Mesh();
+		new ShapeLoadAndSaveOBJ().load(new BufferedInputStream(new ByteArrayInputStream(obj.getBytes(StandardCharsets.US_ASCII))),m);
+		// quad becomes two triangles, plus one more.  five unique corners.
+		assert(m.getNumTriangles()==3);
+		assert(m.getNumVertices()==5);
+		assert(m.getVertexZ(m.getTriangleVertex(2,0))==1.5f);
+		assert(m.getNormalZ(m.getTriangleVertex(2,2))==1.0f);
+	}
+	
+	/**
+	 * @return the values of an indexed mesh as triangle soup.
+	 */
+	private float [] expand(Mesh m,FloatArray values,int size) {
+		int n = m.getNumTriangles()*3;
+		float [] result = new float[n*size];
+		for(int i=0;i<n;++i) {
+			int v = m.getTriangleVertex(i/3, i%3);
+			for(int j=0;j<size;++j) {
+				result[i*size+j] = values.get(v*size+j);
+			}
+		}
+		return result;
+	}
+
+	private void assertSameArrays(float [] a,float [] b) {
+		assert(a.length==b.length);
+		for(int i=0;i<a.length;++i) {
+			assert(Math.abs(a[i]-b[i])<=Math.ulp(a[i]));
+		}
+	}
+
+	/**
+	 * The original OBJ parser, kept for comparison.
+	 */
+	private void loadWithSplit(BufferedInputStream inputStream,Mesh model) throws Exception {
+		ArrayList<Float> vertexArray = new ArrayList<Float>();
+		ArrayList<Float> normalArray = new ArrayList<Float>();
+		ArrayList<Float> texCoordArray = new ArrayList<Float>();
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(inputStream,"UTF-8"));
+		String line;
+		while( ( line = br.readLine() ) != null ) {
+			line = line.trim();
+			if(line.startsWith("v ")) {
+				String[] tokens = line.split("\\s+");
+				vertexArray.add(Float.parseFloat(tokens[1]));
+				vertexArray.add(Float.parseFloat(tokens[2]));
+				vertexArray.add(Float.parseFloat(tokens[3]));
+			} else if(line.startsWith("vn ")) {
+				String[] tokens = line.split("\\s+");
+				float x=Float.parseFloat(tokens[1]);
+				float y=Float.parseFloat(tokens[2]);
+				float z=Float.parseFloat(tokens[3]);
+				float len = (float)Math.sqrt(x*x+y*y+z*z);
+				normalArray.add(x/len);
+				normalArray.add(y/len);
+				normalArray.add(z/len);
+			} else if(line.startsWith("vt ")) {
+				String[] tokens = line.split("\\s+");
+				texCoordArray.add(Float.parseFloat(tokens[1]));
+				texCoordArray.add(Float.parseFloat(tokens[2]));
+			} else if(line.startsWith("f ")) {
+				String[] tokens = line.split("\\s+");
+				for(int i=1;i<tokens.length;++i) {
+					String [] subTokens = tokens[i].split("/");
+					int index = Integer.parseInt(subTokens[0])-1;
+					model.addVertex(vertexArray.get(index*3+0),vertexArray.get(index*3+1),vertexArray.get(index*3+2));
+					if(subTokens.length>1 && subTokens[1].length()>0) {
+						int indexT = Integer.parseInt(subTokens[1])-1;
+						model.addTexCoord(texCoordArray.get(indexT*2+0),texCoordArray.get(indexT*2+1));
+					}
+					if(subTokens.length>2 && subTokens[2].length()>0) {
+						int indexN = Integer.parseInt(subTokens[2])-1;
+						model.addNormal(normalArray.get(indexN*3+0),normalArray.get(indexN*3+1),normalArray.get(indexN*3+2));
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.shapeLoadAndSavers.ShapeLoadAndSavePLY;
+
+public class ShapeLoadAndSavePLYTest {
+	private static final int NUM_POINTS = 1000;
+	private int oldPointsPerChunk;
+
+	@Before
+	public void before() {
+		oldPointsPerChunk = ShapeLoadAndSavePLY.getPointsPerChunk();
+		ShapeLoadAndSavePLY.setPointsPerChunk(300);
+	}
+
+	@After
+	public void after() {
+		ShapeLoadAndSavePLY.setPointsPerChunk(oldPointsPerChunk);
+	}
+
+	private static float x(int i) { return i*0.5f; }
+	private static float y(int i) { return -i; }
+	private static float z(int i) { return i%7; }
+	private static int red(int i) { return i%256; }
+
+	/**
+	 * A cloud with a face element before the vertexes, so the reader has to skip lists first.
+	 */
+	private static String header(String format,int numPoints) {
+		return "ply\n"
+				+"format "+format+" 1.0\n"
+				+"comment made by hand\n"
+				+"element face 2\n"
+				+"property list uchar int vertex_indices\n"
+				+"element vertex "+numPoints+"\n"
+				+"property float x\n"
+				+"property float y\n"
+				+"property float z\n"
+				+"property float nx\n"
+				+"property float ny\n"
+				+"property float nz\n"
+				+"property uchar red\n"
+				+"property uchar green\n"
+				+"property uchar blue\n"
+				+"property int confidence\n"
+				+"end_header\n";
+	}
+
+	private static byte [] makeAscii() {
+		StringBuilder sb = new StringBuilder(header("ascii",NUM_POINTS));
+		sb.append("3 0 1 2\n");
+		sb.append("4 0 1 2 3\n");
+		for(int i=0;i<NUM_POINTS;++i) {
+			sb.append(x(i)+" "+y(i)+" "+z(i)+" 0 0 1 "+red(i)+" 0 255 "+i+"\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte [] makeBinary(ByteOrder order,int numPoints) {
+		byte [] head = header(order==ByteOrder.LITTLE_ENDIAN ? "binary_little_endian" : "binary_big_endian",numPoints).getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer b = ByteBuffer.allocate(head.length + 13+17 + numPoints*(6*4+3+4)).order(order);
+		b.put(head);
+		b.put((byte)3).putInt(0).putInt(1).putInt(2);
+		b.put((byte)4).putInt(0).putInt(1).putInt(2).putInt(3);
+		for(int i=0;i<numPoints;++i) {
+			b.putFloat(x(i)).putFloat(y(i)).putFloat(z(i));
+			b.putFloat(0).putFloat(0).putFloat(1);
+			b.put((byte)red(i)).put((byte)0).put((byte)255);
+			b.putInt(i);
+		}
+		return b.array();
+	}
+
+	private static Mesh load(byte [] data) throws Exception {
+		Mesh m = new Mesh();
+		new ShapeLoadAndSavePLY().load(new BufferedInputStream(new ByteArrayInputStream(data)),m);
+		return m;
+	}
+
+	private static void check(Mesh m) {
+		assert(m.renderStyle==GL2.GL_POINTS);
+		assert(m.getNumChunks()==4) : m.getNumChunks();
+		int i=0;
+		for(int c=0;c<m.getNumChunks();++c) {
+			Mesh chunk = m.getChunk(c);
+			assert(chunk.renderStyle==GL2.GL_POINTS);
+			assert(chunk.hasNormals && chunk.hasColors);
+			for(int j=0;j<chunk.getNumVertices();++j,++i) {
+				assert(chunk.getVertexX(j)==x(i) && chunk.getVertexY(j)==y(i) && chunk.getVertexZ(j)==z(i)) : "point "+i;
+				assert(chunk.getNormalZ(j)==1);
+				assert(Math.abs(chunk.getColorArray().get(j*4)-red(i)/255.0f)<1e-6);
+				assert(chunk.getColorArray().get(j*4+2)==1);
+				assert(chunk.getColorArray().get(j*4+3)==1);
+			}
+		}
+		assert(i==NUM_POINTS);
+
+		m.updateCuboid();
+		assert(m.getCuboid().getBoundsTop().x==x(NUM_POINTS-1));
+		assert(m.getCuboid().getBoundsBottom().y==y(NUM_POINTS-1));
+		assert(m.getSizeInBytes()==NUM_POINTS*(3+3+4)*4);
+	}
+
+	@Test
+	public void testAscii() throws Exception {
+		check(load(makeAscii()));
+	}
+
+	@Test
+	public void testBinaryLittleEndian() throws Exception {
+		check(load(makeBinary(ByteOrder.LITTLE_ENDIAN,NUM_POINTS)));
+	}
+
+	@Test
+	public void testBinaryBigEndian() throws Exception {
+		check(load(makeBinary(ByteOrder.BIG_ENDIAN,NUM_POINTS)));
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		byte [] data = makeBinary(ByteOrder.LITTLE_ENDIAN,NUM_POINTS);
+		ByteArrayOutputStream half = new ByteArrayOutputStream();
+		half.write(data,0,data.length/2);
+		try {
+			load(half.toByteArray());
+			assert(false);
+		} catch(IOException e) {}
+
+		try {
+			load("not a ply\n".getBytes(StandardCharsets.US_ASCII));
+			assert(false);
+		} catch(IOException e) {}
+	}
+
+	/**
+	 * Chunks let go of their points once uploaded, and read their part of the file again when they are needed.
+	 */
+	@Test
+	public void testReleaseAfterUpload() throws Exception {
+		File f = File.createTempFile("ShapeLoadAndSavePLYTest", ".ply");
+		f.deleteOnExit();
+		Files.write(f.toPath(), makeBinary(ByteOrder.LITTLE_ENDIAN,NUM_POINTS));
+		ShapeLoadAndSavePLY loader = new ShapeLoadAndSavePLY();
+		Mesh m = new Mesh();
+		loader.load(f.getAbsolutePath(),m);
+		long size = m.getSizeInBytes();
+		Mesh [] chunks = new Mesh[m.getNumChunks()];
+		for(int c=0;c<chunks.length;++c) chunks[c] = m.getChunk(c);
+
+		GL2 gl2 = CountingGL2.create();
+		Mesh.startFrame(gl2);
+		CountingGL2.reset();
+		m.render(gl2);
+		assert(CountingGL2.getDraws()==4);
+		for(Mesh c : chunks) {
+			assert(c.isReleased());
+			assert(c.getNumVertices()>0);
+		}
+		// sizes are remembered while the points are gone.
+		assert(m.getSizeInBytes()==size);
+
+		// buffers lost, as when the context goes away.  each chunk is read again in the background, one at a time.
+		m.unload(gl2);
+		long end = System.currentTimeMillis()+10000;
+		do {
+			Mesh.startFrame(gl2);
+			CountingGL2.reset();
+			m.render(gl2);
+			Thread.sleep(10);
+		} while(CountingGL2.getDraws()<4 && System.currentTimeMillis()<end);
+		assert(CountingGL2.getDraws()==4);
+		for(Mesh c : chunks) assert(c.isReleased());
+
+		// the points come back when asked for, without being kept.
+		check(m);
+		for(Mesh c : chunks) assert(c.isReleased());
+
+		// the bounds never need the file.
+		assert(f.delete());
+		m.updateCuboid();
+		assert(m.getCuboid().getBoundsTop().x==x(NUM_POINTS-1));
+		assert(m.getCuboid().getBoundsBottom().y==y(NUM_POINTS-1));
+	}
+
+	/**
+	 * A chunk reads only its own part of the file again.
+	 */
+	@Test
+	public void testRestoreReadsOneChunk() throws Exception {
+		File f = File.createTempFile("ShapeLoadAndSavePLYTest", ".ply");
+		f.deleteOnExit();
+		byte [] data = makeAscii();
+		Files.write(f.toPath(), data);
+		Mesh m = new Mesh();
+		new ShapeLoadAndSavePLY().load(f.getAbsolutePath(),m);
+
+		GL2 gl2 = CountingGL2.create();
+		Mesh.startFrame(gl2);
+		m.render(gl2);
+		assert(m.getChunk(0).getVertexX(0)==x(0));
+
+		// damage the last line, which is in the last chunk.
+		String text = new String(data,StandardCharsets.US_ASCII);
+		int last = text.lastIndexOf('\n',text.length()-2)+1;
+		Files.write(f.toPath(), (text.substring(0,last)+"x"+text.substring(last+1)).getBytes(StandardCharsets.US_ASCII));
+		Mesh first = m.getChunk(0);
+		assert(first.getNumVertices()==300);
+		assert(first.getVertexX(299)==x(299));
+		assert(m.getChunk(m.getNumChunks()-1).isReleased());
+	}
+
+	/**
+	 * Time a cloud the size of one scan.
+	 */
+	@Test
+	public void benchmarkBinary() throws Exception {
+		ShapeLoadAndSavePLY.setPointsPerChunk(oldPointsPerChunk);
+		int numPoints = 2000000;
+		byte [] data = makeBinary(ByteOrder.LITTLE_ENDIAN,numPoints);
+		long start = System.nanoTime();
+		Mesh m = load(data);
+		long time = System.nanoTime()-start;
+		int total=0;
+		for(int c=0;c<m.getNumChunks();++c) total += m.getChunk(c).getNumVertices();
+		assert(total==numPoints);
+		Benchmark.report("ShapeLoadAndSavePLYTest.benchmarkBinary "+numPoints+" points in "+m.getNumChunks()+" chunks "+(time/1000000)+"ms");
+	}
+}
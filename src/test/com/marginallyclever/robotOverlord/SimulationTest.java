@@ -0,0 +1,123 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+public class SimulationTest {
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * Moves one unit along x per second.
+	 */
+	private static class Mover extends PoseEntity {
+		private static final long serialVersionUID = 1L;
+		public int numUpdates;
+
+		@Override
+		public void update(double dt) {
+			super.update(dt);
+			numUpdates++;
+			Vector3d p = getPosition();
+			p.x += dt;
+			setPosition(p);
+		}
+	}
+
+	@Test
+	public void testFixedSteps() {
+		Entity world = new Entity();
+		Mover m = new Mover();
+		world.addChild(m);
+		Simulation sim = new Simulation(world);
+		sim.setStepLength(0.1);
+
+		// not enough for a step.
+		assert(sim.advance(0.05)==0);
+		assert(Math.abs(sim.getAlpha()-0.5)<EPSILON);
+		// the rest of that step and most of another.
+		assert(sim.advance(0.14)==1);
+		assert(m.numUpdates==1);
+		// the same time in different slices is the same steps.
+		for(int i=0;i<10;++i) sim.advance(0.1);
+		assert(m.numUpdates==11);
+		assert(sim.getNumSteps()==11);
+		assert(Math.abs(m.getPosition().x-1.1)<EPSILON);
+		assert(sim.getDroppedTime()==0);
+	}
+
+	@Test
+	public void testCatchUpLimit() {
+		Entity world = new Entity();
+		Mover m = new Mover();
+		world.addChild(m);
+		Simulation sim = new Simulation(world);
+		sim.setStepLength(0.1);
+		sim.setMaxSteps(5);
+
+		// ten seconds behind.  take five steps, let the rest go.
+		assert(sim.advance(10.05)==5);
+		assert(m.numUpdates==5);
+		assert(Math.abs(sim.getDroppedTime()-9.5)<1e-6);
+		assert(Math.abs(sim.getAlpha()-0.5)<1e-6);
+	}
+
+	@Test
+	public void testInterpolation() {
+		Entity world = new Entity();
+		Mover m = new Mover();
+		PoseEntity still = new PoseEntity();
+		world.addChild(m);
+		world.addChild(still);
+		Simulation sim = new Simulation(world);
+		sim.setStepLength(0.1);
+		sim.advance(0.1);
+		sim.advance(0.1);
+		assert(Math.abs(m.getPosition().x-0.2)<EPSILON);
+
+		// a quarter of the way to the next step, drawn a quarter of the way between the last two.
+		sim.advance(0.025);
+		sim.beginRender();
+		assert(sim.getLock().isHeldByCurrentThread());
+		assert(Math.abs(m.getPosition().x-0.125)<1e-6);
+		assert(still.getPosition().x==0);
+		sim.endRender();
+		assert(!sim.getLock().isHeldByCurrentThread());
+		// the real pose is back.
+		assert(Math.abs(m.getPosition().x-0.2)<EPSILON);
+
+		// moved by something else since the last step is drawn where it is.
+		m.setPosition(new Vector3d(5,0,0));
+		sim.beginRender();
+		assert(m.getPosition().x==5);
+		sim.endRender();
+	}
+
+	/**
+	 * A slow frame should not slow the simulation.  Hold the world for a while, as a slow frame does, and the
+	 * steps missed are taken after.
+	 */
+	@Test
+	public void testThread() throws Exception {
+		Entity world = new Entity();
+		Mover m = new Mover();
+		world.addChild(m);
+		Simulation sim = new Simulation(world);
+		sim.setStepLength(0.01);
+		sim.setMaxSteps(100);
+		sim.start();
+		assert(sim.isRunning());
+
+		sim.beginRender();
+		Thread.sleep(100);
+		sim.endRender();
+		Thread.sleep(100);
+		sim.stop();
+		assert(!sim.isRunning());
+
+		// about 20 steps in 0.2s.  Loose, this machine may be busy.
+		long steps = sim.getNumSteps();
+		assert(steps>=10);
+		assert(steps<=40);
+	}
+}
@@ -0,0 +1,134 @@
+package com.marginallyclever.robotOverlord;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.shape.Mesh;
+import com.marginallyclever.robotOverlord.shape.Shape;
+import com.marginallyclever.robotOverlord.shape.StaticBatcher;
+
+public class StaticBatcherTest {
+	/**
+	 * One triangle with normals, indexed.
+	 */
+	private static Mesh triangle() {
+		Mesh m = new Mesh();
+		m.addVertex(0,0,0);  m.addNormal(0,0,1);
+		m.addVertex(1,0,0);  m.addNormal(0,0,1);
+		m.addVertex(0,1,0);  m.addNormal(0,0,1);
+		m.addIndex(0);
+		m.addIndex(1);
+		m.addIndex(2);
+		m.updateCuboid();
+		return m;
+	}
+
+	/**
+	 * A row of static shapes, every other one red.
+	 */
+	private static Scene makeScene(Mesh mesh,int count) {
+		Scene scene = new Scene();
+		for(int i=0;i<count;++i) {
+			Shape s = new Shape();
+			s.setModel(mesh);
+			s.setStatic(true);
+			s.setPosition(new Vector3d(i*2,0,0));
+			if((i%2)==1) s.getMaterial().setDiffuseColor(1,0,0,1);
+			scene.addChild(s);
+		}
+		return scene;
+	}
+
+	private static Shape getShape(Scene scene,int index) {
+		return (Shape)scene.getChildren().get(index);
+	}
+
+	@Test
+	public void testGroupsByMaterial() {
+		Mesh mesh = triangle();
+		Scene scene = makeScene(mesh,200);
+		StaticBatcher batcher = scene.getStaticBatcher();
+		batcher.update(null,scene);
+
+		// 200 draw calls become 2.
+		assert(batcher.getNumBatches()==2) : batcher.getNumBatches();
+		assert(batcher.getNumShapes()==200);
+		assert(batcher.getNumBuilt()==2);
+
+		Mesh white = batcher.getBatchMesh(0);
+		assert(white.getNumVertices()==300);
+		assert(white.getNumTriangles()==100);
+		// the third shape in the white batch is shape 4, at x=8.
+		assert(white.getVertexX(6)==8 && white.getVertexX(7)==9 && white.getVertexY(8)==1);
+		assert(white.getIndexArray().get(6)==6);
+		assert(white.getNormalZ(7)==1);
+
+		// nothing changed, nothing built.
+		batcher.update(null,scene);
+		assert(batcher.getNumBuilt()==2);
+	}
+
+	@Test
+	public void testRebuildOnlyWhatChanged() {
+		Mesh mesh = triangle();
+		Scene scene = makeScene(mesh,20);
+		StaticBatcher batcher = scene.getStaticBatcher();
+		batcher.update(null,scene);
+		assert(batcher.getNumBuilt()==2);
+		Mesh white = batcher.getBatchMesh(0);
+
+		// moving a red shape rebuilds the red batch only.
+		getShape(scene,1).setPosition(new Vector3d(100,0,0));
+		batcher.update(null,scene);
+		assert(batcher.getNumBuilt()==3);
+		assert(batcher.getBatchMesh(0)==white);
+		assert(batcher.getBatchMesh(1).getVertexX(0)==100);
+
+		// painting the first white shape red moves it to the red batch, which is now found first.
+		getShape(scene,0).getMaterial().setDiffuseColor(1,0,0,1);
+		batcher.update(null,scene);
+		assert(batcher.getNumBuilt()==5);
+		assert(batcher.getNumShapes()==20);
+		assert(batcher.getBatchMesh(0).getNumTriangles()==11);
+		assert(batcher.getBatchMesh(1).getNumTriangles()==9);
+
+		// a shape that is no longer static is drawn on its own.
+		getShape(scene,2).setStatic(false);
+		batcher.update(null,scene);
+		assert(batcher.getNumShapes()==19);
+
+		// a shape that leaves the scene is dropped.
+		scene.removeChild(getShape(scene,3));
+		batcher.update(null,scene);
+		assert(batcher.getNumShapes()==18);
+	}
+
+	@Test
+	public void testChildrenMoveWithParent() {
+		Mesh mesh = triangle();
+		Scene scene = new Scene();
+		Shape parent = new Shape();
+		parent.setModel(mesh);
+		parent.setStatic(true);
+		parent.setPosition(new Vector3d(0,0,10));
+		scene.addChild(parent);
+		Shape child = new Shape();
+		child.setModel(mesh);
+		child.setStatic(true);
+		child.setPosition(new Vector3d(5,0,0));
+		parent.addChild(child);
+
+		StaticBatcher batcher = scene.getStaticBatcher();
+		batcher.update(null,scene);
+		assert(batcher.getNumBatches()==1);
+		assert(batcher.getBatchMesh(0).getVertexX(3)==5);
+		assert(batcher.getBatchMesh(0).getVertexZ(3)==10);
+
+		// moving the parent moves the child in world space.
+		parent.setPosition(new Vector3d(0,0,20));
+		batcher.update(null,scene);
+		assert(batcher.getNumBuilt()==2);
+		assert(batcher.getBatchMesh(0).getVertexZ(3)==20);
+	}
+}
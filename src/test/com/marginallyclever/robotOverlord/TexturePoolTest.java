@@ -0,0 +1,171 @@
+package com.marginallyclever.robotOverlord;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.uiExposedTypes.TextureEntity;
+
+public class TexturePoolTest {
+	/**
+	 * @return a new png file of one color.
+	 */
+	private static String makeImage(int size,int argb) throws Exception {
+		BufferedImage image = new BufferedImage(size,size,BufferedImage.TYPE_INT_ARGB);
+		for(int y=0;y<size;++y) {
+			for(int x=0;x<size;++x) image.setRGB(x, y, argb);
+		}
+		File f = File.createTempFile("TexturePoolTest", ".png");
+		f.deleteOnExit();
+		ImageIO.write(image, "png", f);
+		return f.getAbsolutePath();
+	}
+
+	private static void waitForLoading() throws Exception {
+		long end = System.currentTimeMillis()+10000;
+		while(TexturePool.getNumLoading()>0 && System.currentTimeMillis()<end) Thread.sleep(10);
+		assert(TexturePool.getNumLoading()==0);
+	}
+
+	@Test
+	public void testShared() throws Exception {
+		String red = makeImage(16,0xffff0000);
+		String redAgain = makeImage(16,0xffff0000);
+		String blue = makeImage(16,0xff0000ff);
+		int textures = TexturePool.getNumTextures();
+		int files = TexturePool.getNumHandles();
+
+		TextureHandle a = TexturePool.acquire(red);
+		TextureHandle b = TexturePool.acquire(red);
+		TextureHandle c = TexturePool.acquire(redAgain);
+		TextureHandle d = TexturePool.acquire(blue);
+		// the same file is the same handle.
+		assert(a==b);
+		assert(TexturePool.getReferenceCount(a)==2);
+		waitForLoading();
+		assert(a.isDone() && !a.isFailed());
+		assert(a.getWidth()==16);
+
+		// the same contents are one texture.
+		assert(TexturePool.getNumHandles()==files+3);
+		assert(TexturePool.getNumTextures()==textures+2);
+		assert(a.getTexture()==c.getTexture());
+		assert(a.getTexture()!=d.getTexture());
+
+		// the texture stays while anyone uses it.
+		TexturePool.release(a);
+		TexturePool.release(b);
+		assert(TexturePool.getNumTextures()==textures+2);
+		TexturePool.release(c);
+		TexturePool.release(d);
+		assert(TexturePool.getNumTextures()==textures);
+		assert(TexturePool.getNumHandles()==files);
+	}
+
+	@Test
+	public void testFailed() throws Exception {
+		TextureHandle h = TexturePool.acquire("/does/not/exist.png");
+		waitForLoading();
+		assert(h.isFailed());
+		GL2 gl2 = CountingGL2.create();
+		assert(!h.bind(gl2));
+		TexturePool.release(h);
+	}
+
+	/**
+	 * Uploads wait for the GL thread and share a budget each frame.
+	 */
+	@Test
+	public void testUploadBudget() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		CountingGL2.setFunctionsAvailable(true);
+		// let go of anything left by other tests.
+		TexturePool.startFrame(gl2);
+
+		TextureHandle [] h = new TextureHandle[4];
+		for(int i=0;i<h.length;++i) h[i] = TexturePool.acquire(makeImage(32,0xff000000+i));
+		waitForLoading();
+		for(TextureHandle t : h) {
+			assert(t.isDone());
+			assert(!t.isReady());
+		}
+
+		// room for two 32x32 textures a frame.
+		long budget = TexturePool.getUploadBudget();
+		TexturePool.setUploadBudget(2*32*32*4);
+		try {
+			TexturePool.startFrame(gl2);
+			assert(TexturePool.getUploadedLastFrame()==2*32*32*4);
+			assert(TexturePool.getNumWaitingToUpload()==2);
+			TexturePool.startFrame(gl2);
+			assert(TexturePool.getNumWaitingToUpload()==0);
+			for(TextureHandle t : h) {
+				assert(t.isReady());
+				assert(!t.getTexture().hasPixels());
+				assert(t.bind(gl2));
+			}
+		} finally {
+			TexturePool.setUploadBudget(budget);
+			for(TextureHandle t : h) TexturePool.release(t);
+			TexturePool.startFrame(gl2);
+		}
+	}
+
+	/**
+	 * A new context gets every texture still in use, though the pixels were dropped after the first upload.
+	 */
+	@Test
+	public void testReloadAfterDispose() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		CountingGL2.setFunctionsAvailable(true);
+		TextureHandle h = TexturePool.acquire(makeImage(16,0xff00ff00));
+		try {
+			waitForLoading();
+			TexturePool.startFrame(gl2);
+			assert(h.isReady());
+			assert(!h.getTexture().hasPixels());
+
+			TexturePool.disposeAll(gl2);
+			assert(!h.isReady());
+			// the next frame is in the new context.
+			TexturePool.startFrame(gl2);
+			waitForLoading();
+			TexturePool.startFrame(gl2);
+			assert(h.isReady());
+			assert(!h.getTexture().hasPixels());
+		} finally {
+			TexturePool.release(h);
+			TexturePool.startFrame(gl2);
+		}
+	}
+
+	/**
+	 * A texture removed from the scene lets go of its image without waiting for the garbage collector.
+	 */
+	@Test
+	public void testReleasedWhenDetached() throws Exception {
+		GL2 gl2 = CountingGL2.create();
+		int files = TexturePool.getNumHandles();
+
+		Entity parent = new Entity("Parent");
+		TextureEntity texture = new TextureEntity(makeImage(16,0xff00ffff));
+		parent.addChild(texture);
+		texture.render(gl2);
+		assert(TexturePool.getNumHandles()==files+1);
+
+		parent.removeChild(texture);
+		assert(TexturePool.getNumHandles()==files);
+
+		// put back, as with undo.
+		parent.addChild(texture);
+		texture.render(gl2);
+		assert(TexturePool.getNumHandles()==files+1);
+		parent.removeChild(texture);
+		waitForLoading();
+		TexturePool.startFrame(gl2);
+	}
+}
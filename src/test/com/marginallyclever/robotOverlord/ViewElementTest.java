@@ -0,0 +1,80 @@
+package com.marginallyclever.robotOverlord;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import org.junit.Test;
+
+import com.marginallyclever.convenience.StringHelper;
+import com.marginallyclever.robotOverlord.swingInterface.view.ViewElementDouble;
+import com.marginallyclever.robotOverlord.uiExposedTypes.DoubleEntity;
+
+public class ViewElementTest {
+	private static class DoubleProbe extends ViewElementDouble {
+		public DoubleProbe(DoubleEntity e) {
+			super(null,e);
+		}
+
+		public JTextField getField() {
+			return (JTextField)panel.getComponent(1);
+		}
+	}
+
+	private static DoubleProbe makeProbe(DoubleEntity e) throws Exception {
+		DoubleProbe [] probe = new DoubleProbe[1];
+		SwingUtilities.invokeAndWait(()->probe[0] = new DoubleProbe(e));
+		return probe[0];
+	}
+
+	/**
+	 * An entity changed by the simulation updates the view on the Swing thread.
+	 */
+	@Test
+	public void testChangedOffTheSwingThread() throws Exception {
+		DoubleEntity e = new DoubleEntity("x",1.0);
+		JTextField field = makeProbe(e).getField();
+		AtomicBoolean offThread = new AtomicBoolean();
+		field.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent arg0) {
+				if(!SwingUtilities.isEventDispatchThread()) offThread.set(true);
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent arg0) {
+				if(!SwingUtilities.isEventDispatchThread()) offThread.set(true);
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent arg0) {}
+		});
+
+		e.set(2.5);
+		String [] text = new String[1];
+		SwingUtilities.invokeAndWait(()->text[0] = field.getText());
+		assert(!offThread.get());
+		assert(text[0].equals(StringHelper.formatDouble(2.5))) : text[0];
+	}
+
+	/**
+	 * An edit typed by the user reaches the entity, and the entity telling the view about it does not undo the
+	 * typing.
+	 */
+	@Test
+	public void testEditOnTheSwingThread() throws Exception {
+		DoubleEntity e = new DoubleEntity("x",1.0);
+		JTextField field = makeProbe(e).getField();
+		String [] text = new String[1];
+		SwingUtilities.invokeAndWait(()->{
+			field.setText("3.0000");
+			field.postActionEvent();
+			text[0] = field.getText();
+		});
+		assert(e.get()==3);
+		assert(text[0].equals("3.0000")) : text[0];
+	}
+}